@@ -0,0 +1,95 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.tensorflow.demo.env.PixelTensorCodec;
+
+/**
+ * Benchmarks packing ARGB pixels into the tensors the network takes and unpacking its output, in
+ * float and quantized tensors of each layout.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+  // StylizeActivity.SIZES.
+  @Param({"128", "192", "256", "384", "512", "720", "1080"})
+  public int size;
+
+  @Param({"NHWC", "NCHW"})
+  public PixelTensorCodec.Layout layout;
+
+  private int[] argb;
+  private PixelTensorCodec floatCodec;
+  private PixelTensorCodec quantizedCodec;
+
+  @Setup
+  public void setUp() {
+    argb = new int[size * size];
+    final Random random = new Random(0);
+    for (int i = 0; i < argb.length; ++i) {
+      argb[i] = 0xFF000000 | random.nextInt(0x1000000);
+    }
+    floatCodec = new PixelTensorCodec(size, size, layout);
+    quantizedCodec = PixelTensorCodec.newQuantized(size, size, layout, 1.0f / 255.0f, 0);
+    floatCodec.encode(argb);
+    quantizedCodec.encode(argb);
+  }
+
+  @Benchmark
+  public PixelTensorCodec packFloat(final Pixels counter) {
+    floatCodec.encode(argb);
+    counter.pixels += argb.length;
+    return floatCodec;
+  }
+
+  @Benchmark
+  public int[] unpackFloat(final Pixels counter) {
+    floatCodec.decode(argb);
+    counter.pixels += argb.length;
+    return argb;
+  }
+
+  @Benchmark
+  public PixelTensorCodec packUint8(final Pixels counter) {
+    quantizedCodec.encode(argb);
+    counter.pixels += argb.length;
+    return quantizedCodec;
+  }
+
+  @Benchmark
+  public int[] unpackUint8(final Pixels counter) {
+    quantizedCodec.decode(argb);
+    counter.pixels += argb.length;
+    return argb;
+  }
+}
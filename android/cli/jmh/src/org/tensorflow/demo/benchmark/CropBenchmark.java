@@ -0,0 +1,100 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.tensorflow.demo.env.ImageUtils;
+import org.tensorflow.demo.env.PixelTensorCodec;
+
+/**
+ * Benchmarks cropping and rotating a camera frame into the input tensor at each of the app's
+ * stylize sizes, with the transformation the app computes for it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CropBenchmark {
+  // The sensor orientation of most phones' back cameras.
+  private static final int ROTATION = 90;
+
+  @Param({"1280x720", "1920x1080"})
+  public String frame;
+
+  // StylizeActivity.SIZES.
+  @Param({"128", "192", "256", "384", "512", "720", "1080"})
+  public int size;
+
+  private SyntheticFrame input;
+  private float[] cropToFrame;
+  private PixelTensorCodec floatCodec;
+  private PixelTensorCodec quantizedCodec;
+
+  @Setup
+  public void setUp() {
+    input = SyntheticFrame.parse(frame);
+    cropToFrame = inverseTransformation();
+    floatCodec = new PixelTensorCodec(size, size, PixelTensorCodec.Layout.NHWC);
+    quantizedCodec =
+        PixelTensorCodec.newQuantized(size, size, PixelTensorCodec.Layout.NHWC, 1.0f / 255.0f, 0);
+  }
+
+  @Benchmark
+  public PixelTensorCodec yuv420ToTensorFloat(final Pixels counter) {
+    ImageUtils.convertYUV420ToTensor(
+        input.yPlane, input.uPlane, input.vPlane, input.width, input.height, input.rowStride,
+        input.rowStride, SyntheticFrame.UV_PIXEL_STRIDE, cropToFrame, floatCodec);
+    counter.pixels += size * size;
+    return floatCodec;
+  }
+
+  @Benchmark
+  public PixelTensorCodec yuv420ToTensorUint8(final Pixels counter) {
+    ImageUtils.convertYUV420ToTensor(
+        input.yPlane, input.uPlane, input.vPlane, input.width, input.height, input.rowStride,
+        input.rowStride, SyntheticFrame.UV_PIXEL_STRIDE, cropToFrame, quantizedCodec);
+    counter.pixels += size * size;
+    return quantizedCodec;
+  }
+
+  @Benchmark
+  public PixelTensorCodec yuv420ArraysToTensorFloat(final Pixels counter) {
+    ImageUtils.convertYUV420ToTensor(
+        input.yData, input.uData, input.vData, input.width, input.height, input.rowStride,
+        input.rowStride, SyntheticFrame.UV_PIXEL_STRIDE, cropToFrame, floatCodec);
+    counter.pixels += size * size;
+    return floatCodec;
+  }
+
+  @Benchmark
+  public float[] inverseTransformation() {
+    return ImageUtils.getInverseTransformation(
+        input.width, input.height, size, size, ROTATION, true);
+  }
+}
@@ -0,0 +1,92 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.tensorflow.demo.env.ImageUtils;
+
+/**
+ * Benchmarks the whole frame conversions of {@link ImageUtils}, which the app used before the
+ * fused crop to tensor conversion and still uses for its debug overlay and video output. Without
+ * the native library, which is the case on a JVM, the Java implementations are measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameConversionBenchmark {
+  @Param({"1280x720", "1920x1080"})
+  public String frame;
+
+  private SyntheticFrame input;
+  private int[] argb;
+  private ByteBuffer yuv;
+
+  @Setup
+  public void setUp() {
+    input = SyntheticFrame.parse(frame);
+    argb = new int[input.getPixelCount()];
+    yuv = ByteBuffer.allocateDirect(ImageUtils.getYUVByteSize(input.width, input.height));
+    yuv420ToArgbArrays(new Pixels());
+  }
+
+  @Benchmark
+  public int[] yuv420ToArgbArrays(final Pixels counter) {
+    ImageUtils.convertYUV420ToARGB8888(
+        input.yData, input.uData, input.vData, input.width, input.height, input.rowStride,
+        input.rowStride, SyntheticFrame.UV_PIXEL_STRIDE, argb);
+    counter.pixels += argb.length;
+    return argb;
+  }
+
+  @Benchmark
+  public int[] yuv420ToArgbBuffers(final Pixels counter) {
+    ImageUtils.convertYUV420ToARGB8888(
+        input.yPlane, input.uPlane, input.vPlane, input.width, input.height, input.rowStride,
+        input.rowStride, SyntheticFrame.UV_PIXEL_STRIDE, argb);
+    counter.pixels += argb.length;
+    return argb;
+  }
+
+  @Benchmark
+  public int[] yuv420SpToArgb(final Pixels counter) {
+    ImageUtils.convertYUV420SPToARGB8888(
+        input.semiPlanar, argb, input.width, input.height, false);
+    counter.pixels += argb.length;
+    return argb;
+  }
+
+  @Benchmark
+  public ByteBuffer argbToYuv420Sp(final Pixels counter) {
+    ImageUtils.convertARGB8888ToYUV420SP(argb, yuv, input.width, input.height);
+    counter.pixels += argb.length;
+    return yuv;
+  }
+}
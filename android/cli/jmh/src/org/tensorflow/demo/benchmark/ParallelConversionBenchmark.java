@@ -0,0 +1,95 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.tensorflow.demo.env.ImageUtils;
+import org.tensorflow.demo.env.ParallelYUVConverter;
+import org.tensorflow.demo.env.PixelTensorCodec;
+
+/**
+ * Benchmarks {@link ParallelYUVConverter} against the single threaded conversions it splits into
+ * strips, converting the camera frame into the input tensor as the app does and into a whole ARGB
+ * frame. With a parallelism of 1 the converter runs the single threaded conversion on the calling
+ * thread, which is the baseline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParallelConversionBenchmark {
+  // The sensor orientation of most phones' back cameras.
+  private static final int ROTATION = 90;
+
+  // The largest entry of StylizeActivity.SIZES.
+  private static final int SIZE = 720;
+
+  @Param({"1280x720", "1920x1080"})
+  public String frame;
+
+  // Strips per image. 0 is one per core, as in the app.
+  @Param({"1", "2", "4", "0"})
+  public int parallelism;
+
+  private SyntheticFrame input;
+  private float[] cropToFrame;
+  private PixelTensorCodec codec;
+  private int[] argb;
+  private ParallelYUVConverter converter;
+
+  @Setup
+  public void setUp() {
+    input = SyntheticFrame.parse(frame);
+    cropToFrame =
+        ImageUtils.getInverseTransformation(input.width, input.height, SIZE, SIZE, ROTATION, true);
+    codec =
+        PixelTensorCodec.newQuantized(SIZE, SIZE, PixelTensorCodec.Layout.NHWC, 1.0f / 255.0f, 0);
+    argb = new int[input.getPixelCount()];
+    converter =
+        parallelism > 0 ? new ParallelYUVConverter(parallelism) : new ParallelYUVConverter();
+  }
+
+  @Benchmark
+  public PixelTensorCodec yuv420ToTensor(final Pixels counter) {
+    converter.convertYUV420ToTensor(
+        input.yPlane, input.uPlane, input.vPlane, input.width, input.height, input.rowStride,
+        input.rowStride, SyntheticFrame.UV_PIXEL_STRIDE, cropToFrame, codec);
+    counter.pixels += SIZE * SIZE;
+    return codec;
+  }
+
+  @Benchmark
+  public int[] yuv420ToArgb(final Pixels counter) {
+    converter.convertYUV420ToARGB8888(
+        input.yPlane, input.uPlane, input.vPlane, input.width, input.height, input.rowStride,
+        input.rowStride, SyntheticFrame.UV_PIXEL_STRIDE, argb);
+    counter.pixels += argb.length;
+    return argb;
+  }
+}
@@ -0,0 +1,115 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.tensorflow.demo.StyleTransferEngine;
+import org.tensorflow.demo.env.PixelTensorCodec;
+import org.tensorflow.demo.stylize.GraphDef;
+import org.tensorflow.demo.stylize.JavaStyleTransferEngine;
+import org.tensorflow.demo.stylize.StyleNetwork;
+import org.tensorflow.demo.stylize.TiledStyleTransferEngine;
+
+/**
+ * Measures the throughput of the pure Java engines running the app's network at every stylize
+ * size, single threaded and on every core: the one-piece engine, and the tiled engine with the
+ * app's tiling, which only splits sizes above 512. The model is read from the app's assets
+ * relative to the cli module; pass -p model=path/to/stylize_quantized.pb to run from elsewhere.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class StylizeBenchmark {
+  @Param({"../assets/stylize_quantized.pb"})
+  public String model;
+
+  // StylizeActivity.SIZES.
+  @Param({"128", "192", "256", "384", "512", "720", "1080"})
+  public int size;
+
+  @Param({"java", "tiled"})
+  public String engineType;
+
+  // Threads of the pool, which the one-piece engine splits each layer into strips for and the
+  // tiled engine runs tiles on. 0 is one per core, as in the app.
+  @Param({"1", "0"})
+  public int parallelism;
+
+  private ForkJoinPool pool;
+  private StyleTransferEngine engine;
+  private PixelTensorCodec codec;
+  private int[] input;
+
+  @Setup
+  public void setUp() throws IOException {
+    final StyleNetwork network =
+        StyleNetwork.fromGraph(GraphDef.parse(Files.readAllBytes(new File(model).toPath())));
+    pool =
+        new ForkJoinPool(
+            parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors());
+    if ("tiled".equals(engineType)) {
+      // StyleTransferSession's tiling.
+      engine =
+          new TiledStyleTransferEngine(
+              network, pool, 512, 384, Math.min(pool.getParallelism(), 4));
+    } else {
+      engine = new JavaStyleTransferEngine(network, pool, pool.getParallelism());
+    }
+    engine.warmUp(size, size);
+
+    final SyntheticFrame frame = new SyntheticFrame(size, size);
+    input = new int[size * size];
+    for (int i = 0; i < input.length; ++i) {
+      final int y = frame.yData[(i / size) * frame.rowStride + i % size] & 0xFF;
+      input[i] = 0xFF000000 | (y << 16) | (y << 8) | y;
+    }
+    codec = new PixelTensorCodec(size, size, PixelTensorCodec.Layout.NHWC);
+  }
+
+  @TearDown
+  public void tearDown() {
+    engine.close();
+    pool.shutdown();
+  }
+
+  @Benchmark
+  public PixelTensorCodec stylize(final Pixels counter) {
+    // The engine writes its output over the input, so every call starts from the same image.
+    codec.encode(input);
+    engine.stylize(codec);
+    counter.pixels += size * size;
+    return codec;
+  }
+}
@@ -0,0 +1,107 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.benchmark;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * A synthetic YUV 4:2:0 camera frame, laid out like Camera2's YUV_420_888 images: rows are padded
+ * past the width, and the chroma planes share one buffer with a pixel stride of 2, the V plane a
+ * byte ahead of the U plane, as in the semi-planar layout most cameras produce. The pixels are a
+ * noisy gradient, so that no conversion sees a constant image.
+ */
+final class SyntheticFrame {
+  static final int ROW_PADDING = 64;
+  static final int UV_PIXEL_STRIDE = 2;
+
+  final int width;
+  final int height;
+  final int rowStride;
+
+  // The planes in direct buffers, as the camera delivers them, and copied to arrays.
+  final ByteBuffer yPlane;
+  final ByteBuffer uPlane;
+  final ByteBuffer vPlane;
+  final byte[] yData;
+  final byte[] uData;
+  final byte[] vData;
+
+  // The same frame in the unpadded NV21 layout of the older camera API.
+  final ByteBuffer semiPlanar;
+
+  /** Creates a frame of the size given as "WxH". */
+  static SyntheticFrame parse(final String size) {
+    final String[] parts = size.split("x");
+    if (parts.length != 2) {
+      throw new IllegalArgumentException("Invalid frame size " + size);
+    }
+    return new SyntheticFrame(Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+  }
+
+  SyntheticFrame(final int width, final int height) {
+    this.width = width;
+    this.height = height;
+    rowStride = width + ROW_PADDING;
+
+    final Random random = new Random(0);
+    yPlane = ByteBuffer.allocateDirect(rowStride * height);
+    for (int y = 0; y < height; ++y) {
+      for (int x = 0; x < width; ++x) {
+        yPlane.put(y * rowStride + x, (byte) (x + y + random.nextInt(16)));
+      }
+    }
+    final ByteBuffer chroma = ByteBuffer.allocateDirect(rowStride * ((height + 1) / 2));
+    for (int i = 0; i < chroma.capacity(); ++i) {
+      chroma.put(i, (byte) (128 + random.nextInt(64) - 32));
+    }
+    chroma.position(1);
+    vPlane = chroma.slice();
+    chroma.position(0);
+    chroma.limit(chroma.capacity() - 1);
+    uPlane = chroma.slice();
+
+    yData = toArray(yPlane);
+    uData = toArray(uPlane);
+    vData = toArray(vPlane);
+
+    final int uvWidth = (width + 1) / 2;
+    final int uvHeight = (height + 1) / 2;
+    semiPlanar = ByteBuffer.allocateDirect(width * height + 2 * uvWidth * uvHeight);
+    for (int y = 0; y < height; ++y) {
+      for (int x = 0; x < width; ++x) {
+        semiPlanar.put(y * width + x, yData[y * rowStride + x]);
+      }
+    }
+    for (int y = 0; y < uvHeight; ++y) {
+      for (int x = 0; x < uvWidth; ++x) {
+        final int index = width * height + 2 * (y * uvWidth + x);
+        semiPlanar.put(index, vData[y * rowStride + x * UV_PIXEL_STRIDE]);
+        semiPlanar.put(index + 1, uData[y * rowStride + x * UV_PIXEL_STRIDE]);
+      }
+    }
+  }
+
+  int getPixelCount() {
+    return width * height;
+  }
+
+  private static byte[] toArray(final ByteBuffer buffer) {
+    final byte[] array = new byte[buffer.capacity()];
+    buffer.duplicate().get(array);
+    return array;
+  }
+}
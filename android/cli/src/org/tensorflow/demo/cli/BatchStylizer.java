@@ -0,0 +1,431 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.cli;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import javax.imageio.ImageIO;
+import org.tensorflow.demo.env.PixelTensorCodec;
+import org.tensorflow.demo.stylize.GraphDef;
+import org.tensorflow.demo.stylize.JavaStyleTransferEngine;
+import org.tensorflow.demo.stylize.StyleNetwork;
+
+/**
+ * Stylizes every image in a directory tree from the command line, with the same network and
+ * engine as the app but without an Android device:
+ *
+ * <pre>
+ *   BatchStylizer [options] model.pb input_dir output_dir
+ * </pre>
+ *
+ * Images are decoded on a pool of I/O threads, center cropped and scaled to squares of one size,
+ * and stylized in batches. Each crop of a batch runs on its own single threaded engine, all of them
+ * at once, which keeps every core busy without splitting the images into strips. While a batch is
+ * stylized the I/O threads write the previous batch's outputs and decode the next batch. Outputs
+ * keep their path relative to the input directory.
+ *
+ * The engine's sources refer to Android's Bitmap, so the cli module compiles them against
+ * android.jar, but nothing from Android is loaded at run time:
+ *
+ * <pre>
+ *   gradle :cli:jar
+ *   java -cp cli/build/libs/cli.jar org.tensorflow.demo.cli.BatchStylizer ...
+ * </pre>
+ */
+public class BatchStylizer {
+  private static final String USAGE =
+      "Usage: BatchStylizer [options] model.pb input_dir output_dir\n"
+          + "  --style i:w[,i:w...]  Weights of the styles to mix, normalized to sum to 1.\n"
+          + "                        Defaults to style 0.\n"
+          + "  --size n              Size of the square crops. Defaults to 512.\n"
+          + "  --batch n             Crops stylized at once. Defaults to the number of cores.\n"
+          + "  --io-threads n        Threads decoding and writing images. Defaults to 2.\n"
+          + "  --format png|jpg      Format of the outputs. Defaults to png.\n";
+
+  private static final String[] INPUT_SUFFIXES = {".jpg", ".jpeg", ".png", ".bmp", ".gif"};
+
+  /** A decoded and cropped image, which holds its stylized pixels once it has been run. */
+  private static class Crop {
+    final Path source;
+    final int[] pixels;
+
+    Crop(final Path source, final int[] pixels) {
+      this.source = source;
+      this.pixels = pixels;
+    }
+  }
+
+  /** Stylizes one crop of each batch on its own engine. Reinitialized and reused every batch. */
+  private class SlotTask extends RecursiveAction {
+    private final JavaStyleTransferEngine engine;
+    private final PixelTensorCodec codec;
+    private boolean warmedUp;
+    private Crop crop;
+
+    SlotTask(final JavaStyleTransferEngine engine) {
+      this.engine = engine;
+      this.codec = new PixelTensorCodec(size, size, PixelTensorCodec.Layout.NHWC);
+    }
+
+    @Override
+    protected void compute() {
+      if (!warmedUp) {
+        engine.warmUp(size, size);
+        warmedUp = true;
+      }
+      codec.encode(crop.pixels);
+      engine.stylize(codec);
+      codec.decode(crop.pixels);
+    }
+  }
+
+  private final int size;
+  private final String format;
+  private final Path inputDir;
+  private final Path outputDir;
+
+  private final ExecutorService ioPool;
+  private final ForkJoinPool inferencePool;
+  private final SlotTask[] slots;
+
+  private BatchStylizer(
+      final StyleNetwork network,
+      final float[] style,
+      final int size,
+      final int batchSize,
+      final int ioThreads,
+      final String format,
+      final Path inputDir,
+      final Path outputDir) {
+    this.size = size;
+    this.format = format;
+    this.inputDir = inputDir;
+    this.outputDir = outputDir;
+
+    ioPool = Executors.newFixedThreadPool(ioThreads);
+    inferencePool =
+        new ForkJoinPool(Math.min(batchSize, Runtime.getRuntime().availableProcessors()));
+    slots = new SlotTask[batchSize];
+    for (int i = 0; i < batchSize; ++i) {
+      final JavaStyleTransferEngine engine =
+          new JavaStyleTransferEngine(network, inferencePool, 1);
+      engine.setStyle(style);
+      slots[i] = new SlotTask(engine);
+    }
+  }
+
+  public static void main(final String[] args) throws Exception {
+    int size = 512;
+    int batchSize = Runtime.getRuntime().availableProcessors();
+    int ioThreads = 2;
+    String format = "png";
+    final List<String> paths = new ArrayList<String>();
+    String styleSpec = "0:1";
+    try {
+      for (int i = 0; i < args.length; ++i) {
+        final String arg = args[i];
+        if (!arg.startsWith("--")) {
+          paths.add(arg);
+          continue;
+        }
+        if (i + 1 == args.length) {
+          throw new IllegalArgumentException("Missing value for " + arg);
+        }
+        final String value = args[++i];
+        switch (arg) {
+          case "--style":
+            styleSpec = value;
+            break;
+          case "--size":
+            size = Integer.parseInt(value);
+            break;
+          case "--batch":
+            batchSize = Integer.parseInt(value);
+            break;
+          case "--io-threads":
+            ioThreads = Integer.parseInt(value);
+            break;
+          case "--format":
+            format = value;
+            break;
+          default:
+            throw new IllegalArgumentException("Unknown option " + arg);
+        }
+      }
+      if (paths.size() != 3) {
+        throw new IllegalArgumentException("Expected a model and two directories");
+      }
+      if (size < 1 || batchSize < 1 || ioThreads < 1) {
+        throw new IllegalArgumentException("Sizes and counts must be positive");
+      }
+      if (!format.equals("png") && !format.equals("jpg")) {
+        throw new IllegalArgumentException("Unsupported format " + format);
+      }
+    } catch (final IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      System.err.print(USAGE);
+      System.exit(1);
+      return;
+    }
+
+    final StyleNetwork network =
+        StyleNetwork.fromGraph(GraphDef.parse(Files.readAllBytes(Paths.get(paths.get(0)))));
+    if (!network.supportsSize(size)) {
+      System.err.println("The network can't stylize images of size " + size);
+      System.exit(1);
+      return;
+    }
+    final float[] style;
+    try {
+      style = parseStyle(styleSpec, network.getNumStyles());
+    } catch (final IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      System.exit(1);
+      return;
+    }
+
+    final BatchStylizer stylizer =
+        new BatchStylizer(
+            network,
+            style,
+            size,
+            batchSize,
+            ioThreads,
+            format,
+            Paths.get(paths.get(1)),
+            Paths.get(paths.get(2)));
+    try {
+      stylizer.run();
+    } finally {
+      stylizer.close();
+    }
+  }
+
+  /** Parses "index:weight" pairs into a style mix summing to 1. */
+  private static float[] parseStyle(final String spec, final int numStyles) {
+    final float[] style = new float[numStyles];
+    float sum = 0.0f;
+    for (final String entry : spec.split(",")) {
+      final String[] parts = entry.split(":");
+      final int index;
+      final float weight;
+      try {
+        index = Integer.parseInt(parts[0].trim());
+        weight = parts.length > 1 ? Float.parseFloat(parts[1].trim()) : 1.0f;
+      } catch (final NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid style " + entry);
+      }
+      if (parts.length > 2 || index < 0 || index >= numStyles || weight < 0.0f) {
+        throw new IllegalArgumentException("Invalid style " + entry + " of " + numStyles);
+      }
+      style[index] += weight;
+      sum += weight;
+    }
+    if (sum <= 0.0f) {
+      throw new IllegalArgumentException("Style weights sum to 0: " + spec);
+    }
+    for (int i = 0; i < numStyles; ++i) {
+      style[i] /= sum;
+    }
+    return style;
+  }
+
+  private void run() throws IOException, InterruptedException {
+    final List<Path> inputs = findImages(inputDir);
+    System.out.printf(
+        "Stylizing %d images at %dx%d, %d at a time on %d threads%n",
+        inputs.size(), size, size, slots.length, inferencePool.getParallelism());
+
+    final long startTime = System.nanoTime();
+    int numStylized = 0;
+    List<Future<Crop>> nextCrops = decode(inputs, 0);
+    List<Future<?>> pendingWrites = Collections.emptyList();
+    for (int start = 0; start < inputs.size(); start += slots.length) {
+      final List<Future<Crop>> crops = nextCrops;
+      nextCrops = decode(inputs, start + slots.length);
+
+      final List<SlotTask> tasks = new ArrayList<SlotTask>(slots.length);
+      for (final Future<Crop> future : crops) {
+        final Crop crop = await(future);
+        if (crop != null) {
+          final SlotTask slot = slots[tasks.size()];
+          slot.reinitialize();
+          slot.crop = crop;
+          tasks.add(slot);
+        }
+      }
+      inferencePool.invoke(
+          new RecursiveAction() {
+            @Override
+            protected void compute() {
+              invokeAll(tasks);
+            }
+          });
+
+      // Only one batch is written at a time, which bounds the outputs held in memory.
+      for (final Future<?> write : pendingWrites) {
+        await(write);
+      }
+      pendingWrites = new ArrayList<Future<?>>(tasks.size());
+      for (final SlotTask slot : tasks) {
+        pendingWrites.add(write(slot.crop));
+        slot.crop = null;
+      }
+
+      numStylized += tasks.size();
+      final float seconds = (System.nanoTime() - startTime) / 1e9f;
+      System.out.printf(
+          "%d/%d images, %.2f images/s%n", numStylized, inputs.size(), numStylized / seconds);
+    }
+    for (final Future<?> write : pendingWrites) {
+      await(write);
+    }
+
+    final float seconds = (System.nanoTime() - startTime) / 1e9f;
+    System.out.printf(
+        "Stylized %d of %d images in %.1fs, %.2f images/s%n",
+        numStylized, inputs.size(), seconds, numStylized / seconds);
+  }
+
+  private void close() {
+    ioPool.shutdown();
+    inferencePool.shutdown();
+    for (final SlotTask slot : slots) {
+      slot.engine.close();
+    }
+  }
+
+  /** Returns the images under the directory, sorted. */
+  private static List<Path> findImages(final Path dir) throws IOException {
+    final List<Path> images = new ArrayList<Path>();
+    Files.walkFileTree(
+        dir,
+        new SimpleFileVisitor<Path>() {
+          @Override
+          public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+            final String name = file.getFileName().toString().toLowerCase(Locale.US);
+            for (final String suffix : INPUT_SUFFIXES) {
+              if (name.endsWith(suffix)) {
+                images.add(file);
+                break;
+              }
+            }
+            return FileVisitResult.CONTINUE;
+          }
+        });
+    Collections.sort(images);
+    return images;
+  }
+
+  /** Starts decoding the batch of images beginning at start. */
+  private List<Future<Crop>> decode(final List<Path> inputs, final int start) {
+    final List<Future<Crop>> crops = new ArrayList<Future<Crop>>(slots.length);
+    for (int i = start; i < Math.min(inputs.size(), start + slots.length); ++i) {
+      final Path input = inputs.get(i);
+      crops.add(
+          ioPool.submit(
+              new Callable<Crop>() {
+                @Override
+                public Crop call() throws IOException {
+                  try {
+                    return readCrop(input);
+                  } catch (final IOException e) {
+                    throw new IOException("Can't read " + input + ": " + e.getMessage(), e);
+                  }
+                }
+              }));
+    }
+    return crops;
+  }
+
+  /** Reads an image and crops the largest centered square out of it, scaled to the size. */
+  private Crop readCrop(final Path input) throws IOException {
+    final BufferedImage image = ImageIO.read(input.toFile());
+    if (image == null) {
+      throw new IOException("Unsupported image format");
+    }
+    final int cropSize = Math.min(image.getWidth(), image.getHeight());
+    final int left = (image.getWidth() - cropSize) / 2;
+    final int top = (image.getHeight() - cropSize) / 2;
+
+    final BufferedImage crop = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+    final Graphics2D graphics = crop.createGraphics();
+    try {
+      graphics.setRenderingHint(
+          RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      graphics.drawImage(
+          image, 0, 0, size, size, left, top, left + cropSize, top + cropSize, null);
+    } finally {
+      graphics.dispose();
+    }
+    final int[] pixels = new int[size * size];
+    crop.getRGB(0, 0, size, size, pixels, 0, size);
+    return new Crop(input, pixels);
+  }
+
+  /** Starts writing a stylized crop. */
+  private Future<?> write(final Crop crop) {
+    return ioPool.submit(
+        new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            final String name = crop.source.getFileName().toString();
+            final int dot = name.lastIndexOf('.');
+            final Path output =
+                outputDir
+                    .resolve(inputDir.relativize(crop.source))
+                    .resolveSibling(name.substring(0, dot) + "." + format);
+            Files.createDirectories(output.getParent());
+
+            final BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+            image.setRGB(0, 0, size, size, crop.pixels, 0, size);
+            if (!ImageIO.write(image, format, output.toFile())) {
+              throw new IOException("Can't write " + output + " as " + format);
+            }
+            return null;
+          }
+        });
+  }
+
+  /** Waits for an image to be read or written, reporting and skipping it if that failed. */
+  private static <T> T await(final Future<T> future) throws InterruptedException {
+    try {
+      return future.get();
+    } catch (final ExecutionException e) {
+      System.err.println("Skipping image: " + e.getCause().getMessage());
+      return null;
+    }
+  }
+}
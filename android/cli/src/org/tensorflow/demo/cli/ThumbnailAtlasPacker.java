@@ -0,0 +1,174 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.cli;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Packs the style thumbnails into the single atlas read by the app's ThumbnailLoader, so that they
+ * take one asset open and one decode:
+ *
+ * <pre>
+ *   java -cp cli/build/libs/cli.jar org.tensorflow.demo.cli.ThumbnailAtlasPacker \
+ *       assets/thumbnails assets/thumbnails/atlas.jpg
+ * </pre>
+ *
+ * The thumbnails, style0.jpg onwards, are scaled to square cells laid out in style order, seven to
+ * a row like ThumbnailLoader.ATLAS_COLUMNS. Rerun it whenever a thumbnail changes.
+ */
+public class ThumbnailAtlasPacker {
+  private static final String USAGE =
+      "Usage: ThumbnailAtlasPacker [options] thumbnail_dir atlas.jpg\n"
+          + "  --cell n      Size of each thumbnail in the atlas. Defaults to 256.\n"
+          + "  --quality q   JPEG quality from 0 to 1. Defaults to 0.85.\n";
+
+  // Must match ThumbnailLoader.ATLAS_COLUMNS.
+  private static final int COLUMNS = 7;
+
+  public static void main(final String[] args) throws IOException {
+    int cellSize = 256;
+    float quality = 0.85f;
+    final File[] paths = new File[2];
+    int numPaths = 0;
+    try {
+      for (int i = 0; i < args.length; ++i) {
+        final String arg = args[i];
+        if (!arg.startsWith("--")) {
+          if (numPaths == paths.length) {
+            throw new IllegalArgumentException("Unexpected argument " + arg);
+          }
+          paths[numPaths++] = new File(arg);
+          continue;
+        }
+        if (i + 1 == args.length) {
+          throw new IllegalArgumentException("Missing value for " + arg);
+        }
+        final String value = args[++i];
+        switch (arg) {
+          case "--cell":
+            cellSize = Integer.parseInt(value);
+            break;
+          case "--quality":
+            quality = Float.parseFloat(value);
+            break;
+          default:
+            throw new IllegalArgumentException("Unknown option " + arg);
+        }
+      }
+      if (numPaths != paths.length) {
+        throw new IllegalArgumentException("Expected a directory and an output file");
+      }
+      if (cellSize < 1 || quality < 0.0f || quality > 1.0f) {
+        throw new IllegalArgumentException("Invalid cell size or quality");
+      }
+    } catch (final IllegalArgumentException e) {
+      System.err.println(e.getMessage());
+      System.err.print(USAGE);
+      System.exit(1);
+      return;
+    }
+
+    int numThumbnails = 0;
+    while (new File(paths[0], "style" + numThumbnails + ".jpg").isFile()) {
+      ++numThumbnails;
+    }
+    if (numThumbnails == 0) {
+      System.err.println("No thumbnails in " + paths[0]);
+      System.exit(1);
+      return;
+    }
+
+    final int rows = (numThumbnails + COLUMNS - 1) / COLUMNS;
+    final BufferedImage atlas =
+        new BufferedImage(COLUMNS * cellSize, rows * cellSize, BufferedImage.TYPE_INT_RGB);
+    final Graphics2D graphics = atlas.createGraphics();
+    graphics.setRenderingHint(
+        RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+    graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+    try {
+      for (int i = 0; i < numThumbnails; ++i) {
+        final File file = new File(paths[0], "style" + i + ".jpg");
+        final BufferedImage thumbnail = ImageIO.read(file);
+        if (thumbnail == null) {
+          throw new IOException("Can't decode " + file);
+        }
+        graphics.drawImage(
+            scaleDown(thumbnail, cellSize),
+            (i % COLUMNS) * cellSize,
+            (i / COLUMNS) * cellSize,
+            cellSize,
+            cellSize,
+            null);
+      }
+    } finally {
+      graphics.dispose();
+    }
+
+    write(atlas, quality, paths[1]);
+    System.out.printf(
+        "Packed %d thumbnails into a %dx%d atlas, %d bytes%n",
+        numThumbnails, atlas.getWidth(), atlas.getHeight(), paths[1].length());
+  }
+
+  /**
+   * Halves an image until it is less than twice the given size, since a single bicubic step would
+   * skip most of the source pixels.
+   */
+  private static BufferedImage scaleDown(BufferedImage image, final int size) {
+    while (image.getWidth() >= 2 * size) {
+      final BufferedImage half =
+          new BufferedImage(
+              image.getWidth() / 2, image.getHeight() / 2, BufferedImage.TYPE_INT_RGB);
+      final Graphics2D graphics = half.createGraphics();
+      graphics.setRenderingHint(
+          RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      graphics.drawImage(image, 0, 0, half.getWidth(), half.getHeight(), null);
+      graphics.dispose();
+      image = half;
+    }
+    return image;
+  }
+
+  private static void write(final BufferedImage image, final float quality, final File path)
+      throws IOException {
+    final ImageWriter writer = ImageIO.getImageWritersByFormatName("jpg").next();
+    final ImageWriteParam param = writer.getDefaultWriteParam();
+    param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+    param.setCompressionQuality(quality);
+    // An ImageOutputStream on the file itself wouldn't truncate a larger previous atlas.
+    final OutputStream file = new FileOutputStream(path);
+    try {
+      final ImageOutputStream output = ImageIO.createImageOutputStream(file);
+      writer.setOutput(output);
+      writer.write(null, new IIOImage(image, null, null), param);
+      output.close();
+    } finally {
+      file.close();
+      writer.dispose();
+    }
+  }
+}
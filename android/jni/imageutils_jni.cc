@@ -17,8 +17,12 @@ limitations under the License.
 // which exposes them.
 
 #include <jni.h>
+#include <stdint.h>
 #include <stdio.h>
 #include <stdlib.h>
+#include <time.h>
+
+#include <atomic>
 
 #include "tensorflow/examples/android/jni/rgb2yuv.h"
 #include "tensorflow/examples/android/jni/yuv2rgb.h"
@@ -26,6 +30,91 @@ limitations under the License.
 #define IMAGEUTILS_METHOD(METHOD_NAME) \
   Java_org_tensorflow_demo_env_ImageUtils_##METHOD_NAME  // NOLINT
 
+namespace {
+
+// Phases timed on every call, always on. Each JNI call is timed as a whole as
+// well as around its conversion, so the difference between the total of
+// kJniCall and the totals of the conversions is the time spent getting and
+// releasing the Java arrays, which may be copied by the VM.
+enum Phase {
+  kJniCall,
+  kYUV420SPToARGB8888,
+  kYUV420ToARGB8888,
+  kYUV420ToTensor,
+  kYUV420ToQuantizedTensor,
+  kYUV420SPToRGB565,
+  kARGB8888ToYUV420SP,
+  kRGB565ToYUV420SP,
+  kNumPhases
+};
+
+// Names of the phases as exported to Java, in the order above.
+const char* const kPhaseNames[kNumPhases] = {
+    "jni_call",
+    "yuv420sp_to_argb8888",
+    "yuv420_to_argb8888",
+    "yuv420_to_tensor",
+    "yuv420_to_quantized_tensor",
+    "yuv420sp_to_rgb565",
+    "argb8888_to_yuv420sp",
+    "rgb565_to_yuv420sp"};
+
+// Calls may come from any thread, several at once for row ranges, so the
+// statistics are only ever updated with relaxed atomic operations.
+struct PhaseStats {
+  std::atomic<int64_t> count;
+  std::atomic<int64_t> total_ns;
+  std::atomic<int64_t> max_ns;
+};
+
+PhaseStats phase_stats[kNumPhases];
+
+// The same clock as SystemClock.elapsedRealtimeNanos(), so native phases can
+// be lined up with the Java side's timings.
+inline int64_t NowNanos() {
+  struct timespec now;
+  clock_gettime(CLOCK_BOOTTIME, &now);
+  return now.tv_sec * 1000000000LL + now.tv_nsec;
+}
+
+void RecordPhase(const Phase phase, const int64_t duration_ns) {
+  PhaseStats* const stats = phase_stats + phase;
+  stats->count.fetch_add(1, std::memory_order_relaxed);
+  stats->total_ns.fetch_add(duration_ns, std::memory_order_relaxed);
+  int64_t max_ns = stats->max_ns.load(std::memory_order_relaxed);
+  while (duration_ns > max_ns &&
+         !stats->max_ns.compare_exchange_weak(max_ns, duration_ns,
+                                              std::memory_order_relaxed)) {
+  }
+}
+
+// Records the time from its construction to the end of its scope.
+class PhaseTimer {
+ public:
+  explicit PhaseTimer(const Phase phase)
+      : phase_(phase), start_ns_(NowNanos()) {}
+  ~PhaseTimer() { RecordPhase(phase_, NowNanos() - start_ns_); }
+
+ private:
+  const Phase phase_;
+  const int64_t start_ns_;
+};
+
+// Returns the address of a direct buffer. If the buffer isn't direct, throws an
+// IllegalArgumentException and returns NULL, so the caller can return instead
+// of dereferencing it. Must not be called with an exception pending.
+template <typename T>
+T* GetDirectAddress(JNIEnv* env, jobject buffer) {
+  T* const address = static_cast<T*>(env->GetDirectBufferAddress(buffer));
+  if (address == NULL) {
+    env->ThrowNew(env->FindClass("java/lang/IllegalArgumentException"),
+                  "Not a direct buffer");
+  }
+  return address;
+}
+
+}  // namespace
+
 #ifdef __cplusplus
 extern "C" {
 #endif
@@ -40,10 +129,29 @@ JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertYUV420ToARGB8888)(
     jintArray output, jint width, jint height, jint y_row_stride,
     jint uv_row_stride, jint uv_pixel_stride, jboolean halfSize);
 
+JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertYUV420RowsToARGB8888)(
+    JNIEnv* env, jclass clazz, jbyteArray y, jbyteArray u, jbyteArray v,
+    jintArray output, jint width, jint y_row_stride, jint uv_row_stride,
+    jint uv_pixel_stride, jint start_row, jint end_row);
+
 JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertYUV420SPToRGB565)(
     JNIEnv* env, jclass clazz, jbyteArray input, jbyteArray output, jint width,
     jint height);
 
+JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertYUV420ToTensor)(
+    JNIEnv* env, jclass clazz, jbyteArray y, jbyteArray u, jbyteArray v,
+    jint width, jint height, jint y_row_stride, jint uv_row_stride,
+    jint uv_pixel_stride, jfloatArray crop_to_frame, jint dst_width,
+    jint dst_height, jint dst_start_row, jint dst_end_row,
+    jfloatArray value_table, jboolean planar, jobject output);
+
+JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertYUV420ToQuantizedTensor)(
+    JNIEnv* env, jclass clazz, jbyteArray y, jbyteArray u, jbyteArray v,
+    jint width, jint height, jint y_row_stride, jint uv_row_stride,
+    jint uv_pixel_stride, jfloatArray crop_to_frame, jint dst_width,
+    jint dst_height, jint dst_start_row, jint dst_end_row,
+    jbyteArray value_table, jboolean planar, jobject output);
+
 JNIEXPORT void JNICALL
 IMAGEUTILS_METHOD(convertARGB8888ToYUV420SP)(
     JNIEnv* env, jclass clazz, jintArray input, jbyteArray output,
@@ -54,6 +162,47 @@ IMAGEUTILS_METHOD(convertRGB565ToYUV420SP)(
     JNIEnv* env, jclass clazz, jbyteArray input, jbyteArray output,
     jint width, jint height);
 
+JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertYUV420RowsToARGB8888Direct)(
+    JNIEnv* env, jclass clazz, jobject y, jobject u, jobject v,
+    jintArray output, jint width, jint y_row_stride, jint uv_row_stride,
+    jint uv_pixel_stride, jint start_row, jint end_row);
+
+JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertYUV420ToTensorDirect)(
+    JNIEnv* env, jclass clazz, jobject y, jobject u, jobject v, jint width,
+    jint height, jint y_row_stride, jint uv_row_stride, jint uv_pixel_stride,
+    jfloatArray crop_to_frame, jint dst_width, jint dst_height,
+    jint dst_start_row, jint dst_end_row, jfloatArray value_table,
+    jboolean planar, jobject output);
+
+JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertYUV420ToQuantizedTensorDirect)(
+    JNIEnv* env, jclass clazz, jobject y, jobject u, jobject v, jint width,
+    jint height, jint y_row_stride, jint uv_row_stride, jint uv_pixel_stride,
+    jfloatArray crop_to_frame, jint dst_width, jint dst_height,
+    jint dst_start_row, jint dst_end_row, jbyteArray value_table,
+    jboolean planar, jobject output);
+
+JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertYUV420SPToARGB8888Direct)(
+    JNIEnv* env, jclass clazz, jobject input, jintArray output, jint width,
+    jint height, jboolean halfSize);
+
+JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertYUV420SPToRGB565Direct)(
+    JNIEnv* env, jclass clazz, jobject input, jobject output, jint width,
+    jint height);
+
+JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertARGB8888ToYUV420SPDirect)(
+    JNIEnv* env, jclass clazz, jintArray input, jobject output, jint width,
+    jint height);
+
+JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertRGB565ToYUV420SPDirect)(
+    JNIEnv* env, jclass clazz, jobject input, jobject output, jint width,
+    jint height);
+
+JNIEXPORT jobjectArray JNICALL IMAGEUTILS_METHOD(getPhaseNamesNative)(
+    JNIEnv* env, jclass clazz);
+
+JNIEXPORT void JNICALL IMAGEUTILS_METHOD(getPhaseTimingsNative)(
+    JNIEnv* env, jclass clazz, jlongArray output, jboolean reset);
+
 #ifdef __cplusplus
 }
 #endif
@@ -62,20 +211,24 @@ JNIEXPORT void JNICALL
 IMAGEUTILS_METHOD(convertYUV420SPToARGB8888)(
     JNIEnv* env, jclass clazz, jbyteArray input, jintArray output,
     jint width, jint height, jboolean halfSize) {
+  PhaseTimer call_timer(kJniCall);
   jboolean inputCopy = JNI_FALSE;
   jbyte* const i = env->GetByteArrayElements(input, &inputCopy);
 
   jboolean outputCopy = JNI_FALSE;
   jint* const o = env->GetIntArrayElements(output, &outputCopy);
 
-  if (halfSize) {
-    ConvertYUV420SPToARGB8888HalfSize(reinterpret_cast<uint8_t*>(i),
-                                      reinterpret_cast<uint32_t*>(o), width,
-                                      height);
-  } else {
-    ConvertYUV420SPToARGB8888(reinterpret_cast<uint8_t*>(i),
-                              reinterpret_cast<uint8_t*>(i) + width * height,
-                              reinterpret_cast<uint32_t*>(o), width, height);
+  {
+    PhaseTimer timer(kYUV420SPToARGB8888);
+    if (halfSize) {
+      ConvertYUV420SPToARGB8888HalfSize(reinterpret_cast<uint8_t*>(i),
+                                        reinterpret_cast<uint32_t*>(o), width,
+                                        height);
+    } else {
+      ConvertYUV420SPToARGB8888(reinterpret_cast<uint8_t*>(i),
+                                reinterpret_cast<uint8_t*>(i) + width * height,
+                                reinterpret_cast<uint32_t*>(o), width, height);
+    }
   }
 
   env->ReleaseByteArrayElements(input, i, JNI_ABORT);
@@ -86,12 +239,14 @@ JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertYUV420ToARGB8888)(
     JNIEnv* env, jclass clazz, jbyteArray y, jbyteArray u, jbyteArray v,
     jintArray output, jint width, jint height, jint y_row_stride,
     jint uv_row_stride, jint uv_pixel_stride, jboolean halfSize) {
+  PhaseTimer call_timer(kJniCall);
   jboolean inputCopy = JNI_FALSE;
   jbyte* const y_buff = env->GetByteArrayElements(y, &inputCopy);
   jboolean outputCopy = JNI_FALSE;
   jint* const o = env->GetIntArrayElements(output, &outputCopy);
 
   if (halfSize) {
+    PhaseTimer timer(kYUV420ToARGB8888);
     ConvertYUV420SPToARGB8888HalfSize(reinterpret_cast<uint8_t*>(y_buff),
                                       reinterpret_cast<uint32_t*>(o), width,
                                       height);
@@ -99,10 +254,14 @@ JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertYUV420ToARGB8888)(
     jbyte* const u_buff = env->GetByteArrayElements(u, &inputCopy);
     jbyte* const v_buff = env->GetByteArrayElements(v, &inputCopy);
 
-    ConvertYUV420ToARGB8888(
-        reinterpret_cast<uint8_t*>(y_buff), reinterpret_cast<uint8_t*>(u_buff),
-        reinterpret_cast<uint8_t*>(v_buff), reinterpret_cast<uint32_t*>(o),
-        width, height, y_row_stride, uv_row_stride, uv_pixel_stride);
+    {
+      PhaseTimer timer(kYUV420ToARGB8888);
+      ConvertYUV420ToARGB8888(reinterpret_cast<uint8_t*>(y_buff),
+                              reinterpret_cast<uint8_t*>(u_buff),
+                              reinterpret_cast<uint8_t*>(v_buff),
+                              reinterpret_cast<uint32_t*>(o), width, height,
+                              y_row_stride, uv_row_stride, uv_pixel_stride);
+    }
 
     env->ReleaseByteArrayElements(u, u_buff, JNI_ABORT);
     env->ReleaseByteArrayElements(v, v_buff, JNI_ABORT);
@@ -112,17 +271,126 @@ JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertYUV420ToARGB8888)(
   env->ReleaseIntArrayElements(output, o, 0);
 }
 
+JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertYUV420RowsToARGB8888)(
+    JNIEnv* env, jclass clazz, jbyteArray y, jbyteArray u, jbyteArray v,
+    jintArray output, jint width, jint y_row_stride, jint uv_row_stride,
+    jint uv_pixel_stride, jint start_row, jint end_row) {
+  PhaseTimer call_timer(kJniCall);
+  jboolean inputCopy = JNI_FALSE;
+  jbyte* const y_buff = env->GetByteArrayElements(y, &inputCopy);
+  jbyte* const u_buff = env->GetByteArrayElements(u, &inputCopy);
+  jbyte* const v_buff = env->GetByteArrayElements(v, &inputCopy);
+  jboolean outputCopy = JNI_FALSE;
+  jint* const o = env->GetIntArrayElements(output, &outputCopy);
+
+  // Starting on an even row keeps the chroma rows of the strip aligned.
+  {
+    PhaseTimer timer(kYUV420ToARGB8888);
+    ConvertYUV420ToARGB8888(
+        reinterpret_cast<uint8_t*>(y_buff) + y_row_stride * start_row,
+        reinterpret_cast<uint8_t*>(u_buff) + uv_row_stride * (start_row >> 1),
+        reinterpret_cast<uint8_t*>(v_buff) + uv_row_stride * (start_row >> 1),
+        reinterpret_cast<uint32_t*>(o) + width * start_row, width,
+        end_row - start_row, y_row_stride, uv_row_stride, uv_pixel_stride);
+  }
+
+  env->ReleaseByteArrayElements(y, y_buff, JNI_ABORT);
+  env->ReleaseByteArrayElements(u, u_buff, JNI_ABORT);
+  env->ReleaseByteArrayElements(v, v_buff, JNI_ABORT);
+
+  // Other strips may be writing the same array concurrently, so if the VM handed
+  // us a copy only write back the rows this call owns.
+  if (outputCopy) {
+    env->SetIntArrayRegion(output, width * start_row, width * (end_row - start_row),
+                           o + width * start_row);
+    env->ReleaseIntArrayElements(output, o, JNI_ABORT);
+  } else {
+    env->ReleaseIntArrayElements(output, o, 0);
+  }
+}
+
+JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertYUV420ToTensor)(
+    JNIEnv* env, jclass clazz, jbyteArray y, jbyteArray u, jbyteArray v,
+    jint width, jint height, jint y_row_stride, jint uv_row_stride,
+    jint uv_pixel_stride, jfloatArray crop_to_frame, jint dst_width,
+    jint dst_height, jint dst_start_row, jint dst_end_row,
+    jfloatArray value_table, jboolean planar, jobject output) {
+  PhaseTimer call_timer(kJniCall);
+  float* const o = static_cast<float*>(env->GetDirectBufferAddress(output));
+
+  float transform[6];
+  env->GetFloatArrayRegion(crop_to_frame, 0, 6, transform);
+  float table[256];
+  env->GetFloatArrayRegion(value_table, 0, 256, table);
+
+  jboolean inputCopy = JNI_FALSE;
+  jbyte* const y_buff = env->GetByteArrayElements(y, &inputCopy);
+  jbyte* const u_buff = env->GetByteArrayElements(u, &inputCopy);
+  jbyte* const v_buff = env->GetByteArrayElements(v, &inputCopy);
+
+  {
+    PhaseTimer timer(kYUV420ToTensor);
+    ConvertYUV420ToNormalizedTensor(
+        reinterpret_cast<uint8_t*>(y_buff), reinterpret_cast<uint8_t*>(u_buff),
+        reinterpret_cast<uint8_t*>(v_buff), width, height, y_row_stride,
+        uv_row_stride, uv_pixel_stride, transform, dst_width, dst_height,
+        dst_start_row, dst_end_row, table, planar, o);
+  }
+
+  env->ReleaseByteArrayElements(y, y_buff, JNI_ABORT);
+  env->ReleaseByteArrayElements(u, u_buff, JNI_ABORT);
+  env->ReleaseByteArrayElements(v, v_buff, JNI_ABORT);
+}
+
+JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertYUV420ToQuantizedTensor)(
+    JNIEnv* env, jclass clazz, jbyteArray y, jbyteArray u, jbyteArray v,
+    jint width, jint height, jint y_row_stride, jint uv_row_stride,
+    jint uv_pixel_stride, jfloatArray crop_to_frame, jint dst_width,
+    jint dst_height, jint dst_start_row, jint dst_end_row,
+    jbyteArray value_table, jboolean planar, jobject output) {
+  PhaseTimer call_timer(kJniCall);
+  uint8_t* const o = static_cast<uint8_t*>(env->GetDirectBufferAddress(output));
+
+  float transform[6];
+  env->GetFloatArrayRegion(crop_to_frame, 0, 6, transform);
+  jbyte table[256];
+  env->GetByteArrayRegion(value_table, 0, 256, table);
+
+  jboolean inputCopy = JNI_FALSE;
+  jbyte* const y_buff = env->GetByteArrayElements(y, &inputCopy);
+  jbyte* const u_buff = env->GetByteArrayElements(u, &inputCopy);
+  jbyte* const v_buff = env->GetByteArrayElements(v, &inputCopy);
+
+  {
+    PhaseTimer timer(kYUV420ToQuantizedTensor);
+    ConvertYUV420ToQuantizedTensor(
+        reinterpret_cast<uint8_t*>(y_buff), reinterpret_cast<uint8_t*>(u_buff),
+        reinterpret_cast<uint8_t*>(v_buff), width, height, y_row_stride,
+        uv_row_stride, uv_pixel_stride, transform, dst_width, dst_height,
+        dst_start_row, dst_end_row, reinterpret_cast<uint8_t*>(table), planar,
+        o);
+  }
+
+  env->ReleaseByteArrayElements(y, y_buff, JNI_ABORT);
+  env->ReleaseByteArrayElements(u, u_buff, JNI_ABORT);
+  env->ReleaseByteArrayElements(v, v_buff, JNI_ABORT);
+}
+
 JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertYUV420SPToRGB565)(
     JNIEnv* env, jclass clazz, jbyteArray input, jbyteArray output, jint width,
     jint height) {
+  PhaseTimer call_timer(kJniCall);
   jboolean inputCopy = JNI_FALSE;
   jbyte* const i = env->GetByteArrayElements(input, &inputCopy);
 
   jboolean outputCopy = JNI_FALSE;
   jbyte* const o = env->GetByteArrayElements(output, &outputCopy);
 
-  ConvertYUV420SPToRGB565(reinterpret_cast<uint8_t*>(i),
-                          reinterpret_cast<uint16_t*>(o), width, height);
+  {
+    PhaseTimer timer(kYUV420SPToRGB565);
+    ConvertYUV420SPToRGB565(reinterpret_cast<uint8_t*>(i),
+                            reinterpret_cast<uint16_t*>(o), width, height);
+  }
 
   env->ReleaseByteArrayElements(input, i, JNI_ABORT);
   env->ReleaseByteArrayElements(output, o, 0);
@@ -132,14 +400,18 @@ JNIEXPORT void JNICALL
 IMAGEUTILS_METHOD(convertARGB8888ToYUV420SP)(
     JNIEnv* env, jclass clazz, jintArray input, jbyteArray output,
     jint width, jint height) {
+  PhaseTimer call_timer(kJniCall);
   jboolean inputCopy = JNI_FALSE;
   jint* const i = env->GetIntArrayElements(input, &inputCopy);
 
   jboolean outputCopy = JNI_FALSE;
   jbyte* const o = env->GetByteArrayElements(output, &outputCopy);
 
-  ConvertARGB8888ToYUV420SP(reinterpret_cast<uint32_t*>(i),
-                            reinterpret_cast<uint8_t*>(o), width, height);
+  {
+    PhaseTimer timer(kARGB8888ToYUV420SP);
+    ConvertARGB8888ToYUV420SP(reinterpret_cast<uint32_t*>(i),
+                              reinterpret_cast<uint8_t*>(o), width, height);
+  }
 
   env->ReleaseIntArrayElements(input, i, JNI_ABORT);
   env->ReleaseByteArrayElements(output, o, 0);
@@ -149,15 +421,219 @@ JNIEXPORT void JNICALL
 IMAGEUTILS_METHOD(convertRGB565ToYUV420SP)(
     JNIEnv* env, jclass clazz, jbyteArray input, jbyteArray output,
     jint width, jint height) {
+  PhaseTimer call_timer(kJniCall);
   jboolean inputCopy = JNI_FALSE;
   jbyte* const i = env->GetByteArrayElements(input, &inputCopy);
 
   jboolean outputCopy = JNI_FALSE;
   jbyte* const o = env->GetByteArrayElements(output, &outputCopy);
 
-  ConvertRGB565ToYUV420SP(reinterpret_cast<uint16_t*>(i),
-                          reinterpret_cast<uint8_t*>(o), width, height);
+  {
+    PhaseTimer timer(kRGB565ToYUV420SP);
+    ConvertRGB565ToYUV420SP(reinterpret_cast<uint16_t*>(i),
+                            reinterpret_cast<uint8_t*>(o), width, height);
+  }
 
   env->ReleaseByteArrayElements(input, i, JNI_ABORT);
   env->ReleaseByteArrayElements(output, o, 0);
 }
+
+JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertYUV420RowsToARGB8888Direct)(
+    JNIEnv* env, jclass clazz, jobject y, jobject u, jobject v,
+    jintArray output, jint width, jint y_row_stride, jint uv_row_stride,
+    jint uv_pixel_stride, jint start_row, jint end_row) {
+  PhaseTimer call_timer(kJniCall);
+  const uint8_t* const y_buff = GetDirectAddress<uint8_t>(env, y);
+  if (y_buff == NULL) return;
+  const uint8_t* const u_buff = GetDirectAddress<uint8_t>(env, u);
+  if (u_buff == NULL) return;
+  const uint8_t* const v_buff = GetDirectAddress<uint8_t>(env, v);
+  if (v_buff == NULL) return;
+  jboolean outputCopy = JNI_FALSE;
+  jint* const o = env->GetIntArrayElements(output, &outputCopy);
+
+  // Starting on an even row keeps the chroma rows of the strip aligned.
+  {
+    PhaseTimer timer(kYUV420ToARGB8888);
+    ConvertYUV420ToARGB8888(
+        y_buff + y_row_stride * start_row,
+        u_buff + uv_row_stride * (start_row >> 1),
+        v_buff + uv_row_stride * (start_row >> 1),
+        reinterpret_cast<uint32_t*>(o) + width * start_row, width,
+        end_row - start_row, y_row_stride, uv_row_stride, uv_pixel_stride);
+  }
+
+  // Other strips may be writing the same array concurrently, so if the VM handed
+  // us a copy only write back the rows this call owns.
+  if (outputCopy) {
+    env->SetIntArrayRegion(output, width * start_row, width * (end_row - start_row),
+                           o + width * start_row);
+    env->ReleaseIntArrayElements(output, o, JNI_ABORT);
+  } else {
+    env->ReleaseIntArrayElements(output, o, 0);
+  }
+}
+
+JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertYUV420ToTensorDirect)(
+    JNIEnv* env, jclass clazz, jobject y, jobject u, jobject v, jint width,
+    jint height, jint y_row_stride, jint uv_row_stride, jint uv_pixel_stride,
+    jfloatArray crop_to_frame, jint dst_width, jint dst_height,
+    jint dst_start_row, jint dst_end_row, jfloatArray value_table,
+    jboolean planar, jobject output) {
+  PhaseTimer call_timer(kJniCall);
+  const uint8_t* const y_buff = GetDirectAddress<uint8_t>(env, y);
+  if (y_buff == NULL) return;
+  const uint8_t* const u_buff = GetDirectAddress<uint8_t>(env, u);
+  if (u_buff == NULL) return;
+  const uint8_t* const v_buff = GetDirectAddress<uint8_t>(env, v);
+  if (v_buff == NULL) return;
+  float* const o = GetDirectAddress<float>(env, output);
+  if (o == NULL) return;
+
+  float transform[6];
+  env->GetFloatArrayRegion(crop_to_frame, 0, 6, transform);
+  float table[256];
+  env->GetFloatArrayRegion(value_table, 0, 256, table);
+
+  {
+    PhaseTimer timer(kYUV420ToTensor);
+    ConvertYUV420ToNormalizedTensor(
+        y_buff, u_buff, v_buff, width, height, y_row_stride, uv_row_stride,
+        uv_pixel_stride, transform, dst_width, dst_height, dst_start_row,
+        dst_end_row, table, planar, o);
+  }
+}
+
+JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertYUV420ToQuantizedTensorDirect)(
+    JNIEnv* env, jclass clazz, jobject y, jobject u, jobject v, jint width,
+    jint height, jint y_row_stride, jint uv_row_stride, jint uv_pixel_stride,
+    jfloatArray crop_to_frame, jint dst_width, jint dst_height,
+    jint dst_start_row, jint dst_end_row, jbyteArray value_table,
+    jboolean planar, jobject output) {
+  PhaseTimer call_timer(kJniCall);
+  const uint8_t* const y_buff = GetDirectAddress<uint8_t>(env, y);
+  if (y_buff == NULL) return;
+  const uint8_t* const u_buff = GetDirectAddress<uint8_t>(env, u);
+  if (u_buff == NULL) return;
+  const uint8_t* const v_buff = GetDirectAddress<uint8_t>(env, v);
+  if (v_buff == NULL) return;
+  uint8_t* const o = GetDirectAddress<uint8_t>(env, output);
+  if (o == NULL) return;
+
+  float transform[6];
+  env->GetFloatArrayRegion(crop_to_frame, 0, 6, transform);
+  jbyte table[256];
+  env->GetByteArrayRegion(value_table, 0, 256, table);
+
+  {
+    PhaseTimer timer(kYUV420ToQuantizedTensor);
+    ConvertYUV420ToQuantizedTensor(
+        y_buff, u_buff, v_buff, width, height, y_row_stride, uv_row_stride,
+        uv_pixel_stride, transform, dst_width, dst_height, dst_start_row,
+        dst_end_row, reinterpret_cast<uint8_t*>(table), planar, o);
+  }
+}
+
+JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertYUV420SPToARGB8888Direct)(
+    JNIEnv* env, jclass clazz, jobject input, jintArray output, jint width,
+    jint height, jboolean halfSize) {
+  PhaseTimer call_timer(kJniCall);
+  uint8_t* const i = GetDirectAddress<uint8_t>(env, input);
+  if (i == NULL) return;
+
+  jboolean outputCopy = JNI_FALSE;
+  jint* const o = env->GetIntArrayElements(output, &outputCopy);
+
+  {
+    PhaseTimer timer(kYUV420SPToARGB8888);
+    if (halfSize) {
+      ConvertYUV420SPToARGB8888HalfSize(i, reinterpret_cast<uint32_t*>(o),
+                                        width, height);
+    } else {
+      ConvertYUV420SPToARGB8888(i, i + width * height,
+                                reinterpret_cast<uint32_t*>(o), width, height);
+    }
+  }
+
+  env->ReleaseIntArrayElements(output, o, 0);
+}
+
+JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertYUV420SPToRGB565Direct)(
+    JNIEnv* env, jclass clazz, jobject input, jobject output, jint width,
+    jint height) {
+  PhaseTimer call_timer(kJniCall);
+  uint8_t* const i = GetDirectAddress<uint8_t>(env, input);
+  if (i == NULL) return;
+  uint16_t* const o = GetDirectAddress<uint16_t>(env, output);
+  if (o == NULL) return;
+
+  {
+    PhaseTimer timer(kYUV420SPToRGB565);
+    ConvertYUV420SPToRGB565(i, o, width, height);
+  }
+}
+
+JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertARGB8888ToYUV420SPDirect)(
+    JNIEnv* env, jclass clazz, jintArray input, jobject output, jint width,
+    jint height) {
+  PhaseTimer call_timer(kJniCall);
+  uint8_t* const o = GetDirectAddress<uint8_t>(env, output);
+  if (o == NULL) return;
+  jboolean inputCopy = JNI_FALSE;
+  jint* const i = env->GetIntArrayElements(input, &inputCopy);
+
+  {
+    PhaseTimer timer(kARGB8888ToYUV420SP);
+    ConvertARGB8888ToYUV420SP(reinterpret_cast<uint32_t*>(i), o, width, height);
+  }
+
+  env->ReleaseIntArrayElements(input, i, JNI_ABORT);
+}
+
+JNIEXPORT void JNICALL IMAGEUTILS_METHOD(convertRGB565ToYUV420SPDirect)(
+    JNIEnv* env, jclass clazz, jobject input, jobject output, jint width,
+    jint height) {
+  PhaseTimer call_timer(kJniCall);
+  uint16_t* const i = GetDirectAddress<uint16_t>(env, input);
+  if (i == NULL) return;
+  uint8_t* const o = GetDirectAddress<uint8_t>(env, output);
+  if (o == NULL) return;
+
+  {
+    PhaseTimer timer(kRGB565ToYUV420SP);
+    ConvertRGB565ToYUV420SP(i, o, width, height);
+  }
+}
+
+JNIEXPORT jobjectArray JNICALL IMAGEUTILS_METHOD(getPhaseNamesNative)(
+    JNIEnv* env, jclass clazz) {
+  jobjectArray names = env->NewObjectArray(
+      kNumPhases, env->FindClass("java/lang/String"), NULL);
+  for (int i = 0; i < kNumPhases; ++i) {
+    jstring name = env->NewStringUTF(kPhaseNames[i]);
+    env->SetObjectArrayElement(names, i, name);
+    env->DeleteLocalRef(name);
+  }
+  return names;
+}
+
+JNIEXPORT void JNICALL IMAGEUTILS_METHOD(getPhaseTimingsNative)(
+    JNIEnv* env, jclass clazz, jlongArray output, jboolean reset) {
+  // Count, total and max of each phase. A reset only loses the calls recorded
+  // between reading and clearing a phase's counters.
+  jlong timings[3 * kNumPhases];
+  for (int i = 0; i < kNumPhases; ++i) {
+    PhaseStats* const stats = phase_stats + i;
+    if (reset) {
+      timings[3 * i] = stats->count.exchange(0, std::memory_order_relaxed);
+      timings[3 * i + 1] =
+          stats->total_ns.exchange(0, std::memory_order_relaxed);
+      timings[3 * i + 2] = stats->max_ns.exchange(0, std::memory_order_relaxed);
+    } else {
+      timings[3 * i] = stats->count.load(std::memory_order_relaxed);
+      timings[3 * i + 1] = stats->total_ns.load(std::memory_order_relaxed);
+      timings[3 * i + 2] = stats->max_ns.load(std::memory_order_relaxed);
+    }
+  }
+  env->SetLongArrayRegion(output, 0, 3 * kNumPhases, timings);
+}
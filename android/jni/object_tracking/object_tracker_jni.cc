@@ -79,6 +79,11 @@ JNIEXPORT
 jboolean JNICALL OBJECT_TRACKER_METHOD(haveObject)(JNIEnv* env, jobject thiz,
                                                    jstring object_id);
 
+JNIEXPORT
+jint JNICALL OBJECT_TRACKER_METHOD(getTimeLogNative)(JNIEnv* env, jclass clazz,
+                                                     jobjectArray ids,
+                                                     jfloatArray durations);
+
 JNIEXPORT
 jboolean JNICALL OBJECT_TRACKER_METHOD(isObjectVisible)(JNIEnv* env,
                                                         jobject thiz,
@@ -456,4 +461,31 @@ JNIEXPORT void JNICALL OBJECT_TRACKER_METHOD(downsampleImageNative)(
   env->ReleaseByteArrayElements(output, output_array, 0);
 }
 
+JNIEXPORT
+jint JNICALL OBJECT_TRACKER_METHOD(getTimeLogNative)(JNIEnv* env, jclass clazz,
+                                                     jobjectArray ids,
+                                                     jfloatArray durations) {
+  // The phases are timed by the thread running the tracker, so values read
+  // from another thread may be a frame behind.
+  const char* entry_ids[NUM_LOGS];
+  float last_durations[NUM_LOGS];
+  float average_durations[NUM_LOGS];
+  const int max_entries = MIN(NUM_LOGS, env->GetArrayLength(ids));
+  const int num_entries = GetTimeLogEntries(entry_ids, last_durations,
+                                            average_durations, max_entries);
+
+  // The latest and the average duration of each phase, one after the other.
+  jfloat values[2 * NUM_LOGS];
+  const int num_copied = MIN(num_entries, max_entries);
+  for (int i = 0; i < num_copied; ++i) {
+    jstring id = env->NewStringUTF(entry_ids[i]);
+    env->SetObjectArrayElement(ids, i, id);
+    env->DeleteLocalRef(id);
+    values[2 * i] = last_durations[i];
+    values[2 * i + 1] = average_durations[i];
+  }
+  env->SetFloatArrayRegion(durations, 0, 2 * num_copied, values);
+  return num_entries;
+}
+
 }  // namespace tf_tracking
@@ -23,11 +23,13 @@ limitations under the License.
 #include "tensorflow/examples/android/jni/object_tracking/logging.h"
 #include "tensorflow/examples/android/jni/object_tracking/utils.h"
 
+// Maximum number of phases logged, whether or not LOG_TIME is defined.
+#define NUM_LOGS 100
+
 #ifdef LOG_TIME
 
 // Blend constant for running average.
 #define ALPHA 0.98f
-#define NUM_LOGS 100
 
 struct LogEntry {
   const char* id;
@@ -37,6 +39,8 @@ struct LogEntry {
 struct AverageEntry {
   const char* id;
   float average_duration;
+  // The duration of the latest frame, kept for GetTimeLogEntries().
+  float last_duration;
 };
 
 // Storage for keeping track of this frame's values.
@@ -79,17 +83,20 @@ inline static float UpdateAverage(const char* str, const float new_val) {
     AverageEntry* const entry = avg_entries + entry_num;
     if (str == entry->id) {
       entry->average_duration = Blend(entry->average_duration, new_val);
+      entry->last_duration = new_val;
       return entry->average_duration;
     }
   }
 
   if (num_avg_entries >= NUM_LOGS) {
     LOGE("Too many log entries!");
+    return new_val;
   }
 
   // If it wasn't there already, add it.
   avg_entries[num_avg_entries].id = str;
   avg_entries[num_avg_entries].average_duration = new_val;
+  avg_entries[num_avg_entries].last_duration = new_val;
   ++num_avg_entries;
 
   return new_val;
@@ -124,6 +131,21 @@ inline static void PrintTimeLog() {
        total_time, average_running_total);
   LOGD(" ");
 }
+
+// Copies up to max_entries of the phases timed so far, in the order they were
+// first seen, for reading the timings outside of logcat. The durations in ms
+// of the latest frame and the running averages go to the given arrays. Returns
+// the number of phases, which may be more than max_entries.
+inline static int GetTimeLogEntries(const char** ids, float* last_durations,
+                                    float* average_durations,
+                                    const int max_entries) {
+  for (int i = 0; i < num_avg_entries && i < max_entries; ++i) {
+    ids[i] = avg_entries[i].id;
+    last_durations[i] = avg_entries[i].last_duration;
+    average_durations[i] = avg_entries[i].average_duration;
+  }
+  return num_avg_entries;
+}
 #else
 inline static void ResetTimeLog() {}
 
@@ -132,6 +154,12 @@ inline static void TimeLog(const char* const str) {
 }
 
 inline static void PrintTimeLog() {}
+
+inline static int GetTimeLogEntries(const char** ids, float* last_durations,
+                                    float* average_durations,
+                                    const int max_entries) {
+  return 0;
+}
 #endif
 
 #endif  // THIRD_PARTY_TENSORFLOW_EXAMPLES_ANDROID_JNI_OBJECT_TRACKING_TIME_LOG_H_
@@ -80,6 +80,77 @@ void ConvertYUV420ToARGB8888(const uint8_t* const yData,
   }
 }
 
+//  Accepts a YUV 4:2:0 image with the same layout as ConvertYUV420ToARGB8888
+//  and writes the cropped, rotated and scaled region described by
+//  crop_to_frame directly as tensor values looked up from value_table, without
+//  an intermediate ARGB frame.
+template <typename T>
+static void ConvertYUV420ToTensor(
+    const uint8_t* const yData, const uint8_t* const uData,
+    const uint8_t* const vData, const int width, const int height,
+    const int y_row_stride, const int uv_row_stride, const int uv_pixel_stride,
+    const float* const crop_to_frame, const int dst_width,
+    const int dst_height, const int dst_start_row, const int dst_end_row,
+    const T* const value_table, const int planar, T* const output) {
+  const int num_pixels = dst_width * dst_height;
+  const int channel_stride = planar ? num_pixels : 1;
+  const int pixel_stride = planar ? 1 : 3;
+  T* out = output + dst_start_row * dst_width * pixel_stride;
+
+  for (int dy = dst_start_row; dy < dst_end_row; dy++) {
+    // Sample at the pixel center, walking the source coordinates along the row.
+    float src_x = crop_to_frame[0] * 0.5f + crop_to_frame[1] * (dy + 0.5f) +
+                  crop_to_frame[2];
+    float src_y = crop_to_frame[3] * 0.5f + crop_to_frame[4] * (dy + 0.5f) +
+                  crop_to_frame[5];
+
+    for (int dx = 0; dx < dst_width; dx++) {
+      // Truncation rounds towards zero, so handle negative values explicitly.
+      int x = src_x < 0.0f ? 0 : (int)src_x;
+      int y = src_y < 0.0f ? 0 : (int)src_y;
+      x = MIN(width - 1, x);
+      y = MIN(height - 1, y);
+      src_x += crop_to_frame[0];
+      src_y += crop_to_frame[3];
+
+      const int uv_offset = uv_row_stride * (y >> 1) + (x >> 1) * uv_pixel_stride;
+      const uint32_t argb = YUV2RGB(yData[y_row_stride * y + x], uData[uv_offset],
+                                    vData[uv_offset]);
+
+      out[0] = value_table[(argb >> 16) & 0xff];
+      out[channel_stride] = value_table[(argb >> 8) & 0xff];
+      out[2 * channel_stride] = value_table[argb & 0xff];
+      out += pixel_stride;
+    }
+  }
+}
+
+void ConvertYUV420ToNormalizedTensor(
+    const uint8_t* const yData, const uint8_t* const uData,
+    const uint8_t* const vData, const int width, const int height,
+    const int y_row_stride, const int uv_row_stride, const int uv_pixel_stride,
+    const float* const crop_to_frame, const int dst_width,
+    const int dst_height, const int dst_start_row, const int dst_end_row,
+    const float* const value_table, const int planar, float* const output) {
+  ConvertYUV420ToTensor(yData, uData, vData, width, height, y_row_stride,
+                        uv_row_stride, uv_pixel_stride, crop_to_frame, dst_width,
+                        dst_height, dst_start_row, dst_end_row, value_table,
+                        planar, output);
+}
+
+void ConvertYUV420ToQuantizedTensor(
+    const uint8_t* const yData, const uint8_t* const uData,
+    const uint8_t* const vData, const int width, const int height,
+    const int y_row_stride, const int uv_row_stride, const int uv_pixel_stride,
+    const float* const crop_to_frame, const int dst_width,
+    const int dst_height, const int dst_start_row, const int dst_end_row,
+    const uint8_t* const value_table, const int planar, uint8_t* const output) {
+  ConvertYUV420ToTensor(yData, uData, vData, width, height, y_row_stride,
+                        uv_row_stride, uv_pixel_stride, crop_to_frame, dst_width,
+                        dst_height, dst_start_row, dst_end_row, value_table,
+                        planar, output);
+}
+
 //  Accepts a YUV 4:2:0 image with a plane of 8 bit Y samples followed by an
 //  interleaved U/V plane containing 8 bit 2x2 subsampled chroma samples,
 //  except the interleave order of U and V is reversed. Converts to a packed
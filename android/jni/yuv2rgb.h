@@ -32,6 +32,30 @@ void ConvertYUV420ToARGB8888(const uint8_t* const yData,
                              const int y_row_stride, const int uv_row_stride,
                              const int uv_pixel_stride);
 
+// Converts YUV 4:2:0 planes straight into a float tensor of dst_width x
+// dst_height pixels, filling only the destination rows in
+// [dst_start_row, dst_end_row). Each destination pixel center is mapped into
+// the source through the row-major 2x3 affine crop_to_frame and sampled with
+// nearest neighbor filtering. Each 8-bit channel value v is stored as
+// value_table[v], either interleaved (HWC) or as one plane per channel (CHW)
+// if planar is set. For efficiency, no error checking is performed.
+void ConvertYUV420ToNormalizedTensor(
+    const uint8_t* const yData, const uint8_t* const uData,
+    const uint8_t* const vData, const int width, const int height,
+    const int y_row_stride, const int uv_row_stride, const int uv_pixel_stride,
+    const float* const crop_to_frame, const int dst_width,
+    const int dst_height, const int dst_start_row, const int dst_end_row,
+    const float* const value_table, const int planar, float* const output);
+
+// The same as above, but for a quantized uint8 tensor.
+void ConvertYUV420ToQuantizedTensor(
+    const uint8_t* const yData, const uint8_t* const uData,
+    const uint8_t* const vData, const int width, const int height,
+    const int y_row_stride, const int uv_row_stride, const int uv_pixel_stride,
+    const float* const crop_to_frame, const int dst_width,
+    const int dst_height, const int dst_start_row, const int dst_end_row,
+    const uint8_t* const value_table, const int planar, uint8_t* const output);
+
 // Converts YUV420 semi-planar data to ARGB 8888 data using the supplied width
 // and height. The input and output must already be allocated and non-null.
 // For efficiency, no error checking is performed.
@@ -70,6 +70,12 @@ public class CameraConnectionFragment extends Fragment {
    */
   private static final int MINIMUM_PREVIEW_SIZE = 320;
 
+  /**
+   * The number of preview frames the listener may hold at once. Leaves room for a frame waiting
+   * to be converted and one being converted, plus the one being acquired.
+   */
+  private static final int MAX_PREVIEW_IMAGES = 3;
+
   /**
    * Conversion from screen rotation to JPEG orientation.
    */
@@ -527,7 +533,8 @@ public class CameraConnectionFragment extends Fragment {
       // Create the reader for the preview frames.
       previewReader =
           ImageReader.newInstance(
-              previewSize.getWidth(), previewSize.getHeight(), ImageFormat.YUV_420_888, 2);
+              previewSize.getWidth(), previewSize.getHeight(), ImageFormat.YUV_420_888,
+              MAX_PREVIEW_IMAGES);
 
       previewReader.setOnImageAvailableListener(imageListener, backgroundHandler);
       previewRequestBuilder.addTarget(previewReader.getSurface());
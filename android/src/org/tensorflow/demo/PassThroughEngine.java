@@ -0,0 +1,45 @@
+/*
+ * Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.demo;
+
+import org.tensorflow.demo.env.PixelTensorCodec;
+
+/** An engine which leaves images unchanged, for running the pipeline without a model. */
+class PassThroughEngine implements StyleTransferEngine {
+  @Override
+  public void warmUp(final int width, final int height) {}
+
+  @Override
+  public void prepare(final int width, final int height) {}
+
+  @Override
+  public void setStyle(final float[] styleValues) {}
+
+  @Override
+  public void stylize(final PixelTensorCodec codec) {}
+
+  @Override
+  public void stylizeRegion(
+      final PixelTensorCodec codec,
+      final int left,
+      final int top,
+      final int right,
+      final int bottom) {}
+
+  @Override
+  public void close() {}
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.demo;
+
+import android.graphics.Bitmap;
+import android.graphics.Bitmap.Config;
+import android.graphics.Canvas;
+import android.graphics.Rect;
+import android.media.Image;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import org.tensorflow.demo.env.ChangeDetector;
+import org.tensorflow.demo.env.ImageUtils;
+import org.tensorflow.demo.env.PixelTensorCodec;
+import org.tensorflow.demo.env.TripleBuffer;
+import org.tensorflow.demo.tracking.TemporalReuse;
+
+/**
+ * Everything allocated to process frames of one preview size at one crop size and rotation. Kept
+ * around in a {@link PipelineContextCache} so that switching back to a recently used size does not
+ * reallocate anything.
+ */
+public class PipelineContext {
+  /** Identifies the frame geometry a context was created for. */
+  public static final class Key {
+    public final int previewWidth;
+    public final int previewHeight;
+    public final int cropSize;
+    public final int rotation;
+
+    public Key(
+        final int previewWidth, final int previewHeight, final int cropSize, final int rotation) {
+      this.previewWidth = previewWidth;
+      this.previewHeight = previewHeight;
+      this.cropSize = cropSize;
+      this.rotation = rotation;
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+      if (!(other instanceof Key)) {
+        return false;
+      }
+      final Key key = (Key) other;
+      return previewWidth == key.previewWidth
+          && previewHeight == key.previewHeight
+          && cropSize == key.cropSize
+          && rotation == key.rotation;
+    }
+
+    @Override
+    public int hashCode() {
+      int hash = previewWidth;
+      hash = hash * 31 + previewHeight;
+      hash = hash * 31 + cropSize;
+      hash = hash * 31 + rotation;
+      return hash;
+    }
+
+    @Override
+    public String toString() {
+      return previewWidth + "x" + previewHeight + "->" + cropSize + "@" + rotation;
+    }
+  }
+
+  /**
+   * One stylized frame on its way from the presenting thread to the renderer. Frames are recycled
+   * through the context's {@link TripleBuffer}, so the bitmaps are only ever written by the
+   * presenting thread while it owns the frame as its back buffer.
+   */
+  public static final class Frame {
+    private final Bitmap output;
+    private Canvas outputCanvas;
+    private Bitmap input;
+
+    public int frameNum;
+
+    /** The capture number of the camera frame shown, see {@link Job#captureNum}. */
+    public int captureNum;
+
+    Frame(final int size) {
+      output = Bitmap.createBitmap(size, size, Config.ARGB_8888);
+    }
+
+    /** Returns the stylized image. */
+    public Bitmap getOutput() {
+      return output;
+    }
+
+    /** Returns a canvas drawing into the output, creating it on first use. */
+    public Canvas getOutputCanvas() {
+      if (outputCanvas == null) {
+        outputCanvas = new Canvas(output);
+      }
+      return outputCanvas;
+    }
+
+    /**
+     * Returns the model input as shown in the debug overlay, or null if it was never rendered.
+     */
+    public Bitmap getInput() {
+      return input;
+    }
+  }
+
+  /**
+   * The latest stylized frame presented from a context, which the frames after it may be warped
+   * from. Only used by the presenting thread.
+   */
+  public static final class Keyframe {
+    private final Bitmap output;
+
+    /** The keyframe's tracking segment, or -1 before the first keyframe. */
+    public int trackingSegment = -1;
+
+    /** The keyframe's pose, see {@link TemporalReuse}. */
+    public final float[] pose = new float[6];
+
+    Keyframe(final int size) {
+      output = Bitmap.createBitmap(size, size, Config.ARGB_8888);
+    }
+
+    /** Returns the stylized image. */
+    public Bitmap getOutput() {
+      return output;
+    }
+  }
+
+  /**
+   * A camera frame in flight through the pipeline. Each job owns its own input tensor, so that
+   * one frame can be converted while the previous one is still being stylized. Jobs are pooled by
+   * their context; a job is only ever touched by the thread currently processing it.
+   */
+  public static final class Job {
+    private final PipelineContext context;
+    private final PixelTensorCodec codec;
+    private Bitmap input;
+    private boolean inputRendered;
+
+    /** The camera frame, held from capture until it has been converted. */
+    public Image image;
+
+    /** The camera frame's capture time, see {@link Image#getTimestamp}. */
+    public long timestampNs;
+
+    /** The camera frame's number in the order frames were captured, which tags its spans. */
+    public int captureNum;
+
+    /**
+     * When the previous thread was done with the job, see {@link
+     * android.os.SystemClock#elapsedRealtimeNanos}. The time since then until the next stage
+     * starts on it is traced as waiting.
+     */
+    public long handoffTimeNs;
+
+    public int frameNum;
+    public long processingTimeMs;
+
+    /**
+     * Whether the frame is shown by warping its context's keyframe instead of being stylized. Its
+     * codec is left unconverted then.
+     */
+    public boolean reusesKeyframe;
+
+    /** The frame's tracking segment and pose, set while temporal reuse is enabled. */
+    public int trackingSegment;
+    public final float[] pose = new float[6];
+
+    /**
+     * Whether only the region of the frame is stylized, and shown over the rest of its context's
+     * last output. See {@link #getLastOutput}.
+     */
+    public boolean partial;
+
+    /**
+     * The part of the crop that is stylized, set while change detection is enabled. Empty if
+     * nothing changed, in which case the codec is left unconverted.
+     */
+    public final Rect region = new Rect();
+
+    /** The frame's number in the change detector's sequence, see {@link ChangeDetector}. */
+    public int changeFrame;
+
+    private Job(final PipelineContext context, final PixelTensorCodec codec) {
+      this.context = context;
+      this.codec = codec;
+    }
+
+    public PipelineContext getContext() {
+      return context;
+    }
+
+    public PixelTensorCodec getCodec() {
+      return codec;
+    }
+
+    /**
+     * Returns a bitmap to render this frame's model input into, creating it on first use, and
+     * marks the input as rendered.
+     */
+    public Bitmap getInputForRendering() {
+      if (input == null) {
+        final int size = context.getCropSize();
+        input = Bitmap.createBitmap(size, size, Config.ARGB_8888);
+      }
+      inputRendered = true;
+      return input;
+    }
+
+    /**
+     * Hands the input rendered for this frame, if any, over to the frame being presented. The
+     * frame's previous input bitmap is taken in exchange so that neither has to be copied.
+     */
+    public void swapInput(final Frame frame) {
+      if (inputRendered) {
+        final Bitmap previous = frame.input;
+        frame.input = input;
+        input = previous;
+        inputRendered = false;
+      }
+    }
+
+    /** Closes the camera frame if still held and returns the job to its context's pool. */
+    public void recycle() {
+      if (image != null) {
+        image.close();
+        image = null;
+      }
+      inputRendered = false;
+      reusesKeyframe = false;
+      partial = false;
+      region.setEmpty();
+      context.freeJobs.offer(this);
+    }
+  }
+
+  private final Key key;
+  private final float[] cropToFrameTransform;
+  private final PixelTensorCodec[] codecs;
+  private final PixelTensorCodec lastOutput;
+  private final BlockingQueue<Job> freeJobs;
+  private final TripleBuffer<Frame> frames;
+  private Keyframe keyframe;
+
+  /**
+   * @param key The geometry this context processes.
+   * @param lastOutput A codec of the crop size to keep the last output in, or null if frames are
+   *     always stylized whole.
+   * @param codecs One codec of the crop size for each frame that may be in flight at once.
+   */
+  public PipelineContext(
+      final Key key, final PixelTensorCodec lastOutput, final PixelTensorCodec... codecs) {
+    this.key = key;
+    this.lastOutput = lastOutput;
+    this.codecs = codecs;
+    freeJobs = new ArrayBlockingQueue<Job>(codecs.length);
+    for (final PixelTensorCodec codec : codecs) {
+      freeJobs.add(new Job(this, codec));
+    }
+    cropToFrameTransform =
+        ImageUtils.getInverseTransformation(
+            key.previewWidth, key.previewHeight,
+            key.cropSize, key.cropSize,
+            key.rotation, true);
+    frames =
+        new TripleBuffer<Frame>(
+            new Frame(key.cropSize), new Frame(key.cropSize), new Frame(key.cropSize));
+  }
+
+  public Key getKey() {
+    return key;
+  }
+
+  public int getCropSize() {
+    return key.cropSize;
+  }
+
+  /** Returns the destination to source mapping from the crop into the preview frame. */
+  public float[] getCropToFrameTransform() {
+    return cropToFrameTransform;
+  }
+
+  /**
+   * Takes a free job from the pool, or returns null if as many frames as there are codecs are
+   * already in flight. Return it with {@link Job#recycle}.
+   */
+  public Job obtainJob() {
+    return freeJobs.poll();
+  }
+
+  /** Returns the frames handed from the inference thread to the renderer. */
+  public TripleBuffer<Frame> getFrames() {
+    return frames;
+  }
+
+  /**
+   * Returns the keyframe that frames reusing it are warped from, creating it on first use.
+   * Presenting thread only.
+   */
+  public Keyframe getKeyframe() {
+    if (keyframe == null) {
+      keyframe = new Keyframe(key.cropSize);
+    }
+    return keyframe;
+  }
+
+  /**
+   * Returns the last stylized output presented from this context, which partially stylized frames
+   * are copied into, or null if the context wasn't created to keep it. Presenting thread only.
+   */
+  public PixelTensorCodec getLastOutput() {
+    return lastOutput;
+  }
+
+  /**
+   * Returns the approximate number of bytes held by this context, counting the input bitmaps
+   * which are only created once the debug overlay is shown and the keyframe which is only created
+   * for temporal reuse.
+   */
+  public int getByteSize() {
+    final int bitmapBytes = key.cropSize * key.cropSize * 4;
+    int byteSize = (3 * 2 + 1) * bitmapBytes;
+    for (final PixelTensorCodec codec : codecs) {
+      byteSize += codec.getByteSize() + bitmapBytes;
+    }
+    if (lastOutput != null) {
+      byteSize += lastOutput.getByteSize();
+    }
+    return byteSize;
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.demo;
+
+import android.util.LruCache;
+import org.tensorflow.demo.env.Logger;
+import org.tensorflow.demo.env.PixelTensorCodec;
+
+/**
+ * An LRU cache of {@link PipelineContext}s bounded by the number of bytes they hold. Missing
+ * contexts are created on demand, so {@link #get} never returns null.
+ */
+public abstract class PipelineContextCache
+    extends LruCache<PipelineContext.Key, PipelineContext> {
+  private static final Logger LOGGER = new Logger();
+
+  private final int framesInFlight;
+  private final boolean keepsOutput;
+
+  /**
+   * @param maxBytes Upper bound on the bytes held by cached contexts. The most recently used
+   *     context is evicted as well if it alone exceeds this, but stays valid for its holder.
+   * @param framesInFlight Number of frames each context can have in flight at once.
+   * @param keepsOutput Whether contexts keep their last output, see {@link
+   *     PipelineContext#getLastOutput}.
+   */
+  public PipelineContextCache(
+      final int maxBytes, final int framesInFlight, final boolean keepsOutput) {
+    super(maxBytes);
+    this.framesInFlight = framesInFlight;
+    this.keepsOutput = keepsOutput;
+  }
+
+  /** Creates the codec for a new context with a crop of the given size. */
+  protected abstract PixelTensorCodec createCodec(final int width, final int height);
+
+  @Override
+  protected PipelineContext create(final PipelineContext.Key key) {
+    LOGGER.i("Creating pipeline context %s", key);
+    final PixelTensorCodec[] codecs = new PixelTensorCodec[framesInFlight];
+    for (int i = 0; i < framesInFlight; ++i) {
+      codecs[i] = createCodec(key.cropSize, key.cropSize);
+    }
+    final PixelTensorCodec lastOutput =
+        keepsOutput ? createCodec(key.cropSize, key.cropSize) : null;
+    return new PipelineContext(key, lastOutput, codecs);
+  }
+
+  @Override
+  protected int sizeOf(final PipelineContext.Key key, final PipelineContext context) {
+    return context.getByteSize();
+  }
+
+  @Override
+  protected void entryRemoved(
+      final boolean evicted,
+      final PipelineContext.Key key,
+      final PipelineContext oldValue,
+      final PipelineContext newValue) {
+    // The evicted context may still be in flight, so leave its buffers to the garbage collector
+    // rather than recycling them here.
+    if (evicted) {
+      LOGGER.i("Evicted pipeline context %s", key);
+    }
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format(
+        "%d hits, %d misses, %d/%dKB", hitCount(), missCount(), size() / 1024, maxSize() / 1024);
+  }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.demo;
+
+import android.graphics.Bitmap;
+import android.os.Process;
+import android.os.SystemClock;
+import org.tensorflow.demo.env.Logger;
+import org.tensorflow.demo.env.PixelTensorCodec;
+import org.tensorflow.demo.stylize.JavaStyleTransferEngine;
+
+/**
+ * Renders small previews of the camera frame in every style, for the style grid. Styles are
+ * rendered a batch at a time, round-robin, each batch from the latest frame offered; see {@link
+ * JavaStyleTransferEngine#stylizeBatch}.
+ *
+ * Rendering runs on a thread of its own at the lowest priority, with an engine of its own so it
+ * never waits on the session. It is further held to a budget of CPU time: after each batch the
+ * thread sleeps until the time it spent computing is at most the given fraction of the time
+ * passed.
+ */
+public class StylePreviewRenderer {
+  private static final Logger LOGGER = new Logger();
+
+  /** Receives rendered previews, on the rendering thread. */
+  public interface Listener {
+    /**
+     * Called with a new preview of a style. The bitmap stays unchanged until every other style
+     * has been rendered again.
+     */
+    void onPreviewRendered(final int style, final Bitmap preview);
+  }
+
+  private final JavaStyleTransferEngine engine;
+  private final int size;
+  private final float cpuBudget;
+  private final Listener listener;
+
+  // One-hot style vectors of each batch, and the first style of each.
+  private final float[][][] batches;
+  private final int[] batchStarts;
+
+  private final PixelTensorCodec[] outputs;
+
+  // Previews are rendered into alternate bitmaps on alternate rounds, so the bitmap being shown
+  // is never written.
+  private final Bitmap[][] previews;
+
+  // A downsampled frame offered for the next batch, guarded by the lock, and the frame being
+  // rendered, only used by the rendering thread.
+  private final Object frameLock = new Object();
+  private PixelTensorCodec offeredFrame;
+  private boolean frameOffered;
+  private PixelTensorCodec frame;
+  private volatile boolean wantsFrame;
+
+  private Thread thread;
+  private volatile boolean running;
+
+  // Updated by the rendering thread.
+  private volatile long stylesRendered;
+  private volatile long cpuTimeMs;
+  private volatile long elapsedTimeMs;
+
+  /**
+   * @param engine The engine to render with, used by nothing else.
+   * @param numStyles Number of styles to preview.
+   * @param size Width and height of the previews. Must be supported by the network.
+   * @param batchSize Number of styles rendered at once.
+   * @param cpuBudget Fraction of one core's time the rendering may take, above 0 and at most 1.
+   * @param listener Receives the previews.
+   */
+  public StylePreviewRenderer(
+      final JavaStyleTransferEngine engine,
+      final int numStyles,
+      final int size,
+      final int batchSize,
+      final float cpuBudget,
+      final Listener listener) {
+    if (!(cpuBudget > 0.0f && cpuBudget <= 1.0f)) {
+      throw new IllegalArgumentException("CPU budget must be in (0, 1]: " + cpuBudget);
+    }
+    if (batchSize < 1) {
+      throw new IllegalArgumentException("Batch size must be at least 1: " + batchSize);
+    }
+    this.engine = engine;
+    this.size = size;
+    this.cpuBudget = cpuBudget;
+    this.listener = listener;
+
+    final int numBatches = (numStyles + batchSize - 1) / batchSize;
+    batches = new float[numBatches][][];
+    batchStarts = new int[numBatches];
+    for (int i = 0; i < numBatches; ++i) {
+      batchStarts[i] = i * batchSize;
+      batches[i] = new float[Math.min(batchSize, numStyles - batchStarts[i])][numStyles];
+      for (int j = 0; j < batches[i].length; ++j) {
+        batches[i][j][batchStarts[i] + j] = 1.0f;
+      }
+    }
+
+    outputs = new PixelTensorCodec[batchSize];
+    for (int i = 0; i < batchSize; ++i) {
+      outputs[i] = new PixelTensorCodec(size, size, PixelTensorCodec.Layout.NHWC);
+    }
+    previews = new Bitmap[2][numStyles];
+    for (int i = 0; i < numStyles; ++i) {
+      previews[0][i] = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+      previews[1][i] = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+    }
+    offeredFrame = new PixelTensorCodec(size, size, PixelTensorCodec.Layout.NHWC);
+    frame = new PixelTensorCodec(size, size, PixelTensorCodec.Layout.NHWC);
+  }
+
+  /** Starts rendering on a new thread. */
+  public synchronized void start() {
+    if (thread != null) {
+      return;
+    }
+    running = true;
+    thread =
+        new Thread(
+            new Runnable() {
+              @Override
+              public void run() {
+                render();
+              }
+            },
+            "style-previews");
+    thread.start();
+  }
+
+  /** Stops rendering, waiting for the batch being rendered. */
+  public synchronized void stop() {
+    if (thread == null) {
+      return;
+    }
+    running = false;
+    thread.interrupt();
+    try {
+      thread.join();
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    thread = null;
+  }
+
+  /**
+   * Offers a frame to render the next batch from. Only takes the time to downsample it if the
+   * renderer is waiting for one, which is once per batch; otherwise returns right away.
+   *
+   * @param source A codec holding the frame, which is read but not kept.
+   */
+  public void offerFrame(final PixelTensorCodec source) {
+    if (!wantsFrame) {
+      return;
+    }
+    synchronized (frameLock) {
+      downsample(source, offeredFrame);
+      frameOffered = true;
+      wantsFrame = false;
+      frameLock.notify();
+    }
+  }
+
+  /** Samples the center of each block of the source that maps onto a pixel of the destination. */
+  private static void downsample(final PixelTensorCodec source, final PixelTensorCodec dest) {
+    final int sourceWidth = source.getWidth();
+    final int sourceHeight = source.getHeight();
+    final int width = dest.getWidth();
+    final int height = dest.getHeight();
+    for (int y = 0; y < height; ++y) {
+      final int sourceRow = ((2 * y + 1) * sourceHeight / (2 * height)) * sourceWidth;
+      for (int x = 0; x < width; ++x) {
+        final int sourcePixel = sourceRow + (2 * x + 1) * sourceWidth / (2 * width);
+        final int pixel = y * width + x;
+        for (int c = 0; c < 3; ++c) {
+          dest.setValue(
+              dest.getTensorIndex(pixel, c),
+              source.getValue(source.getTensorIndex(sourcePixel, c)));
+        }
+      }
+    }
+  }
+
+  private void render() {
+    Process.setThreadPriority(Process.THREAD_PRIORITY_LOWEST);
+    int batch = 0;
+    int round = 0;
+    boolean warmedUp = false;
+    try {
+      while (running) {
+        takeFrame();
+
+        final long startTime = SystemClock.uptimeMillis();
+        final long startCpuTime = SystemClock.currentThreadTimeMillis();
+        if (!warmedUp) {
+          engine.warmUp(size, size);
+          warmedUp = true;
+        }
+
+        final float[][] styles = batches[batch];
+        engine.stylizeBatch(frame, styles, outputs);
+        for (int i = 0; i < styles.length; ++i) {
+          final int style = batchStarts[batch] + i;
+          final Bitmap preview = previews[round % 2][style];
+          outputs[i].decode(preview);
+          listener.onPreviewRendered(style, preview);
+        }
+        batch = (batch + 1) % batches.length;
+        if (batch == 0) {
+          ++round;
+        }
+
+        final long cpuMs = SystemClock.currentThreadTimeMillis() - startCpuTime;
+        final long restMs = (long) (cpuMs / cpuBudget) - (SystemClock.uptimeMillis() - startTime);
+        if (restMs > 0) {
+          Thread.sleep(restMs);
+        }
+        stylesRendered += styles.length;
+        cpuTimeMs += cpuMs;
+        elapsedTimeMs += SystemClock.uptimeMillis() - startTime;
+      }
+    } catch (final InterruptedException e) {
+      // Stopped.
+    }
+    LOGGER.i("Stopped rendering previews: %s", this);
+  }
+
+  /** Waits for a frame to be offered, and swaps it in for rendering. */
+  private void takeFrame() throws InterruptedException {
+    synchronized (frameLock) {
+      wantsFrame = true;
+      while (!frameOffered) {
+        frameLock.wait();
+      }
+      final PixelTensorCodec taken = offeredFrame;
+      offeredFrame = frame;
+      frame = taken;
+      frameOffered = false;
+    }
+  }
+
+  /** Returns how much has been rendered and at what cost. Thread safe. */
+  @Override
+  public String toString() {
+    final long styles = stylesRendered;
+    final long elapsedMs = elapsedTimeMs;
+    return String.format(
+        "%d previews at %dpx, %.0fms each, %.1f%% of a core (budget %.0f%%)",
+        styles,
+        size,
+        styles > 0 ? (float) cpuTimeMs / styles : 0.0f,
+        elapsedMs > 0 ? 100.0f * cpuTimeMs / elapsedMs : 0.0f,
+        100.0f * cpuBudget);
+  }
+}
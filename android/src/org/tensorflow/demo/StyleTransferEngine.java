@@ -0,0 +1,70 @@
+/*
+ * Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.demo;
+
+import org.tensorflow.demo.env.PixelTensorCodec;
+
+/**
+ * Runs the style transfer network on images held in a {@link PixelTensorCodec}. The network is
+ * fully convolutional, so a single engine handles every image size without reloading the graph.
+ *
+ * Engines bind their style and intermediate buffers once and must not allocate in {@link
+ * #stylize}. They are not thread safe; {@link StyleTransferSession} serializes access.
+ */
+public interface StyleTransferEngine {
+  /**
+   * Allocates everything needed for images of the given size and runs the network once on dummy
+   * data, so that the first real frame at that size runs at full speed.
+   */
+  void warmUp(final int width, final int height);
+
+  /**
+   * Allocates everything needed for images of the given size without running the network. Once
+   * the engine has been warmed up at one size this is all another size needs, as the code run is
+   * the same; only the first frame at the new size runs a little slower.
+   */
+  void prepare(final int width, final int height);
+
+  /**
+   * Sets the mix of styles used by subsequent calls to {@link #stylize}.
+   *
+   * @param styleValues One weight per style, summing to 1.
+   */
+  void setStyle(final float[] styleValues);
+
+  /**
+   * Stylizes the image in the codec's tensor, replacing it with the network's output. The size
+   * must have been warmed up.
+   */
+  void stylize(final PixelTensorCodec codec);
+
+  /**
+   * Stylizes the given region of the image in the codec's tensor, in pixels with exclusive right
+   * and bottom bounds. Engines may stylize more than the region, and what the rest of the tensor
+   * holds afterwards is undefined. Meant for frames which only changed within the region since the
+   * latest frame of the same size that was stylized whole.
+   */
+  void stylizeRegion(
+      final PixelTensorCodec codec,
+      final int left,
+      final int top,
+      final int right,
+      final int bottom);
+
+  /** Releases the engine's resources. The engine can't be used afterwards. */
+  void close();
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.demo;
+
+import android.content.res.AssetManager;
+import android.os.SystemClock;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import org.tensorflow.demo.env.Logger;
+import org.tensorflow.demo.env.PixelTensorCodec;
+import org.tensorflow.demo.stylize.GraphDef;
+import org.tensorflow.demo.stylize.JavaStyleTransferEngine;
+import org.tensorflow.demo.stylize.StyleNetwork;
+import org.tensorflow.demo.stylize.TiledStyleTransferEngine;
+
+/**
+ * The process-wide style transfer session. The graph is loaded once from the app's assets when the
+ * session is first requested, and the engine built from it is kept for the life of the process so
+ * that neither has to be reloaded when the activity restarts or the image size changes.
+ *
+ * All methods are thread safe. Style changes are handed over without waiting for a running
+ * inference to finish, so they can be made from the UI thread.
+ */
+public final class StyleTransferSession {
+  private static final Logger LOGGER = new Logger();
+
+  public static final String MODEL_FILE = "stylize_quantized.pb";
+
+  public static final int NUM_STYLES = 26;
+
+  // Images up to this size are stylized in one piece. Larger ones are split into tiles, each of
+  // which takes about 170 bytes of activations per pixel on each worker.
+  private static final int MAX_DIRECT_SIZE = 512;
+  private static final int TILE_SIZE = 384;
+  private static final int MAX_TILE_WORKERS = 4;
+
+  private static StyleTransferSession instance;
+
+  // Null if the graph can't be run.
+  private final StyleNetwork network;
+  private final StyleTransferEngine engine;
+
+  // Runs the engine's tiles and layers. Camera frames are converted on a pool of their own, see
+  // ParallelYUVConverter, so that converting the next frame doesn't queue behind this one's tiles.
+  private final ForkJoinPool pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+  // Sizes the engine has been warmed up or prepared for, in the order they were first used.
+  private int[] preparedSizes = new int[0];
+
+  // The style is staged here by setStyle() and only copied to the engine between inferences.
+  private final Object styleLock = new Object();
+  private final float[] pendingStyle = new float[NUM_STYLES];
+  private volatile boolean styleChanged = false;
+  private final float[] boundStyle = new float[NUM_STYLES];
+
+  private StyleTransferSession(final StyleNetwork network) {
+    this.network = network;
+    engine = createEngine(network, pool);
+    Arrays.fill(pendingStyle, 1.0f / NUM_STYLES);
+    styleChanged = true;
+  }
+
+  /**
+   * Returns the session, loading the graph and creating the engine on first use.
+   *
+   * @throws IOException if the graph can't be read.
+   */
+  public static synchronized StyleTransferSession get(final AssetManager assets)
+      throws IOException {
+    if (instance == null) {
+      final long startTime = SystemClock.uptimeMillis();
+      final byte[] graphDef = readAsset(assets, MODEL_FILE);
+      instance = new StyleTransferSession(loadNetwork(graphDef));
+      LOGGER.i(
+          "Loaded %s (%d bytes) in %dms",
+          MODEL_FILE, graphDef.length, SystemClock.uptimeMillis() - startTime);
+    }
+    return instance;
+  }
+
+  /** Parses the graph, returning null if it isn't a network that can be run. */
+  private static StyleNetwork loadNetwork(final byte[] graphDef) {
+    try {
+      final StyleNetwork network = StyleNetwork.fromGraph(GraphDef.parse(graphDef));
+      LOGGER.i("Running %d layers with %d styles in Java", network.getLayers().size(),
+          network.getNumStyles());
+      return network;
+    } catch (final IllegalArgumentException e) {
+      LOGGER.e(e, "Can't run %s", MODEL_FILE);
+      return null;
+    }
+  }
+
+  private static StyleTransferEngine createEngine(
+      final StyleNetwork network, final ForkJoinPool pool) {
+    // Without a usable network frames are passed through unchanged.
+    if (network == null) {
+      return new PassThroughEngine();
+    }
+    try {
+      return new TiledStyleTransferEngine(
+          network, pool, MAX_DIRECT_SIZE, TILE_SIZE,
+          Math.min(pool.getParallelism(), MAX_TILE_WORKERS));
+    } catch (final IllegalArgumentException e) {
+      LOGGER.e(e, "Can't run %s", MODEL_FILE);
+      return new PassThroughEngine();
+    }
+  }
+
+  /**
+   * Creates an engine of its own running the session's network on the calling thread, for work
+   * which shouldn't wait on the session's frames nor take its cores, or returns null if there is
+   * no network to run.
+   */
+  public JavaStyleTransferEngine createSingleThreadedEngine() {
+    return network != null
+        ? new JavaStyleTransferEngine(network, pool, 1)
+        : null;
+  }
+
+  private static byte[] readAsset(final AssetManager assets, final String filename)
+      throws IOException {
+    final InputStream input = assets.open(filename);
+    try {
+      final ByteArrayOutputStream output = new ByteArrayOutputStream();
+      final byte[] buffer = new byte[16384];
+      int read;
+      while ((read = input.read(buffer)) != -1) {
+        output.write(buffer, 0, read);
+      }
+      return output.toByteArray();
+    } finally {
+      input.close();
+    }
+  }
+
+  /**
+   * Warms the engine up for square images of the given size by running it once on dummy data,
+   * unless it has already been used at that size. This holds the session for a whole inference,
+   * so it is meant for the size about to be stylized, before its first frame; other sizes are
+   * prepared when first used, see {@link #prepare}.
+   */
+  public synchronized void warmUp(final int size) {
+    if (isPrepared(size, size)) {
+      return;
+    }
+
+    final long startTime = SystemClock.uptimeMillis();
+    engine.warmUp(size, size);
+    LOGGER.i("Warmed up at %dx%d in %dms", size, size, SystemClock.uptimeMillis() - startTime);
+    addPreparedSize(size, size);
+  }
+
+  /**
+   * Allocates what the engine needs for images of the given size without running it, unless it
+   * has already been used at that size. Called by the stylize methods, but callers timing them
+   * can call it first to keep the allocation out of their measurements.
+   */
+  public synchronized void prepare(final int width, final int height) {
+    if (isPrepared(width, height)) {
+      return;
+    }
+
+    final long startTime = SystemClock.uptimeMillis();
+    engine.prepare(width, height);
+    LOGGER.i("Prepared %dx%d in %dms", width, height, SystemClock.uptimeMillis() - startTime);
+    addPreparedSize(width, height);
+  }
+
+  private boolean isPrepared(final int width, final int height) {
+    final int key = width * 65536 + height;
+    for (final int prepared : preparedSizes) {
+      if (prepared == key) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void addPreparedSize(final int width, final int height) {
+    preparedSizes = Arrays.copyOf(preparedSizes, preparedSizes.length + 1);
+    preparedSizes[preparedSizes.length - 1] = width * 65536 + height;
+  }
+
+  /**
+   * Sets the mix of styles used from the next inference on.
+   *
+   * @param styleValues {@link #NUM_STYLES} weights summing to 1.
+   */
+  public void setStyle(final float[] styleValues) {
+    synchronized (styleLock) {
+      System.arraycopy(styleValues, 0, pendingStyle, 0, NUM_STYLES);
+      styleChanged = true;
+    }
+  }
+
+  /** Stylizes the image in the codec's tensor in place, preparing first if the size is new. */
+  public synchronized void stylize(final PixelTensorCodec codec) {
+    prepare(codec.getWidth(), codec.getHeight());
+    bindStyle();
+    engine.stylize(codec);
+  }
+
+  /**
+   * Stylizes a region of the image in the codec's tensor in place, see {@link
+   * StyleTransferEngine#stylizeRegion}. The whole image is stylized instead if the style changed
+   * since the previous inference, since the rest of the previous output is stale then.
+   *
+   * @return Whether only the region was stylized. Pixels outside it are undefined then.
+   */
+  public synchronized boolean stylizeRegion(
+      final PixelTensorCodec codec,
+      final int left,
+      final int top,
+      final int right,
+      final int bottom) {
+    prepare(codec.getWidth(), codec.getHeight());
+    if (bindStyle()) {
+      engine.stylize(codec);
+      return false;
+    }
+    engine.stylizeRegion(codec, left, top, right, bottom);
+    return true;
+  }
+
+  /** Hands a pending style change over to the engine, returning whether there was one. */
+  private boolean bindStyle() {
+    if (!styleChanged) {
+      return false;
+    }
+    synchronized (styleLock) {
+      System.arraycopy(pendingStyle, 0, boundStyle, 0, NUM_STYLES);
+      styleChanged = false;
+    }
+    engine.setStyle(boundStyle);
+    return true;
+  }
+}
@@ -17,10 +17,7 @@
 package org.tensorflow.demo;
 
 import android.content.Context;
-import android.content.res.AssetManager;
 import android.graphics.Bitmap;
-import android.graphics.Bitmap.Config;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Matrix;
@@ -49,15 +46,27 @@ import android.widget.GridView;
 import android.widget.ImageView;
 import android.widget.Toast;
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Vector;
 
 import org.tensorflow.demo.OverlayView.DrawCallback;
 import org.tensorflow.demo.env.BorderedText;
+import org.tensorflow.demo.env.ChangeDetector;
+import org.tensorflow.demo.env.FrameAdmissionPolicy;
+import org.tensorflow.demo.env.FramePipeline;
 import org.tensorflow.demo.env.ImageUtils;
+import org.tensorflow.demo.env.LatencyHistogram;
 import org.tensorflow.demo.env.Logger;
+import org.tensorflow.demo.env.ParallelYUVConverter;
+import org.tensorflow.demo.env.PixelTensorCodec;
+import org.tensorflow.demo.env.ResolutionGovernor;
+import org.tensorflow.demo.env.SpanRecorder;
+import org.tensorflow.demo.env.TripleBuffer;
+import org.tensorflow.demo.stylize.JavaStyleTransferEngine;
+import org.tensorflow.demo.stylize.StyleParameterCache;
+import org.tensorflow.demo.tracking.ObjectTracker;
+import org.tensorflow.demo.tracking.TemporalReuse;
 
 /**
  * Sample activity that stylizes the camera preview according to "A Learned Representation For
@@ -66,10 +75,13 @@ import org.tensorflow.demo.env.Logger;
 public class StylizeActivity extends CameraActivity implements OnImageAvailableListener {
   private static final Logger LOGGER = new Logger();
 
-  private static final int NUM_STYLES = 26;
+  private static final int NUM_STYLES = StyleTransferSession.NUM_STYLES;
 
   private static final boolean SAVE_PREVIEW_BITMAP = false;
 
+  // Number of the latest spans kept for tracing, a few seconds' worth.
+  private static final int TRACE_CAPACITY = 4096;
+
   // Whether to actively manipulate non-selected sliders so that sum of activations always appears
   // to be 1.0. The actual style input tensor will be normalized to sum to 1.0 regardless.
   private static final boolean NORMALIZE_SLIDERS = true;
@@ -78,42 +90,163 @@ public class StylizeActivity extends CameraActivity implements OnImageAvailableL
 
   private static final boolean DEBUG_MODEL = false;
 
-  private static final int[] SIZES = {128, 192, 256, 384, 512, 720};
+  // Whether to feed and read the model as uint8 instead of float. The uint8 tensors are a quarter
+  // of the size and map directly onto the pixel bytes, skipping both float conversions.
+  private static final boolean QUANTIZED_IO = true;
+
+  // Quantization parameters of the model's input and output, mapping uint8 onto [0, 1].
+  private static final float IO_QUANTIZATION_SCALE = 1.0f / 255.0f;
+  private static final int IO_ZERO_POINT = 0;
+
+  private static final int[] SIZES = {128, 192, 256, 384, 512, 720, 1080};
+
+  // Frames that may be in flight at once besides those queued for inference: enough for one frame
+  // per pipeline stage. Each of them gets its own input tensor.
+  private static final int FRAMES_IN_FLIGHT = 3;
+
+  // Frames that may wait in front of each pipeline stage other than inference, whose queue is
+  // sized by the admission policy.
+  private static final int STAGE_QUEUE_CAPACITY = 1;
+
+  /**
+   * Intent extra selecting the frame admission policy, in the form understood by {@link
+   * FrameAdmissionPolicy#parse}, e.g. "deadline:100". Defaults to "latest".
+   */
+  public static final String EXTRA_ADMISSION_POLICY = "admission_policy";
+
+  /**
+   * Intent extra with the frame rate, as a float, that the size is automatically adjusted to keep
+   * up with. 0 starts with the size fixed instead. Defaults to {@link #DEFAULT_TARGET_FPS}.
+   */
+  public static final String EXTRA_TARGET_FPS = "target_fps";
+
+  private static final float DEFAULT_TARGET_FPS = 10.0f;
+
+  /**
+   * Intent extra with the number of frames, as an int, to stylize at most one of. The frames in
+   * between are warped from the latest stylized frame along the optical flow, see {@link
+   * TemporalReuse}. Defaults to 1, stylizing every frame.
+   */
+  public static final String EXTRA_KEYFRAME_INTERVAL = "keyframe_interval";
+
+  // Drift, as a fraction of the preview's shorter side, at which a frame is stylized before its
+  // keyframe interval is up.
+  private static final float MAX_KEYFRAME_DRIFT = 0.05f;
+
+  /**
+   * Intent extra with the change of the frame's luma, as a float in 8-bit levels, above which a
+   * part of it is stylized again, see {@link ChangeDetector}. 0 stylizes every frame whole.
+   * Defaults to {@link #DEFAULT_CHANGE_THRESHOLD}.
+   */
+  public static final String EXTRA_CHANGE_THRESHOLD = "change_threshold";
+
+  private static final float DEFAULT_CHANGE_THRESHOLD = 4.0f;
+
+  /**
+   * Intent extra with the largest fraction of the crop, as a float, that is stylized on its own
+   * when the rest of the frame didn't change. Defaults to {@link #DEFAULT_MAX_PARTIAL_AREA}.
+   */
+  public static final String EXTRA_MAX_PARTIAL_AREA = "max_partial_area";
+
+  private static final float DEFAULT_MAX_PARTIAL_AREA = 0.3f;
+
+  /**
+   * Intent extra with the fraction of one core's time, as a float, which the live previews of each
+   * style in the grid may take, see {@link StylePreviewRenderer}. 0 shows still thumbnails instead.
+   * Defaults to {@link #DEFAULT_PREVIEW_BUDGET}.
+   */
+  public static final String EXTRA_PREVIEW_BUDGET = "preview_budget";
+
+  private static final float DEFAULT_PREVIEW_BUDGET = 0.1f;
+
+  // Size of the style previews, and the number rendered at once, which is a row of the grid.
+  private static final int PREVIEW_SIZE = 64;
+  private static final int PREVIEW_BATCH_SIZE = 7;
 
   private static final Size DESIRED_PREVIEW_SIZE = new Size(1280, 720);
 
   // Start at a medium size, but let the user step up through smaller sizes so they don't get
-  // immediately stuck processing a large image.
+  // immediately stuck processing a large image. Index -1 is the automatic size, if enabled.
   private int desiredSizeIndex = -1;
-  private int desiredSize = 256;
+  private volatile int desiredSize = 256;
   private int initializedSize = 0;
 
+  // Adjusts desiredSize to the inference time while autoSize is set. Null if disabled.
+  private ResolutionGovernor governor;
+  private volatile boolean autoSize = false;
+
+  // Held while autoSize and desiredSize are changed together, so that the infer stage can't
+  // overwrite a size picked on the UI thread with the governor's.
+  private final Object sizeLock = new Object();
+
+  // Picks the frames to stylize while more than one in keyframeInterval may be warped instead.
+  // Created by the convert stage for the preview size, and only used by it otherwise.
+  private int keyframeInterval = 1;
+  private volatile TemporalReuse temporalReuse;
+  private PipelineContext trackedPipeline;
+
+  // Decides which frames and parts of frames need stylizing. Null if disabled. Used by the convert
+  // stage, which resets it whenever the context changes.
+  private ChangeDetector changeDetector;
+  private PipelineContext detectedPipeline;
+
   private Integer sensorOrientation;
 
   private int previewWidth = 0;
   private int previewHeight = 0;
-  private byte[][] yuvBytes;
-  private int[] rgbBytes = null;
-  private Bitmap rgbFrameBitmap = null;
-  private Bitmap croppedBitmap = null;
 
+  private final float[] sliderVals = new float[NUM_STYLES];
   private final float[] styleVals = new float[NUM_STYLES];
-  private int[] intValues;
-  private float[] floatValues;
+  private PipelineContext pipeline;
+  private final ParallelYUVConverter yuvConverter = new ParallelYUVConverter();
 
   private int frameNum = 0;
 
-  private Bitmap cropCopyBitmap;
-  private Bitmap textureCopyBitmap;
+  // The context whose frames were published most recently. Its frames are read on the UI thread,
+  // which is the only consumer of the triple buffer.
+  private volatile PipelineContext presentedPipeline;
 
-  private boolean computing = false;
+  // Camera frames are captured on the camera's listener thread, then converted, stylized and
+  // presented by this pipeline, one thread per stage.
+  private volatile FramePipeline<PipelineContext.Job> framePipeline;
 
-  private Matrix frameToCropTransform;
-  private Matrix cropToFrameTransform;
+  private FrameAdmissionPolicy admissionPolicy;
 
-  private BorderedText borderedText;
+  // Loaded on the background thread when the activity first resumes, and set on the UI thread
+  // once it is ready. Camera frames are dropped until then.
+  private volatile StyleTransferSession session;
+
+  private PipelineContextCache pipelineCache;
+
+  private ThumbnailLoader thumbnailLoader;
+
+  private StylePreviewRenderer previewRenderer;
+
+  // How long each step of a frame takes, from acquiring the camera image to drawing the output.
+  // The YUV conversion crops, rotates and packs the tensor in the same pass, so it is one step.
+  private final LatencyHistogram acquireLatency = new LatencyHistogram("acquire");
+  private final LatencyHistogram convertLatency = new LatencyHistogram("convert");
+  private final LatencyHistogram inferLatency = new LatencyHistogram("infer");
+  private final LatencyHistogram warpLatency = new LatencyHistogram("warp");
+  private final LatencyHistogram unpackLatency = new LatencyHistogram("unpack");
+  private final LatencyHistogram presentLatency = new LatencyHistogram("present");
+  private final LatencyHistogram[] latencies = {
+    acquireLatency, convertLatency, inferLatency, warpLatency, unpackLatency, presentLatency
+  };
+
+  // Spans of each frame's steps on every thread, written to the files directory as a Chrome trace
+  // whenever the debug overlay is closed.
+  private final SpanRecorder spans = new SpanRecorder(TRACE_CAPACITY);
 
-  private long lastProcessingTimeMs;
+  // Number of camera frames captured so far. Capture thread only.
+  private int captureCount = 0;
+
+  // The latencies when the debug overlay was opened, which shows what was recorded since. UI
+  // thread only.
+  private final LatencyHistogram.Snapshot[] latencyBaselines =
+      new LatencyHistogram.Snapshot[latencies.length];
+
+  private BorderedText borderedText;
 
   private int lastOtherStyle = 1;
 
@@ -174,41 +307,238 @@ public class StylizeActivity extends CameraActivity implements OnImageAvailableL
   @Override
   public void onCreate(final Bundle savedInstanceState) {
     super.onCreate(savedInstanceState);
+
+    admissionPolicy = FrameAdmissionPolicy.latestWins();
+    final String policySpec = getIntent().getStringExtra(EXTRA_ADMISSION_POLICY);
+    if (policySpec != null) {
+      try {
+        admissionPolicy = FrameAdmissionPolicy.parse(policySpec);
+      } catch (final IllegalArgumentException e) {
+        LOGGER.e(e, "Ignoring admission policy %s", policySpec);
+      }
+    }
+    LOGGER.i("Frame admission policy: %s", admissionPolicy);
+
+    final float targetFps = getIntent().getFloatExtra(EXTRA_TARGET_FPS, DEFAULT_TARGET_FPS);
+    if (targetFps > 0.0f) {
+      governor =
+          new ResolutionGovernor(targetFps, SIZES[0], SIZES[SIZES.length - 1], desiredSize);
+      autoSize = true;
+      LOGGER.i("Adjusting the size to %.1ffps", targetFps);
+    }
+
+    keyframeInterval = getIntent().getIntExtra(EXTRA_KEYFRAME_INTERVAL, 1);
+    if (keyframeInterval > 1 && !ObjectTracker.isAvailable()) {
+      LOGGER.w("No optical flow, stylizing every frame");
+      keyframeInterval = 1;
+    }
+    if (keyframeInterval > 1) {
+      LOGGER.i("Stylizing one in every %d frames at least", keyframeInterval);
+    }
+
+    final float changeThreshold =
+        getIntent().getFloatExtra(EXTRA_CHANGE_THRESHOLD, DEFAULT_CHANGE_THRESHOLD);
+    if (changeThreshold > 0.0f) {
+      final float maxPartialArea =
+          getIntent().getFloatExtra(EXTRA_MAX_PARTIAL_AREA, DEFAULT_MAX_PARTIAL_AREA);
+      changeDetector = new ChangeDetector(changeThreshold, maxPartialArea);
+      LOGGER.i(
+          "Stylizing changes above %.1f, partially up to %.0f%% of the crop",
+          changeThreshold, maxPartialArea * 100.0f);
+    }
+
+    // Bounded to an eighth of the heap, which comfortably holds a context for every entry in
+    // SIZES up to 720, or for the few sizes the governor keeps to. The largest sizes may evict
+    // the others.
+    pipelineCache =
+        new PipelineContextCache(
+            (int) (Runtime.getRuntime().maxMemory() / 8),
+            FRAMES_IN_FLIGHT + admissionPolicy.getQueueCapacity(),
+            changeDetector != null) {
+          @Override
+          protected PixelTensorCodec createCodec(final int width, final int height) {
+            return QUANTIZED_IO
+                ? PixelTensorCodec.newQuantized(
+                    width, height, PixelTensorCodec.Layout.NHWC,
+                    IO_QUANTIZATION_SCALE, IO_ZERO_POINT)
+                : new PixelTensorCodec(width, height, PixelTensorCodec.Layout.NHWC);
+          }
+        };
+
+    // A thirty-second of the heap holds every thumbnail at the cell sizes of common screens.
+    thumbnailLoader =
+        new ThumbnailLoader(
+            getAssets(), NUM_STYLES, (int) (Runtime.getRuntime().maxMemory() / 32));
+  }
+
+  /** Takes the session into use once it has been loaded on the background thread. */
+  private void onSessionLoaded(final StyleTransferSession loaded) {
+    if (session != null) {
+      return;
+    }
+
+    // The sliders may have been set while the session was loading.
+    if (adapter != null) {
+      loaded.setStyle(styleVals);
+    }
+
+    final float previewBudget =
+        getIntent().getFloatExtra(EXTRA_PREVIEW_BUDGET, DEFAULT_PREVIEW_BUDGET);
+    final JavaStyleTransferEngine previewEngine =
+        previewBudget > 0.0f ? loaded.createSingleThreadedEngine() : null;
+    if (previewEngine != null) {
+      previewRenderer =
+          new StylePreviewRenderer(
+              previewEngine,
+              NUM_STYLES,
+              PREVIEW_SIZE,
+              PREVIEW_BATCH_SIZE,
+              Math.min(previewBudget, 1.0f),
+              new StylePreviewRenderer.Listener() {
+                @Override
+                public void onPreviewRendered(final int style, final Bitmap preview) {
+                  runOnUiThread(
+                      new Runnable() {
+                        @Override
+                        public void run() {
+                          if (adapter != null) {
+                            adapter.items[style].setPreview(preview);
+                          }
+                        }
+                      });
+                }
+              });
+      LOGGER.i("Previewing styles with %.0f%% of a core", previewBudget * 100.0f);
+    }
+    if (previewRenderer != null && framePipeline != null) {
+      previewRenderer.start();
+    }
+
+    session = loaded;
   }
 
   @Override
-  protected int getLayoutId() {
-    return R.layout.camera_connection_fragment_stylize;
+  public synchronized void onResume() {
+    super.onResume();
+
+    // Each run of the activity is measured on its own.
+    for (final LatencyHistogram latency : latencies) {
+      latency.reset();
+    }
+    setLatencyBaselines();
+
+    framePipeline = createFramePipeline();
+    framePipeline.start();
+    if (previewRenderer != null) {
+      previewRenderer.start();
+    }
+
+    // The graph is only read once per process, off the UI thread. Only the size about to be
+    // stylized is warmed up ahead of time; warming up every size would hold the session for
+    // seconds before the first frame. Other sizes are prepared when first used, which only
+    // allocates. Sizes used by an earlier instance of the activity are skipped.
+    final int warmUpSize = desiredSize;
+    runInBackground(
+        new Runnable() {
+          @Override
+          public void run() {
+            final StyleTransferSession loaded;
+            try {
+              loaded = StyleTransferSession.get(getAssets());
+            } catch (final IOException e) {
+              throw new RuntimeException("Error loading " + StyleTransferSession.MODEL_FILE, e);
+            }
+            runOnUiThread(
+                new Runnable() {
+                  @Override
+                  public void run() {
+                    onSessionLoaded(loaded);
+                  }
+                });
+            loaded.warmUp(warmUpSize);
+          }
+        });
   }
 
   @Override
-  protected Size getDesiredPreviewFrameSize() {
-    return DESIRED_PREVIEW_SIZE;
+  public synchronized void onPause() {
+    framePipeline.stop();
+    framePipeline = null;
+    if (previewRenderer != null) {
+      previewRenderer.stop();
+    }
+
+    if (temporalReuse != null) {
+      temporalReuse.release();
+      temporalReuse = null;
+      trackedPipeline = null;
+    }
+
+    super.onPause();
   }
 
-  public static Bitmap getBitmapFromAsset(final Context context, final String filePath) {
-    final AssetManager assetManager = context.getAssets();
+  @Override
+  public void onSetDebug(final boolean debug) {
+    if (debug) {
+      setLatencyBaselines();
+    } else {
+      for (int i = 0; i < latencies.length; ++i) {
+        LOGGER.i("Latency %s", latencies[i].snapshot().minus(latencyBaselines[i]));
+      }
+      for (final ImageUtils.NativePhaseTiming timing : ImageUtils.getNativePhaseTimings(false)) {
+        LOGGER.i("Native %s", timing);
+      }
+      for (final ObjectTracker.TimeLogEntry entry : ObjectTracker.getTimeLog()) {
+        LOGGER.i("Tracker %s", entry);
+      }
+      runInBackground(
+          new Runnable() {
+            @Override
+            public void run() {
+              try {
+                spans.dump(getFilesDir());
+              } catch (final IOException e) {
+                LOGGER.e(e, "Failed to write trace");
+              }
+            }
+          });
+    }
+  }
 
-    Bitmap bitmap = null;
-    try {
-      final InputStream inputStream = assetManager.open(filePath);
-      bitmap = BitmapFactory.decodeStream(inputStream);
-    } catch (final IOException e) {
-      LOGGER.e("Error opening bitmap!", e);
+  private void setLatencyBaselines() {
+    for (int i = 0; i < latencies.length; ++i) {
+      latencyBaselines[i] = latencies[i].snapshot();
     }
+    // The native timings can't be snapshotted, so they start over instead.
+    ImageUtils.getNativePhaseTimings(true);
+  }
+
+  @Override
+  protected int getLayoutId() {
+    return R.layout.camera_connection_fragment_stylize;
+  }
 
-    return bitmap;
+  @Override
+  protected Size getDesiredPreviewFrameSize() {
+    return DESIRED_PREVIEW_SIZE;
   }
 
   private class ImageSlider extends ImageView {
+    private final int index;
     private float value = 0.0f;
     private boolean hilighted = false;
 
     private final Paint boxPaint;
     private final Paint linePaint;
 
-    public ImageSlider(final Context context) {
+    // The live preview of the style, drawn over the thumbnail once there is one.
+    private Bitmap preview;
+    private final Rect previewRect = new Rect();
+    private final Paint previewPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    public ImageSlider(final Context context, final int index) {
       super(context);
+      this.index = index;
       value = 0.0f;
 
       boxPaint = new Paint();
@@ -224,6 +554,10 @@ public class StylizeActivity extends CameraActivity implements OnImageAvailableL
     @Override
     public void onDraw(final Canvas canvas) {
       super.onDraw(canvas);
+      if (preview != null) {
+        previewRect.set(0, 0, getWidth(), getHeight());
+        canvas.drawBitmap(preview, null, previewRect, previewPaint);
+      }
       final float y = (1.0f - value) * canvas.getHeight();
 
       // If all sliders are zero, don't bother shading anything.
@@ -246,6 +580,21 @@ public class StylizeActivity extends CameraActivity implements OnImageAvailableL
       setMeasuredDimension(getMeasuredWidth(), getMeasuredWidth());
     }
 
+    @Override
+    protected void onSizeChanged(final int w, final int h, final int oldw, final int oldh) {
+      super.onSizeChanged(w, h, oldw, oldh);
+      // The thumbnail is only decoded once the cell size is known, down to that size.
+      if (w > 0) {
+        thumbnailLoader.load(index, w, this);
+      }
+    }
+
+    /** Shows a live preview of the style in place of its thumbnail. UI thread only. */
+    public void setPreview(final Bitmap preview) {
+      this.preview = preview;
+      invalidate();
+    }
+
     public void setValue(final float value) {
       this.value = value;
       postInvalidate();
@@ -270,14 +619,20 @@ public class StylizeActivity extends CameraActivity implements OnImageAvailableL
               setMeasuredDimension(getMeasuredWidth(), getMeasuredWidth());
             }
           };
-      sizeButton.setText("" + desiredSize);
+      sizeButton.setText(autoSize ? "Auto" : "" + desiredSize);
       sizeButton.setOnClickListener(
           new OnClickListener() {
             @Override
             public void onClick(final View v) {
-              desiredSizeIndex = (desiredSizeIndex + 1) % SIZES.length;
-              desiredSize = SIZES[desiredSizeIndex];
-              sizeButton.setText("" + desiredSize);
+              desiredSizeIndex = desiredSizeIndex + 1;
+              if (desiredSizeIndex == SIZES.length) {
+                desiredSizeIndex = governor != null ? -1 : 0;
+              }
+              synchronized (sizeLock) {
+                autoSize = desiredSizeIndex == -1;
+                desiredSize = autoSize ? governor.getSize() : SIZES[desiredSizeIndex];
+              }
+              sizeButton.setText(autoSize ? "Auto" : "" + desiredSize);
               sizeButton.postInvalidate();
             }
           });
@@ -297,12 +652,13 @@ public class StylizeActivity extends CameraActivity implements OnImageAvailableL
           new OnClickListener() {
             @Override
             public void onClick(final View v) {
-              if (textureCopyBitmap != null) {
+              final PipelineContext.Frame frame = acquirePresentedFrame();
+              if (frame != null) {
                 // TODO(andrewharp): Save as jpeg with guaranteed unique filename.
-                ImageUtils.saveBitmap(textureCopyBitmap, "stylized" + frameNum + ".png");
+                ImageUtils.saveBitmap(frame.getOutput(), "stylized" + frame.frameNum + ".png");
                 Toast.makeText(
                         StylizeActivity.this,
-                        "Saved image to: /sdcard/tensorflow/" + "stylized" + frameNum + ".png",
+                        "Saved image to: /sdcard/tensorflow/stylized" + frame.frameNum + ".png",
                         Toast.LENGTH_LONG)
                     .show();
               }
@@ -316,12 +672,7 @@ public class StylizeActivity extends CameraActivity implements OnImageAvailableL
         LOGGER.v("Creating item %d", i);
 
         if (items[i] == null) {
-          final ImageSlider slider = new ImageSlider(StylizeActivity.this);
-          final Bitmap bm =
-              getBitmapFromAsset(StylizeActivity.this, "thumbnails/style" + i + ".jpg");
-          slider.setImageBitmap(bm);
-
-          items[i] = slider;
+          items[i] = new ImageSlider(StylizeActivity.this, i);
         }
       }
     }
@@ -428,185 +779,441 @@ public class StylizeActivity extends CameraActivity implements OnImageAvailableL
       }
     }
 
-    final boolean lastAllZero = allZero;
-    float sum = 0.0f;
-    for (int i = 0; i < NUM_STYLES; ++i) {
-      sum += adapter.items[i].value;
-    }
-    allZero = sum == 0.0f;
-
     // Now update the values used for the input tensor. If nothing is set, mix in everything
     // equally. Otherwise everything is normalized to sum to 1.0.
     for (int i = 0; i < NUM_STYLES; ++i) {
-      styleVals[i] = allZero ? 1.0f / NUM_STYLES : adapter.items[i].value / sum;
-
-      if (lastAllZero != allZero) {
+      sliderVals[i] = adapter.items[i].value;
+    }
+    final boolean lastAllZero = allZero;
+    allZero = StyleParameterCache.normalize(sliderVals, styleVals);
+    if (lastAllZero != allZero) {
+      for (int i = 0; i < NUM_STYLES; ++i) {
         adapter.items[i].postInvalidate();
       }
     }
+    if (session != null) {
+      session.setStyle(styleVals);
+    }
+
+    // The output kept for unchanged frames has the previous style.
+    if (changeDetector != null) {
+      changeDetector.reset();
+    }
   }
 
   @Override
   public void onImageAvailable(final ImageReader reader) {
     Image image = null;
+    PipelineContext.Job job = null;
 
+    Trace.beginSection("imageAvailable");
     try {
+      final long acquireStartTime = SystemClock.elapsedRealtimeNanos();
       image = reader.acquireLatestImage();
+      final long acquireEndTime = SystemClock.elapsedRealtimeNanos();
+      acquireLatency.record(acquireEndTime - acquireStartTime);
 
       if (image == null) {
         return;
       }
-
-      if (computing) {
-        image.close();
-        return;
-      }
+      ++captureCount;
+      spans.record("acquire", acquireStartTime, acquireEndTime, captureCount, initializedSize);
 
       if (desiredSize != initializedSize) {
         LOGGER.i(
             "Initializing at size preview size %dx%d, stylize size %d",
             previewWidth, previewHeight, desiredSize);
-        rgbBytes = new int[previewWidth * previewHeight];
-        rgbFrameBitmap = Bitmap.createBitmap(previewWidth, previewHeight, Config.ARGB_8888);
-        croppedBitmap = Bitmap.createBitmap(desiredSize, desiredSize, Config.ARGB_8888);
-
-        frameToCropTransform =
-            ImageUtils.getTransformationMatrix(
-                previewWidth, previewHeight,
-                desiredSize, desiredSize,
-                sensorOrientation, true);
-
-        cropToFrameTransform = new Matrix();
-        frameToCropTransform.invert(cropToFrameTransform);
-
-        yuvBytes = new byte[3][];
-
-        intValues = new int[desiredSize * desiredSize];
-        floatValues = new float[desiredSize * desiredSize * 3];
+        pipeline =
+            pipelineCache.get(
+                new PipelineContext.Key(
+                    previewWidth, previewHeight, desiredSize, sensorOrientation));
         initializedSize = desiredSize;
       }
 
-      computing = true;
-
-      Trace.beginSection("imageAvailable");
-
-      final Plane[] planes = image.getPlanes();
-      fillBytes(planes, yuvBytes);
-
-      final int yRowStride = planes[0].getRowStride();
-      final int uvRowStride = planes[1].getRowStride();
-      final int uvPixelStride = planes[1].getPixelStride();
-
-      ImageUtils.convertYUV420ToARGB8888(
-          yuvBytes[0],
-          yuvBytes[1],
-          yuvBytes[2],
-          previewWidth,
-          previewHeight,
-          yRowStride,
-          uvRowStride,
-          uvPixelStride,
-          rgbBytes);
+      final FramePipeline<PipelineContext.Job> frames = framePipeline;
+      if (frames == null || session == null || !admissionPolicy.admit(image.getTimestamp())) {
+        return;
+      }
 
-      image.close();
+      // Drop the frame if all of this size's frames are still in flight.
+      job = pipeline.obtainJob();
+      if (job == null) {
+        admissionPolicy.recordDrop(FrameAdmissionPolicy.DropReason.BUSY);
+        return;
+      }
+      job.image = image;
+      job.timestampNs = image.getTimestamp();
+      job.captureNum = captureCount;
+      job.handoffTimeNs = SystemClock.elapsedRealtimeNanos();
+      image = null;
+
+      // If the convert stage is backed up, either this frame or the one waiting there is dropped.
+      if (admissionPolicy.replacesWaitingFrames()) {
+        final PipelineContext.Job replaced = frames.submitReplacing(job);
+        if (replaced != job) {
+          job = replaced;
+          if (replaced != null) {
+            admissionPolicy.recordDrop(FrameAdmissionPolicy.DropReason.SUPERSEDED);
+          }
+        }
+      } else if (frames.submit(job)) {
+        job = null;
+      } else {
+        admissionPolicy.recordDrop(FrameAdmissionPolicy.DropReason.BUSY);
+      }
     } catch (final Exception e) {
+      LOGGER.e(e, "Exception!");
+    } finally {
+      if (job != null) {
+        job.recycle();
+      }
       if (image != null) {
         image.close();
       }
-      LOGGER.e(e, "Exception!");
       Trace.endSection();
-      return;
     }
+  }
 
-    rgbFrameBitmap.setPixels(rgbBytes, 0, previewWidth, 0, 0, previewWidth, previewHeight);
-    final Canvas canvas = new Canvas(croppedBitmap);
-    canvas.drawBitmap(rgbFrameBitmap, frameToCropTransform, null);
+  private FramePipeline<PipelineContext.Job> createFramePipeline() {
+    final FramePipeline<PipelineContext.Job> frames =
+        new FramePipeline<>(
+            "stylize",
+            STAGE_QUEUE_CAPACITY,
+            new FramePipeline.Recycler<PipelineContext.Job>() {
+              @Override
+              public void recycle(final PipelineContext.Job job) {
+                job.recycle();
+              }
+            });
 
-    // For examining the actual TF input.
-    if (SAVE_PREVIEW_BITMAP) {
-      ImageUtils.saveBitmap(croppedBitmap);
-    }
+    frames.addStage(
+        "convert",
+        new FramePipeline.Processor<PipelineContext.Job>() {
+          @Override
+          public boolean process(final PipelineContext.Job job) {
+            final PipelineContext context = job.getContext();
+            final PipelineContext.Key key = context.getKey();
+            final Plane[] planes = job.image.getPlanes();
+
+            final int yRowStride = planes[0].getRowStride();
+            final int uvRowStride = planes[1].getRowStride();
+            final int uvPixelStride = planes[1].getPixelStride();
+
+            if (keyframeInterval > 1) {
+              TemporalReuse reuse = temporalReuse;
+              if (reuse == null) {
+                reuse =
+                    new TemporalReuse(
+                        key.previewWidth, key.previewHeight, keyframeInterval, MAX_KEYFRAME_DRIFT);
+                temporalReuse = reuse;
+              }
+              // A context shown for the first time has no keyframe to warp from.
+              if (context != trackedPipeline) {
+                reuse.requestRefresh();
+                trackedPipeline = context;
+              }
 
-    runInBackground(
-        new Runnable() {
+              job.reusesKeyframe =
+                  !reuse.nextFrame(planes[0].getBuffer(), yRowStride, job.timestampNs);
+              job.trackingSegment = reuse.getSegment();
+              reuse.getPose(job.pose);
+              if (job.reusesKeyframe) {
+                job.image.close();
+                job.image = null;
+                return true;
+              }
+            }
+
+            if (changeDetector != null) {
+              // A context shown for the first time has no output to keep.
+              if (context != detectedPipeline) {
+                changeDetector.reset();
+                detectedPipeline = context;
+              }
+
+              final ChangeDetector.Decision decision =
+                  changeDetector.detect(
+                      planes[0].getBuffer(),
+                      yRowStride,
+                      key.previewWidth,
+                      key.previewHeight,
+                      context.getCropToFrameTransform(),
+                      key.cropSize,
+                      job.region);
+              job.changeFrame = changeDetector.getFrameCount();
+              job.partial = decision != ChangeDetector.Decision.FULL;
+              if (decision == ChangeDetector.Decision.REUSE) {
+                job.region.setEmpty();
+                job.image.close();
+                job.image = null;
+                return true;
+              }
+            }
+
+            // Crop, rotate and normalize straight from the camera's buffers into the input
+            // tensor, so that the image can be released right away.
+            final long startTime = SystemClock.elapsedRealtimeNanos();
+            yuvConverter.convertYUV420ToTensor(
+                planes[0].getBuffer(),
+                planes[1].getBuffer(),
+                planes[2].getBuffer(),
+                key.previewWidth,
+                key.previewHeight,
+                yRowStride,
+                uvRowStride,
+                uvPixelStride,
+                context.getCropToFrameTransform(),
+                job.getCodec());
+            final long endTime = SystemClock.elapsedRealtimeNanos();
+            convertLatency.record(endTime - startTime);
+            spans.record("yuv-to-tensor", startTime, endTime, job.captureNum, key.cropSize);
+
+            job.image.close();
+            job.image = null;
+
+            if (previewRenderer != null) {
+              previewRenderer.offerFrame(job.getCodec());
+            }
+
+            // The input only exists as a tensor now, so only render it when it will be shown.
+            if (SAVE_PREVIEW_BITMAP || isDebug()) {
+              final Bitmap input = job.getInputForRendering();
+              job.getCodec().decode(input);
+
+              // For examining the actual TF input.
+              if (SAVE_PREVIEW_BITMAP) {
+                ImageUtils.saveBitmap(input);
+              }
+            }
+            return true;
+          }
+        });
+
+    frames.addStage(
+        "infer",
+        admissionPolicy.getQueueCapacity(),
+        new FramePipeline.Processor<PipelineContext.Job>() {
           @Override
-          public void run() {
-            cropCopyBitmap = Bitmap.createBitmap(croppedBitmap);
+          public boolean process(final PipelineContext.Job job) {
+            if (!admissionPolicy.keep(job.timestampNs)) {
+              // The frames which would have been warped from this one need another keyframe.
+              final TemporalReuse reuse = temporalReuse;
+              if (!job.reusesKeyframe && reuse != null) {
+                reuse.requestRefresh();
+              }
+              // So do the frames whose changes were detected against this one.
+              if (!job.reusesKeyframe && changeDetector != null) {
+                changeDetector.reset();
+              }
+              return false;
+            }
+
+            if (job.reusesKeyframe || (job.partial && job.region.isEmpty())) {
+              job.frameNum = frameNum;
+              return true;
+            }
+
+            // Allocating for a new size, or waiting for it to be warmed up, isn't inference.
+            session.prepare(job.getCodec().getWidth(), job.getCodec().getHeight());
+
+            final long startTime = SystemClock.elapsedRealtimeNanos();
+            stylizeImage(job);
+            final long timeNs = SystemClock.elapsedRealtimeNanos() - startTime;
+            inferLatency.record(timeNs);
+            job.processingTimeMs = timeNs / 1000000;
+            job.frameNum = frameNum;
+
+            // Partial frames say little about how long whole frames take.
+            if (autoSize && !job.partial) {
+              final int size = governor.update(job.getCodec().getWidth(), job.processingTimeMs);
+              // The size may have been picked by hand since autoSize was read.
+              synchronized (sizeLock) {
+                if (autoSize) {
+                  desiredSize = size;
+                }
+              }
+            }
+            return true;
+          }
+        });
+
+    frames.addStage(
+        "present",
+        new FramePipeline.Processor<PipelineContext.Job>() {
+          private final float[] warp = {1.0f, 0.0f, 0.0f, 0.0f, 1.0f, 0.0f, 0.0f, 0.0f, 1.0f};
+          private final Matrix warpMatrix = new Matrix();
+          private final Paint warpPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+          // The change detector's number of the latest frame whose output was kept.
+          private int keptChangeFrame;
+
+          @Override
+          public boolean process(final PipelineContext.Job job) {
+            final PipelineContext context = job.getContext();
+            final PipelineContext.Keyframe keyframe =
+                keyframeInterval > 1 ? context.getKeyframe() : null;
+
+            // Without its keyframe, which was dropped, a frame can't be shown.
+            if (job.reusesKeyframe && keyframe.trackingSegment != job.trackingSegment) {
+              final TemporalReuse reuse = temporalReuse;
+              if (reuse != null) {
+                reuse.requestRefresh();
+              }
+              return false;
+            }
+
+            if (changeDetector != null && !job.reusesKeyframe) {
+              // Partial frames build on the output of the frame detected right before them, and
+              // can't be shown if it was dropped.
+              if (job.partial && job.changeFrame != keptChangeFrame + 1) {
+                changeDetector.reset();
+                return false;
+              }
+              keptChangeFrame = job.changeFrame;
 
-            final long startTime = SystemClock.uptimeMillis();
-            stylizeImage(croppedBitmap);
-            lastProcessingTimeMs = SystemClock.uptimeMillis() - startTime;
+              // Unchanged frames have nothing new to show, but still move the keyframe along.
+              if (job.region.isEmpty()) {
+                if (keyframe != null) {
+                  keyframe.trackingSegment = job.trackingSegment;
+                  System.arraycopy(job.pose, 0, keyframe.pose, 0, job.pose.length);
+                }
+                return false;
+              }
+            }
 
-            textureCopyBitmap = Bitmap.createBitmap(croppedBitmap);
+            // Render straight into the back buffer, which the UI thread can't be reading.
+            final TripleBuffer<PipelineContext.Frame> presented = context.getFrames();
+            final PipelineContext.Frame frame = presented.getBackBuffer();
+
+            final long startTime = SystemClock.elapsedRealtimeNanos();
+            if (job.reusesKeyframe) {
+              TemporalReuse.getCropWarp(
+                  keyframe.pose, job.pose, context.getCropToFrameTransform(), warp);
+              warpMatrix.setValues(warp);
+              // Whatever the keyframe doesn't cover keeps an older frame's output.
+              frame.getOutputCanvas().drawBitmap(keyframe.getOutput(), warpMatrix, warpPaint);
+              final long endTime = SystemClock.elapsedRealtimeNanos();
+              warpLatency.record(endTime - startTime);
+              spans.record("warp", startTime, endTime, job.captureNum, context.getCropSize());
+            } else {
+              // Stylized regions are shown over the rest of the last output.
+              final PixelTensorCodec output =
+                  changeDetector != null ? context.getLastOutput() : job.getCodec();
+              if (changeDetector != null) {
+                final Rect region = job.region;
+                output.copyRegion(
+                    job.getCodec(), region.left, region.top, region.right, region.bottom);
+              }
+              output.decode(frame.getOutput());
+              final long endTime = SystemClock.elapsedRealtimeNanos();
+              unpackLatency.record(endTime - startTime);
+              spans.record("unpack", startTime, endTime, job.captureNum, context.getCropSize());
+              if (keyframe != null) {
+                output.decode(keyframe.getOutput());
+                keyframe.trackingSegment = job.trackingSegment;
+                System.arraycopy(job.pose, 0, keyframe.pose, 0, job.pose.length);
+              }
+            }
+            job.swapInput(frame);
+            frame.frameNum = job.frameNum;
+            frame.captureNum = job.captureNum;
+
+            presented.publish();
+            presentedPipeline = job.getContext();
 
             requestRender();
-            computing = false;
+            return true;
+          }
+        });
+
+    // Every stage's span, after the span the job spent waiting since the previous thread was
+    // done with it, in the queue or for room in it.
+    frames.setTracer(
+        new FramePipeline.Tracer<PipelineContext.Job>() {
+          @Override
+          public void onProcessed(
+              final String stageName,
+              final PipelineContext.Job job,
+              final long startNs,
+              final long endNs) {
+            final int size = job.getContext().getCropSize();
+            spans.record("wait", job.handoffTimeNs, startNs, job.captureNum, size);
+            spans.record(stageName, startNs, endNs, job.captureNum, size);
+            job.handoffTimeNs = endNs;
           }
         });
 
-    Trace.endSection();
+    return frames;
   }
 
-  private void stylizeImage(final Bitmap bitmap) {
+  private void stylizeImage(final PipelineContext.Job job) {
+    final PixelTensorCodec codec = job.getCodec();
     ++frameNum;
-    bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
 
+    // The input tensor has already been filled from the camera frame by the time we get here.
     if (DEBUG_MODEL) {
       // Create a white square that steps through a black background 1 pixel per frame.
-      final int centerX = (frameNum + bitmap.getWidth() / 2) % bitmap.getWidth();
-      final int centerY = bitmap.getHeight() / 2;
+      final int centerX = (frameNum + codec.getWidth() / 2) % codec.getWidth();
+      final int centerY = codec.getHeight() / 2;
       final int squareSize = 10;
-      for (int i = 0; i < intValues.length; ++i) {
-        final int x = i % bitmap.getWidth();
-        final int y = i / bitmap.getHeight();
-        final float val =
-            Math.abs(x - centerX) < squareSize && Math.abs(y - centerY) < squareSize ? 1.0f : 0.0f;
-        floatValues[i * 3] = val;
-        floatValues[i * 3 + 1] = val;
-        floatValues[i * 3 + 2] = val;
-      }
-    } else {
-      for (int i = 0; i < intValues.length; ++i) {
-        final int val = intValues[i];
-        floatValues[i * 3] = ((val >> 16) & 0xFF) / 255.0f;
-        floatValues[i * 3 + 1] = ((val >> 8) & 0xFF) / 255.0f;
-        floatValues[i * 3 + 2] = (val & 0xFF) / 255.0f;
+      final int numPixels = codec.getWidth() * codec.getHeight();
+      for (int i = 0; i < numPixels; ++i) {
+        final int x = i % codec.getWidth();
+        final int y = i / codec.getHeight();
+        final int val =
+            Math.abs(x - centerX) < squareSize && Math.abs(y - centerY) < squareSize
+                ? Color.WHITE
+                : Color.BLACK;
+        codec.setPixel(i, val);
       }
     }
 
-    // TODO: Process the image in TensorFlow here.
-
-    for (int i = 0; i < intValues.length; ++i) {
-      intValues[i] =
-          0xFF000000
-              | (((int) (floatValues[i * 3] * 255)) << 16)
-              | (((int) (floatValues[i * 3 + 1] * 255)) << 8)
-              | ((int) (floatValues[i * 3 + 2] * 255));
+    // The output replaces the input in the same tensor.
+    if (job.partial) {
+      final Rect region = job.region;
+      if (!session.stylizeRegion(codec, region.left, region.top, region.right, region.bottom)) {
+        // The style changed, so the whole frame was stylized.
+        job.partial = false;
+        region.set(0, 0, codec.getWidth(), codec.getHeight());
+      }
+    } else {
+      session.stylize(codec);
     }
+  }
 
-    bitmap.setPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
+  /** Returns the newest published frame, or null if there is none yet. UI thread only. */
+  private PipelineContext.Frame acquirePresentedFrame() {
+    final PipelineContext context = presentedPipeline;
+    return context != null ? context.getFrames().acquire() : null;
   }
 
   private void renderDebug(final Canvas canvas) {
-    // TODO(andrewharp): move result display to its own View instead of using debug overlay.
-    final Bitmap texture = textureCopyBitmap;
-    if (texture != null) {
-      final Matrix matrix = new Matrix();
-      final float scaleFactor =
-          DEBUG_MODEL
-              ? 4.0f
-              : Math.min(
-                  (float) canvas.getWidth() / texture.getWidth(),
-                  (float) canvas.getHeight() / texture.getHeight());
-      matrix.postScale(scaleFactor, scaleFactor);
-      canvas.drawBitmap(texture, matrix, new Paint());
+    final PipelineContext.Frame frame = acquirePresentedFrame();
+    if (frame == null) {
+      return;
     }
 
+    // TODO(andrewharp): move result display to its own View instead of using debug overlay.
+    final Bitmap texture = frame.getOutput();
+    final Matrix textureMatrix = new Matrix();
+    final float textureScale =
+        DEBUG_MODEL
+            ? 4.0f
+            : Math.min(
+                (float) canvas.getWidth() / texture.getWidth(),
+                (float) canvas.getHeight() / texture.getHeight());
+    textureMatrix.postScale(textureScale, textureScale);
+    final long startTime = SystemClock.elapsedRealtimeNanos();
+    canvas.drawBitmap(texture, textureMatrix, new Paint());
+    final long endTime = SystemClock.elapsedRealtimeNanos();
+    presentLatency.record(endTime - startTime);
+    spans.record("draw", startTime, endTime, frame.captureNum, texture.getWidth());
+
     if (!isDebug()) {
       return;
     }
 
-    final Bitmap copy = cropCopyBitmap;
+    final Bitmap copy = frame.getInput();
     if (copy == null) {
       return;
     }
@@ -627,9 +1234,28 @@ public class StylizeActivity extends CameraActivity implements OnImageAvailableL
     lines.add("Crop: " + copy.getWidth() + "x" + copy.getHeight());
     lines.add("View: " + canvas.getWidth() + "x" + canvas.getHeight());
     lines.add("Rotation: " + sensorOrientation);
-    lines.add("Inference time: " + lastProcessingTimeMs + "ms");
     lines.add("Desired size: " + desiredSize);
     lines.add("Initialized size: " + initializedSize);
+    lines.add("Pipeline cache: " + pipelineCache);
+    lines.add("Admission: " + admissionPolicy);
+    lines.add("Governor: " + (autoSize ? governor : "off"));
+    lines.add("Temporal reuse: " + (keyframeInterval > 1 ? temporalReuse : "off"));
+    lines.add("Change detection: " + (changeDetector != null ? changeDetector : "off"));
+    lines.add("Style previews: " + (previewRenderer != null ? previewRenderer : "off"));
+    lines.add("Trace: " + spans);
+
+    final FramePipeline<PipelineContext.Job> frames = framePipeline;
+    if (frames != null) {
+      for (final FramePipeline<PipelineContext.Job>.Stage stage : frames.getStages()) {
+        lines.add("Stage " + stage);
+      }
+    }
+    for (int i = 0; i < latencies.length; ++i) {
+      lines.add("Latency " + latencies[i].snapshot().minus(latencyBaselines[i]));
+    }
+    for (final ImageUtils.NativePhaseTiming timing : ImageUtils.getNativePhaseTimings(false)) {
+      lines.add("Native " + timing);
+    }
 
     borderedText.drawLines(canvas, 10, canvas.getHeight() - 10, lines);
   }
@@ -0,0 +1,262 @@
+/*
+ * Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.demo;
+
+import android.content.res.AssetManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.LruCache;
+import android.widget.ImageView;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.tensorflow.demo.env.Logger;
+
+/**
+ * Loads the style thumbnails in the background, downsampled to the size they are shown at, and
+ * keeps them in an LRU cache bounded by the bytes they hold.
+ *
+ * <p>Thumbnails are read from {@link #ATLAS_FILE} if the assets contain it, which takes one open
+ * and one decode for all of them. The atlas is a grid of square thumbnails, {@link #ATLAS_COLUMNS}
+ * to a row, in style order; it is made from the individual thumbnails by the ThumbnailAtlasPacker
+ * tool. Without it, each thumbnail is decoded from its own file.
+ *
+ * <p>All methods must be called on the UI thread.
+ */
+public class ThumbnailLoader {
+  private static final Logger LOGGER = new Logger();
+
+  public static final String ATLAS_FILE = "thumbnails/atlas.jpg";
+  public static final int ATLAS_COLUMNS = 7;
+
+  private static final String THUMBNAIL_FILE = "thumbnails/style%d.jpg";
+
+  // How long the decoding thread lingers once there is nothing left to decode.
+  private static final long KEEP_ALIVE_SECONDS = 5;
+
+  private final AssetManager assets;
+  private final int numThumbnails;
+  private final boolean hasAtlas;
+
+  private final Handler uiHandler = new Handler(Looper.getMainLooper());
+  private final ThreadPoolExecutor executor =
+      new ThreadPoolExecutor(
+          1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+  private final LruCache<Long, Bitmap> cache;
+
+  // The views waiting on each thumbnail being decoded, keyed like the cache.
+  private final Map<Long, List<ImageView>> pending = new HashMap<Long, List<ImageView>>();
+
+  /**
+   * @param assets The assets holding the thumbnails.
+   * @param numThumbnails Number of thumbnails, one per style.
+   * @param maxBytes Upper bound on the bytes held by cached thumbnails.
+   */
+  public ThumbnailLoader(final AssetManager assets, final int numThumbnails, final int maxBytes) {
+    this.assets = assets;
+    this.numThumbnails = numThumbnails;
+    executor.allowCoreThreadTimeOut(true);
+    cache =
+        new LruCache<Long, Bitmap>(maxBytes) {
+          @Override
+          protected int sizeOf(final Long key, final Bitmap bitmap) {
+            return bitmap.getByteCount();
+          }
+        };
+
+    boolean atlas;
+    try {
+      atlas = Arrays.asList(assets.list("thumbnails")).contains("atlas.jpg");
+    } catch (final IOException e) {
+      atlas = false;
+    }
+    hasAtlas = atlas;
+    LOGGER.i("Loading thumbnails from %s", hasAtlas ? ATLAS_FILE : "individual files");
+  }
+
+  /**
+   * Shows a thumbnail in a view, right away if it is cached and otherwise once it has been decoded
+   * in the background.
+   *
+   * @param index Index of the style whose thumbnail to show.
+   * @param size Width and height the view shows the thumbnail at, in pixels.
+   * @param view The view to set the thumbnail of.
+   */
+  public void load(final int index, final int size, final ImageView view) {
+    final long key = getKey(index, size);
+    final Bitmap cached = cache.get(key);
+    if (cached != null) {
+      view.setImageBitmap(cached);
+      return;
+    }
+
+    List<ImageView> views = pending.get(key);
+    if (views != null) {
+      views.add(view);
+      return;
+    }
+    views = new ArrayList<ImageView>();
+    views.add(view);
+    pending.put(key, views);
+
+    if (hasAtlas) {
+      // The whole atlas is decoded at once, so every other thumbnail of this size is pending too.
+      for (int i = 0; i < numThumbnails; ++i) {
+        if (i != index && !pending.containsKey(getKey(i, size))) {
+          pending.put(getKey(i, size), new ArrayList<ImageView>());
+        }
+      }
+      executor.execute(
+          new Runnable() {
+            @Override
+            public void run() {
+              decodeAtlas(size);
+            }
+          });
+    } else {
+      executor.execute(
+          new Runnable() {
+            @Override
+            public void run() {
+              decodeThumbnail(index, size);
+            }
+          });
+    }
+  }
+
+  private static long getKey(final int index, final int size) {
+    return ((long) size << 32) | index;
+  }
+
+  /** Decodes the atlas, then splits it into thumbnails of the given size. */
+  private void decodeAtlas(final int size) {
+    final long startTime = SystemClock.uptimeMillis();
+    final Bitmap atlas;
+    try {
+      atlas = decodeAsset(ATLAS_FILE, ATLAS_COLUMNS, size);
+    } catch (final IOException e) {
+      LOGGER.e(e, "Error decoding %s", ATLAS_FILE);
+      for (int i = 0; i < numThumbnails; ++i) {
+        deliver(getKey(i, size), null);
+      }
+      return;
+    }
+
+    final int cellSize = atlas.getWidth() / ATLAS_COLUMNS;
+    for (int i = 0; i < numThumbnails; ++i) {
+      final Bitmap cell =
+          Bitmap.createBitmap(
+              atlas,
+              (i % ATLAS_COLUMNS) * cellSize,
+              (i / ATLAS_COLUMNS) * cellSize,
+              cellSize,
+              cellSize);
+      deliver(getKey(i, size), scaleTo(cell, size));
+    }
+    atlas.recycle();
+    LOGGER.i(
+        "Decoded thumbnail atlas at %dpx in %dms", size, SystemClock.uptimeMillis() - startTime);
+  }
+
+  private void decodeThumbnail(final int index, final int size) {
+    final String file = String.format(THUMBNAIL_FILE, index);
+    Bitmap bitmap = null;
+    try {
+      bitmap = scaleTo(decodeAsset(file, 1, size), size);
+    } catch (final IOException e) {
+      LOGGER.e(e, "Error decoding %s", file);
+    }
+    deliver(getKey(index, size), bitmap);
+  }
+
+  /**
+   * Decodes an image asset with the largest power of two subsampling which keeps each of its
+   * columns at least the given size wide.
+   */
+  private Bitmap decodeAsset(final String file, final int columns, final int size)
+      throws IOException {
+    final BitmapFactory.Options options = new BitmapFactory.Options();
+    // Asset streams can be reset to a mark however far back, so one open serves both passes.
+    final InputStream input = assets.open(file);
+    try {
+      input.mark(Integer.MAX_VALUE);
+      options.inJustDecodeBounds = true;
+      BitmapFactory.decodeStream(input, null, options);
+      input.reset();
+
+      final int columnWidth = options.outWidth / columns;
+      options.inJustDecodeBounds = false;
+      options.inSampleSize = 1;
+      while (columnWidth / (options.inSampleSize * 2) >= size) {
+        options.inSampleSize *= 2;
+      }
+      // The thumbnails have no alpha, which halves the memory they take.
+      options.inPreferredConfig = Bitmap.Config.RGB_565;
+
+      final Bitmap bitmap = BitmapFactory.decodeStream(input, null, options);
+      if (bitmap == null) {
+        throw new IOException("Can't decode " + file);
+      }
+      return bitmap;
+    } finally {
+      input.close();
+    }
+  }
+
+  /** Scales a square bitmap down to the given size, recycling it if a copy is made. */
+  private static Bitmap scaleTo(final Bitmap bitmap, final int size) {
+    if (bitmap.getWidth() <= size) {
+      return bitmap;
+    }
+    final Bitmap scaled = Bitmap.createScaledBitmap(bitmap, size, size, true);
+    if (scaled != bitmap) {
+      bitmap.recycle();
+    }
+    return scaled;
+  }
+
+  /** Hands a decoded thumbnail, or null if decoding failed, to the UI thread. */
+  private void deliver(final long key, final Bitmap bitmap) {
+    uiHandler.post(
+        new Runnable() {
+          @Override
+          public void run() {
+            final List<ImageView> views = pending.remove(key);
+            if (bitmap == null) {
+              return;
+            }
+            cache.put(key, bitmap);
+            if (views != null) {
+              for (final ImageView view : views) {
+                view.setImageBitmap(bitmap);
+              }
+            }
+          }
+        });
+  }
+}
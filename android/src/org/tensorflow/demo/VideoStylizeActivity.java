@@ -0,0 +1,185 @@
+/*
+ * Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.demo;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.os.Handler;
+import android.widget.TextView;
+import java.io.File;
+import java.io.IOException;
+import org.tensorflow.demo.env.Logger;
+import org.tensorflow.demo.env.Y4MReader;
+
+/**
+ * Stylizes a video file instead of the camera preview, see {@link VideoStylizer}. Meant to be
+ * started from the command line, e.g.
+ *
+ * <pre>
+ *   adb shell am start -n org.tensorflow.demo/.VideoStylizeActivity \
+ *       --es input in.y4m --es output out.y4m --ei size 256 --ei style 3
+ * </pre>
+ *
+ * Paths are resolved against the app's external files directory, and must not lead outside it: the
+ * activity is exported so that it can be started from adb, which lets any app start it too. Inputs
+ * not ending in .y4m are read as raw I420 frames, whose size is given by the width and height
+ * extras. Progress is shown on screen and logged.
+ */
+public class VideoStylizeActivity extends Activity {
+  private static final Logger LOGGER = new Logger();
+
+  public static final String EXTRA_INPUT = "input";
+  public static final String EXTRA_OUTPUT = "output";
+  public static final String EXTRA_WIDTH = "width";
+  public static final String EXTRA_HEIGHT = "height";
+
+  /** Intent extra with the largest width or height to stylize at. Defaults to 256. */
+  public static final String EXTRA_SIZE = "size";
+
+  /** Intent extra with the index of the style to apply. Defaults to an even mix of all styles. */
+  public static final String EXTRA_STYLE = "style";
+
+  private static final int DEFAULT_SIZE = 256;
+
+  private static final long PROGRESS_INTERVAL_MS = 500;
+
+  private final Handler handler = new Handler();
+
+  private TextView status;
+  private VideoStylizer stylizer;
+  private Thread thread;
+
+  // Set by the stylizing thread once it is done.
+  private volatile String result;
+
+  private final Runnable progressUpdater =
+      new Runnable() {
+        @Override
+        public void run() {
+          final String done = result;
+          status.setText(done != null ? done : stylizer.toString());
+          if (done == null) {
+            handler.postDelayed(this, PROGRESS_INTERVAL_MS);
+          }
+        }
+      };
+
+  @Override
+  public void onCreate(final Bundle savedInstanceState) {
+    super.onCreate(savedInstanceState);
+    status = new TextView(this);
+    setContentView(status);
+
+    final String input = getIntent().getStringExtra(EXTRA_INPUT);
+    final String output = getIntent().getStringExtra(EXTRA_OUTPUT);
+    if (input == null || output == null) {
+      status.setText("Usage: --es input <file> --es output <file.y4m>");
+      return;
+    }
+    final File inputFile;
+    final File outputFile;
+    try {
+      inputFile = resolve(input);
+      outputFile = resolve(output);
+    } catch (final IOException e) {
+      LOGGER.e(e, "Invalid paths %s, %s", input, output);
+      status.setText("Failed: " + e);
+      return;
+    }
+    final int width = getIntent().getIntExtra(EXTRA_WIDTH, 0);
+    final int height = getIntent().getIntExtra(EXTRA_HEIGHT, 0);
+
+    final StyleTransferSession session;
+    try {
+      session = StyleTransferSession.get(getAssets());
+    } catch (final IOException e) {
+      throw new RuntimeException("Error loading " + StyleTransferSession.MODEL_FILE, e);
+    }
+    final int style = getIntent().getIntExtra(EXTRA_STYLE, -1);
+    if (style >= 0 && style < StyleTransferSession.NUM_STYLES) {
+      final float[] styleValues = new float[StyleTransferSession.NUM_STYLES];
+      styleValues[style] = 1.0f;
+      session.setStyle(styleValues);
+    }
+
+    stylizer = new VideoStylizer(session, getIntent().getIntExtra(EXTRA_SIZE, DEFAULT_SIZE));
+    thread =
+        new Thread(
+            new Runnable() {
+              @Override
+              public void run() {
+                result = stylize(inputFile, outputFile, width, height);
+              }
+            },
+            "video");
+    thread.start();
+    handler.post(progressUpdater);
+  }
+
+  @Override
+  public void onDestroy() {
+    handler.removeCallbacks(progressUpdater);
+    if (thread != null) {
+      stylizer.cancel();
+      thread.interrupt();
+      thread = null;
+    }
+    super.onDestroy();
+  }
+
+  /**
+   * Returns the file at the given path within the external files directory, following any links.
+   *
+   * @throws IOException If the directory is unavailable or the path leads outside it.
+   */
+  private File resolve(final String path) throws IOException {
+    final File directory = getExternalFilesDir(null);
+    if (directory == null) {
+      throw new IOException("External storage is unavailable");
+    }
+    final File root = directory.getCanonicalFile();
+    final File file = new File(path);
+    final File canonical = (file.isAbsolute() ? file : new File(root, path)).getCanonicalFile();
+    if (!canonical.getPath().startsWith(root.getPath() + File.separator)) {
+      throw new IOException(path + " is outside " + root);
+    }
+    return canonical;
+  }
+
+  /** Stylizes the video, returning a description of the outcome. */
+  private String stylize(
+      final File inputFile, final File outputFile, final int width, final int height) {
+    try {
+      final Y4MReader reader =
+          inputFile.getName().endsWith(".y4m")
+              ? Y4MReader.open(inputFile)
+              : Y4MReader.openRaw(inputFile, width, height);
+      try {
+        final int frames = stylizer.run(reader, outputFile);
+        LOGGER.i("Wrote %d frames to %s", frames, outputFile);
+        return "Wrote " + outputFile + "\n" + stylizer;
+      } finally {
+        reader.close();
+      }
+    } catch (final IOException | RuntimeException e) {
+      LOGGER.e(e, "Can't stylize %s", inputFile);
+      return "Failed: " + e;
+    } catch (final InterruptedException e) {
+      return "Cancelled";
+    }
+  }
+}
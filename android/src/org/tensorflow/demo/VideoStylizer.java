@@ -0,0 +1,276 @@
+/*
+ * Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.tensorflow.demo;
+
+import android.os.SystemClock;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import org.tensorflow.demo.env.FramePipeline;
+import org.tensorflow.demo.env.ImageUtils;
+import org.tensorflow.demo.env.Logger;
+import org.tensorflow.demo.env.PixelTensorCodec;
+import org.tensorflow.demo.env.Y4MReader;
+import org.tensorflow.demo.env.Y4MWriter;
+
+/**
+ * Stylizes a video file in place of the camera preview, which makes for a reproducible load test
+ * of the pipeline. Frames are read from a {@link Y4MReader}, converted into tensors and stylized by
+ * the same code as camera frames, converted back to YUV and written to a Y4M file, each step on
+ * its own {@link FramePipeline} stage.
+ *
+ * Frames are scaled down to fit within a maximum size, keeping their aspect ratio. None are
+ * dropped: reading waits for one of a fixed number of frame buffers to come free, which keeps the
+ * memory used bounded however long the video is.
+ */
+public class VideoStylizer {
+  private static final Logger LOGGER = new Logger();
+
+  // Frames in flight at once: one per stage and one being read.
+  private static final int NUM_FRAMES = 4;
+
+  // Frames between progress reports in the log.
+  private static final int REPORT_FRAMES = 30;
+
+  // Frame sizes are rounded down to a multiple of this.
+  private static final int SIZE_MULTIPLE = 8;
+
+  /** The buffers of one frame in flight. Frames are recycled rather than reallocated. */
+  private static final class Frame {
+    final byte[] inputY;
+    final byte[] inputU;
+    final byte[] inputV;
+    final PixelTensorCodec codec;
+    final int[] argb;
+
+    // The output in YUV 4:2:0 semi-planar layout, whose luma comes first, and its chroma planes.
+    // The buffer wraps the output, for the conversion which falls back to Java.
+    final byte[] output;
+    final ByteBuffer outputBuffer;
+    final byte[] outputU;
+    final byte[] outputV;
+
+    Frame(final Y4MReader reader, final int width, final int height) {
+      inputY = new byte[reader.getWidth() * reader.getHeight()];
+      inputU = new byte[reader.getChromaSize()];
+      inputV = new byte[reader.getChromaSize()];
+      codec = new PixelTensorCodec(width, height, PixelTensorCodec.Layout.NHWC);
+      argb = new int[width * height];
+      output = new byte[ImageUtils.getYUVByteSize(width, height)];
+      outputBuffer = ByteBuffer.wrap(output);
+      outputU = new byte[(output.length - width * height) / 2];
+      outputV = new byte[outputU.length];
+    }
+  }
+
+  private final StyleTransferSession session;
+  private final int maxSize;
+
+  private volatile boolean cancelled;
+
+  // Written by the write stage of the running video.
+  private int framesWritten;
+  private volatile IOException writeError;
+
+  private volatile String summary = "Not started";
+
+  /**
+   * @param session The session to stylize with, in its current style.
+   * @param maxSize Largest width or height to stylize frames at.
+   */
+  public VideoStylizer(final StyleTransferSession session, final int maxSize) {
+    if (maxSize < SIZE_MULTIPLE) {
+      throw new IllegalArgumentException("Invalid size " + maxSize);
+    }
+    this.session = session;
+    this.maxSize = maxSize;
+  }
+
+  /** Makes {@link #run} return after the frame being read. Thread safe. */
+  public void cancel() {
+    cancelled = true;
+  }
+
+  /**
+   * Stylizes every frame of a video, returning once all of them are written or {@link #cancel} is
+   * called.
+   *
+   * @param reader The video to read. Left open.
+   * @param outputFile The Y4M file to write.
+   * @return The number of frames written.
+   * @throws IOException if reading or writing fails.
+   * @throws InterruptedException if the calling thread is interrupted.
+   */
+  public int run(final Y4MReader reader, final File outputFile)
+      throws IOException, InterruptedException {
+    final int inputWidth = reader.getWidth();
+    final int inputHeight = reader.getHeight();
+    final float scale = Math.min(1.0f, (float) maxSize / Math.max(inputWidth, inputHeight));
+    final int width = roundToSize(inputWidth * scale);
+    final int height = roundToSize(inputHeight * scale);
+    final float[] frameToOutput =
+        ImageUtils.getInverseTransformation(inputWidth, inputHeight, width, height, 0, true);
+    LOGGER.i("Stylizing %dx%d video at %dx%d", inputWidth, inputHeight, width, height);
+
+    final BlockingQueue<Frame> freeFrames = new ArrayBlockingQueue<Frame>(NUM_FRAMES);
+    for (int i = 0; i < NUM_FRAMES; ++i) {
+      freeFrames.add(new Frame(reader, width, height));
+    }
+
+    final Y4MWriter writer =
+        new Y4MWriter(
+            outputFile,
+            width,
+            height,
+            reader.getFrameRateNumerator(),
+            reader.getFrameRateDenominator());
+    final long startTime = SystemClock.uptimeMillis();
+    framesWritten = 0;
+    writeError = null;
+
+    // The first stage's queue holds every frame, so submitting one never fails.
+    final FramePipeline<Frame> pipeline =
+        new FramePipeline<Frame>(
+            "video",
+            NUM_FRAMES,
+            new FramePipeline.Recycler<Frame>() {
+              @Override
+              public void recycle(final Frame frame) {
+                freeFrames.offer(frame);
+              }
+            });
+    pipeline.addStage(
+        "convert",
+        new FramePipeline.Processor<Frame>() {
+          @Override
+          public boolean process(final Frame frame) {
+            ImageUtils.convertYUV420ToTensor(
+                frame.inputY,
+                frame.inputU,
+                frame.inputV,
+                inputWidth,
+                inputHeight,
+                inputWidth,
+                reader.getChromaWidth(),
+                1,
+                frameToOutput,
+                frame.codec);
+            return true;
+          }
+        });
+    pipeline.addStage(
+        "stylize",
+        new FramePipeline.Processor<Frame>() {
+          @Override
+          public boolean process(final Frame frame) {
+            session.stylize(frame.codec);
+            return true;
+          }
+        });
+    pipeline.addStage(
+        "write",
+        new FramePipeline.Processor<Frame>() {
+          @Override
+          public boolean process(final Frame frame) {
+            frame.codec.decode(frame.argb);
+            ImageUtils.convertARGB8888ToYUV420SP(frame.argb, frame.outputBuffer, width, height);
+            deinterleaveChroma(frame, width * height);
+            try {
+              writer.writeFrame(frame.output, frame.outputU, frame.outputV);
+            } catch (final IOException e) {
+              writeError = e;
+              return false;
+            }
+
+            ++framesWritten;
+            if (framesWritten % REPORT_FRAMES == 0) {
+              updateSummary(pipeline, startTime);
+              LOGGER.i("%s", summary);
+            }
+            return true;
+          }
+        });
+
+    pipeline.start();
+    try {
+      while (!cancelled && writeError == null) {
+        final Frame frame = freeFrames.take();
+        if (!reader.readFrame(frame.inputY, frame.inputU, frame.inputV)) {
+          freeFrames.add(frame);
+          break;
+        }
+        if (!pipeline.submit(frame)) {
+          freeFrames.add(frame);
+        }
+      }
+
+      // The frames in flight are done once every frame is free again.
+      for (int i = 0; i < NUM_FRAMES; ++i) {
+        freeFrames.take();
+      }
+    } finally {
+      pipeline.stop();
+      writer.close();
+    }
+
+    if (writeError != null) {
+      throw writeError;
+    }
+    // Stopping the pipeline joined the write stage's thread, so its count is up to date.
+    updateSummary(pipeline, startTime);
+    LOGGER.i("Done: %s", summary);
+    return framesWritten;
+  }
+
+  private static int roundToSize(final float size) {
+    return Math.max(SIZE_MULTIPLE, (int) size / SIZE_MULTIPLE * SIZE_MULTIPLE);
+  }
+
+  /**
+   * Splits the interleaved chroma following the luma of a semi-planar frame into planes. The
+   * conversion stores V before U, natively and in Java alike.
+   */
+  private static void deinterleaveChroma(final Frame frame, final int lumaSize) {
+    for (int i = 0; i < frame.outputU.length; ++i) {
+      frame.outputV[i] = frame.output[lumaSize + 2 * i];
+      frame.outputU[i] = frame.output[lumaSize + 2 * i + 1];
+    }
+  }
+
+  private void updateSummary(final FramePipeline<Frame> pipeline, final long startTime) {
+    final long elapsedMs = SystemClock.uptimeMillis() - startTime;
+    final StringBuilder stages = new StringBuilder();
+    for (final FramePipeline<Frame>.Stage stage : pipeline.getStages()) {
+      stages.append(", ").append(stage);
+    }
+    summary =
+        String.format(
+            "%d frames in %.1fs, %.2f frames/s%s",
+            framesWritten,
+            elapsedMs / 1000.0f,
+            elapsedMs > 0 ? framesWritten * 1000.0f / elapsedMs : 0.0f,
+            stages);
+  }
+
+  /** Returns a summary of the progress. Thread safe. */
+  @Override
+  public String toString() {
+    return summary;
+  }
+}
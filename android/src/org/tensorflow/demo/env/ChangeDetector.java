@@ -0,0 +1,244 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+import android.graphics.Rect;
+import java.nio.ByteBuffer;
+
+/**
+ * Tells which parts of camera frames changed since they were last stylized, so that unchanged
+ * frames can keep the previous output and frames which changed in one place only need to be
+ * stylized there. Frames are compared by a signature of their luma: the mean of each cell of a
+ * grid laid over the crop, sampled from the Y plane through the crop's transform.
+ *
+ * Each cell is compared with its signature from the frame it was last stylized in rather than
+ * with the previous frame, so that slow changes add up until they are noticed.
+ *
+ * Not thread safe, except for {@link #reset} and {@link #toString}.
+ */
+public class ChangeDetector {
+  /** What to do with a frame. */
+  public enum Decision {
+    /** Nothing changed, so the previous output can be shown. */
+    REUSE,
+    /** Only the region changed, so only it needs to be stylized. */
+    PARTIAL,
+    /** The whole frame needs to be stylized. */
+    FULL
+  }
+
+  // Cells along each axis of the crop.
+  private static final int GRID_SIZE = 16;
+
+  // Luma samples along each axis of a cell.
+  private static final int CELL_SAMPLES = 4;
+
+  // Frames between updates of the summary.
+  private static final int SUMMARY_FRAMES = 10;
+
+  private final float threshold;
+  private final float maxPartialArea;
+
+  private final float[] signature = new float[GRID_SIZE * GRID_SIZE];
+  private final float[] reference = new float[GRID_SIZE * GRID_SIZE];
+  private boolean hasReference;
+  private volatile boolean resetRequested;
+
+  private int numFrames;
+  private int numReused;
+  private int numPartial;
+  private int numFull;
+  private float partialAreaSum;
+
+  private volatile String summary = "";
+
+  /**
+   * @param threshold Change of a cell's mean luma, in 8-bit levels, above which it has changed.
+   * @param maxPartialArea Largest fraction of the crop that a changed region may cover and still
+   *     be stylized on its own.
+   */
+  public ChangeDetector(final float threshold, final float maxPartialArea) {
+    if (threshold <= 0.0f || maxPartialArea < 0.0f) {
+      throw new IllegalArgumentException(
+          "Invalid threshold " + threshold + " or partial area " + maxPartialArea);
+    }
+    this.threshold = threshold;
+    this.maxPartialArea = maxPartialArea;
+  }
+
+  /**
+   * Forgets what was last stylized, so that the next frame is stylized whole. Called when an
+   * output that was decided on is never shown, or the crop changes.
+   */
+  public void reset() {
+    resetRequested = true;
+  }
+
+  /**
+   * Returns the number of frames detected so far. Frames whose decision isn't {@link
+   * Decision#FULL} build on the output of the frame detected right before them.
+   */
+  public int getFrameCount() {
+    return numFrames;
+  }
+
+  /**
+   * Compares a frame with what was last stylized, and records the signature of the part of it
+   * that is to be stylized.
+   *
+   * @param luma The frame's Y plane.
+   * @param rowStride Row stride of the Y plane.
+   * @param frameWidth Width of the frame.
+   * @param frameHeight Height of the frame.
+   * @param cropToFrame Mapping from the crop into the frame, see {@link
+   *     ImageUtils#getInverseTransformation}.
+   * @param cropSize Size of the crop.
+   * @param region Receives the part of the crop to stylize, with exclusive right and bottom
+   *     bounds: the changed cells for {@link Decision#PARTIAL}, the whole crop for {@link
+   *     Decision#FULL}. Left unchanged for {@link Decision#REUSE}.
+   */
+  public Decision detect(
+      final ByteBuffer luma,
+      final int rowStride,
+      final int frameWidth,
+      final int frameHeight,
+      final float[] cropToFrame,
+      final int cropSize,
+      final Rect region) {
+    if (resetRequested) {
+      resetRequested = false;
+      hasReference = false;
+    }
+    computeSignature(luma, rowStride, frameWidth, frameHeight, cropToFrame, cropSize);
+
+    // The bounding box of the changed cells.
+    int minX = GRID_SIZE;
+    int minY = GRID_SIZE;
+    int maxX = -1;
+    int maxY = -1;
+    if (hasReference) {
+      for (int y = 0; y < GRID_SIZE; ++y) {
+        for (int x = 0; x < GRID_SIZE; ++x) {
+          final int cell = y * GRID_SIZE + x;
+          if (Math.abs(signature[cell] - reference[cell]) > threshold) {
+            minX = Math.min(minX, x);
+            minY = Math.min(minY, y);
+            maxX = Math.max(maxX, x);
+            maxY = Math.max(maxY, y);
+          }
+        }
+      }
+    }
+    final float area = (float) (maxX - minX + 1) * (maxY - minY + 1) / (GRID_SIZE * GRID_SIZE);
+
+    final Decision decision;
+    ++numFrames;
+    if (!hasReference) {
+      decision = Decision.FULL;
+    } else if (maxX < 0) {
+      decision = Decision.REUSE;
+    } else {
+      decision = area <= maxPartialArea ? Decision.PARTIAL : Decision.FULL;
+    }
+
+    switch (decision) {
+      case REUSE:
+        ++numReused;
+        break;
+      case PARTIAL:
+        ++numPartial;
+        partialAreaSum += area;
+        for (int y = minY; y <= maxY; ++y) {
+          System.arraycopy(
+              signature, y * GRID_SIZE + minX, reference, y * GRID_SIZE + minX, maxX - minX + 1);
+        }
+        setRegion(
+            region,
+            minX * cropSize / GRID_SIZE,
+            minY * cropSize / GRID_SIZE,
+            (maxX + 1) * cropSize / GRID_SIZE,
+            (maxY + 1) * cropSize / GRID_SIZE);
+        break;
+      default:
+        ++numFull;
+        System.arraycopy(signature, 0, reference, 0, signature.length);
+        hasReference = true;
+        setRegion(region, 0, 0, cropSize, cropSize);
+        break;
+    }
+
+    if (numFrames % SUMMARY_FRAMES == 0) {
+      updateSummary();
+    }
+    return decision;
+  }
+
+  /** Samples the mean luma of each cell of the crop. */
+  private void computeSignature(
+      final ByteBuffer luma,
+      final int rowStride,
+      final int frameWidth,
+      final int frameHeight,
+      final float[] cropToFrame,
+      final int cropSize) {
+    final float step = (float) cropSize / (GRID_SIZE * CELL_SAMPLES);
+    for (int cellY = 0; cellY < GRID_SIZE; ++cellY) {
+      for (int cellX = 0; cellX < GRID_SIZE; ++cellX) {
+        int sum = 0;
+        for (int sampleY = 0; sampleY < CELL_SAMPLES; ++sampleY) {
+          final float y = ((cellY * CELL_SAMPLES + sampleY) + 0.5f) * step;
+          for (int sampleX = 0; sampleX < CELL_SAMPLES; ++sampleX) {
+            final float x = ((cellX * CELL_SAMPLES + sampleX) + 0.5f) * step;
+            final int frameX = (int) (cropToFrame[0] * x + cropToFrame[1] * y + cropToFrame[2]);
+            final int frameY = (int) (cropToFrame[3] * x + cropToFrame[4] * y + cropToFrame[5]);
+            final int index = clamp(frameY, frameHeight) * rowStride + clamp(frameX, frameWidth);
+            sum += luma.get(index) & 0xFF;
+          }
+        }
+        signature[cellY * GRID_SIZE + cellX] = (float) sum / (CELL_SAMPLES * CELL_SAMPLES);
+      }
+    }
+  }
+
+  // Writes the fields rather than calling Rect.set(), which is a no-op stub in JVM tests.
+  private static void setRegion(
+      final Rect region, final int left, final int top, final int right, final int bottom) {
+    region.left = left;
+    region.top = top;
+    region.right = right;
+    region.bottom = bottom;
+  }
+
+  private static int clamp(final int value, final int size) {
+    return Math.max(0, Math.min(size - 1, value));
+  }
+
+  private void updateSummary() {
+    summary =
+        String.format(
+            "%d frames: %.0f%% reused, %.0f%% partial (%.0f%% of the area), %.0f%% full",
+            numFrames,
+            100.0f * numReused / numFrames,
+            100.0f * numPartial / numFrames,
+            numPartial > 0 ? 100.0f * partialAreaSum / numPartial : 0.0f,
+            100.0f * numFull / numFrames);
+  }
+
+  @Override
+  public String toString() {
+    return summary;
+  }
+}
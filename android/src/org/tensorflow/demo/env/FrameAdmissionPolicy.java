@@ -0,0 +1,282 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+import android.os.SystemClock;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Decides which camera frames enter the processing pipeline and how many may wait in it, trading
+ * latency against the number of frames processed. Counts admitted frames and dropped frames by
+ * the reason they were dropped.
+ *
+ * Policies can be created from a short text spec, see {@link #parse}.
+ */
+public abstract class FrameAdmissionPolicy {
+  /** Why a frame was dropped. */
+  public enum DropReason {
+    /** The pipeline had no room for the frame. */
+    BUSY,
+    /** A newer frame took the frame's place while it was waiting. */
+    SUPERSEDED,
+    /** The policy only processes some of the frames. */
+    SKIPPED,
+    /** The frame was older than the deadline. */
+    STALE
+  }
+
+  private final AtomicLong admittedCount = new AtomicLong();
+  private final AtomicLongArray droppedCounts = new AtomicLongArray(DropReason.values().length);
+
+  /** Returns the number of converted frames that may wait for inference. */
+  public int getQueueCapacity() {
+    return 1;
+  }
+
+  /**
+   * Returns whether a newly captured frame should take the place of a frame still waiting to be
+   * converted, rather than being dropped itself.
+   */
+  public boolean replacesWaitingFrames() {
+    return false;
+  }
+
+  /**
+   * Decides whether to admit a newly captured frame, counting it as admitted or dropped.
+   *
+   * @param timestampNs The frame's capture time, see {@link android.media.Image#getTimestamp}.
+   * @return False if the frame should be dropped.
+   */
+  public final boolean admit(final long timestampNs) {
+    final DropReason reason = checkCaptured(timestampNs);
+    if (reason != null) {
+      recordDrop(reason);
+      return false;
+    }
+    admittedCount.incrementAndGet();
+    return true;
+  }
+
+  /**
+   * Decides whether an admitted frame that has been waiting in the pipeline is still worth
+   * stylizing, counting it as dropped if not.
+   *
+   * @param timestampNs The frame's capture time, see {@link android.media.Image#getTimestamp}.
+   * @return False if the frame should be dropped.
+   */
+  public final boolean keep(final long timestampNs) {
+    final DropReason reason = checkQueued(timestampNs);
+    if (reason != null) {
+      recordDrop(reason);
+      return false;
+    }
+    return true;
+  }
+
+  /** Returns why a captured frame should be dropped, or null to admit it. Capture thread only. */
+  protected DropReason checkCaptured(final long timestampNs) {
+    return null;
+  }
+
+  /** Returns why a waiting frame should be dropped, or null to keep it. */
+  protected DropReason checkQueued(final long timestampNs) {
+    return null;
+  }
+
+  /** Counts a frame dropped outside of the policy, e.g. because the pipeline was full. */
+  public void recordDrop(final DropReason reason) {
+    droppedCounts.incrementAndGet(reason.ordinal());
+  }
+
+  /** Returns the number of frames admitted into the pipeline, including ones dropped later. */
+  public long getAdmittedCount() {
+    return admittedCount.get();
+  }
+
+  public long getDroppedCount(final DropReason reason) {
+    return droppedCounts.get(reason.ordinal());
+  }
+
+  public long getDroppedCount() {
+    long total = 0;
+    for (int i = 0; i < droppedCounts.length(); ++i) {
+      total += droppedCounts.get(i);
+    }
+    return total;
+  }
+
+  /** Returns a short description of the policy and its parameters. */
+  protected abstract String getName();
+
+  @Override
+  public String toString() {
+    final StringBuilder builder = new StringBuilder();
+    builder
+        .append(getName())
+        .append(": ")
+        .append(getAdmittedCount())
+        .append(" in, ")
+        .append(getDroppedCount())
+        .append(" dropped");
+    for (final DropReason reason : DropReason.values()) {
+      final long count = getDroppedCount(reason);
+      if (count > 0) {
+        builder.append(", ").append(reason.name().toLowerCase()).append(' ').append(count);
+      }
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Always works on the newest frame: a new frame replaces one still waiting to be converted, and
+   * at most one converted frame waits for inference. Lowest latency.
+   */
+  public static FrameAdmissionPolicy latestWins() {
+    return new FrameAdmissionPolicy() {
+      @Override
+      public boolean replacesWaitingFrames() {
+        return true;
+      }
+
+      @Override
+      protected String getName() {
+        return "latest";
+      }
+    };
+  }
+
+  /** Admits only every nth captured frame, which bounds the load independently of inference. */
+  public static FrameAdmissionPolicy everyNth(final int n) {
+    if (n < 1) {
+      throw new IllegalArgumentException("n must be at least 1: " + n);
+    }
+    return new FrameAdmissionPolicy() {
+      private int frameCount = 0;
+
+      @Override
+      protected DropReason checkCaptured(final long timestampNs) {
+        return frameCount++ % n == 0 ? null : DropReason.SKIPPED;
+      }
+
+      @Override
+      protected String getName() {
+        return "every " + n;
+      }
+    };
+  }
+
+  /**
+   * Drops frames which are older than the given age when captured or when about to be stylized.
+   */
+  public static FrameAdmissionPolicy deadline(final long maxAgeMs) {
+    if (maxAgeMs <= 0) {
+      throw new IllegalArgumentException("Max age must be positive: " + maxAgeMs);
+    }
+    return new DeadlinePolicy(maxAgeMs);
+  }
+
+  /**
+   * Lets up to the given number of converted frames queue up for inference and never replaces
+   * waiting frames, so that as many frames as possible are processed. Highest throughput, at the
+   * cost of latency.
+   */
+  public static FrameAdmissionPolicy throughput(final int queueCapacity) {
+    if (queueCapacity < 1) {
+      throw new IllegalArgumentException("Queue capacity must be at least 1: " + queueCapacity);
+    }
+    return new FrameAdmissionPolicy() {
+      @Override
+      public int getQueueCapacity() {
+        return queueCapacity;
+      }
+
+      @Override
+      protected String getName() {
+        return "throughput " + queueCapacity;
+      }
+    };
+  }
+
+  /**
+   * Creates a policy from a spec of the form "latest", "every:N", "deadline:MS" or
+   * "throughput:K".
+   *
+   * @throws IllegalArgumentException if the spec is not understood.
+   */
+  public static FrameAdmissionPolicy parse(final String spec) {
+    final String[] parts = spec.trim().split(":", 2);
+    final String name = parts[0];
+    try {
+      if (name.equals("latest") && parts.length == 1) {
+        return latestWins();
+      } else if (name.equals("every") && parts.length == 2) {
+        return everyNth(Integer.parseInt(parts[1]));
+      } else if (name.equals("deadline") && parts.length == 2) {
+        return deadline(Long.parseLong(parts[1]));
+      } else if (name.equals("throughput") && parts.length == 2) {
+        return throughput(Integer.parseInt(parts[1]));
+      }
+    } catch (final NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid admission policy: " + spec, e);
+    }
+    throw new IllegalArgumentException("Invalid admission policy: " + spec);
+  }
+
+  private static class DeadlinePolicy extends FrameAdmissionPolicy {
+    // Offsets beyond this can't be capture latency, so the camera doesn't use the
+    // elapsedRealtimeNanos() timebase.
+    private static final long MAX_PLAUSIBLE_LATENCY_NS = 1000000000L;
+
+    private final long maxAgeNs;
+
+    // Lowest offset seen between the timebase and elapsedRealtimeNanos(), if the timebase differs.
+    private volatile long timebaseOffsetNs = 0;
+    private boolean timebaseChecked = false;
+
+    DeadlinePolicy(final long maxAgeMs) {
+      this.maxAgeNs = maxAgeMs * 1000000L;
+    }
+
+    @Override
+    protected DropReason checkCaptured(final long timestampNs) {
+      // Camera timestamps are in the elapsedRealtimeNanos() timebase when the device reports a
+      // realtime timestamp source. Other devices use an arbitrary monotonic timebase, in which
+      // case age can only be measured against the fastest delivery seen so far.
+      final long offsetNs = SystemClock.elapsedRealtimeNanos() - timestampNs;
+      if (!timebaseChecked) {
+        timebaseChecked = true;
+        if (offsetNs < 0 || offsetNs > MAX_PLAUSIBLE_LATENCY_NS) {
+          timebaseOffsetNs = offsetNs;
+        }
+      } else if (timebaseOffsetNs != 0 && offsetNs < timebaseOffsetNs) {
+        timebaseOffsetNs = offsetNs;
+      }
+      return checkQueued(timestampNs);
+    }
+
+    @Override
+    protected DropReason checkQueued(final long timestampNs) {
+      final long ageNs = SystemClock.elapsedRealtimeNanos() - timebaseOffsetNs - timestampNs;
+      return ageNs > maxAgeNs ? DropReason.STALE : null;
+    }
+
+    @Override
+    protected String getName() {
+      return "deadline " + maxAgeNs / 1000000L + "ms";
+    }
+  }
+}
@@ -0,0 +1,304 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+import android.os.SystemClock;
+import android.os.Trace;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Runs items through a fixed sequence of stages, each on its own thread and fed by its own bounded
+ * queue, so that successive items are processed by different stages at the same time.
+ *
+ * A stage blocks when the queue of the next stage is full, which propagates backpressure up to
+ * {@link #submit}; submit itself never blocks, so the producer can decide what to do with an item
+ * the pipeline has no room for. Every item handed to the pipeline is eventually passed to the
+ * {@link Recycler}, whether it completed all stages, was dropped by a stage, or was still queued
+ * when the pipeline stopped.
+ *
+ * @param <T> Type of the items.
+ */
+public class FramePipeline<T> {
+  private static final Logger LOGGER = new Logger();
+
+  // Weight of the newest sample in the moving average of a stage's service time.
+  private static final float SERVICE_TIME_SMOOTHING = 0.1f;
+
+  /** The work done by one stage. */
+  public interface Processor<T> {
+    /**
+     * Processes an item. Returns false to drop the item instead of passing it on to the next
+     * stage.
+     */
+    boolean process(T item);
+  }
+
+  /** Releases whatever an item holds once the pipeline is done with it. */
+  public interface Recycler<T> {
+    void recycle(T item);
+  }
+
+  /** Told about every item the stages process, e.g. to record trace spans. */
+  public interface Tracer<T> {
+    /**
+     * Called on a stage's thread right after it processed an item, before the item is passed on
+     * or recycled.
+     *
+     * @param stageName Name of the stage.
+     * @param item The item processed.
+     * @param startNs When processing started, see {@link SystemClock#elapsedRealtimeNanos}.
+     * @param endNs When processing ended, on the same clock.
+     */
+    void onProcessed(String stageName, T item, long startNs, long endNs);
+  }
+
+  /** A stage of the pipeline, along with its statistics. */
+  public final class Stage implements Runnable {
+    private final String name;
+    private final Processor<T> processor;
+    private final BlockingQueue<T> queue;
+
+    private Stage next;
+    private Thread thread;
+
+    private volatile long serviceTimeNs;
+    private volatile long processedCount;
+
+    private Stage(final String name, final int queueCapacity, final Processor<T> processor) {
+      this.name = name;
+      this.processor = processor;
+      this.queue = new ArrayBlockingQueue<T>(queueCapacity);
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    /** Returns the number of items waiting for this stage. */
+    public int getQueueDepth() {
+      return queue.size();
+    }
+
+    /** Returns the moving average of the time this stage spends on an item, in nanoseconds. */
+    public long getServiceTimeNs() {
+      return serviceTimeNs;
+    }
+
+    /** Returns the number of items this stage has processed, including dropped ones. */
+    public long getProcessedCount() {
+      return processedCount;
+    }
+
+    @Override
+    public void run() {
+      while (true) {
+        T item;
+        try {
+          item = queue.take();
+        } catch (final InterruptedException e) {
+          return;
+        }
+
+        Trace.beginSection(name);
+        final long startTime = SystemClock.elapsedRealtimeNanos();
+        boolean keep = false;
+        try {
+          keep = processor.process(item);
+        } catch (final RuntimeException e) {
+          LOGGER.e(e, "Stage %s failed", name);
+        }
+        Trace.endSection();
+        final long endTime = SystemClock.elapsedRealtimeNanos();
+        recordServiceTime(endTime - startTime);
+        final Tracer<T> currentTracer = tracer;
+        if (currentTracer != null) {
+          currentTracer.onProcessed(name, item, startTime, endTime);
+        }
+
+        if (!keep || next == null) {
+          recycler.recycle(item);
+          continue;
+        }
+
+        try {
+          next.queue.put(item);
+        } catch (final InterruptedException e) {
+          recycler.recycle(item);
+          return;
+        }
+      }
+    }
+
+    private void recordServiceTime(final long timeNs) {
+      // Only written from the stage's own thread, so plain read-modify-writes are safe.
+      serviceTimeNs =
+          processedCount == 0
+              ? timeNs
+              : (long) (serviceTimeNs + SERVICE_TIME_SMOOTHING * (timeNs - serviceTimeNs));
+      ++processedCount;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "%s: queue %d, %.1fms", name, getQueueDepth(), serviceTimeNs / 1000000.0f);
+    }
+  }
+
+  private final String name;
+  private final int queueCapacity;
+  private final Recycler<T> recycler;
+  private final List<Stage> stages = new ArrayList<Stage>();
+  private volatile Tracer<T> tracer;
+
+  private boolean running = false;
+
+  /**
+   * @param name Prefix for the names of the stage threads.
+   * @param queueCapacity Default number of items a stage may have waiting in front of it.
+   * @param recycler Receives every item once the pipeline is done with it.
+   */
+  public FramePipeline(final String name, final int queueCapacity, final Recycler<T> recycler) {
+    if (queueCapacity < 1) {
+      throw new IllegalArgumentException("Queue capacity must be at least 1: " + queueCapacity);
+    }
+    this.name = name;
+    this.queueCapacity = queueCapacity;
+    this.recycler = recycler;
+  }
+
+  /**
+   * Appends a stage with the pipeline's default queue capacity. Stages can only be added before the
+   * pipeline is started.
+   */
+  public Stage addStage(final String stageName, final Processor<T> processor) {
+    return addStage(stageName, queueCapacity, processor);
+  }
+
+  /**
+   * Appends a stage. Stages can only be added before the pipeline is started.
+   *
+   * @param stageName Name of the stage and its thread.
+   * @param stageQueueCapacity Number of items that may wait in front of this stage.
+   * @param processor The work done by the stage.
+   */
+  public synchronized Stage addStage(
+      final String stageName, final int stageQueueCapacity, final Processor<T> processor) {
+    if (running) {
+      throw new IllegalStateException("Pipeline already started");
+    }
+    if (stageQueueCapacity < 1) {
+      throw new IllegalArgumentException(
+          "Queue capacity must be at least 1: " + stageQueueCapacity);
+    }
+    final Stage stage = new Stage(stageName, stageQueueCapacity, processor);
+    if (!stages.isEmpty()) {
+      stages.get(stages.size() - 1).next = stage;
+    }
+    stages.add(stage);
+    return stage;
+  }
+
+  /** Sets the tracer told about every item processed, or null for none. */
+  public void setTracer(final Tracer<T> tracer) {
+    this.tracer = tracer;
+  }
+
+  public List<Stage> getStages() {
+    return Collections.unmodifiableList(stages);
+  }
+
+  /** Starts one thread per stage. */
+  public synchronized void start() {
+    if (running) {
+      return;
+    }
+    if (stages.isEmpty()) {
+      throw new IllegalStateException("Pipeline has no stages");
+    }
+    for (final Stage stage : stages) {
+      stage.thread = new Thread(stage, name + "-" + stage.name);
+      stage.thread.start();
+    }
+    running = true;
+  }
+
+  /**
+   * Hands an item to the first stage without blocking. Returns false if the pipeline is stopped or
+   * the first stage's queue is full, in which case the item stays with the caller.
+   */
+  public synchronized boolean submit(final T item) {
+    return running && stages.get(0).queue.offer(item);
+  }
+
+  /**
+   * Hands an item to the first stage without blocking, taking out the oldest item waiting there if
+   * the queue is full. The item taken out is returned to the caller rather than recycled.
+   *
+   * @return The item taken out, null if there was room, or the submitted item itself if the
+   *     pipeline is stopped.
+   */
+  public synchronized T submitReplacing(final T item) {
+    if (!running) {
+      return item;
+    }
+    final BlockingQueue<T> queue = stages.get(0).queue;
+    T replaced = null;
+    // Only the first stage takes items out of its queue, which can only make room, so the second
+    // offer always succeeds.
+    if (!queue.offer(item)) {
+      replaced = queue.poll();
+      queue.offer(item);
+    }
+    return replaced;
+  }
+
+  /**
+   * Stops all stage threads, waiting for each to finish the item it is processing, and recycles
+   * every item still in the pipeline.
+   */
+  public synchronized void stop() {
+    if (!running) {
+      return;
+    }
+    running = false;
+
+    for (final Stage stage : stages) {
+      stage.thread.interrupt();
+    }
+    for (final Stage stage : stages) {
+      try {
+        stage.thread.join();
+      } catch (final InterruptedException e) {
+        LOGGER.e(e, "Interrupted while stopping stage %s", stage.name);
+        Thread.currentThread().interrupt();
+      }
+      stage.thread = null;
+    }
+
+    final List<T> remaining = new ArrayList<T>();
+    for (final Stage stage : stages) {
+      stage.queue.drainTo(remaining);
+    }
+    for (final T item : remaining) {
+      recycler.recycle(item);
+    }
+  }
+}
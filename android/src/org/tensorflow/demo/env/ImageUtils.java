@@ -20,6 +20,11 @@ import android.graphics.Matrix;
 import android.os.Environment;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Utility class for manipulating images.
@@ -119,12 +124,65 @@ public class ImageUtils {
       }
     }
 
-    int i = 0;
-    for (int y = 0; y < height; y++) {
+    convertYUV420ToARGB8888Java(
+        yData, uData, vData, width, yRowStride, uvRowStride, uvPixelStride, out, 0, height);
+  }
+
+  // The row range and tensor conversions are newer than the other native methods, so a prebuilt
+  // library may lack them even when the rest of the native conversions are available.
+  private static boolean useNativeRowConversion = true;
+
+  /**
+   * Same as {@link #convertYUV420ToARGB8888(byte[], byte[], byte[], int, int, int, int, int,
+   * int[])}, but only converts the rows in [startRow, endRow). Disjoint row ranges may be
+   * converted concurrently.
+   *
+   * @param startRow First row to convert. Must be even so that it starts a chroma row.
+   * @param endRow One past the last row to convert.
+   */
+  static void convertYUV420ToARGB8888(
+      final byte[] yData,
+      final byte[] uData,
+      final byte[] vData,
+      final int width,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final int[] out,
+      final int startRow,
+      final int endRow) {
+    if (useNativeConversion && useNativeRowConversion) {
+      try {
+        convertYUV420RowsToARGB8888(
+            yData, uData, vData, out, width, yRowStride, uvRowStride, uvPixelStride, startRow,
+            endRow);
+        return;
+      } catch (UnsatisfiedLinkError e) {
+        LOGGER.w("Native YUV -> RGB row implementation not found, falling back to Java");
+        useNativeRowConversion = false;
+      }
+    }
+
+    convertYUV420ToARGB8888Java(
+        yData, uData, vData, width, yRowStride, uvRowStride, uvPixelStride, out, startRow, endRow);
+  }
+
+  private static void convertYUV420ToARGB8888Java(
+      final byte[] yData,
+      final byte[] uData,
+      final byte[] vData,
+      final int width,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final int[] out,
+      final int startRow,
+      final int endRow) {
+    int i = startRow * width;
+    for (int y = startRow; y < endRow; y++) {
       int pY = yRowStride * y;
       int uv_row_start = uvRowStride * (y >> 1);
       int pUV = uv_row_start;
-      int pV = uv_row_start;
 
       for (int x = 0; x < width; x++) {
         int uv_offset = pUV + (x >> 1) * uvPixelStride;
@@ -137,6 +195,500 @@ public class ImageUtils {
     }
   }
 
+  /**
+   * Converts YUV 4:2:0 planes straight into the normalized input tensor of the given codec,
+   * cropping, rotating and scaling on the way. This produces the same pixels as converting the
+   * whole frame to ARGB, drawing it through the matrix returned by
+   * {@link #getTransformationMatrix} and encoding the result, but touches each destination pixel
+   * only once and never materializes the full-size ARGB frame.
+   *
+   * @param yData The Y plane.
+   * @param uData The U plane.
+   * @param vData The V plane.
+   * @param width The width of the input image.
+   * @param height The height of the input image.
+   * @param yRowStride Row stride of the Y plane.
+   * @param uvRowStride Row stride of the U and V planes.
+   * @param uvPixelStride Pixel stride of the U and V planes.
+   * @param cropToFrame Destination to source mapping, as returned by
+   *     {@link #getInverseTransformation}.
+   * @param codec Receives the tensor. Its width and height define the destination size.
+   */
+  public static void convertYUV420ToTensor(
+      final byte[] yData,
+      final byte[] uData,
+      final byte[] vData,
+      final int width,
+      final int height,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final float[] cropToFrame,
+      final PixelTensorCodec codec) {
+    convertYUV420ToTensor(
+        yData, uData, vData, width, height, yRowStride, uvRowStride, uvPixelStride, cropToFrame,
+        codec, 0, codec.getHeight());
+  }
+
+  /**
+   * Same as {@link #convertYUV420ToTensor(byte[], byte[], byte[], int, int, int, int, int,
+   * float[], PixelTensorCodec)}, but only fills the destination rows in [startRow, endRow).
+   * Disjoint row ranges may be converted concurrently.
+   */
+  static void convertYUV420ToTensor(
+      final byte[] yData,
+      final byte[] uData,
+      final byte[] vData,
+      final int width,
+      final int height,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final float[] cropToFrame,
+      final PixelTensorCodec codec,
+      final int startRow,
+      final int endRow) {
+    final boolean planar = codec.getLayout() == PixelTensorCodec.Layout.NCHW;
+
+    if (useNativeConversion && useNativeRowConversion) {
+      try {
+        if (codec.getDataType() == PixelTensorCodec.DataType.UINT8) {
+          convertYUV420ToQuantizedTensor(
+              yData, uData, vData, width, height, yRowStride, uvRowStride, uvPixelStride,
+              cropToFrame, codec.getWidth(), codec.getHeight(), startRow, endRow,
+              codec.getQuantizeTable(), planar, codec.getTensorBuffer());
+        } else {
+          convertYUV420ToTensor(
+              yData, uData, vData, width, height, yRowStride, uvRowStride, uvPixelStride,
+              cropToFrame, codec.getWidth(), codec.getHeight(), startRow, endRow,
+              codec.getValueTable(), planar, codec.getTensor());
+        }
+        return;
+      } catch (UnsatisfiedLinkError e) {
+        LOGGER.w(
+            "Native YUV -> tensor implementation not found, falling back to Java implementation");
+        useNativeRowConversion = false;
+      }
+    }
+
+    final int dstWidth = codec.getWidth();
+
+    // Each row is sampled to ARGB first and then encoded by the codec, whose loops are specialized
+    // for its data type and layout, rather than dispatching on them for every pixel.
+    final int[] row = new int[dstWidth];
+    for (int dy = startRow; dy < endRow; dy++) {
+      // Sample at the pixel center, walking the source coordinates incrementally along the row.
+      float srcX = cropToFrame[0] * 0.5f + cropToFrame[1] * (dy + 0.5f) + cropToFrame[2];
+      float srcY = cropToFrame[3] * 0.5f + cropToFrame[4] * (dy + 0.5f) + cropToFrame[5];
+
+      for (int dx = 0; dx < dstWidth; dx++) {
+        final int x = Math.min(width - 1, Math.max(0, (int) Math.floor(srcX)));
+        final int y = Math.min(height - 1, Math.max(0, (int) Math.floor(srcY)));
+        srcX += cropToFrame[0];
+        srcY += cropToFrame[3];
+
+        final int uvOffset = uvRowStride * (y >> 1) + (x >> 1) * uvPixelStride;
+        row[dx] =
+            YUV2RGB(
+                convertByteToInt(yData, yRowStride * y + x),
+                convertByteToInt(uData, uvOffset),
+                convertByteToInt(vData, uvOffset));
+      }
+      codec.encode(row, dy * dstWidth, dstWidth);
+    }
+  }
+
+  // The direct buffer conversions are newer than the other native methods as well. They are only
+  // used when every buffer is direct, as the native side can't address heap buffers.
+  private static boolean useNativeDirectConversion = true;
+
+  // RGB 565 pixels are read and written in the native byte order, as the native conversions do,
+  // whatever order their buffer is set to.
+  private static final boolean NATIVE_LITTLE_ENDIAN =
+      ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+
+  private static boolean areDirect(final ByteBuffer a, final ByteBuffer b, final ByteBuffer c) {
+    return a.isDirect() && b.isDirect() && c.isDirect();
+  }
+
+  // Whether the buffer wraps an array from its start, so the array conversions can be used on it.
+  private static boolean hasWholeArray(final ByteBuffer buffer) {
+    return buffer.hasArray() && buffer.arrayOffset() == 0;
+  }
+
+  /**
+   * Same as {@link #convertYUV420ToARGB8888(byte[], byte[], byte[], int, int, int, int, int,
+   * int[])}, but reads the planes from buffers such as those returned by
+   * {@code Image.Plane.getBuffer()}, without copying them to arrays first. Offsets are relative to
+   * the start of each buffer, regardless of its position.
+   */
+  public static void convertYUV420ToARGB8888(
+      final ByteBuffer yData,
+      final ByteBuffer uData,
+      final ByteBuffer vData,
+      final int width,
+      final int height,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final int[] out) {
+    convertYUV420ToARGB8888(
+        yData, uData, vData, width, yRowStride, uvRowStride, uvPixelStride, out, 0, height);
+  }
+
+  /** Row range version of the direct buffer conversion above. */
+  static void convertYUV420ToARGB8888(
+      final ByteBuffer yData,
+      final ByteBuffer uData,
+      final ByteBuffer vData,
+      final int width,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final int[] out,
+      final int startRow,
+      final int endRow) {
+    if (useNativeConversion && useNativeDirectConversion && areDirect(yData, uData, vData)) {
+      try {
+        convertYUV420RowsToARGB8888Direct(
+            yData, uData, vData, out, width, yRowStride, uvRowStride, uvPixelStride, startRow,
+            endRow);
+        return;
+      } catch (UnsatisfiedLinkError e) {
+        LOGGER.w("Native direct buffer YUV -> RGB implementation not found, falling back to Java");
+        useNativeDirectConversion = false;
+      }
+    }
+
+    int i = startRow * width;
+    for (int y = startRow; y < endRow; y++) {
+      final int pY = yRowStride * y;
+      final int pUV = uvRowStride * (y >> 1);
+
+      for (int x = 0; x < width; x++) {
+        final int uvOffset = pUV + (x >> 1) * uvPixelStride;
+        out[i++] =
+            YUV2RGB(
+                yData.get(pY + x) & 0xFF, uData.get(uvOffset) & 0xFF, vData.get(uvOffset) & 0xFF);
+      }
+    }
+  }
+
+  /**
+   * Same as {@link #convertYUV420ToTensor(byte[], byte[], byte[], int, int, int, int, int,
+   * float[], PixelTensorCodec)}, but reads the planes from buffers such as those returned by
+   * {@code Image.Plane.getBuffer()}, without copying them to arrays first. Offsets are relative to
+   * the start of each buffer, regardless of its position.
+   */
+  public static void convertYUV420ToTensor(
+      final ByteBuffer yData,
+      final ByteBuffer uData,
+      final ByteBuffer vData,
+      final int width,
+      final int height,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final float[] cropToFrame,
+      final PixelTensorCodec codec) {
+    convertYUV420ToTensor(
+        yData, uData, vData, width, height, yRowStride, uvRowStride, uvPixelStride, cropToFrame,
+        codec, 0, codec.getHeight());
+  }
+
+  /** Row range version of the direct buffer conversion above. */
+  static void convertYUV420ToTensor(
+      final ByteBuffer yData,
+      final ByteBuffer uData,
+      final ByteBuffer vData,
+      final int width,
+      final int height,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final float[] cropToFrame,
+      final PixelTensorCodec codec,
+      final int startRow,
+      final int endRow) {
+    final boolean planar = codec.getLayout() == PixelTensorCodec.Layout.NCHW;
+
+    if (useNativeConversion && useNativeDirectConversion && areDirect(yData, uData, vData)) {
+      try {
+        if (codec.getDataType() == PixelTensorCodec.DataType.UINT8) {
+          convertYUV420ToQuantizedTensorDirect(
+              yData, uData, vData, width, height, yRowStride, uvRowStride, uvPixelStride,
+              cropToFrame, codec.getWidth(), codec.getHeight(), startRow, endRow,
+              codec.getQuantizeTable(), planar, codec.getTensorBuffer());
+        } else {
+          convertYUV420ToTensorDirect(
+              yData, uData, vData, width, height, yRowStride, uvRowStride, uvPixelStride,
+              cropToFrame, codec.getWidth(), codec.getHeight(), startRow, endRow,
+              codec.getValueTable(), planar, codec.getTensor());
+        }
+        return;
+      } catch (UnsatisfiedLinkError e) {
+        LOGGER.w(
+            "Native direct buffer YUV -> tensor implementation not found, falling back to Java");
+        useNativeDirectConversion = false;
+      }
+    }
+
+    final int dstWidth = codec.getWidth();
+
+    // Each row is sampled to ARGB first and then encoded by the codec, whose loops are specialized
+    // for its data type and layout, rather than dispatching on them for every pixel.
+    final int[] row = new int[dstWidth];
+    for (int dy = startRow; dy < endRow; dy++) {
+      float srcX = cropToFrame[0] * 0.5f + cropToFrame[1] * (dy + 0.5f) + cropToFrame[2];
+      float srcY = cropToFrame[3] * 0.5f + cropToFrame[4] * (dy + 0.5f) + cropToFrame[5];
+
+      for (int dx = 0; dx < dstWidth; dx++) {
+        final int x = Math.min(width - 1, Math.max(0, (int) Math.floor(srcX)));
+        final int y = Math.min(height - 1, Math.max(0, (int) Math.floor(srcY)));
+        srcX += cropToFrame[0];
+        srcY += cropToFrame[3];
+
+        final int uvOffset = uvRowStride * (y >> 1) + (x >> 1) * uvPixelStride;
+        row[dx] =
+            YUV2RGB(
+                yData.get(yRowStride * y + x) & 0xFF,
+                uData.get(uvOffset) & 0xFF,
+                vData.get(uvOffset) & 0xFF);
+      }
+      codec.encode(row, dy * dstWidth, dstWidth);
+    }
+  }
+
+  /**
+   * Same as {@link #convertYUV420SPToARGB8888(byte[], int[], int, int, boolean)}, but reads the
+   * input from a buffer. Direct buffers are converted natively without copying, buffers wrapping
+   * an array through the array, and anything else in Java.
+   */
+  public static void convertYUV420SPToARGB8888(
+      final ByteBuffer input,
+      final int[] output,
+      final int width,
+      final int height,
+      final boolean halfSize) {
+    if (useNativeConversion && useNativeDirectConversion && input.isDirect()) {
+      try {
+        convertYUV420SPToARGB8888Direct(input, output, width, height, halfSize);
+        return;
+      } catch (UnsatisfiedLinkError e) {
+        LOGGER.w("Native direct buffer YUV -> RGB implementation not found, falling back");
+        useNativeDirectConversion = false;
+      }
+    }
+    if (useNativeConversion && hasWholeArray(input)) {
+      try {
+        convertYUV420SPToARGB8888(input.array(), output, width, height, halfSize);
+        return;
+      } catch (UnsatisfiedLinkError e) {
+        LOGGER.w("Native YUV -> RGB implementation not found, falling back to Java implementation");
+        useNativeConversion = false;
+      }
+    }
+
+    final int uvStart = width * height;
+    if (halfSize) {
+      // Each output pixel averages the luma of a 2x2 block, which shares one chroma sample.
+      int i = 0;
+      for (int y = 0; y < height / 2; y++) {
+        for (int x = 0; x < width / 2; x++) {
+          final int pY = 2 * y * width + 2 * x;
+          final int nY =
+              ((input.get(pY) & 0xFF)
+                      + (input.get(pY + 1) & 0xFF)
+                      + (input.get(pY + width) & 0xFF)
+                      + (input.get(pY + width + 1) & 0xFF))
+                  >> 2;
+          final int uvOffset = uvStart + 2 * i;
+          output[i++] =
+              YUV2RGB(nY, input.get(uvOffset + 1) & 0xFF, input.get(uvOffset) & 0xFF);
+        }
+      }
+      return;
+    }
+
+    int i = 0;
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        // The chroma is interleaved with V first.
+        final int uvOffset = uvStart + (y >> 1) * width + 2 * (x >> 1);
+        output[i] =
+            YUV2RGB(
+                input.get(i) & 0xFF, input.get(uvOffset + 1) & 0xFF, input.get(uvOffset) & 0xFF);
+        ++i;
+      }
+    }
+  }
+
+  /**
+   * Same as {@link #convertYUV420SPToRGB565(byte[], byte[], int, int)}, but reads from and writes
+   * to buffers. Direct buffers are converted natively without copying, buffers wrapping an array
+   * through the array, and anything else in Java.
+   */
+  public static void convertYUV420SPToRGB565(
+      final ByteBuffer input, final ByteBuffer output, final int width, final int height) {
+    if (useNativeConversion
+        && useNativeDirectConversion
+        && input.isDirect()
+        && output.isDirect()) {
+      try {
+        convertYUV420SPToRGB565Direct(input, output, width, height);
+        return;
+      } catch (UnsatisfiedLinkError e) {
+        LOGGER.w("Native direct buffer YUV -> RGB implementation not found, falling back");
+        useNativeDirectConversion = false;
+      }
+    }
+    if (useNativeConversion && hasWholeArray(input) && hasWholeArray(output)) {
+      try {
+        convertYUV420SPToRGB565(input.array(), output.array(), width, height);
+        return;
+      } catch (UnsatisfiedLinkError e) {
+        LOGGER.w("Native YUV -> RGB implementation not found, falling back to Java implementation");
+        useNativeConversion = false;
+      }
+    }
+
+    final int uvStart = width * height;
+    int i = 0;
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        final int uvOffset = uvStart + (y >> 1) * width + 2 * (x >> 1);
+        final int argb =
+            YUV2RGB(
+                input.get(i) & 0xFF, input.get(uvOffset + 1) & 0xFF, input.get(uvOffset) & 0xFF);
+        putRGB565(
+            output,
+            i++,
+            ((argb >> 8) & 0xF800) | ((argb >> 5) & 0x07E0) | ((argb >> 3) & 0x001F));
+      }
+    }
+  }
+
+  /**
+   * Same as {@link #convertARGB8888ToYUV420SP(int[], byte[], int, int)}, but writes to a buffer.
+   * Direct buffers are written natively without copying, buffers wrapping an array through the
+   * array, and anything else in Java.
+   */
+  public static void convertARGB8888ToYUV420SP(
+      final int[] input, final ByteBuffer output, final int width, final int height) {
+    if (useNativeConversion && useNativeDirectConversion && output.isDirect()) {
+      try {
+        convertARGB8888ToYUV420SPDirect(input, output, width, height);
+        return;
+      } catch (UnsatisfiedLinkError e) {
+        LOGGER.w("Native direct buffer RGB -> YUV implementation not found, falling back");
+        useNativeDirectConversion = false;
+      }
+    }
+    if (useNativeConversion && hasWholeArray(output)) {
+      try {
+        convertARGB8888ToYUV420SP(input, output.array(), width, height);
+        return;
+      } catch (UnsatisfiedLinkError e) {
+        LOGGER.w("Native RGB -> YUV implementation not found, falling back to Java implementation");
+        useNativeConversion = false;
+      }
+    }
+
+    int i = 0;
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        final int argb = input[i];
+        writeYUV(x, y, width, height, (argb >> 16) & 0xFF, (argb >> 8) & 0xFF, argb & 0xFF, output);
+        ++i;
+      }
+    }
+  }
+
+  /**
+   * Same as {@link #convertRGB565ToYUV420SP(byte[], byte[], int, int)}, but reads from and writes
+   * to buffers. Direct buffers are converted natively without copying, buffers wrapping an array
+   * through the array, and anything else in Java.
+   */
+  public static void convertRGB565ToYUV420SP(
+      final ByteBuffer input, final ByteBuffer output, final int width, final int height) {
+    if (useNativeConversion
+        && useNativeDirectConversion
+        && input.isDirect()
+        && output.isDirect()) {
+      try {
+        convertRGB565ToYUV420SPDirect(input, output, width, height);
+        return;
+      } catch (UnsatisfiedLinkError e) {
+        LOGGER.w("Native direct buffer RGB -> YUV implementation not found, falling back");
+        useNativeDirectConversion = false;
+      }
+    }
+    if (useNativeConversion && hasWholeArray(input) && hasWholeArray(output)) {
+      try {
+        convertRGB565ToYUV420SP(input.array(), output.array(), width, height);
+        return;
+      } catch (UnsatisfiedLinkError e) {
+        LOGGER.w("Native RGB -> YUV implementation not found, falling back to Java implementation");
+        useNativeConversion = false;
+      }
+    }
+
+    int i = 0;
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        final int rgb = getRGB565(input, i++);
+        final int r5 = (rgb >> 11) & 0x1F;
+        final int g6 = (rgb >> 5) & 0x3F;
+        final int b5 = rgb & 0x1F;
+        // Fill in the low bits with a copy of the high bits to stretch across the 0 - 255 range.
+        final int r8 = r5 << 3 | r5 >> 2;
+        final int g8 = g6 << 2 | g6 >> 4;
+        final int b8 = b5 << 3 | b5 >> 2;
+        writeYUV(x, y, width, height, r8, g8, b8, output);
+      }
+    }
+  }
+
+  // Java version of WriteYUV in rgb2yuv.cc. Each chroma sample is the average of its 2x2 block,
+  // accumulated a quarter at a time, with V before U.
+  private static void writeYUV(
+      final int x,
+      final int y,
+      final int width,
+      final int height,
+      final int r8,
+      final int g8,
+      final int b8,
+      final ByteBuffer output) {
+    output.put(y * width + x, (byte) (((66 * r8 + 129 * g8 + 25 * b8 + 128) >> 8) + 16));
+
+    // Odd widths get rounded up so that chroma blocks on the side don't get cut off.
+    final int blocksPerRow = (width + 1) / 2;
+    final int offset = width * height + 2 * ((y / 2) * blocksPerRow + (x / 2));
+    if ((x & 1) == 0 && (y & 1) == 0) {
+      output.put(offset, (byte) 0);
+      output.put(offset + 1, (byte) 0);
+    }
+    output.put(
+        offset, (byte) (output.get(offset) + ((112 * r8 - 94 * g8 - 18 * b8 + 128) >> 10) + 32));
+    output.put(
+        offset + 1,
+        (byte) (output.get(offset + 1) + ((-38 * r8 - 74 * g8 + 112 * b8 + 128) >> 10) + 32));
+  }
+
+  private static int getRGB565(final ByteBuffer buffer, final int pixel) {
+    final int first = buffer.get(2 * pixel) & 0xFF;
+    final int second = buffer.get(2 * pixel + 1) & 0xFF;
+    return NATIVE_LITTLE_ENDIAN ? (second << 8) | first : (first << 8) | second;
+  }
+
+  private static void putRGB565(final ByteBuffer buffer, final int pixel, final int rgb) {
+    final byte high = (byte) (rgb >> 8);
+    final byte low = (byte) rgb;
+    buffer.put(2 * pixel, NATIVE_LITTLE_ENDIAN ? low : high);
+    buffer.put(2 * pixel + 1, NATIVE_LITTLE_ENDIAN ? high : low);
+  }
+
   private static int convertByteToInt(byte[] arr, int pos) {
     return arr[pos] & 0xFF;
   }
@@ -205,6 +757,83 @@ public class ImageUtils {
       int uvPixelStride,
       boolean halfSize);
 
+  /**
+   * Converts the rows [startRow, endRow) of YUV 4:2:0 planes to ARGB 8888 data. The output must
+   * already be allocated for the full image and non-null. For efficiency, no error checking is
+   * performed.
+   *
+   * @param width The width of the input image.
+   * @param startRow First row to convert. Must be even.
+   * @param endRow One past the last row to convert.
+   * @param output A pre-allocated array for the ARGB 8:8:8:8 output data.
+   */
+  private static native void convertYUV420RowsToARGB8888(
+      byte[] y,
+      byte[] u,
+      byte[] v,
+      int[] output,
+      int width,
+      int yRowStride,
+      int uvRowStride,
+      int uvPixelStride,
+      int startRow,
+      int endRow);
+
+  /**
+   * Converts YUV 4:2:0 planes into a normalized float tensor, sampling the source through the
+   * given destination to source mapping. The output must be a direct buffer of at least
+   * dstWidth * dstHeight * 3 floats in native byte order. For efficiency, no error checking is
+   * performed.
+   *
+   * @param cropToFrame Row-major 2x3 affine mapping destination pixels to source pixels.
+   * @param dstWidth The width of the output tensor.
+   * @param dstHeight The height of the output tensor.
+   * @param dstStartRow First row of the output tensor to fill.
+   * @param dstEndRow One past the last row of the output tensor to fill.
+   * @param valueTable The tensor value for each 8-bit channel value.
+   * @param planar If true, write one plane per channel, otherwise interleave the channels.
+   * @param output A pre-allocated direct buffer for the tensor.
+   */
+  private static native void convertYUV420ToTensor(
+      byte[] y,
+      byte[] u,
+      byte[] v,
+      int width,
+      int height,
+      int yRowStride,
+      int uvRowStride,
+      int uvPixelStride,
+      float[] cropToFrame,
+      int dstWidth,
+      int dstHeight,
+      int dstStartRow,
+      int dstEndRow,
+      float[] valueTable,
+      boolean planar,
+      FloatBuffer output);
+
+  /**
+   * The same as above, but for a uint8 tensor. The output must be a direct buffer of at least
+   * dstWidth * dstHeight * 3 bytes.
+   */
+  private static native void convertYUV420ToQuantizedTensor(
+      byte[] y,
+      byte[] u,
+      byte[] v,
+      int width,
+      int height,
+      int yRowStride,
+      int uvRowStride,
+      int uvPixelStride,
+      float[] cropToFrame,
+      int dstWidth,
+      int dstHeight,
+      int dstStartRow,
+      int dstEndRow,
+      byte[] valueTable,
+      boolean planar,
+      ByteBuffer output);
+
   /**
    * Converts YUV420 semi-planar data to RGB 565 data using the supplied width
    * and height. The input and output must already be allocated and non-null.
@@ -244,6 +873,140 @@ public class ImageUtils {
   public static native void convertRGB565ToYUV420SP(
       byte[] input, byte[] output, int width, int height);
 
+  // Direct buffer variants of the native methods above. Buffers are addressed from their start,
+  // regardless of their position. For efficiency, no error checking is performed.
+
+  private static native void convertYUV420RowsToARGB8888Direct(
+      ByteBuffer y,
+      ByteBuffer u,
+      ByteBuffer v,
+      int[] output,
+      int width,
+      int yRowStride,
+      int uvRowStride,
+      int uvPixelStride,
+      int startRow,
+      int endRow);
+
+  private static native void convertYUV420ToTensorDirect(
+      ByteBuffer y,
+      ByteBuffer u,
+      ByteBuffer v,
+      int width,
+      int height,
+      int yRowStride,
+      int uvRowStride,
+      int uvPixelStride,
+      float[] cropToFrame,
+      int dstWidth,
+      int dstHeight,
+      int dstStartRow,
+      int dstEndRow,
+      float[] valueTable,
+      boolean planar,
+      FloatBuffer output);
+
+  private static native void convertYUV420ToQuantizedTensorDirect(
+      ByteBuffer y,
+      ByteBuffer u,
+      ByteBuffer v,
+      int width,
+      int height,
+      int yRowStride,
+      int uvRowStride,
+      int uvPixelStride,
+      float[] cropToFrame,
+      int dstWidth,
+      int dstHeight,
+      int dstStartRow,
+      int dstEndRow,
+      byte[] valueTable,
+      boolean planar,
+      ByteBuffer output);
+
+  private static native void convertYUV420SPToARGB8888Direct(
+      ByteBuffer input, int[] output, int width, int height, boolean halfSize);
+
+  private static native void convertYUV420SPToRGB565Direct(
+      ByteBuffer input, ByteBuffer output, int width, int height);
+
+  private static native void convertARGB8888ToYUV420SPDirect(
+      int[] input, ByteBuffer output, int width, int height);
+
+  private static native void convertRGB565ToYUV420SPDirect(
+      ByteBuffer input, ByteBuffer output, int width, int height);
+
+  /** How long the native library spent in one phase of its conversions. */
+  public static final class NativePhaseTiming {
+    public final String name;
+    public final long count;
+    public final long totalNs;
+    public final long maxNs;
+
+    private NativePhaseTiming(
+        final String name, final long count, final long totalNs, final long maxNs) {
+      this.name = name;
+      this.count = count;
+      this.totalNs = totalNs;
+      this.maxNs = maxNs;
+    }
+
+    public long getMeanNs() {
+      return count > 0 ? totalNs / count : 0;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "%s: %d calls, mean %.2fms, max %.2fms",
+          name, count, getMeanNs() / 1000000.0f, maxNs / 1000000.0f);
+    }
+  }
+
+  // The phase timings are newer than the native conversions, so they may be missing too.
+  private static boolean useNativePhaseTimings = true;
+  private static String[] nativePhaseNames;
+
+  /**
+   * Returns how long the native library spent in each phase of its conversions that ran since it
+   * was loaded or last reset. Every conversion is a phase of its own, timed around the conversion
+   * only, and "jni_call" times whole calls, so that the rest of its total is spent getting and
+   * releasing Java arrays. Empty if the native library or its timings aren't available.
+   *
+   * @param reset Whether to count from 0 again afterwards.
+   */
+  public static synchronized List<NativePhaseTiming> getNativePhaseTimings(final boolean reset) {
+    final List<NativePhaseTiming> timings = new ArrayList<NativePhaseTiming>();
+    if (!useNativeConversion || !useNativePhaseTimings) {
+      return timings;
+    }
+    final long[] values;
+    try {
+      if (nativePhaseNames == null) {
+        nativePhaseNames = getPhaseNamesNative();
+      }
+      values = new long[3 * nativePhaseNames.length];
+      getPhaseTimingsNative(values, reset);
+    } catch (UnsatisfiedLinkError e) {
+      LOGGER.w("Native phase timings not found");
+      useNativePhaseTimings = false;
+      return timings;
+    }
+    for (int i = 0; i < nativePhaseNames.length; ++i) {
+      if (values[3 * i] > 0) {
+        timings.add(
+            new NativePhaseTiming(
+                nativePhaseNames[i], values[3 * i], values[3 * i + 1], values[3 * i + 2]));
+      }
+    }
+    return timings;
+  }
+
+  private static native String[] getPhaseNamesNative();
+
+  /** Fills the output with the count, total and max time in ns of each phase, in turn. */
+  private static native void getPhaseTimingsNative(long[] output, boolean reset);
+
   /**
    * Returns a transformation matrix from one reference frame into another.
    * Handles cropping (if maintaining aspect ratio is desired) and rotation.
@@ -305,4 +1068,62 @@ public class ImageUtils {
 
     return matrix;
   }
+
+  /**
+   * Returns the inverse of {@link #getTransformationMatrix} as a plain row-major 2x3 affine
+   * transform {a, b, c, d, e, f}, so that a destination pixel (x, y) samples the source at
+   * (a * x + b * y + c, d * x + e * y + f). Unlike a {@link Matrix} this can be handed to native
+   * code and evaluated without the Android graphics stack.
+   *
+   * @param srcWidth Width of source frame.
+   * @param srcHeight Height of source frame.
+   * @param dstWidth Width of destination frame.
+   * @param dstHeight Height of destination frame.
+   * @param applyRotation Amount of rotation to apply from one frame to another.
+   *  Must be a multiple of 90.
+   * @param maintainAspectRatio If true, will ensure that scaling in x and y remains constant,
+   * cropping the image if necessary.
+   * @return The destination to source mapping.
+   */
+  public static float[] getInverseTransformation(
+      final int srcWidth,
+      final int srcHeight,
+      final int dstWidth,
+      final int dstHeight,
+      final int applyRotation,
+      final boolean maintainAspectRatio) {
+    final boolean transpose = (Math.abs(applyRotation) + 90) % 180 == 0;
+
+    final int inWidth = transpose ? srcHeight : srcWidth;
+    final int inHeight = transpose ? srcWidth : srcHeight;
+
+    float scaleFactorX = 1.0f;
+    float scaleFactorY = 1.0f;
+    if (inWidth != dstWidth || inHeight != dstHeight) {
+      scaleFactorX = dstWidth / (float) inWidth;
+      scaleFactorY = dstHeight / (float) inHeight;
+
+      if (maintainAspectRatio) {
+        scaleFactorX = scaleFactorY = Math.max(scaleFactorX, scaleFactorY);
+      }
+    }
+
+    if (applyRotation == 0) {
+      return new float[] {1.0f / scaleFactorX, 0.0f, 0.0f, 0.0f, 1.0f / scaleFactorY, 0.0f};
+    }
+
+    // Undo the steps of getTransformationMatrix in reverse: translate to the destination center,
+    // unscale, rotate back and translate to the source center.
+    final double radians = Math.toRadians(applyRotation);
+    final float cos = (float) Math.cos(radians);
+    final float sin = (float) Math.sin(radians);
+
+    final float a = cos / scaleFactorX;
+    final float b = sin / scaleFactorY;
+    final float d = -sin / scaleFactorX;
+    final float e = cos / scaleFactorY;
+    final float c = srcWidth / 2.0f - a * dstWidth / 2.0f - b * dstHeight / 2.0f;
+    final float f = srcHeight / 2.0f - d * dstWidth / 2.0f - e * dstHeight / 2.0f;
+    return new float[] {a, b, c, d, e, f};
+  }
 }
@@ -0,0 +1,215 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations, cheap enough to record every frame of every stage. Durations
+ * are counted in buckets whose width grows with the duration, eight to each power of two, so
+ * percentiles are exact to within 12.5% from nanoseconds up to hours with a fixed amount of memory.
+ *
+ * Any thread may record at any time. Reading is done through {@link Snapshot}s, which can be
+ * subtracted from each other to see what was recorded between them, e.g. before and after a
+ * change. A snapshot taken while durations are being recorded may miss the latest of them.
+ */
+public class LatencyHistogram {
+  // Each power of two is split into 2^SUB_BUCKET_BITS buckets.
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int NUM_BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+  private static final double[] REPORTED_PERCENTILES = {50.0, 90.0, 99.0};
+
+  private final String name;
+  private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+  private final AtomicLong totalNs = new AtomicLong();
+  private final AtomicLong maxNs = new AtomicLong();
+
+  public LatencyHistogram(final String name) {
+    this.name = name;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /** Records a duration. Negative durations, from clocks going backwards, count as 0. */
+  public void record(final long durationNs) {
+    final long value = Math.max(durationNs, 0);
+    counts.incrementAndGet(getBucket(value));
+    totalNs.addAndGet(value);
+    long max = maxNs.get();
+    while (value > max && !maxNs.compareAndSet(max, value)) {
+      max = maxNs.get();
+    }
+  }
+
+  /**
+   * Clears the histogram. Durations recorded while it is being cleared may be partly kept, so
+   * callers wanting an exact split should subtract snapshots instead.
+   */
+  public void reset() {
+    for (int i = 0; i < NUM_BUCKETS; ++i) {
+      counts.set(i, 0);
+    }
+    totalNs.set(0);
+    maxNs.set(0);
+  }
+
+  /** Returns a copy of the durations recorded so far. */
+  public Snapshot snapshot() {
+    final long[] snapshotCounts = new long[NUM_BUCKETS];
+    long count = 0;
+    for (int i = 0; i < NUM_BUCKETS; ++i) {
+      snapshotCounts[i] = counts.get(i);
+      count += snapshotCounts[i];
+    }
+    return new Snapshot(name, snapshotCounts, count, totalNs.get(), maxNs.get());
+  }
+
+  @Override
+  public String toString() {
+    return snapshot().toString();
+  }
+
+  private static int getBucket(final long value) {
+    if (value < SUB_BUCKETS) {
+      return (int) value;
+    }
+    // The highest set bit picks the power of two, the bits below it the bucket within it.
+    final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+  }
+
+  private static long getBucketStart(final int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    final int shift = bucket / SUB_BUCKETS - 1;
+    return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+  }
+
+  private static long getBucketWidth(final int bucket) {
+    return bucket < SUB_BUCKETS ? 1 : 1L << (bucket / SUB_BUCKETS - 1);
+  }
+
+  /** Durations recorded in a histogram up to some point, or between two points. Immutable. */
+  public static final class Snapshot {
+    private final String name;
+    private final long[] counts;
+    private final long count;
+    private final long totalNs;
+    private final long maxNs;
+
+    private Snapshot(
+        final String name,
+        final long[] counts,
+        final long count,
+        final long totalNs,
+        final long maxNs) {
+      this.name = name;
+      this.counts = counts;
+      this.count = count;
+      this.totalNs = totalNs;
+      this.maxNs = maxNs;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public long getMeanNs() {
+      return count > 0 ? totalNs / count : 0;
+    }
+
+    /**
+     * Returns the longest duration recorded. For a difference of snapshots it is the end of the
+     * longest duration's bucket instead, as the exact value may have been recorded before.
+     */
+    public long getMaxNs() {
+      return maxNs;
+    }
+
+    /**
+     * Returns the duration below which the given percentage of the durations fall, to within a
+     * bucket, or 0 if nothing was recorded.
+     *
+     * @param percentile Percentage in [0, 100].
+     */
+    public long getPercentileNs(final double percentile) {
+      if (count == 0) {
+        return 0;
+      }
+      final long rank = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+      long seen = 0;
+      for (int i = 0; i < counts.length; ++i) {
+        seen += counts[i];
+        if (seen >= rank) {
+          // The middle of the bucket, but never past the longest duration.
+          return Math.min(getBucketStart(i) + getBucketWidth(i) / 2, maxNs);
+        }
+      }
+      return maxNs;
+    }
+
+    /**
+     * Returns what was recorded after an earlier snapshot of the same histogram up to this one.
+     * If the histogram was reset in between the result is meaningless.
+     */
+    public Snapshot minus(final Snapshot earlier) {
+      final long[] diffCounts = new long[counts.length];
+      long diffCount = 0;
+      int last = -1;
+      for (int i = 0; i < counts.length; ++i) {
+        diffCounts[i] = Math.max(counts[i] - earlier.counts[i], 0);
+        diffCount += diffCounts[i];
+        if (diffCounts[i] > 0) {
+          last = i;
+        }
+      }
+      final long diffMaxNs =
+          last < 0 ? 0 : Math.min(getBucketStart(last) + getBucketWidth(last) - 1, maxNs);
+      return new Snapshot(
+          name, diffCounts, diffCount, Math.max(totalNs - earlier.totalNs, 0), diffMaxNs);
+    }
+
+    /** Returns e.g. "infer: 120 frames, p50 41.2ms, p90 45.0ms, p99 52.1ms, max 60.3ms". */
+    @Override
+    public String toString() {
+      final StringBuilder builder = new StringBuilder();
+      builder.append(name).append(": ").append(count).append(" frames");
+      if (count > 0) {
+        for (final double percentile : REPORTED_PERCENTILES) {
+          builder
+              .append(String.format(", p%.0f ", percentile))
+              .append(formatMs(getPercentileNs(percentile)));
+        }
+        builder.append(", max ").append(formatMs(maxNs));
+      }
+      return builder.toString();
+    }
+
+    private static String formatMs(final long ns) {
+      return String.format("%.1fms", ns / 1000000.0f);
+    }
+  }
+}
@@ -17,16 +17,37 @@ package org.tensorflow.demo.env;
 
 import android.util.Log;
 
+import java.util.ArrayList;
+import java.util.Formattable;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Wrapper for the platform log function, allows convenient message prefixing and log disabling.
+ * Off Android, e.g. when the command line tools run the same code on a plain JVM, messages are
+ * printed to standard error instead.
+ *
+ * Logging at a disabled level is free enough to leave in per-frame code: the level check does not
+ * call into the platform, and the fixed-arity overloads of {@link #v}, {@link #d} and {@link #i}
+ * neither box their arguments nor build a varargs array unless the message is printed. Formats
+ * using only %s, %d, %% and %n are parsed once and filled in without {@link String#format}.
  */
 public final class Logger {
   private static final String DEFAULT_TAG = "tensorflow";
   private static final int DEFAULT_MIN_LOG_LEVEL = Log.DEBUG;
 
+  // Whether the platform log is there at all, and the letters standard error marks levels with.
+  private static final boolean HAS_PLATFORM_LOG = hasPlatformLog();
+  private static final String LEVEL_LETTERS = "??VDIWEA";
+
+  // Parsed formats, keyed by the format string. Past this many, formats are parsed every time
+  // rather than cached, in case a caller builds its format strings on the fly.
+  private static final int MAX_TEMPLATES = 256;
+  private static final ConcurrentHashMap<String, Template> TEMPLATES =
+      new ConcurrentHashMap<String, Template>();
+
   // Classes to be ignored when examining the stack trace
   private static final Set<String> IGNORED_CLASS_NAMES;
 
@@ -40,6 +61,8 @@ public final class Logger {
   private final String tag;
   private final String messagePrefix;
   private int minLogLevel = DEFAULT_MIN_LOG_LEVEL;
+  // Bit per level the platform has been configured to log for the tag, e.g. with setprop.
+  private int platformLevels;
 
   /**
    * Creates a Logger using the class name as the message prefix.
@@ -71,6 +94,7 @@ public final class Logger {
     this.tag = tag;
     final String prefix = messagePrefix == null ? getCallerSimpleName() : messagePrefix;
     this.messagePrefix = (prefix.length() > 0) ? prefix + ": " : prefix;
+    this.platformLevels = getPlatformLevels(tag);
   }
 
   /**
@@ -88,12 +112,43 @@ public final class Logger {
     this.minLogLevel = minLogLevel;
   }
 
+  /**
+   * Sets the lowest level logged regardless of the platform's configuration, and re-reads that
+   * configuration, which is otherwise only read when the Logger is created.
+   */
   public void setMinLogLevel(final int minLogLevel) {
     this.minLogLevel = minLogLevel;
+    this.platformLevels = getPlatformLevels(tag);
   }
 
   public boolean isLoggable(final int logLevel) {
-    return logLevel >= minLogLevel || Log.isLoggable(tag, logLevel);
+    return logLevel >= minLogLevel || (platformLevels & (1 << logLevel)) != 0;
+  }
+
+  private static int getPlatformLevels(final String tag) {
+    if (!HAS_PLATFORM_LOG) {
+      return 0;
+    }
+    int levels = 0;
+    try {
+      for (int level = Log.VERBOSE; level <= Log.ASSERT; ++level) {
+        if (Log.isLoggable(tag, level)) {
+          levels |= 1 << level;
+        }
+      }
+    } catch (final IllegalArgumentException e) {
+      // Older platforms reject tags longer than 23 characters.
+    }
+    return levels;
+  }
+
+  private static boolean hasPlatformLog() {
+    try {
+      Class.forName("android.util.Log");
+      return true;
+    } catch (final ClassNotFoundException e) {
+      return false;
+    }
   }
 
   /**
@@ -105,87 +160,349 @@ public final class Logger {
    *     stackTrace[2]: com.google.android.apps.unveil.env.UnveilLogger
    *     stackTrace[3]: com.google.android.apps.unveil.BaseApplication
    *
-   * This function returns the simple version of the first non-filtered name.
+   * This function returns the simple version of the first non-filtered name. Loggers are meant to
+   * be kept in a static field, so this runs once per class; a Throwable's stack trace is used as it
+   * is cheaper to take than the thread's.
    *
    * @return caller's simple name
    */
   private static String getCallerSimpleName() {
     // Get the current callstack so we can pull the class of the caller off of it.
-    final StackTraceElement[] stackTrace = Thread.currentThread().getStackTrace();
+    final StackTraceElement[] stackTrace = new Throwable().getStackTrace();
 
     for (final StackTraceElement elem : stackTrace) {
       final String className = elem.getClassName();
       if (!IGNORED_CLASS_NAMES.contains(className)) {
         // We're only interested in the simple name of the class, not the complete package.
-        final String[] classParts = className.split("\\.");
-        return classParts[classParts.length - 1];
+        return className.substring(className.lastIndexOf('.') + 1);
       }
     }
 
     return Logger.class.getSimpleName();
   }
 
-  private String toMessage(final String format, final Object... args) {
-    return messagePrefix + (args.length > 0 ? String.format(format, args) : format);
+  // Package-private for tests.
+  String toMessage(final String format, final Object... args) {
+    if (args.length == 0) {
+      return messagePrefix + format;
+    }
+    final Template template = getTemplate(format);
+    if (template != null) {
+      final StringBuilder builder =
+          new StringBuilder(messagePrefix.length() + format.length() + 16 * args.length);
+      builder.append(messagePrefix);
+      if (template.appendTo(builder, args)) {
+        return builder.toString();
+      }
+    }
+    return messagePrefix + String.format(format, args);
+  }
+
+  private static Template getTemplate(final String format) {
+    final Template cached = TEMPLATES.get(format);
+    if (cached != null) {
+      return cached == Template.UNSUPPORTED ? null : cached;
+    }
+    final Template template = Template.parse(format);
+    if (TEMPLATES.size() < MAX_TEMPLATES) {
+      TEMPLATES.putIfAbsent(format, template);
+    }
+    return template == Template.UNSUPPORTED ? null : template;
+  }
+
+  /**
+   * A format split into the literal text around its %s and %d conversions. Arguments either
+   * conversion can't write as {@link String#format} would, e.g. a {@link Formattable} or a float
+   * for %d, leave the message to {@link String#format}. Numbers are written with ASCII digits
+   * whatever the default locale.
+   */
+  private static final class Template {
+    // Formats with anything else, such as widths, precisions or other conversions.
+    static final Template UNSUPPORTED = new Template(null, null);
+
+    // The text before each conversion, followed by the text after the last one.
+    private final String[] literals;
+    private final char[] conversions;
+
+    private Template(final String[] literals, final char[] conversions) {
+      this.literals = literals;
+      this.conversions = conversions;
+    }
+
+    static Template parse(final String format) {
+      final List<String> literals = new ArrayList<String>();
+      final StringBuilder conversions = new StringBuilder();
+      final StringBuilder literal = new StringBuilder();
+      for (int i = 0; i < format.length(); ++i) {
+        final char c = format.charAt(i);
+        if (c != '%') {
+          literal.append(c);
+          continue;
+        }
+        if (++i == format.length()) {
+          return UNSUPPORTED;
+        }
+        final char conversion = format.charAt(i);
+        if (conversion == '%') {
+          literal.append('%');
+        } else if (conversion == 'n') {
+          literal.append(System.getProperty("line.separator"));
+        } else if (conversion == 's' || conversion == 'd') {
+          literals.add(literal.toString());
+          literal.setLength(0);
+          conversions.append(conversion);
+        } else {
+          return UNSUPPORTED;
+        }
+      }
+      literals.add(literal.toString());
+      return new Template(
+          literals.toArray(new String[literals.size()]), conversions.toString().toCharArray());
+    }
+
+    /** Appends the formatted message, or returns false if it has to go to String.format. */
+    boolean appendTo(final StringBuilder builder, final Object[] args) {
+      if (args.length < conversions.length) {
+        return false;
+      }
+      for (int i = 0; i < conversions.length; ++i) {
+        builder.append(literals[i]);
+        final Object arg = args[i];
+        if (conversions[i] == 'd') {
+          if (!(arg instanceof Integer
+              || arg instanceof Long
+              || arg instanceof Short
+              || arg instanceof Byte)) {
+            return false;
+          }
+          builder.append(((Number) arg).longValue());
+        } else {
+          if (arg instanceof Formattable) {
+            return false;
+          }
+          builder.append(arg);
+        }
+      }
+      builder.append(literals[conversions.length]);
+      return true;
+    }
+  }
+
+  private void println(final int logLevel, final String message, final Throwable t) {
+    if (!HAS_PLATFORM_LOG) {
+      System.err.println(LEVEL_LETTERS.charAt(logLevel) + "/" + tag + ": " + message);
+      if (t != null) {
+        t.printStackTrace();
+      }
+      return;
+    }
+    Log.println(logLevel, tag, t != null ? message + '\n' + Log.getStackTraceString(t) : message);
+  }
+
+  // The fixed-arity overloads below only box their arguments once the level is known to be
+  // enabled, so they can be called per frame or per item.
+
+  public void v(final String message) {
+    if (isLoggable(Log.VERBOSE)) {
+      println(Log.VERBOSE, messagePrefix + message, null);
+    }
+  }
+
+  public void v(final String format, final int arg) {
+    if (isLoggable(Log.VERBOSE)) {
+      println(Log.VERBOSE, toMessage(format, arg), null);
+    }
+  }
+
+  public void v(final String format, final long arg) {
+    if (isLoggable(Log.VERBOSE)) {
+      println(Log.VERBOSE, toMessage(format, arg), null);
+    }
+  }
+
+  public void v(final String format, final float arg) {
+    if (isLoggable(Log.VERBOSE)) {
+      println(Log.VERBOSE, toMessage(format, arg), null);
+    }
+  }
+
+  public void v(final String format, final Object arg) {
+    if (isLoggable(Log.VERBOSE)) {
+      println(Log.VERBOSE, toMessage(format, arg), null);
+    }
+  }
+
+  public void v(final String format, final int arg1, final int arg2) {
+    if (isLoggable(Log.VERBOSE)) {
+      println(Log.VERBOSE, toMessage(format, arg1, arg2), null);
+    }
+  }
+
+  public void v(final String format, final Object arg1, final Object arg2) {
+    if (isLoggable(Log.VERBOSE)) {
+      println(Log.VERBOSE, toMessage(format, arg1, arg2), null);
+    }
+  }
+
+  public void v(final String format, final int arg1, final int arg2, final int arg3) {
+    if (isLoggable(Log.VERBOSE)) {
+      println(Log.VERBOSE, toMessage(format, arg1, arg2, arg3), null);
+    }
   }
 
   public void v(final String format, final Object... args) {
     if (isLoggable(Log.VERBOSE)) {
-      Log.v(tag, toMessage(format, args));
+      println(Log.VERBOSE, toMessage(format, args), null);
     }
   }
 
   public void v(final Throwable t, final String format, final Object... args) {
     if (isLoggable(Log.VERBOSE)) {
-      Log.v(tag, toMessage(format, args), t);
+      println(Log.VERBOSE, toMessage(format, args), t);
+    }
+  }
+
+  public void d(final String message) {
+    if (isLoggable(Log.DEBUG)) {
+      println(Log.DEBUG, messagePrefix + message, null);
+    }
+  }
+
+  public void d(final String format, final int arg) {
+    if (isLoggable(Log.DEBUG)) {
+      println(Log.DEBUG, toMessage(format, arg), null);
+    }
+  }
+
+  public void d(final String format, final long arg) {
+    if (isLoggable(Log.DEBUG)) {
+      println(Log.DEBUG, toMessage(format, arg), null);
+    }
+  }
+
+  public void d(final String format, final float arg) {
+    if (isLoggable(Log.DEBUG)) {
+      println(Log.DEBUG, toMessage(format, arg), null);
+    }
+  }
+
+  public void d(final String format, final Object arg) {
+    if (isLoggable(Log.DEBUG)) {
+      println(Log.DEBUG, toMessage(format, arg), null);
+    }
+  }
+
+  public void d(final String format, final int arg1, final int arg2) {
+    if (isLoggable(Log.DEBUG)) {
+      println(Log.DEBUG, toMessage(format, arg1, arg2), null);
+    }
+  }
+
+  public void d(final String format, final Object arg1, final Object arg2) {
+    if (isLoggable(Log.DEBUG)) {
+      println(Log.DEBUG, toMessage(format, arg1, arg2), null);
+    }
+  }
+
+  public void d(final String format, final int arg1, final int arg2, final int arg3) {
+    if (isLoggable(Log.DEBUG)) {
+      println(Log.DEBUG, toMessage(format, arg1, arg2, arg3), null);
     }
   }
 
   public void d(final String format, final Object... args) {
     if (isLoggable(Log.DEBUG)) {
-      Log.d(tag, toMessage(format, args));
+      println(Log.DEBUG, toMessage(format, args), null);
     }
   }
 
   public void d(final Throwable t, final String format, final Object... args) {
     if (isLoggable(Log.DEBUG)) {
-      Log.d(tag, toMessage(format, args), t);
+      println(Log.DEBUG, toMessage(format, args), t);
+    }
+  }
+
+  public void i(final String message) {
+    if (isLoggable(Log.INFO)) {
+      println(Log.INFO, messagePrefix + message, null);
+    }
+  }
+
+  public void i(final String format, final int arg) {
+    if (isLoggable(Log.INFO)) {
+      println(Log.INFO, toMessage(format, arg), null);
+    }
+  }
+
+  public void i(final String format, final long arg) {
+    if (isLoggable(Log.INFO)) {
+      println(Log.INFO, toMessage(format, arg), null);
+    }
+  }
+
+  public void i(final String format, final float arg) {
+    if (isLoggable(Log.INFO)) {
+      println(Log.INFO, toMessage(format, arg), null);
+    }
+  }
+
+  public void i(final String format, final Object arg) {
+    if (isLoggable(Log.INFO)) {
+      println(Log.INFO, toMessage(format, arg), null);
+    }
+  }
+
+  public void i(final String format, final int arg1, final int arg2) {
+    if (isLoggable(Log.INFO)) {
+      println(Log.INFO, toMessage(format, arg1, arg2), null);
+    }
+  }
+
+  public void i(final String format, final Object arg1, final Object arg2) {
+    if (isLoggable(Log.INFO)) {
+      println(Log.INFO, toMessage(format, arg1, arg2), null);
+    }
+  }
+
+  public void i(final String format, final int arg1, final int arg2, final int arg3) {
+    if (isLoggable(Log.INFO)) {
+      println(Log.INFO, toMessage(format, arg1, arg2, arg3), null);
     }
   }
 
   public void i(final String format, final Object... args) {
     if (isLoggable(Log.INFO)) {
-      Log.i(tag, toMessage(format, args));
+      println(Log.INFO, toMessage(format, args), null);
     }
   }
 
   public void i(final Throwable t, final String format, final Object... args) {
     if (isLoggable(Log.INFO)) {
-      Log.i(tag, toMessage(format, args), t);
+      println(Log.INFO, toMessage(format, args), t);
     }
   }
 
   public void w(final String format, final Object... args) {
     if (isLoggable(Log.WARN)) {
-      Log.w(tag, toMessage(format, args));
+      println(Log.WARN, toMessage(format, args), null);
     }
   }
 
   public void w(final Throwable t, final String format, final Object... args) {
     if (isLoggable(Log.WARN)) {
-      Log.w(tag, toMessage(format, args), t);
+      println(Log.WARN, toMessage(format, args), t);
     }
   }
 
   public void e(final String format, final Object... args) {
     if (isLoggable(Log.ERROR)) {
-      Log.e(tag, toMessage(format, args));
+      println(Log.ERROR, toMessage(format, args), null);
     }
   }
 
   public void e(final Throwable t, final String format, final Object... args) {
     if (isLoggable(Log.ERROR)) {
-      Log.e(tag, toMessage(format, args), t);
+      println(Log.ERROR, toMessage(format, args), t);
     }
   }
 }
@@ -0,0 +1,328 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs the {@link ImageUtils} YUV 4:2:0 conversions on several cores by splitting the image into
+ * horizontal strips. Source strips always start on an even row so that no chroma row is shared
+ * between two strips.
+ *
+ * All converters share one fork-join pool sized to the number of cores, which only runs
+ * conversions: inference runs on a pool of its own, so converting the next frame never queues
+ * behind the tiles of the current one. The parallelism of a converter only determines how many
+ * strips each image is split into.
+ *
+ * The strip tasks are created once per number of rows and reused for every image with that many,
+ * so converting allocates nothing once each size has been seen. A converter runs one conversion
+ * at a time; use one converter per thread to convert concurrently.
+ */
+public class ParallelYUVConverter {
+  private static ForkJoinPool sharedPool;
+
+  private final int parallelism;
+
+  // The root strip of each number of rows converted so far.
+  private Strip[] strips = new Strip[0];
+
+  // The arguments of the conversion in progress, read by the row converters below. Only one of
+  // the array and buffer planes is set.
+  private byte[] yArray;
+  private byte[] uArray;
+  private byte[] vArray;
+  private ByteBuffer yBuffer;
+  private ByteBuffer uBuffer;
+  private ByteBuffer vBuffer;
+  private int width;
+  private int height;
+  private int yRowStride;
+  private int uvRowStride;
+  private int uvPixelStride;
+  private int[] out;
+  private float[] cropToFrame;
+  private PixelTensorCodec codec;
+
+  // The row converter of the conversion in progress.
+  private RowConverter converter;
+
+  // Strip boundaries of the ARGB conversions are kept on chroma rows, i.e. on multiples of two
+  // luma rows.
+  private final RowConverter arrayToArgb =
+      new RowConverter() {
+        @Override
+        public void convert(final int start, final int end) {
+          ImageUtils.convertYUV420ToARGB8888(
+              yArray, uArray, vArray, width, yRowStride, uvRowStride, uvPixelStride, out,
+              start * 2, Math.min(height, end * 2));
+        }
+      };
+
+  private final RowConverter arrayToTensor =
+      new RowConverter() {
+        @Override
+        public void convert(final int start, final int end) {
+          ImageUtils.convertYUV420ToTensor(
+              yArray, uArray, vArray, width, height, yRowStride, uvRowStride, uvPixelStride,
+              cropToFrame, codec, start, end);
+        }
+      };
+
+  private final RowConverter bufferToArgb =
+      new RowConverter() {
+        @Override
+        public void convert(final int start, final int end) {
+          ImageUtils.convertYUV420ToARGB8888(
+              yBuffer, uBuffer, vBuffer, width, yRowStride, uvRowStride, uvPixelStride, out,
+              start * 2, Math.min(height, end * 2));
+        }
+      };
+
+  private final RowConverter bufferToTensor =
+      new RowConverter() {
+        @Override
+        public void convert(final int start, final int end) {
+          ImageUtils.convertYUV420ToTensor(
+              yBuffer, uBuffer, vBuffer, width, height, yRowStride, uvRowStride, uvPixelStride,
+              cropToFrame, codec, start, end);
+        }
+      };
+
+  /** Creates a converter which uses one strip per available core. */
+  public ParallelYUVConverter() {
+    this(Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Creates a converter with a fixed number of strips.
+   *
+   * @param parallelism Maximum number of strips an image is split into. 1 converts on the calling
+   *     thread.
+   */
+  public ParallelYUVConverter(final int parallelism) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+    }
+    this.parallelism = parallelism;
+  }
+
+  public int getParallelism() {
+    return parallelism;
+  }
+
+  /** Returns the conversion pool shared by all converters, creating it on first use. */
+  public static synchronized ForkJoinPool getSharedPool() {
+    if (sharedPool == null) {
+      sharedPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    }
+    return sharedPool;
+  }
+
+  /**
+   * Parallel version of {@link ImageUtils#convertYUV420ToARGB8888(byte[], byte[], byte[], int,
+   * int, int, int, int, int[])}.
+   */
+  public synchronized void convertYUV420ToARGB8888(
+      final byte[] yData,
+      final byte[] uData,
+      final byte[] vData,
+      final int width,
+      final int height,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final int[] out) {
+    setPlanes(yData, uData, vData);
+    setFrame(width, height, yRowStride, uvRowStride, uvPixelStride);
+    this.out = out;
+    run((height + 1) / 2, arrayToArgb);
+  }
+
+  /**
+   * Parallel version of {@link ImageUtils#convertYUV420ToTensor(byte[], byte[], byte[], int, int,
+   * int, int, int, float[], PixelTensorCodec)}. Strips are taken over the destination rows, since
+   * a rotated destination row may span many source rows.
+   */
+  public synchronized void convertYUV420ToTensor(
+      final byte[] yData,
+      final byte[] uData,
+      final byte[] vData,
+      final int width,
+      final int height,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final float[] cropToFrame,
+      final PixelTensorCodec codec) {
+    setPlanes(yData, uData, vData);
+    setFrame(width, height, yRowStride, uvRowStride, uvPixelStride);
+    this.cropToFrame = cropToFrame;
+    this.codec = codec;
+    run(codec.getHeight(), arrayToTensor);
+  }
+
+  /**
+   * Parallel version of {@link ImageUtils#convertYUV420ToARGB8888(ByteBuffer, ByteBuffer,
+   * ByteBuffer, int, int, int, int, int, int[])}.
+   */
+  public synchronized void convertYUV420ToARGB8888(
+      final ByteBuffer yData,
+      final ByteBuffer uData,
+      final ByteBuffer vData,
+      final int width,
+      final int height,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final int[] out) {
+    setPlanes(yData, uData, vData);
+    setFrame(width, height, yRowStride, uvRowStride, uvPixelStride);
+    this.out = out;
+    run((height + 1) / 2, bufferToArgb);
+  }
+
+  /**
+   * Parallel version of {@link ImageUtils#convertYUV420ToTensor(ByteBuffer, ByteBuffer,
+   * ByteBuffer, int, int, int, int, int, float[], PixelTensorCodec)}.
+   */
+  public synchronized void convertYUV420ToTensor(
+      final ByteBuffer yData,
+      final ByteBuffer uData,
+      final ByteBuffer vData,
+      final int width,
+      final int height,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride,
+      final float[] cropToFrame,
+      final PixelTensorCodec codec) {
+    setPlanes(yData, uData, vData);
+    setFrame(width, height, yRowStride, uvRowStride, uvPixelStride);
+    this.cropToFrame = cropToFrame;
+    this.codec = codec;
+    run(codec.getHeight(), bufferToTensor);
+  }
+
+  private void setPlanes(final byte[] yData, final byte[] uData, final byte[] vData) {
+    yArray = yData;
+    uArray = uData;
+    vArray = vData;
+  }
+
+  private void setPlanes(final ByteBuffer yData, final ByteBuffer uData, final ByteBuffer vData) {
+    yBuffer = yData;
+    uBuffer = uData;
+    vBuffer = vData;
+  }
+
+  private void setFrame(
+      final int width,
+      final int height,
+      final int yRowStride,
+      final int uvRowStride,
+      final int uvPixelStride) {
+    this.width = width;
+    this.height = height;
+    this.yRowStride = yRowStride;
+    this.uvRowStride = uvRowStride;
+    this.uvPixelStride = uvPixelStride;
+  }
+
+  private void run(final int rows, final RowConverter converter) {
+    try {
+      if (parallelism == 1) {
+        converter.convert(0, rows);
+      } else {
+        // Submitting the strips to the pool publishes the arguments to its threads.
+        this.converter = converter;
+        final Strip root = getStrips(rows);
+        root.reset();
+        getSharedPool().invoke(root);
+      }
+    } finally {
+      // Don't keep the frame alive until the next conversion.
+      setPlanes((byte[]) null, null, null);
+      setPlanes((ByteBuffer) null, null, null);
+      out = null;
+      cropToFrame = null;
+      codec = null;
+      this.converter = null;
+    }
+  }
+
+  private Strip getStrips(final int rows) {
+    for (final Strip root : strips) {
+      if (root.end == rows) {
+        return root;
+      }
+    }
+    final int minStripSize = Math.max(1, (rows + parallelism - 1) / parallelism);
+    final Strip root = new Strip(0, rows, minStripSize);
+    strips = Arrays.copyOf(strips, strips.length + 1);
+    strips[strips.length - 1] = root;
+    return root;
+  }
+
+  /** Converts a range of rows. Must be safe to call concurrently for disjoint ranges. */
+  private interface RowConverter {
+    void convert(final int start, final int end);
+  }
+
+  /**
+   * A range of rows, halved into two child strips until it is no larger than the minimum strip
+   * size. The tree is built once and reset before each conversion.
+   */
+  private class Strip extends RecursiveAction {
+    private final int start;
+    private final int end;
+    private final Strip first;
+    private final Strip second;
+
+    Strip(final int start, final int end, final int minSize) {
+      this.start = start;
+      this.end = end;
+      if (end - start <= minSize) {
+        first = null;
+        second = null;
+      } else {
+        final int mid = (start + end) >>> 1;
+        first = new Strip(start, mid, minSize);
+        second = new Strip(mid, end, minSize);
+      }
+    }
+
+    /** Makes this strip and its children ready to be run again. */
+    void reset() {
+      reinitialize();
+      if (first != null) {
+        first.reset();
+        second.reset();
+      }
+    }
+
+    @Override
+    protected void compute() {
+      if (first == null) {
+        converter.convert(start, end);
+      } else {
+        invokeAll(first, second);
+      }
+    }
+  }
+}
@@ -0,0 +1,596 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+import android.graphics.Bitmap;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+/**
+ * Converts between packed 8-bit RGB pixels and a 3-channel tensor held in a direct buffer. The
+ * tensor holds either floats, or uint8 values quantized with a scale and zero point.
+ *
+ * All storage is allocated once in the constructor, so encoding and decoding a frame does not
+ * allocate. The tensor can be handed as-is to a native inference runtime.
+ */
+public class PixelTensorCodec {
+  /** Memory layout of the tensor. */
+  public enum Layout {
+    /** Channels interleaved per pixel: [height][width][3]. */
+    NHWC,
+    /** One full plane per channel: [3][height][width]. */
+    NCHW
+  }
+
+  /** Element type of the tensor. */
+  public enum DataType {
+    FLOAT32,
+    /** Stores real values r as round(r / quantizationScale) + zeroPoint, clamped to [0, 255]. */
+    UINT8
+  }
+
+  private static final int NUM_CHANNELS = 3;
+  private static final int CHUNK_PIXELS = 1024;
+
+  private final int width;
+  private final int height;
+  private final int numPixels;
+  private final Layout layout;
+  private final DataType dataType;
+
+  private final float offset;
+  private final float inverseScale;
+
+  private final float quantizationScale;
+  private final int zeroPoint;
+
+  // Maps an 8-bit channel value directly to its normalized float, so encoding needs no division.
+  private final float[] valueTable = new float[256];
+
+  // In UINT8 mode, maps an 8-bit channel value to its quantized tensor value and back.
+  private final byte[] quantizeTable;
+  private final int[] dequantizeTable;
+
+  private final ByteBuffer tensorBuffer;
+  private final FloatBuffer floatTensor;
+
+  // Pixels in the byte order Bitmap.copyPixels{To,From}Buffer uses for ARGB_8888, which is
+  // R, G, B, A in memory. Viewed as little endian ints that is 0xAABBGGRR.
+  private final IntBuffer bitmapPixels;
+
+  // Staging for pixels read from or written to a buffer, so that the loops only index arrays.
+  private final int[] chunk;
+
+  /**
+   * Creates a float codec which maps channel values 0-255 onto [0, 1].
+   *
+   * @param width Width of the image in pixels.
+   * @param height Height of the image in pixels.
+   * @param layout Memory layout of the tensor.
+   */
+  public PixelTensorCodec(final int width, final int height, final Layout layout) {
+    this(width, height, layout, 1.0f / 255.0f, 0.0f);
+  }
+
+  /**
+   * Creates a float codec which maps each channel value v onto v * scale + offset.
+   *
+   * @param width Width of the image in pixels.
+   * @param height Height of the image in pixels.
+   * @param layout Memory layout of the tensor.
+   * @param scale Multiplier applied to each 8-bit channel value. Must be non-zero.
+   * @param offset Added to each channel value after scaling.
+   */
+  public PixelTensorCodec(
+      final int width,
+      final int height,
+      final Layout layout,
+      final float scale,
+      final float offset) {
+    this(width, height, layout, scale, offset, DataType.FLOAT32, 1.0f, 0);
+  }
+
+  /**
+   * Creates a uint8 codec for a model whose input and output are quantized with the given
+   * parameters, and which expects channel values normalized to [0, 1]. With a quantization scale
+   * of 1 / 255 and a zero point of 0 the tensor holds the pixel bytes unchanged.
+   *
+   * @param width Width of the image in pixels.
+   * @param height Height of the image in pixels.
+   * @param layout Memory layout of the tensor.
+   * @param quantizationScale Real value of one quantization step. Must be positive.
+   * @param zeroPoint Quantized value representing a real value of 0, in [0, 255].
+   */
+  public static PixelTensorCodec newQuantized(
+      final int width,
+      final int height,
+      final Layout layout,
+      final float quantizationScale,
+      final int zeroPoint) {
+    return new PixelTensorCodec(
+        width, height, layout, 1.0f / 255.0f, 0.0f, DataType.UINT8, quantizationScale, zeroPoint);
+  }
+
+  private PixelTensorCodec(
+      final int width,
+      final int height,
+      final Layout layout,
+      final float scale,
+      final float offset,
+      final DataType dataType,
+      final float quantizationScale,
+      final int zeroPoint) {
+    if (scale == 0.0f) {
+      throw new IllegalArgumentException("Scale must be non-zero.");
+    }
+    if (quantizationScale <= 0.0f || zeroPoint < 0 || zeroPoint > 255) {
+      throw new IllegalArgumentException(
+          "Invalid quantization: scale " + quantizationScale + ", zero point " + zeroPoint);
+    }
+    this.width = width;
+    this.height = height;
+    this.numPixels = width * height;
+    this.layout = layout;
+    this.dataType = dataType;
+    this.offset = offset;
+    this.inverseScale = 1.0f / scale;
+    this.quantizationScale = quantizationScale;
+    this.zeroPoint = zeroPoint;
+
+    for (int i = 0; i < valueTable.length; ++i) {
+      valueTable[i] = i * scale + offset;
+    }
+
+    final int bytesPerValue;
+    if (dataType == DataType.UINT8) {
+      quantizeTable = new byte[256];
+      dequantizeTable = new int[256];
+      for (int i = 0; i < 256; ++i) {
+        quantizeTable[i] = (byte) clamp(Math.round(valueTable[i] / quantizationScale) + zeroPoint);
+        dequantizeTable[i] = toChannel(quantizationScale * (i - zeroPoint));
+      }
+      bytesPerValue = 1;
+    } else {
+      quantizeTable = null;
+      dequantizeTable = null;
+      bytesPerValue = 4;
+    }
+
+    tensorBuffer =
+        ByteBuffer.allocateDirect(numPixels * NUM_CHANNELS * bytesPerValue)
+            .order(ByteOrder.nativeOrder());
+    floatTensor = dataType == DataType.FLOAT32 ? tensorBuffer.asFloatBuffer() : null;
+    bitmapPixels =
+        ByteBuffer.allocateDirect(numPixels * 4).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+    chunk = new int[Math.min(numPixels, CHUNK_PIXELS)];
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public Layout getLayout() {
+    return layout;
+  }
+
+  public DataType getDataType() {
+    return dataType;
+  }
+
+  /**
+   * Returns the direct buffer backing a float tensor. The buffer is shared and is overwritten by
+   * every call to one of the encode methods.
+   *
+   * @throws IllegalStateException if this is not a {@link DataType#FLOAT32} codec.
+   */
+  public FloatBuffer getTensor() {
+    if (floatTensor == null) {
+      throw new IllegalStateException("Not a float codec: " + dataType);
+    }
+    return floatTensor;
+  }
+
+  /**
+   * Returns the raw direct buffer backing the tensor, for any data type. The buffer is shared and
+   * is overwritten by every call to one of the encode methods.
+   */
+  public ByteBuffer getTensorBuffer() {
+    return tensorBuffer;
+  }
+
+  /** Returns the number of bytes held by the tensor and the bitmap staging buffer. */
+  public int getByteSize() {
+    return tensorBuffer.capacity() + bitmapPixels.capacity() * 4;
+  }
+
+  /** Returns the tensor value for each 8-bit channel value of a float codec. */
+  float[] getValueTable() {
+    return valueTable;
+  }
+
+  /** Returns the tensor value for each 8-bit channel value of a uint8 codec. */
+  byte[] getQuantizeTable() {
+    return quantizeTable;
+  }
+
+  /**
+   * Returns the index into the tensor of the given channel of the given pixel, in elements.
+   *
+   * @param pixel Row-major pixel index.
+   * @param channel 0 for red, 1 for green, 2 for blue.
+   */
+  public int getTensorIndex(final int pixel, final int channel) {
+    return layout == Layout.NHWC ? pixel * NUM_CHANNELS + channel : channel * numPixels + pixel;
+  }
+
+  /**
+   * Returns the real value of a tensor element, dequantizing it in UINT8 mode.
+   *
+   * @param index Element index, see {@link #getTensorIndex}.
+   */
+  public float getValue(final int index) {
+    if (floatTensor != null) {
+      return floatTensor.get(index);
+    }
+    return quantizationScale * ((tensorBuffer.get(index) & 0xFF) - zeroPoint);
+  }
+
+  /**
+   * Sets a tensor element to a real value, quantizing it in UINT8 mode.
+   *
+   * @param index Element index, see {@link #getTensorIndex}.
+   * @param value The real value.
+   */
+  public void setValue(final int index, final float value) {
+    if (floatTensor != null) {
+      floatTensor.put(index, value);
+    } else {
+      tensorBuffer.put(index, (byte) clamp(Math.round(value / quantizationScale) + zeroPoint));
+    }
+  }
+
+  /**
+   * Copies a region of another codec's tensor into this one's, element by element.
+   *
+   * @param source A codec of the same size, layout and data type.
+   * @param left Left edge of the region in pixels.
+   * @param top Top edge of the region in pixels.
+   * @param right Right edge of the region in pixels, exclusive.
+   * @param bottom Bottom edge of the region in pixels, exclusive.
+   */
+  public void copyRegion(
+      final PixelTensorCodec source,
+      final int left,
+      final int top,
+      final int right,
+      final int bottom) {
+    if (source.width != width
+        || source.height != height
+        || source.layout != layout
+        || source.dataType != dataType) {
+      throw new IllegalArgumentException("Can't copy between codecs of different formats");
+    }
+    for (int y = top; y < bottom; ++y) {
+      for (int x = left; x < right; ++x) {
+        for (int c = 0; c < NUM_CHANNELS; ++c) {
+          final int index = getTensorIndex(y * width + x, c);
+          if (floatTensor != null) {
+            floatTensor.put(index, source.floatTensor.get(index));
+          } else {
+            tensorBuffer.put(index, source.tensorBuffer.get(index));
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Encodes a single ARGB 8:8:8:8 pixel into the tensor. Alpha is ignored.
+   *
+   * @param pixel Row-major pixel index.
+   * @param argb The pixel value.
+   */
+  public void setPixel(final int pixel, final int argb) {
+    putChannel(getTensorIndex(pixel, 0), (argb >> 16) & 0xFF);
+    putChannel(getTensorIndex(pixel, 1), (argb >> 8) & 0xFF);
+    putChannel(getTensorIndex(pixel, 2), argb & 0xFF);
+  }
+
+  /**
+   * Encodes ARGB 8:8:8:8 pixels into the tensor. Alpha is ignored.
+   *
+   * @param argb At least width * height pixels in row-major order.
+   */
+  public void encode(final int[] argb) {
+    encode(argb, 0, 0, numPixels, 16, 8, 0);
+  }
+
+  /**
+   * Encodes a run of ARGB 8:8:8:8 pixels into the tensor, such as one row of the image. Alpha is
+   * ignored.
+   *
+   * @param argb At least count pixels.
+   * @param first Row-major index of the pixel the first one is encoded into.
+   * @param count Number of pixels to encode.
+   */
+  public void encode(final int[] argb, final int first, final int count) {
+    encode(argb, 0, first, count, 16, 8, 0);
+  }
+
+  /**
+   * Encodes ARGB 8:8:8:8 pixels into the tensor, starting at the buffer's current position. The
+   * buffer's position is not modified.
+   *
+   * @param argb A buffer with at least width * height pixels remaining.
+   */
+  public void encode(final IntBuffer argb) {
+    final int position = argb.position();
+    encode(argb, 16, 8, 0);
+    argb.position(position);
+  }
+
+  /**
+   * Encodes the contents of an ARGB_8888 bitmap into the tensor without going through
+   * {@link Bitmap#getPixels}.
+   *
+   * @param bitmap A bitmap of exactly width x height pixels.
+   */
+  public void encode(final Bitmap bitmap) {
+    bitmapPixels.rewind();
+    bitmap.copyPixelsToBuffer(bitmapPixels);
+    bitmapPixels.rewind();
+    encode(bitmapPixels, 0, 8, 16);
+  }
+
+  // Encodes the pixels from the buffer's position on, a chunk at a time through the staging array
+  // so that the same loops serve arrays and buffers. Moves the buffer's position.
+  private void encode(
+      final IntBuffer pixels, final int redShift, final int greenShift, final int blueShift) {
+    for (int first = 0; first < numPixels; first += chunk.length) {
+      final int count = Math.min(chunk.length, numPixels - first);
+      pixels.get(chunk, 0, count);
+      encode(chunk, 0, first, count, redShift, greenShift, blueShift);
+    }
+  }
+
+  // Picks the loop for the tensor's data type and layout once, rather than once per value.
+  private void encode(
+      final int[] pixels,
+      final int offset,
+      final int first,
+      final int count,
+      final int redShift,
+      final int greenShift,
+      final int blueShift) {
+    if (floatTensor != null) {
+      if (layout == Layout.NHWC) {
+        encodeFloatNhwc(pixels, offset, first, count, redShift, greenShift, blueShift);
+      } else {
+        encodeFloatNchw(pixels, offset, first, count, redShift, greenShift, blueShift);
+      }
+    } else {
+      if (layout == Layout.NHWC) {
+        encodeUint8Nhwc(pixels, offset, first, count, redShift, greenShift, blueShift);
+      } else {
+        encodeUint8Nchw(pixels, offset, first, count, redShift, greenShift, blueShift);
+      }
+    }
+  }
+
+  private void encodeFloatNhwc(
+      final int[] pixels,
+      final int offset,
+      final int first,
+      final int count,
+      final int redShift,
+      final int greenShift,
+      final int blueShift) {
+    for (int i = 0, t = first * NUM_CHANNELS; i < count; ++i) {
+      final int val = pixels[offset + i];
+      floatTensor.put(t++, valueTable[(val >> redShift) & 0xFF]);
+      floatTensor.put(t++, valueTable[(val >> greenShift) & 0xFF]);
+      floatTensor.put(t++, valueTable[(val >> blueShift) & 0xFF]);
+    }
+  }
+
+  private void encodeFloatNchw(
+      final int[] pixels,
+      final int offset,
+      final int first,
+      final int count,
+      final int redShift,
+      final int greenShift,
+      final int blueShift) {
+    for (int i = 0, t = first; i < count; ++i, ++t) {
+      final int val = pixels[offset + i];
+      floatTensor.put(t, valueTable[(val >> redShift) & 0xFF]);
+      floatTensor.put(numPixels + t, valueTable[(val >> greenShift) & 0xFF]);
+      floatTensor.put(2 * numPixels + t, valueTable[(val >> blueShift) & 0xFF]);
+    }
+  }
+
+  private void encodeUint8Nhwc(
+      final int[] pixels,
+      final int offset,
+      final int first,
+      final int count,
+      final int redShift,
+      final int greenShift,
+      final int blueShift) {
+    for (int i = 0, t = first * NUM_CHANNELS; i < count; ++i) {
+      final int val = pixels[offset + i];
+      tensorBuffer.put(t++, quantizeTable[(val >> redShift) & 0xFF]);
+      tensorBuffer.put(t++, quantizeTable[(val >> greenShift) & 0xFF]);
+      tensorBuffer.put(t++, quantizeTable[(val >> blueShift) & 0xFF]);
+    }
+  }
+
+  private void encodeUint8Nchw(
+      final int[] pixels,
+      final int offset,
+      final int first,
+      final int count,
+      final int redShift,
+      final int greenShift,
+      final int blueShift) {
+    for (int i = 0, t = first; i < count; ++i, ++t) {
+      final int val = pixels[offset + i];
+      tensorBuffer.put(t, quantizeTable[(val >> redShift) & 0xFF]);
+      tensorBuffer.put(numPixels + t, quantizeTable[(val >> greenShift) & 0xFF]);
+      tensorBuffer.put(2 * numPixels + t, quantizeTable[(val >> blueShift) & 0xFF]);
+    }
+  }
+
+  private void putChannel(final int index, final int value) {
+    if (floatTensor != null) {
+      floatTensor.put(index, valueTable[value]);
+    } else {
+      tensorBuffer.put(index, quantizeTable[value]);
+    }
+  }
+
+  /**
+   * Decodes the tensor into opaque ARGB 8:8:8:8 pixels. Values outside of the encoded range are
+   * clamped.
+   *
+   * @param argb Receives width * height pixels in row-major order.
+   */
+  public void decode(final int[] argb) {
+    decode(argb, 0, 0, numPixels, 16, 8, 0);
+  }
+
+  /**
+   * Decodes the tensor into an ARGB_8888 bitmap via {@link Bitmap#copyPixelsFromBuffer}. Values
+   * outside of the encoded range are clamped.
+   *
+   * @param bitmap A mutable bitmap of exactly width x height pixels.
+   */
+  public void decode(final Bitmap bitmap) {
+    bitmapPixels.rewind();
+    for (int first = 0; first < numPixels; first += chunk.length) {
+      final int count = Math.min(chunk.length, numPixels - first);
+      decode(chunk, 0, first, count, 0, 8, 16);
+      bitmapPixels.put(chunk, 0, count);
+    }
+    bitmapPixels.rewind();
+    bitmap.copyPixelsFromBuffer(bitmapPixels);
+  }
+
+  private void decode(
+      final int[] pixels,
+      final int offset,
+      final int first,
+      final int count,
+      final int redShift,
+      final int greenShift,
+      final int blueShift) {
+    if (floatTensor != null) {
+      if (layout == Layout.NHWC) {
+        decodeFloatNhwc(pixels, offset, first, count, redShift, greenShift, blueShift);
+      } else {
+        decodeFloatNchw(pixels, offset, first, count, redShift, greenShift, blueShift);
+      }
+    } else {
+      if (layout == Layout.NHWC) {
+        decodeUint8Nhwc(pixels, offset, first, count, redShift, greenShift, blueShift);
+      } else {
+        decodeUint8Nchw(pixels, offset, first, count, redShift, greenShift, blueShift);
+      }
+    }
+  }
+
+  private void decodeFloatNhwc(
+      final int[] pixels,
+      final int offset,
+      final int first,
+      final int count,
+      final int redShift,
+      final int greenShift,
+      final int blueShift) {
+    for (int i = 0, t = first * NUM_CHANNELS; i < count; ++i, t += NUM_CHANNELS) {
+      pixels[offset + i] =
+          0xFF000000
+              | (toChannel(floatTensor.get(t)) << redShift)
+              | (toChannel(floatTensor.get(t + 1)) << greenShift)
+              | (toChannel(floatTensor.get(t + 2)) << blueShift);
+    }
+  }
+
+  private void decodeFloatNchw(
+      final int[] pixels,
+      final int offset,
+      final int first,
+      final int count,
+      final int redShift,
+      final int greenShift,
+      final int blueShift) {
+    for (int i = 0, t = first; i < count; ++i, ++t) {
+      pixels[offset + i] =
+          0xFF000000
+              | (toChannel(floatTensor.get(t)) << redShift)
+              | (toChannel(floatTensor.get(numPixels + t)) << greenShift)
+              | (toChannel(floatTensor.get(2 * numPixels + t)) << blueShift);
+    }
+  }
+
+  private void decodeUint8Nhwc(
+      final int[] pixels,
+      final int offset,
+      final int first,
+      final int count,
+      final int redShift,
+      final int greenShift,
+      final int blueShift) {
+    for (int i = 0, t = first * NUM_CHANNELS; i < count; ++i, t += NUM_CHANNELS) {
+      pixels[offset + i] =
+          0xFF000000
+              | (dequantizeTable[tensorBuffer.get(t) & 0xFF] << redShift)
+              | (dequantizeTable[tensorBuffer.get(t + 1) & 0xFF] << greenShift)
+              | (dequantizeTable[tensorBuffer.get(t + 2) & 0xFF] << blueShift);
+    }
+  }
+
+  private void decodeUint8Nchw(
+      final int[] pixels,
+      final int offset,
+      final int first,
+      final int count,
+      final int redShift,
+      final int greenShift,
+      final int blueShift) {
+    for (int i = 0, t = first; i < count; ++i, ++t) {
+      pixels[offset + i] =
+          0xFF000000
+              | (dequantizeTable[tensorBuffer.get(t) & 0xFF] << redShift)
+              | (dequantizeTable[tensorBuffer.get(numPixels + t) & 0xFF] << greenShift)
+              | (dequantizeTable[tensorBuffer.get(2 * numPixels + t) & 0xFF] << blueShift);
+    }
+  }
+
+  private int toChannel(final float value) {
+    return clamp((int) ((value - offset) * inverseScale + 0.5f));
+  }
+
+  private static int clamp(final int value) {
+    return Math.min(255, Math.max(0, value));
+  }
+}
@@ -0,0 +1,252 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+/**
+ * Picks the image size to stylize at so that inference keeps up with a target frame rate. The
+ * governor is fed the inference time of every frame, and every few frames steps the size up or
+ * down by as much as the measured time suggests, assuming that the time grows with the number of
+ * pixels. Sizes are multiples of {@link #SIZE_MULTIPLE}.
+ *
+ * Every new size needs its own engine buffers and pipeline context, so the governor remembers the
+ * {@link #MAX_RECENT_SIZES} sizes it used most recently and goes back to one of them rather than
+ * to a new size when it is at most {@link #SNAP_TOLERANCE} smaller than the size aimed at. Sizes
+ * which would only differ by a few pixels therefore don't each get allocated, and the sizes in
+ * use fit in a small cache.
+ *
+ * To avoid oscillating, a step down is only taken when frames are clearly over budget and a step
+ * up only when they are well under it, each step is limited, and the times measured right after a
+ * change are discarded. Each size's fastest time is remembered as well: when frames at a size get
+ * markedly slower than that, the device is assumed to be throttling and the size isn't stepped up
+ * again until the times recover.
+ *
+ * Every decision is logged. Not thread safe, except for {@link #getSize} and {@link #toString}.
+ */
+public class ResolutionGovernor {
+  private static final Logger LOGGER = new Logger();
+
+  public static final int SIZE_MULTIPLE = 8;
+
+  /** Number of recently used sizes the governor prefers over new ones. */
+  public static final int MAX_RECENT_SIZES = 4;
+
+  /** How much smaller than the size aimed at a recently used size may be, as a factor. */
+  public static final float SNAP_TOLERANCE = 1.15f;
+
+  // Frames discarded after a size change, whose times are still disturbed by the change.
+  private static final int SETTLE_FRAMES = 2;
+
+  // Frames measured between decisions.
+  private static final int DECISION_FRAMES = 8;
+
+  private static final float TIME_AVERAGE_WEIGHT = 0.25f;
+
+  // Band around the budget within which the size is kept, as fractions of the budget.
+  private static final float DOWN_THRESHOLD = 1.1f;
+  private static final float UP_THRESHOLD = 0.75f;
+
+  // Fraction of the budget new sizes are aimed at, leaving headroom for noise.
+  private static final float TARGET_LOAD = 0.9f;
+
+  // Largest change of the size in one step, as a factor.
+  private static final float MAX_STEP = 1.25f;
+
+  // Slowdown against a size's fastest time at which throttling is detected, and at which it is
+  // considered over.
+  private static final float DRIFT_THRESHOLD = 1.2f;
+  private static final float DRIFT_RECOVERED = 1.05f;
+
+  /** What the governor decided after measuring a size. */
+  public enum Decision {
+    HOLD,
+    DOWN,
+    UP,
+    THROTTLED
+  }
+
+  private final float budgetMs;
+  private final int minSize;
+  private final int maxSize;
+
+  private volatile int size;
+  private int framesAtSize;
+  private float averageMs;
+
+  // The fastest average time measured at each size, indexed by size / SIZE_MULTIPLE.
+  private final float[] fastestMs;
+
+  // The sizes used most recently, most recent first. The current size is always the first.
+  private final int[] recentSizes = new int[MAX_RECENT_SIZES];
+  private int numRecentSizes;
+
+  private boolean throttled;
+
+  private volatile String summary;
+
+  /**
+   * @param targetFps Frame rate to keep up with.
+   * @param minSize Smallest size to use.
+   * @param maxSize Largest size to use.
+   * @param initialSize Size to start at.
+   */
+  public ResolutionGovernor(
+      final float targetFps, final int minSize, final int maxSize, final int initialSize) {
+    if (targetFps <= 0.0f || minSize < SIZE_MULTIPLE || maxSize < minSize) {
+      throw new IllegalArgumentException(
+          "Invalid governor: " + targetFps + "fps, sizes " + minSize + " to " + maxSize);
+    }
+    this.budgetMs = 1000.0f / targetFps;
+    this.minSize = roundUp(minSize);
+    this.maxSize = roundDown(maxSize);
+    this.fastestMs = new float[this.maxSize / SIZE_MULTIPLE + 1];
+    this.size = clamp(roundDown(initialSize));
+    markRecent(size);
+    updateSummary(Decision.HOLD, 0.0f);
+  }
+
+  /** Returns the size frames should currently be stylized at. */
+  public int getSize() {
+    return size;
+  }
+
+  /**
+   * Records how long a frame took to stylize.
+   *
+   * @param frameSize The size the frame was stylized at. Frames which were already in flight when
+   *     the size changed are ignored.
+   * @param inferenceMs The time inference took.
+   * @return The size to stylize the next frames at.
+   */
+  public int update(final int frameSize, final float inferenceMs) {
+    if (frameSize != size) {
+      return size;
+    }
+
+    ++framesAtSize;
+    if (framesAtSize <= SETTLE_FRAMES) {
+      return size;
+    }
+    averageMs =
+        framesAtSize == SETTLE_FRAMES + 1
+            ? inferenceMs
+            : averageMs + TIME_AVERAGE_WEIGHT * (inferenceMs - averageMs);
+    if ((framesAtSize - SETTLE_FRAMES) % DECISION_FRAMES == 0) {
+      decide();
+    }
+    return size;
+  }
+
+  private void decide() {
+    final int index = size / SIZE_MULTIPLE;
+    if (fastestMs[index] == 0.0f || averageMs < fastestMs[index]) {
+      fastestMs[index] = averageMs;
+    }
+    final float drift = averageMs / fastestMs[index];
+
+    if (!throttled && drift > DRIFT_THRESHOLD) {
+      throttled = true;
+      LOGGER.i("Throttling detected at %d: %.1fms, %.2fx the fastest", size, averageMs, drift);
+    } else if (throttled && drift < DRIFT_RECOVERED) {
+      throttled = false;
+      LOGGER.i("Throttling over at %d: %.1fms, %.2fx the fastest", size, averageMs, drift);
+    }
+
+    // Aim the new size at the budget, assuming time grows with the number of pixels.
+    final float scale = (float) Math.sqrt(budgetMs * TARGET_LOAD / averageMs);
+    final int oldSize = size;
+    Decision decision = Decision.HOLD;
+    if (averageMs > budgetMs * DOWN_THRESHOLD) {
+      size = snap(clamp(roundDown(size * Math.max(scale, 1.0f / MAX_STEP))));
+      decision = size < oldSize ? Decision.DOWN : Decision.HOLD;
+    } else if (averageMs < budgetMs * UP_THRESHOLD) {
+      if (throttled) {
+        decision = Decision.THROTTLED;
+      } else {
+        final int newSize = snap(clamp(roundDown(size * Math.min(scale, MAX_STEP))));
+        if (newSize > oldSize) {
+          size = newSize;
+          decision = Decision.UP;
+        }
+      }
+    }
+
+    LOGGER.i(
+        "%s at %d: %.1fms of %.1fms budget, %.2fx the fastest, next %d",
+        decision, oldSize, averageMs, budgetMs, drift, size);
+    updateSummary(decision, drift);
+
+    if (size != oldSize) {
+      markRecent(size);
+      framesAtSize = 0;
+    }
+  }
+
+  /**
+   * Returns the largest recently used size which is at most {@link #SNAP_TOLERANCE} smaller than
+   * the given one and not larger, or the given size if there is none.
+   */
+  private int snap(final int target) {
+    int best = 0;
+    for (int i = 0; i < numRecentSizes; ++i) {
+      final int recent = recentSizes[i];
+      if (recent <= target && recent * SNAP_TOLERANCE >= target && recent > best) {
+        best = recent;
+      }
+    }
+    return best > 0 ? best : target;
+  }
+
+  /** Moves the size to the front of the recent sizes, forgetting the least recent if full. */
+  private void markRecent(final int newSize) {
+    int i = 0;
+    while (i < numRecentSizes && recentSizes[i] != newSize) {
+      ++i;
+    }
+    if (i == numRecentSizes) {
+      if (numRecentSizes < MAX_RECENT_SIZES) {
+        ++numRecentSizes;
+      } else {
+        --i;
+      }
+    }
+    System.arraycopy(recentSizes, 0, recentSizes, 1, i);
+    recentSizes[0] = newSize;
+  }
+
+  private void updateSummary(final Decision decision, final float drift) {
+    summary =
+        String.format(
+            "%d, %s, %.1f/%.1fms, drift %.2f%s",
+            size, decision, averageMs, budgetMs, drift, throttled ? ", throttled" : "");
+  }
+
+  private int clamp(final int value) {
+    return Math.max(minSize, Math.min(maxSize, value));
+  }
+
+  private static int roundDown(final float value) {
+    return (int) value / SIZE_MULTIPLE * SIZE_MULTIPLE;
+  }
+
+  private static int roundUp(final int value) {
+    return (value + SIZE_MULTIPLE - 1) / SIZE_MULTIPLE * SIZE_MULTIPLE;
+  }
+
+  @Override
+  public String toString() {
+    return summary;
+  }
+}
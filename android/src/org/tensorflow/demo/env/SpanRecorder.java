@@ -0,0 +1,205 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Keeps the latest spans of work done on any thread, each tagged with a frame number and size, in
+ * a fixed-size ring, and writes them out as Chrome trace-event JSON on demand. The file opens in
+ * chrome://tracing or ui.perfetto.dev, with one track per thread, which shows how the pipeline's
+ * stages overlap and where frames wait without attaching systrace.
+ *
+ * Recording is lock-free and allocation-free, so it can stay on in every frame. Each slot carries
+ * the sequence number of the span in it, which is cleared while the span is written, so a dump
+ * skips slots that are being overwritten rather than waiting for them.
+ */
+public class SpanRecorder {
+  private static final Logger LOGGER = new Logger();
+
+  private final int mask;
+  private final AtomicLong nextSpan = new AtomicLong();
+
+  // Per slot: the sequence number of the span in it, or -1 while it is written.
+  private final AtomicLongArray sequences;
+  // Per slot: start and end time in nanoseconds, and the frame number and size.
+  private final AtomicLongArray values;
+  private final AtomicReferenceArray<String> names;
+  private final AtomicReferenceArray<Thread> threads;
+
+  /** @param capacity Number of spans kept, rounded up to a power of two. */
+  public SpanRecorder(final int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Capacity must be at least 1: " + capacity);
+    }
+    final int size = Integer.highestOneBit(capacity - 1) << 1;
+    mask = Math.max(size, 1) - 1;
+    sequences = new AtomicLongArray(mask + 1);
+    for (int i = 0; i <= mask; ++i) {
+      sequences.set(i, -1);
+    }
+    values = new AtomicLongArray(4 * (mask + 1));
+    names = new AtomicReferenceArray<String>(mask + 1);
+    threads = new AtomicReferenceArray<Thread>(mask + 1);
+  }
+
+  /**
+   * Records a span of work done on the calling thread, overwriting the oldest span if the ring is
+   * full.
+   *
+   * @param name What was done. Should be a constant, as it is kept until the span is overwritten.
+   * @param startNs Start time, see {@link android.os.SystemClock#elapsedRealtimeNanos}.
+   * @param endNs End time, on the same clock.
+   * @param frame Number of the frame the work was for.
+   * @param size Size of the frame, e.g. the crop size it was stylized at.
+   */
+  public void record(
+      final String name, final long startNs, final long endNs, final int frame, final int size) {
+    final long sequence = nextSpan.getAndIncrement();
+    final int slot = (int) sequence & mask;
+    sequences.set(slot, -1);
+    values.set(4 * slot, startNs);
+    values.set(4 * slot + 1, endNs);
+    values.set(4 * slot + 2, frame);
+    values.set(4 * slot + 3, size);
+    names.set(slot, name);
+    threads.set(slot, Thread.currentThread());
+    sequences.set(slot, sequence);
+  }
+
+  /** Returns the number of spans recorded so far, including overwritten ones. */
+  public long getRecordedCount() {
+    return nextSpan.get();
+  }
+
+  /**
+   * Writes the spans in the ring to a new file in the given directory, named after the current
+   * time. Safe to call while spans are being recorded.
+   *
+   * @return The file written.
+   */
+  public File dump(final File dir) throws IOException {
+    final File file = new File(dir, "trace-" + System.currentTimeMillis() + ".json");
+    final Writer writer =
+        new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+    try {
+      final int count = writeChromeTrace(writer);
+      LOGGER.i("Wrote %d spans to %s", count, file);
+    } finally {
+      writer.close();
+    }
+    return file;
+  }
+
+  /**
+   * Writes the spans in the ring as a Chrome trace-event JSON object, as complete ("X") events
+   * with their frame and size as arguments, followed by the names of the threads.
+   *
+   * @return The number of spans written.
+   */
+  public int writeChromeTrace(final Writer writer) throws IOException {
+    final long end = nextSpan.get();
+    final long start = Math.max(0, end - (mask + 1));
+
+    // Times are written relative to the earliest span, in microseconds as the format wants.
+    long originNs = Long.MAX_VALUE;
+    for (long sequence = start; sequence < end; ++sequence) {
+      final int slot = (int) sequence & mask;
+      if (sequences.get(slot) == sequence) {
+        originNs = Math.min(originNs, values.get(4 * slot));
+      }
+    }
+
+    final Map<Long, String> threadNames = new LinkedHashMap<Long, String>();
+    int count = 0;
+    writer.write("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+    for (long sequence = start; sequence < end; ++sequence) {
+      final int slot = (int) sequence & mask;
+      if (sequences.get(slot) != sequence) {
+        continue;
+      }
+      final long startNs = values.get(4 * slot);
+      final long endNs = values.get(4 * slot + 1);
+      final long frame = values.get(4 * slot + 2);
+      final long size = values.get(4 * slot + 3);
+      final String name = names.get(slot);
+      final Thread thread = threads.get(slot);
+      // The span was overwritten while it was being read.
+      if (sequences.get(slot) != sequence) {
+        continue;
+      }
+
+      threadNames.put(thread.getId(), thread.getName());
+      writer.write(count > 0 ? ",\n" : "\n");
+      writer.write(
+          String.format(
+              Locale.US,
+              "{\"name\":\"%s\",\"cat\":\"frame\",\"ph\":\"X\",\"pid\":1,\"tid\":%d,"
+                  + "\"ts\":%.3f,\"dur\":%.3f,\"args\":{\"frame\":%d,\"size\":%d}}",
+              escape(name),
+              thread.getId(),
+              (startNs - originNs) / 1000.0,
+              Math.max(endNs - startNs, 0) / 1000.0,
+              frame,
+              size));
+      ++count;
+    }
+    for (final Map.Entry<Long, String> thread : threadNames.entrySet()) {
+      writer.write(count > 0 ? ",\n" : "\n");
+      writer.write(
+          String.format(
+              Locale.US,
+              "{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1,\"tid\":%d,"
+                  + "\"args\":{\"name\":\"%s\"}}",
+              thread.getKey(),
+              escape(thread.getValue())));
+      ++count;
+    }
+    writer.write("\n]}\n");
+    return count - threadNames.size();
+  }
+
+  private static String escape(final String value) {
+    final StringBuilder builder = new StringBuilder(value.length());
+    for (int i = 0; i < value.length(); ++i) {
+      final char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        builder.append('\\').append(c);
+      } else if (c < 0x20) {
+        builder.append(String.format(Locale.US, "\\u%04x", (int) c));
+      } else {
+        builder.append(c);
+      }
+    }
+    return builder.toString();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%d spans, ring of %d", getRecordedCount(), mask + 1);
+  }
+}
@@ -0,0 +1,75 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free hand-off of the newest value from one producer thread to one consumer thread, using
+ * three preallocated buffers. The producer always owns a back buffer it can fill, the consumer
+ * always owns a front buffer it can read, and the third buffer sits in between. Neither side ever
+ * waits for or copies from the other, and the consumer never sees a buffer that is being written.
+ *
+ * @param <T> Type of the buffers.
+ */
+public class TripleBuffer<T> {
+  // Set in the middle index when it holds a buffer the consumer hasn't picked up yet.
+  private static final int FRESH = 4;
+  private static final int INDEX_MASK = 3;
+
+  private final Object[] buffers;
+
+  private final AtomicInteger middle = new AtomicInteger(1);
+
+  // Only touched by the producer.
+  private int back = 0;
+
+  // Only touched by the consumer.
+  private int front = 2;
+  private boolean hasFront = false;
+
+  public TripleBuffer(final T first, final T second, final T third) {
+    buffers = new Object[] {first, second, third};
+  }
+
+  /** Returns the buffer the producer may currently write to. Producer thread only. */
+  @SuppressWarnings("unchecked")
+  public T getBackBuffer() {
+    return (T) buffers[back];
+  }
+
+  /**
+   * Publishes the back buffer to the consumer and makes another buffer the back buffer. A
+   * previously published buffer the consumer has not picked up yet is reused as the new back
+   * buffer. Producer thread only.
+   */
+  public void publish() {
+    back = middle.getAndSet(back | FRESH) & INDEX_MASK;
+  }
+
+  /**
+   * Returns the most recently published buffer, which stays owned by the consumer until the next
+   * call. Returns null if nothing has been published yet. Consumer thread only.
+   */
+  @SuppressWarnings("unchecked")
+  public T acquire() {
+    if ((middle.get() & FRESH) != 0) {
+      front = middle.getAndSet(front) & INDEX_MASK;
+      hasFront = true;
+    }
+    return hasFront ? (T) buffers[front] : null;
+  }
+}
@@ -0,0 +1,223 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads planar YUV 4:2:0 frames one at a time, either from a YUV4MPEG2 (Y4M) file or from a raw
+ * file of back to back I420 frames of a known size. Chroma planes are (width + 1) / 2 by
+ * (height + 1) / 2 bytes.
+ */
+public class Y4MReader implements Closeable {
+  private static final String SIGNATURE = "YUV4MPEG2";
+  private static final String FRAME_SIGNATURE = "FRAME";
+
+  // Longest header line accepted, to fail fast on files which aren't Y4M.
+  private static final int MAX_LINE_LENGTH = 1024;
+
+  private final DataInputStream input;
+  private final boolean raw;
+  private final int width;
+  private final int height;
+  private final int frameRateNumerator;
+  private final int frameRateDenominator;
+
+  private Y4MReader(
+      final InputStream input,
+      final boolean raw,
+      final int width,
+      final int height,
+      final int frameRateNumerator,
+      final int frameRateDenominator) {
+    this.input = new DataInputStream(input);
+    this.raw = raw;
+    this.width = width;
+    this.height = height;
+    this.frameRateNumerator = frameRateNumerator;
+    this.frameRateDenominator = frameRateDenominator;
+  }
+
+  /**
+   * Opens a Y4M file and reads its header.
+   *
+   * @throws IOException if the file can't be read, isn't a Y4M file or isn't 4:2:0.
+   */
+  public static Y4MReader open(final File file) throws IOException {
+    final InputStream input = new BufferedInputStream(new FileInputStream(file));
+    try {
+      // Check the signature before looking for the end of the line, which other files may lack.
+      final byte[] signature = new byte[SIGNATURE.length() + 1];
+      final int signatureLength = input.read(signature);
+      if (signatureLength != signature.length
+          || !new String(signature, StandardCharsets.US_ASCII).equals(SIGNATURE + " ")) {
+        throw new IOException(file + " is not a Y4M file");
+      }
+      final String header = readLine(input);
+      if (header == null) {
+        throw new IOException("Truncated header in " + file);
+      }
+      int width = 0;
+      int height = 0;
+      int rateNumerator = 30;
+      int rateDenominator = 1;
+      for (final String param : header.split(" ")) {
+        if (param.isEmpty()) {
+          continue;
+        }
+        final String value = param.substring(1);
+        switch (param.charAt(0)) {
+          case 'W':
+            width = Integer.parseInt(value);
+            break;
+          case 'H':
+            height = Integer.parseInt(value);
+            break;
+          case 'F':
+            final String[] rate = value.split(":");
+            rateNumerator = Integer.parseInt(rate[0]);
+            rateDenominator = rate.length > 1 ? Integer.parseInt(rate[1]) : 1;
+            break;
+          case 'C':
+            if (!value.startsWith("420")) {
+              throw new IOException("Unsupported Y4M colorspace " + value + " in " + file);
+            }
+            break;
+          case 'I':
+            if (!value.equals("p") && !value.equals("?")) {
+              throw new IOException("Interlaced Y4M files are unsupported: " + file);
+            }
+            break;
+          default:
+            // Aspect ratio, comments and extensions don't matter here.
+        }
+      }
+      if (width <= 0 || height <= 0) {
+        throw new IOException("Missing frame size in " + file);
+      }
+      return new Y4MReader(input, false, width, height, rateNumerator, rateDenominator);
+    } catch (final NumberFormatException e) {
+      input.close();
+      throw new IOException("Malformed Y4M header in " + file, e);
+    } catch (final IOException e) {
+      input.close();
+      throw e;
+    }
+  }
+
+  /** Opens a raw file of I420 frames of the given size, assumed to run at 30fps. */
+  public static Y4MReader openRaw(final File file, final int width, final int height)
+      throws IOException {
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("Invalid frame size " + width + "x" + height);
+    }
+    return new Y4MReader(
+        new BufferedInputStream(new FileInputStream(file)), true, width, height, 30, 1);
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public int getFrameRateNumerator() {
+    return frameRateNumerator;
+  }
+
+  public int getFrameRateDenominator() {
+    return frameRateDenominator;
+  }
+
+  /** Returns the row stride, and width, of the U and V planes. */
+  public int getChromaWidth() {
+    return (width + 1) / 2;
+  }
+
+  /** Returns the number of bytes in each of the U and V planes. */
+  public int getChromaSize() {
+    return getChromaWidth() * ((height + 1) / 2);
+  }
+
+  /**
+   * Reads the next frame into the given planes, which must hold at least {@link #getWidth} times
+   * {@link #getHeight} and {@link #getChromaSize} bytes respectively.
+   *
+   * @return False at the end of the file.
+   * @throws IOException if the file can't be read or ends within a frame.
+   */
+  public boolean readFrame(final byte[] y, final byte[] u, final byte[] v) throws IOException {
+    if (!raw) {
+      final String frameHeader = readLine(input);
+      if (frameHeader == null) {
+        return false;
+      }
+      if (!frameHeader.startsWith(FRAME_SIGNATURE)) {
+        throw new IOException("Malformed Y4M frame header: " + frameHeader);
+      }
+    } else {
+      // A raw file ends at a frame boundary, so peek at the first byte to tell the end.
+      input.mark(1);
+      if (input.read() < 0) {
+        return false;
+      }
+      input.reset();
+    }
+
+    try {
+      input.readFully(y, 0, width * height);
+      input.readFully(u, 0, getChromaSize());
+      input.readFully(v, 0, getChromaSize());
+    } catch (final EOFException e) {
+      throw new IOException("Truncated frame", e);
+    }
+    return true;
+  }
+
+  /** Reads a header line without its newline, or returns null at the end of the input. */
+  private static String readLine(final InputStream input) throws IOException {
+    final StringBuilder line = new StringBuilder();
+    int c;
+    while ((c = input.read()) != '\n') {
+      if (c < 0) {
+        if (line.length() == 0) {
+          return null;
+        }
+        throw new EOFException("Truncated header: " + line);
+      }
+      if (line.length() == MAX_LINE_LENGTH) {
+        throw new IOException("Header line too long");
+      }
+      line.append((char) c);
+    }
+    return line.toString();
+  }
+
+  @Override
+  public void close() throws IOException {
+    input.close();
+  }
+}
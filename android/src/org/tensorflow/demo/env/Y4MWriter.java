@@ -0,0 +1,86 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes planar YUV 4:2:0 frames to a YUV4MPEG2 (Y4M) file, in the layout read by {@link
+ * Y4MReader}. The frames are marked as limited range, which is what {@link
+ * ImageUtils#convertARGB8888ToYUV420SP} produces.
+ */
+public class Y4MWriter implements Closeable {
+  private static final byte[] FRAME_HEADER = "FRAME\n".getBytes(StandardCharsets.US_ASCII);
+
+  private final OutputStream output;
+  private final int width;
+  private final int height;
+
+  /**
+   * Creates the file and writes its header.
+   *
+   * @param file The file to write, replacing it if it exists.
+   * @param width Width of the frames.
+   * @param height Height of the frames.
+   * @param frameRateNumerator Numerator of the frame rate in frames per second.
+   * @param frameRateDenominator Denominator of the frame rate.
+   */
+  public Y4MWriter(
+      final File file,
+      final int width,
+      final int height,
+      final int frameRateNumerator,
+      final int frameRateDenominator)
+      throws IOException {
+    this.width = width;
+    this.height = height;
+    output = new BufferedOutputStream(new FileOutputStream(file));
+    final String header =
+        String.format(
+            "YUV4MPEG2 W%d H%d F%d:%d Ip A1:1 C420jpeg XCOLORRANGE=LIMITED\n",
+            width, height, frameRateNumerator, frameRateDenominator);
+    try {
+      output.write(header.getBytes(StandardCharsets.US_ASCII));
+    } catch (final IOException e) {
+      output.close();
+      throw e;
+    }
+  }
+
+  /** Returns the number of bytes in each of the U and V planes. */
+  public int getChromaSize() {
+    return ((width + 1) / 2) * ((height + 1) / 2);
+  }
+
+  /** Appends a frame made of the given planes. */
+  public void writeFrame(final byte[] y, final byte[] u, final byte[] v) throws IOException {
+    output.write(FRAME_HEADER);
+    output.write(y, 0, width * height);
+    output.write(u, 0, getChromaSize());
+    output.write(v, 0, getChromaSize());
+  }
+
+  @Override
+  public void close() throws IOException {
+    output.close();
+  }
+}
@@ -0,0 +1,499 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.stylize;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A read-only view of a frozen TensorFlow GraphDef, decoded straight from the protocol buffer wire
+ * format so that no protobuf runtime is needed. Only what is needed to find nodes and read their
+ * constants is decoded: node names, ops, inputs, and tensor, integer list and string attributes.
+ */
+public class GraphDef {
+  /** TensorFlow DataType values used by the graphs we read. */
+  public static final int DT_FLOAT = 1;
+  public static final int DT_INT32 = 3;
+  public static final int DT_QUINT8 = 12;
+
+  private static final int WIRE_VARINT = 0;
+  private static final int WIRE_FIXED64 = 1;
+  private static final int WIRE_LENGTH_DELIMITED = 2;
+  private static final int WIRE_FIXED32 = 5;
+
+  /** A constant tensor. */
+  public static class Tensor {
+    private final int dataType;
+    private final int[] shape;
+    private final byte[] content;
+    private final float[] floatValues;
+    private final int[] intValues;
+
+    private Tensor(
+        final int dataType,
+        final int[] shape,
+        final byte[] content,
+        final float[] floatValues,
+        final int[] intValues) {
+      this.dataType = dataType;
+      this.shape = shape;
+      this.content = content;
+      this.floatValues = floatValues;
+      this.intValues = intValues;
+    }
+
+    public int getDataType() {
+      return dataType;
+    }
+
+    public int[] getShape() {
+      return shape.clone();
+    }
+
+    /** Returns the number of elements, from the shape. */
+    public int getNumElements() {
+      int count = 1;
+      for (final int dim : shape) {
+        count *= dim;
+      }
+      return count;
+    }
+
+    /** Returns the values of a float tensor. A single stored value is broadcast to the shape. */
+    public float[] getFloats() {
+      checkType(DT_FLOAT);
+      final float[] values = new float[getNumElements()];
+      if (content.length > 0) {
+        ByteBuffer.wrap(content).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(values);
+      } else if (floatValues.length == 1) {
+        Arrays.fill(values, floatValues[0]);
+      } else {
+        System.arraycopy(floatValues, 0, values, 0, Math.min(values.length, floatValues.length));
+      }
+      return values;
+    }
+
+    /** Returns the values of an int32 tensor. A single stored value is broadcast to the shape. */
+    public int[] getInts() {
+      checkType(DT_INT32);
+      final int[] values = new int[getNumElements()];
+      if (content.length > 0) {
+        ByteBuffer.wrap(content).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(values);
+      } else if (intValues.length == 1) {
+        Arrays.fill(values, intValues[0]);
+      } else {
+        System.arraycopy(intValues, 0, values, 0, Math.min(values.length, intValues.length));
+      }
+      return values;
+    }
+
+    /** Returns the raw values of a quint8 tensor. */
+    public byte[] getBytes() {
+      checkType(DT_QUINT8);
+      if (content.length != getNumElements()) {
+        throw new IllegalArgumentException(
+            "Expected " + getNumElements() + " bytes, found " + content.length);
+      }
+      return content.clone();
+    }
+
+    private void checkType(final int expected) {
+      if (dataType != expected) {
+        throw new IllegalArgumentException("Expected type " + expected + ", found " + dataType);
+      }
+    }
+  }
+
+  /** A node of the graph. */
+  public static class Node {
+    private final String name;
+    private final String op;
+    private final List<String> inputs;
+    private final Map<String, Tensor> tensorAttrs;
+    private final Map<String, long[]> intListAttrs;
+    private final Map<String, String> stringAttrs;
+
+    private Node(
+        final String name,
+        final String op,
+        final List<String> inputs,
+        final Map<String, Tensor> tensorAttrs,
+        final Map<String, long[]> intListAttrs,
+        final Map<String, String> stringAttrs) {
+      this.name = name;
+      this.op = op;
+      this.inputs = Collections.unmodifiableList(inputs);
+      this.tensorAttrs = tensorAttrs;
+      this.intListAttrs = intListAttrs;
+      this.stringAttrs = stringAttrs;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public String getOp() {
+      return op;
+    }
+
+    public List<String> getInputs() {
+      return inputs;
+    }
+
+    /** Returns the value of a Const node. */
+    public Tensor getValue() {
+      final Tensor value = tensorAttrs.get("value");
+      if (value == null) {
+        throw new IllegalArgumentException(name + " has no value");
+      }
+      return value;
+    }
+
+    /** Returns an integer list attribute, such as the strides of a convolution. */
+    public long[] getIntList(final String attr) {
+      final long[] value = intListAttrs.get(attr);
+      if (value == null) {
+        throw new IllegalArgumentException(name + " has no int list attribute " + attr);
+      }
+      return value.clone();
+    }
+
+    /** Returns a string attribute, such as the padding of a convolution, or null if absent. */
+    public String getString(final String attr) {
+      return stringAttrs.get(attr);
+    }
+  }
+
+  private final Map<String, Node> nodes;
+
+  private GraphDef(final Map<String, Node> nodes) {
+    this.nodes = nodes;
+  }
+
+  /**
+   * Decodes a serialized GraphDef.
+   *
+   * @throws IllegalArgumentException if the data is not a valid GraphDef.
+   */
+  public static GraphDef parse(final byte[] data) {
+    final Map<String, Node> nodes = new HashMap<String, Node>();
+    final Reader reader = new Reader(data, 0, data.length);
+    try {
+      while (reader.hasMore()) {
+        final int tag = reader.readTag();
+        if (tag >>> 3 == 1 && (tag & 7) == WIRE_LENGTH_DELIMITED) {
+          final Node node = parseNode(reader.readMessage());
+          nodes.put(node.getName(), node);
+        } else {
+          reader.skip(tag);
+        }
+      }
+    } catch (final IndexOutOfBoundsException e) {
+      throw new IllegalArgumentException("Truncated GraphDef", e);
+    }
+    return new GraphDef(nodes);
+  }
+
+  public int getNodeCount() {
+    return nodes.size();
+  }
+
+  public boolean hasNode(final String name) {
+    return nodes.containsKey(name);
+  }
+
+  /** @throws IllegalArgumentException if the graph has no node of that name. */
+  public Node getNode(final String name) {
+    final Node node = nodes.get(name);
+    if (node == null) {
+      throw new IllegalArgumentException("No node named " + name);
+    }
+    return node;
+  }
+
+  private static Node parseNode(final Reader reader) {
+    String name = "";
+    String op = "";
+    final List<String> inputs = new ArrayList<String>();
+    final Map<String, Tensor> tensorAttrs = new HashMap<String, Tensor>();
+    final Map<String, long[]> intListAttrs = new HashMap<String, long[]>();
+    final Map<String, String> stringAttrs = new HashMap<String, String>();
+
+    while (reader.hasMore()) {
+      final int tag = reader.readTag();
+      switch (tag >>> 3) {
+        case 1:
+          name = reader.readString();
+          break;
+        case 2:
+          op = reader.readString();
+          break;
+        case 3:
+          inputs.add(reader.readString());
+          break;
+        case 5:
+          parseAttr(reader.readMessage(), tensorAttrs, intListAttrs, stringAttrs);
+          break;
+        default:
+          reader.skip(tag);
+      }
+    }
+    return new Node(name, op, inputs, tensorAttrs, intListAttrs, stringAttrs);
+  }
+
+  private static void parseAttr(
+      final Reader entry,
+      final Map<String, Tensor> tensorAttrs,
+      final Map<String, long[]> intListAttrs,
+      final Map<String, String> stringAttrs) {
+    String key = null;
+    Reader value = null;
+    while (entry.hasMore()) {
+      final int tag = entry.readTag();
+      if (tag >>> 3 == 1) {
+        key = entry.readString();
+      } else if (tag >>> 3 == 2) {
+        value = entry.readMessage();
+      } else {
+        entry.skip(tag);
+      }
+    }
+    if (key == null || value == null) {
+      return;
+    }
+
+    // AttrValue is a oneof; only the cases we need are decoded.
+    while (value.hasMore()) {
+      final int tag = value.readTag();
+      switch (tag >>> 3) {
+        case 1:
+          intListAttrs.put(key, parseIntList(value.readMessage()));
+          break;
+        case 2:
+          stringAttrs.put(key, value.readString());
+          break;
+        case 8:
+          tensorAttrs.put(key, parseTensor(value.readMessage()));
+          break;
+        default:
+          value.skip(tag);
+      }
+    }
+  }
+
+  private static long[] parseIntList(final Reader reader) {
+    final List<Long> values = new ArrayList<Long>();
+    while (reader.hasMore()) {
+      final int tag = reader.readTag();
+      if (tag >>> 3 == 3 && (tag & 7) == WIRE_LENGTH_DELIMITED) {
+        final Reader packed = reader.readMessage();
+        while (packed.hasMore()) {
+          values.add(packed.readVarint());
+        }
+      } else if (tag >>> 3 == 3) {
+        values.add(reader.readVarint());
+      } else {
+        reader.skip(tag);
+      }
+    }
+    final long[] result = new long[values.size()];
+    for (int i = 0; i < result.length; ++i) {
+      result[i] = values.get(i);
+    }
+    return result;
+  }
+
+  private static Tensor parseTensor(final Reader reader) {
+    int dataType = 0;
+    int[] shape = new int[0];
+    byte[] content = new byte[0];
+    final List<Float> floatValues = new ArrayList<Float>();
+    final List<Integer> intValues = new ArrayList<Integer>();
+
+    while (reader.hasMore()) {
+      final int tag = reader.readTag();
+      final int wireType = tag & 7;
+      switch (tag >>> 3) {
+        case 1:
+          dataType = (int) reader.readVarint();
+          break;
+        case 2:
+          shape = parseShape(reader.readMessage());
+          break;
+        case 4:
+          content = reader.readBytes();
+          break;
+        case 5:
+          if (wireType == WIRE_LENGTH_DELIMITED) {
+            final Reader packed = reader.readMessage();
+            while (packed.hasMore()) {
+              floatValues.add(packed.readFloat());
+            }
+          } else {
+            floatValues.add(reader.readFloat());
+          }
+          break;
+        case 7:
+          if (wireType == WIRE_LENGTH_DELIMITED) {
+            final Reader packed = reader.readMessage();
+            while (packed.hasMore()) {
+              intValues.add((int) packed.readVarint());
+            }
+          } else {
+            intValues.add((int) reader.readVarint());
+          }
+          break;
+        default:
+          reader.skip(tag);
+      }
+    }
+
+    final float[] floats = new float[floatValues.size()];
+    for (int i = 0; i < floats.length; ++i) {
+      floats[i] = floatValues.get(i);
+    }
+    final int[] ints = new int[intValues.size()];
+    for (int i = 0; i < ints.length; ++i) {
+      ints[i] = intValues.get(i);
+    }
+    return new Tensor(dataType, shape, content, floats, ints);
+  }
+
+  private static int[] parseShape(final Reader reader) {
+    final List<Integer> dims = new ArrayList<Integer>();
+    while (reader.hasMore()) {
+      final int tag = reader.readTag();
+      if (tag >>> 3 == 2) {
+        final Reader dim = reader.readMessage();
+        int size = 0;
+        while (dim.hasMore()) {
+          final int dimTag = dim.readTag();
+          if (dimTag >>> 3 == 1) {
+            size = (int) dim.readVarint();
+          } else {
+            dim.skip(dimTag);
+          }
+        }
+        dims.add(size);
+      } else {
+        reader.skip(tag);
+      }
+    }
+    final int[] shape = new int[dims.size()];
+    for (int i = 0; i < shape.length; ++i) {
+      shape[i] = dims.get(i);
+    }
+    return shape;
+  }
+
+  /** Reads protocol buffer wire format fields from a slice of a byte array. */
+  private static class Reader {
+    private final byte[] data;
+    private int position;
+    private final int end;
+
+    Reader(final byte[] data, final int start, final int end) {
+      if (end > data.length) {
+        throw new IndexOutOfBoundsException("Field extends past the end of the data");
+      }
+      this.data = data;
+      this.position = start;
+      this.end = end;
+    }
+
+    boolean hasMore() {
+      return position < end;
+    }
+
+    int readTag() {
+      return (int) readVarint();
+    }
+
+    long readVarint() {
+      long result = 0;
+      for (int shift = 0; shift < 64; shift += 7) {
+        final byte b = data[checkedPosition(1)];
+        ++position;
+        result |= (long) (b & 0x7F) << shift;
+        if ((b & 0x80) == 0) {
+          return result;
+        }
+      }
+      throw new IllegalArgumentException("Malformed varint");
+    }
+
+    float readFloat() {
+      final int start = checkedPosition(4);
+      position += 4;
+      return Float.intBitsToFloat(
+          (data[start] & 0xFF)
+              | (data[start + 1] & 0xFF) << 8
+              | (data[start + 2] & 0xFF) << 16
+              | (data[start + 3] & 0xFF) << 24);
+    }
+
+    Reader readMessage() {
+      final int length = (int) readVarint();
+      final int start = checkedPosition(length);
+      position += length;
+      return new Reader(data, start, start + length);
+    }
+
+    byte[] readBytes() {
+      final Reader slice = readMessage();
+      final byte[] bytes = new byte[slice.end - slice.position];
+      System.arraycopy(data, slice.position, bytes, 0, bytes.length);
+      return bytes;
+    }
+
+    String readString() {
+      return new String(readBytes(), StandardCharsets.UTF_8);
+    }
+
+    void skip(final int tag) {
+      switch (tag & 7) {
+        case WIRE_VARINT:
+          readVarint();
+          break;
+        case WIRE_FIXED64:
+          position = checkedPosition(8) + 8;
+          break;
+        case WIRE_LENGTH_DELIMITED:
+          readMessage();
+          break;
+        case WIRE_FIXED32:
+          position = checkedPosition(4) + 4;
+          break;
+        default:
+          throw new IllegalArgumentException("Unsupported wire type " + (tag & 7));
+      }
+    }
+
+    private int checkedPosition(final int length) {
+      if (length < 0 || position + length > end) {
+        throw new IndexOutOfBoundsException("Field extends past the end of its message");
+      }
+      return position;
+    }
+  }
+}
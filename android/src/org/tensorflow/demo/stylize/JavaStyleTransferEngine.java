@@ -0,0 +1,825 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.stylize;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import org.tensorflow.demo.StyleTransferEngine;
+import org.tensorflow.demo.env.PixelTensorCodec;
+
+/**
+ * Runs a {@link StyleNetwork} in plain Java, in floating point, splitting every layer into strips
+ * of rows which run in parallel on a fork-join pool. Serves as a reference implementation which
+ * needs no native inference runtime.
+ *
+ * Activations live in a few buffers which are shared by all sizes and only grow when a larger size
+ * is warmed up; each size only adds the index tables for its padding and upsampling. The
+ * fork-join tasks are reused as well, so {@link #stylize} does not allocate.
+ */
+public class JavaStyleTransferEngine implements StyleTransferEngine {
+  // The network's input, output and intermediate activations rotate through this many buffers.
+  private static final int NUM_BUFFERS = 4;
+
+  private static final int INPUT_BUFFER = 0;
+
+  // Number of style mixes whose blended normalization parameters are kept.
+  private static final int STYLE_CACHE_SIZE = 16;
+
+  private static final int STEP_GATHER = 0;
+  private static final int STEP_CONVOLVE = 1;
+  private static final int STEP_NORMALIZE = 2;
+  private static final int STEP_SCATTER = 3;
+
+  /** The index tables and buffer assignments of one layer at one image size. */
+  private static class LayerPlan {
+    int inputWidth;
+    int inputHeight;
+    int outputWidth;
+    int outputHeight;
+
+    // For each output row (column) and kernel row (column), the input row (column) it reads,
+    // with upsampling and reflection padding applied.
+    int[] rowIndex;
+    int[] colIndex;
+  }
+
+  /** Everything that depends on the image size. */
+  private static class SizePlan {
+    final int width;
+    final int height;
+    final LayerPlan[] layers;
+
+    SizePlan(final int width, final int height, final int numLayers) {
+      this.width = width;
+      this.height = height;
+      this.layers = new LayerPlan[numLayers];
+    }
+  }
+
+  /**
+   * Sums of every layer's convolution output per channel, from which instance normalization takes
+   * the mean and variance it divides out. Statistics can be recorded from a region of several
+   * images, e.g. from the tiles of a larger image, and used to normalize other images the same way.
+   */
+  public static class Statistics {
+    final double[][] sums;
+    final double[][] squares;
+    final long[] counts;
+
+    // The region that is recorded, in pixels of the input image.
+    int left;
+    int top;
+    int right = Integer.MAX_VALUE;
+    int bottom = Integer.MAX_VALUE;
+
+    Statistics(final List<StyleNetwork.Layer> layers) {
+      sums = new double[layers.size()][];
+      squares = new double[layers.size()][];
+      counts = new long[layers.size()];
+      for (int i = 0; i < layers.size(); ++i) {
+        sums[i] = new double[layers.get(i).outputChannels];
+        squares[i] = new double[layers.get(i).outputChannels];
+      }
+    }
+
+    /**
+     * Restricts recording to the activations computed from the given region of the input image.
+     * Regions should start on multiples of {@link StyleNetwork#getDownsampling} to line up with
+     * every layer.
+     */
+    public void setRegion(final int left, final int top, final int right, final int bottom) {
+      this.left = left;
+      this.top = top;
+      this.right = right;
+      this.bottom = bottom;
+    }
+
+    public void clear() {
+      for (int i = 0; i < sums.length; ++i) {
+        Arrays.fill(sums[i], 0.0);
+        Arrays.fill(squares[i], 0.0);
+        counts[i] = 0;
+      }
+    }
+
+    public void add(final Statistics other) {
+      for (int i = 0; i < sums.length; ++i) {
+        for (int c = 0; c < sums[i].length; ++c) {
+          sums[i][c] += other.sums[i][c];
+          squares[i][c] += other.squares[i][c];
+        }
+        counts[i] += other.counts[i];
+      }
+    }
+
+    /** Returns whether anything was recorded, i.e. whether these can be used to normalize. */
+    public boolean isEmpty() {
+      for (final long count : counts) {
+        if (count == 0) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  /** Runs one step on a strip of rows. Reinitialized and reused for every step. */
+  private class StripTask extends RecursiveAction {
+    private final int strip;
+    private int step;
+    private int start;
+    private int end;
+
+    StripTask(final int strip) {
+      this.strip = strip;
+    }
+
+    @Override
+    protected void compute() {
+      runStrip(step, start, end, strip);
+    }
+  }
+
+  /** Runs all strip tasks. Reinitialized and reused for every step. */
+  private class StepTask extends RecursiveAction {
+    @Override
+    protected void compute() {
+      for (final StripTask task : stripTasks) {
+        task.reinitialize();
+      }
+      invokeAll(stripTasks);
+    }
+  }
+
+  private final StyleNetwork network;
+  private final List<StyleNetwork.Layer> layers;
+  private final ForkJoinPool pool;
+
+  private final StripTask[] stripTasks;
+  private final StepTask stepTask = new StepTask();
+
+  // Buffer each layer reads from, writes to, and adds to its output for residual connections.
+  private final int[] inputBuffers;
+  private final int[] outputBuffers;
+  private final int[] residualBuffers;
+
+  private final float[][] buffers = new float[NUM_BUFFERS][0];
+
+  private final StyleParameterCache styleCache;
+
+  // Normalization parameters blended for the current style mix, per layer and channel.
+  private StyleParameterCache.Parameters style;
+
+  // Per channel statistics of the current layer's output: partial sums per strip over the whole
+  // output and over the recorded region, and the resulting affine transform.
+  private final double[][] partialSums;
+  private final double[][] partialSquares;
+  private final double[][] regionSums;
+  private final double[][] regionSquares;
+  private final float[] scales;
+  private final float[] shifts;
+
+  // The first layer's output and partial sums, kept before normalization for a batch's styles.
+  private float[] batchOutput = new float[0];
+  private final double[][] batchSums;
+  private final double[][] batchSquares;
+
+  private SizePlan[] plans = new SizePlan[0];
+
+  // State of the step being run, read by the strip tasks.
+  private SizePlan currentPlan;
+  private int currentLayer;
+  private PixelTensorCodec currentCodec;
+  private Statistics fixedStatistics;
+  private Statistics recordedStatistics;
+
+  // Where the current plan's image lies in the codec's image, and the part of it written back.
+  private int windowLeft;
+  private int windowTop;
+  private int writeLeft;
+  private int writeTop;
+  private int writeRight;
+  private int writeBottom;
+
+  // The recorded region of the current layer's output.
+  private int regionLeft;
+  private int regionTop;
+  private int regionRight;
+  private int regionBottom;
+
+  /**
+   * @param network The network to run.
+   * @param pool Pool to run the strips on.
+   * @param parallelism Number of strips each layer is split into. 1 runs on the calling thread.
+   */
+  public JavaStyleTransferEngine(
+      final StyleNetwork network, final ForkJoinPool pool, final int parallelism) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+    }
+    this.network = network;
+    this.layers = network.getLayers();
+    this.pool = pool;
+
+    stripTasks = new StripTask[parallelism];
+    for (int i = 0; i < parallelism; ++i) {
+      stripTasks[i] = new StripTask(i);
+    }
+
+    final int numLayers = layers.size();
+    inputBuffers = new int[numLayers];
+    outputBuffers = new int[numLayers];
+    residualBuffers = new int[numLayers];
+    assignBuffers();
+
+    int maxChannels = network.getImageChannels();
+    for (final StyleNetwork.Layer layer : layers) {
+      maxChannels = Math.max(maxChannels, layer.outputChannels);
+    }
+    partialSums = new double[parallelism][maxChannels];
+    partialSquares = new double[parallelism][maxChannels];
+    regionSums = new double[parallelism][maxChannels];
+    regionSquares = new double[parallelism][maxChannels];
+    scales = new float[maxChannels];
+    shifts = new float[maxChannels];
+    batchSums = new double[parallelism][maxChannels];
+    batchSquares = new double[parallelism][maxChannels];
+
+    styleCache = new StyleParameterCache(network, STYLE_CACHE_SIZE);
+    final float[] evenMix = new float[network.getNumStyles()];
+    Arrays.fill(evenMix, 1.0f / evenMix.length);
+    setStyle(evenMix);
+  }
+
+  public StyleNetwork getNetwork() {
+    return network;
+  }
+
+  /** Picks for each layer an output buffer that holds neither its input nor a pending residual. */
+  private void assignBuffers() {
+    int current = INPUT_BUFFER;
+    int residual = -1;
+    for (int i = 0; i < layers.size(); ++i) {
+      final StyleNetwork.Layer layer = layers.get(i);
+      if (layer.startsResidual) {
+        residual = current;
+      }
+      int output = 0;
+      while (output == current || output == residual) {
+        ++output;
+      }
+      inputBuffers[i] = current;
+      outputBuffers[i] = output;
+      residualBuffers[i] = layer.endsResidual ? residual : -1;
+      if (layer.endsResidual) {
+        residual = -1;
+      }
+      current = output;
+    }
+  }
+
+  @Override
+  public void warmUp(final int width, final int height) {
+    prepare(width, height);
+
+    // Run once on a mid-gray image so that every code path is compiled before the first frame.
+    final PixelTensorCodec codec =
+        new PixelTensorCodec(width, height, PixelTensorCodec.Layout.NHWC);
+    final int numPixels = width * height;
+    for (int i = 0; i < numPixels; ++i) {
+      codec.setPixel(i, 0xFF808080);
+    }
+    stylize(codec);
+  }
+
+  /**
+   * Allocates what images of the given size need, without running the network. Also used for the
+   * many sizes of windows which needn't each be warmed up.
+   */
+  @Override
+  public void prepare(final int width, final int height) {
+    if (getPlan(width, height) == null) {
+      plans = Arrays.copyOf(plans, plans.length + 1);
+      plans[plans.length - 1] = createPlan(width, height);
+    }
+  }
+
+  private SizePlan getPlan(final int width, final int height) {
+    for (final SizePlan plan : plans) {
+      if (plan.width == width && plan.height == height) {
+        return plan;
+      }
+    }
+    return null;
+  }
+
+  private SizePlan createPlan(final int width, final int height) {
+    if (!network.supportsSize(width) || !network.supportsSize(height)) {
+      throw new IllegalArgumentException(
+          "Unsupported size " + width + "x" + height + ", must be at least "
+              + network.getMinimumSize() + " and come out of the network unchanged");
+    }
+
+    final SizePlan plan = new SizePlan(width, height, layers.size());
+    final int[] bufferSizes = new int[NUM_BUFFERS];
+    bufferSizes[INPUT_BUFFER] = width * height * network.getImageChannels();
+
+    int inputWidth = width;
+    int inputHeight = height;
+    for (int i = 0; i < layers.size(); ++i) {
+      final StyleNetwork.Layer layer = layers.get(i);
+      final LayerPlan layerPlan = new LayerPlan();
+      layerPlan.inputWidth = inputWidth;
+      layerPlan.inputHeight = inputHeight;
+      layerPlan.outputWidth = layer.getOutputSize(inputWidth);
+      layerPlan.outputHeight = layer.getOutputSize(inputHeight);
+      layerPlan.rowIndex = createIndex(layer, inputHeight, layerPlan.outputHeight);
+      layerPlan.colIndex = createIndex(layer, inputWidth, layerPlan.outputWidth);
+      plan.layers[i] = layerPlan;
+
+      final int outputSize =
+          layerPlan.outputWidth * layerPlan.outputHeight * layer.outputChannels;
+      bufferSizes[outputBuffers[i]] = Math.max(bufferSizes[outputBuffers[i]], outputSize);
+
+      inputWidth = layerPlan.outputWidth;
+      inputHeight = layerPlan.outputHeight;
+    }
+
+    for (int i = 0; i < NUM_BUFFERS; ++i) {
+      if (buffers[i].length < bufferSizes[i]) {
+        buffers[i] = new float[bufferSizes[i]];
+      }
+    }
+    return plan;
+  }
+
+  /**
+   * Maps every output position and kernel offset along one axis to the input position it reads.
+   */
+  private static int[] createIndex(
+      final StyleNetwork.Layer layer, final int inputSize, final int outputSize) {
+    final int k = layer.kernelSize;
+    final int upsampledSize = inputSize * layer.upsample;
+    final int[] index = new int[outputSize * k];
+    for (int o = 0; o < outputSize; ++o) {
+      for (int i = 0; i < k; ++i) {
+        int position = o * layer.stride + i - layer.padding;
+        // Reflect without repeating the edge, as MirrorPad's REFLECT mode does.
+        if (position < 0) {
+          position = -position;
+        } else if (position >= upsampledSize) {
+          position = 2 * upsampledSize - 2 - position;
+        }
+        index[o * k + i] = position / layer.upsample;
+      }
+    }
+    return index;
+  }
+
+  @Override
+  public void setStyle(final float[] styleValues) {
+    style = styleCache.get(styleValues);
+  }
+
+  /** Returns empty statistics for {@link #stylize(PixelTensorCodec, Statistics, Statistics)}. */
+  public Statistics createStatistics() {
+    return new Statistics(layers);
+  }
+
+  @Override
+  public void stylize(final PixelTensorCodec codec) {
+    stylize(codec, null, null);
+  }
+
+  /** Stylizes the whole image; there are no statistics to compute only part of it with. */
+  @Override
+  public void stylizeRegion(
+      final PixelTensorCodec codec,
+      final int left,
+      final int top,
+      final int right,
+      final int bottom) {
+    stylize(codec);
+  }
+
+  /**
+   * Stylizes the image in the codec's tensor in place.
+   *
+   * @param fixed If not null, the statistics to normalize with instead of the image's own.
+   * @param recorded If not null, receives the statistics of this image within its region, added to
+   *     those already recorded.
+   */
+  public void stylize(
+      final PixelTensorCodec codec, final Statistics fixed, final Statistics recorded) {
+    final int width = codec.getWidth();
+    final int height = codec.getHeight();
+    run(codec, fixed, recorded, 0, 0, width, height, 0, 0, width, height);
+  }
+
+  /**
+   * Stylizes a window of the image in the codec's tensor as if it were an image of its own, and
+   * writes back only the output within the given bounds. The rest of the tensor, including the
+   * rest of the window, is left unchanged. The window's size must have been prepared.
+   *
+   * @param fixed The statistics to normalize with, typically those of the whole image.
+   */
+  void stylizeWindow(
+      final PixelTensorCodec codec,
+      final Statistics fixed,
+      final int left,
+      final int top,
+      final int width,
+      final int height,
+      final int writeLeft,
+      final int writeTop,
+      final int writeRight,
+      final int writeBottom) {
+    run(codec, fixed, null, left, top, width, height, writeLeft, writeTop, writeRight, writeBottom);
+  }
+
+  private void run(
+      final PixelTensorCodec codec,
+      final Statistics fixed,
+      final Statistics recorded,
+      final int left,
+      final int top,
+      final int width,
+      final int height,
+      final int writeLeft,
+      final int writeTop,
+      final int writeRight,
+      final int writeBottom) {
+    final SizePlan plan = getPlan(width, height);
+    if (plan == null) {
+      throw new IllegalStateException("Not warmed up for " + width + "x" + height);
+    }
+
+    currentPlan = plan;
+    currentCodec = codec;
+    fixedStatistics = fixed;
+    recordedStatistics = recorded;
+    windowLeft = left;
+    windowTop = top;
+    this.writeLeft = writeLeft;
+    this.writeTop = writeTop;
+    this.writeRight = writeRight;
+    this.writeBottom = writeBottom;
+    try {
+      runStep(STEP_GATHER, plan.height);
+      for (int i = 0; i < layers.size(); ++i) {
+        currentLayer = i;
+        final LayerPlan layerPlan = plan.layers[i];
+        if (recorded != null) {
+          setRegion(recorded, plan, layerPlan);
+        }
+        runStep(STEP_CONVOLVE, layerPlan.outputHeight);
+        computeNormalization(i, layerPlan);
+        runStep(STEP_NORMALIZE, layerPlan.outputHeight);
+      }
+      runStep(STEP_SCATTER, plan.height);
+    } finally {
+      currentPlan = null;
+      currentCodec = null;
+      fixedStatistics = null;
+      recordedStatistics = null;
+    }
+  }
+
+  /**
+   * Stylizes one image in several styles as a batch. The first layer's convolution, which is the
+   * most expensive one at small sizes, doesn't depend on the style, so it only runs once for the
+   * whole batch; only the normalization after it and the layers beyond run once per style. The
+   * size must have been warmed up. The current style is left unchanged.
+   *
+   * @param input The image to stylize, which is left unchanged.
+   * @param styles One mix of styles per output, each with one weight per style summing to 1.
+   * @param outputs Receive the stylized images, at least as many as styles. Their size must match
+   *     the input's.
+   */
+  public void stylizeBatch(
+      final PixelTensorCodec input, final float[][] styles, final PixelTensorCodec[] outputs) {
+    final int width = input.getWidth();
+    final int height = input.getHeight();
+    final SizePlan plan = getPlan(width, height);
+    if (plan == null) {
+      throw new IllegalStateException("Not warmed up for " + width + "x" + height);
+    }
+    for (int i = 0; i < styles.length; ++i) {
+      if (outputs[i].getWidth() != width || outputs[i].getHeight() != height) {
+        throw new IllegalArgumentException("Output " + i + " doesn't match the input's size");
+      }
+    }
+
+    final LayerPlan firstPlan = plan.layers[0];
+    final float[] firstOutput = buffers[outputBuffers[0]];
+    final int firstSize =
+        firstPlan.outputWidth * firstPlan.outputHeight * layers.get(0).outputChannels;
+    if (batchOutput.length < firstSize) {
+      batchOutput = new float[firstSize];
+    }
+
+    final StyleParameterCache.Parameters boundStyle = style;
+    currentPlan = plan;
+    currentCodec = input;
+    windowLeft = 0;
+    windowTop = 0;
+    writeLeft = 0;
+    writeTop = 0;
+    writeRight = width;
+    writeBottom = height;
+    try {
+      runStep(STEP_GATHER, plan.height);
+      currentLayer = 0;
+      runStep(STEP_CONVOLVE, firstPlan.outputHeight);
+      System.arraycopy(firstOutput, 0, batchOutput, 0, firstSize);
+      for (int strip = 0; strip < stripTasks.length; ++strip) {
+        System.arraycopy(partialSums[strip], 0, batchSums[strip], 0, batchSums[strip].length);
+        System.arraycopy(
+            partialSquares[strip], 0, batchSquares[strip], 0, batchSquares[strip].length);
+      }
+
+      for (int i = 0; i < styles.length; ++i) {
+        // Every style starts from the first layer's output before its normalization.
+        if (i > 0) {
+          System.arraycopy(batchOutput, 0, firstOutput, 0, firstSize);
+          for (int strip = 0; strip < stripTasks.length; ++strip) {
+            System.arraycopy(batchSums[strip], 0, partialSums[strip], 0, batchSums[strip].length);
+            System.arraycopy(
+                batchSquares[strip], 0, partialSquares[strip], 0, batchSquares[strip].length);
+          }
+        }
+        style = styleCache.get(styles[i]);
+
+        currentLayer = 0;
+        computeNormalization(0, firstPlan);
+        runStep(STEP_NORMALIZE, firstPlan.outputHeight);
+        for (int layer = 1; layer < layers.size(); ++layer) {
+          currentLayer = layer;
+          final LayerPlan layerPlan = plan.layers[layer];
+          runStep(STEP_CONVOLVE, layerPlan.outputHeight);
+          computeNormalization(layer, layerPlan);
+          runStep(STEP_NORMALIZE, layerPlan.outputHeight);
+        }
+        currentCodec = outputs[i];
+        runStep(STEP_SCATTER, plan.height);
+      }
+    } finally {
+      style = boundStyle;
+      currentPlan = null;
+      currentCodec = null;
+    }
+  }
+
+  /** Maps the recorded region of the input image onto the output of a layer. */
+  private void setRegion(final Statistics recorded, final SizePlan plan, final LayerPlan layer) {
+    regionLeft = scaleCeil(recorded.left, layer.outputWidth, plan.width);
+    regionTop = scaleCeil(recorded.top, layer.outputHeight, plan.height);
+    regionRight = scaleCeil(recorded.right, layer.outputWidth, plan.width);
+    regionBottom = scaleCeil(recorded.bottom, layer.outputHeight, plan.height);
+  }
+
+  /** Returns ceil(value * numerator / denominator) for values from 0 to denominator. */
+  private static int scaleCeil(final int value, final int numerator, final int denominator) {
+    final long clamped = Math.max(0, Math.min(value, denominator));
+    return (int) ((clamped * numerator + denominator - 1) / denominator);
+  }
+
+  @Override
+  public void close() {
+    plans = new SizePlan[0];
+    batchOutput = new float[0];
+    for (int i = 0; i < NUM_BUFFERS; ++i) {
+      buffers[i] = new float[0];
+    }
+  }
+
+  /** Runs a step over the given number of rows, split evenly across the strips. */
+  private void runStep(final int step, final int rows) {
+    final int numStrips = stripTasks.length;
+    if (numStrips == 1) {
+      runStrip(step, 0, rows, 0);
+      return;
+    }
+    for (int i = 0; i < numStrips; ++i) {
+      final StripTask task = stripTasks[i];
+      task.step = step;
+      task.start = rows * i / numStrips;
+      task.end = rows * (i + 1) / numStrips;
+    }
+    stepTask.reinitialize();
+    pool.invoke(stepTask);
+  }
+
+  private void runStrip(final int step, final int start, final int end, final int strip) {
+    switch (step) {
+      case STEP_GATHER:
+        gatherRows(start, end);
+        break;
+      case STEP_CONVOLVE:
+        convolveRows(start, end, strip);
+        break;
+      case STEP_NORMALIZE:
+        normalizeRows(start, end);
+        break;
+      case STEP_SCATTER:
+        scatterRows(start, end);
+        break;
+      default:
+        throw new IllegalArgumentException("Unknown step " + step);
+    }
+  }
+
+  /** Copies rows of the window from the codec's tensor into the input buffer. */
+  private void gatherRows(final int start, final int end) {
+    final PixelTensorCodec codec = currentCodec;
+    final float[] input = buffers[INPUT_BUFFER];
+    final int channels = network.getImageChannels();
+    final int width = currentPlan.width;
+    for (int y = start; y < end; ++y) {
+      final int imageRow = (windowTop + y) * codec.getWidth() + windowLeft;
+      for (int x = 0; x < width; ++x) {
+        final int pixel = y * width + x;
+        for (int c = 0; c < channels; ++c) {
+          input[pixel * channels + c] = codec.getValue(codec.getTensorIndex(imageRow + x, c));
+        }
+      }
+    }
+  }
+
+  /** Copies the part of rows of the network's output to be written back into the codec's tensor. */
+  private void scatterRows(final int start, final int end) {
+    final PixelTensorCodec codec = currentCodec;
+    final float[] output = buffers[outputBuffers[layers.size() - 1]];
+    final int channels = network.getImageChannels();
+    final int width = currentPlan.width;
+    final int startX = Math.max(0, writeLeft - windowLeft);
+    final int endX = Math.min(width, writeRight - windowLeft);
+    final int startY = Math.max(start, writeTop - windowTop);
+    final int endY = Math.min(end, writeBottom - windowTop);
+    for (int y = startY; y < endY; ++y) {
+      final int imageRow = (windowTop + y) * codec.getWidth() + windowLeft;
+      for (int x = startX; x < endX; ++x) {
+        final int pixel = y * width + x;
+        for (int c = 0; c < channels; ++c) {
+          codec.setValue(codec.getTensorIndex(imageRow + x, c), output[pixel * channels + c]);
+        }
+      }
+    }
+  }
+
+  /**
+   * Convolves rows of the current layer's output, and accumulates the per channel sums needed for
+   * instance normalization into the strip's partial sums.
+   */
+  private void convolveRows(final int start, final int end, final int strip) {
+    final StyleNetwork.Layer layer = layers.get(currentLayer);
+    final LayerPlan plan = currentPlan.layers[currentLayer];
+    final float[] input = buffers[inputBuffers[currentLayer]];
+    final float[] output = buffers[outputBuffers[currentLayer]];
+    final float[] weights = layer.weights;
+    final int k = layer.kernelSize;
+    final int inputChannels = layer.inputChannels;
+    final int outputChannels = layer.outputChannels;
+    final int inputWidth = plan.inputWidth;
+    final int outputWidth = plan.outputWidth;
+    final int[] rowIndex = plan.rowIndex;
+    final int[] colIndex = plan.colIndex;
+
+    final double[] sums = partialSums[strip];
+    final double[] squares = partialSquares[strip];
+    Arrays.fill(sums, 0.0);
+    Arrays.fill(squares, 0.0);
+    final boolean recording = recordedStatistics != null;
+    final double[] recordedSums = regionSums[strip];
+    final double[] recordedSquares = regionSquares[strip];
+    Arrays.fill(recordedSums, 0.0);
+    Arrays.fill(recordedSquares, 0.0);
+
+    for (int y = start; y < end; ++y) {
+      for (int x = 0; x < outputWidth; ++x) {
+        final int outputIndex = (y * outputWidth + x) * outputChannels;
+        Arrays.fill(output, outputIndex, outputIndex + outputChannels, 0.0f);
+
+        for (int ky = 0; ky < k; ++ky) {
+          final int inputRow = rowIndex[y * k + ky] * inputWidth;
+          for (int kx = 0; kx < k; ++kx) {
+            final int inputIndex = (inputRow + colIndex[x * k + kx]) * inputChannels;
+            int weightIndex = (ky * k + kx) * inputChannels * outputChannels;
+            for (int ci = 0; ci < inputChannels; ++ci) {
+              final float value = input[inputIndex + ci];
+              // Most activations are zero after a ReLU.
+              if (value != 0.0f) {
+                for (int co = 0; co < outputChannels; ++co) {
+                  output[outputIndex + co] += value * weights[weightIndex + co];
+                }
+              }
+              weightIndex += outputChannels;
+            }
+          }
+        }
+
+        for (int co = 0; co < outputChannels; ++co) {
+          final float value = output[outputIndex + co];
+          sums[co] += value;
+          squares[co] += value * value;
+        }
+        if (recording && x >= regionLeft && x < regionRight && y >= regionTop && y < regionBottom) {
+          for (int co = 0; co < outputChannels; ++co) {
+            final float value = output[outputIndex + co];
+            recordedSums[co] += value;
+            recordedSquares[co] += value * value;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Combines the strips' partial sums into each channel's mean and variance, or takes them from
+   * the fixed statistics, and folds them into the style's scale and offset. Adds the recorded
+   * region's sums to the recorded statistics.
+   */
+  private void computeNormalization(final int layerIndex, final LayerPlan plan) {
+    final StyleNetwork.Layer layer = layers.get(layerIndex);
+    final Statistics fixed = fixedStatistics;
+    final Statistics recorded = recordedStatistics;
+    final double count =
+        fixed != null ? fixed.counts[layerIndex] : (double) plan.outputWidth * plan.outputHeight;
+    for (int c = 0; c < layer.outputChannels; ++c) {
+      double sum = 0.0;
+      double squares = 0.0;
+      for (int strip = 0; strip < stripTasks.length; ++strip) {
+        sum += partialSums[strip][c];
+        squares += partialSquares[strip][c];
+        if (recorded != null) {
+          recorded.sums[layerIndex][c] += regionSums[strip][c];
+          recorded.squares[layerIndex][c] += regionSquares[strip][c];
+        }
+      }
+      if (fixed != null) {
+        sum = fixed.sums[layerIndex][c];
+        squares = fixed.squares[layerIndex][c];
+      }
+      final double mean = sum / count;
+      final double variance = Math.max(0.0, squares / count - mean * mean);
+      final float scale =
+          (float) (style.gamma[layerIndex][c] / Math.sqrt(variance + layer.epsilon));
+      scales[c] = scale;
+      shifts[c] = (float) (style.beta[layerIndex][c] - mean * scale);
+    }
+    if (recorded != null) {
+      recorded.counts[layerIndex] +=
+          (long) Math.max(0, regionRight - regionLeft) * Math.max(0, regionBottom - regionTop);
+    }
+  }
+
+  /**
+   * Normalizes rows of the current layer's output in place, adds the residual if the layer ends a
+   * residual block, and applies the activation.
+   */
+  private void normalizeRows(final int start, final int end) {
+    final StyleNetwork.Layer layer = layers.get(currentLayer);
+    final LayerPlan plan = currentPlan.layers[currentLayer];
+    final float[] output = buffers[outputBuffers[currentLayer]];
+    final float[] residual =
+        residualBuffers[currentLayer] >= 0 ? buffers[residualBuffers[currentLayer]] : null;
+    final int channels = layer.outputChannels;
+    final int first = start * plan.outputWidth * channels;
+    final int last = end * plan.outputWidth * channels;
+
+    for (int i = first; i < last; i += channels) {
+      for (int c = 0; c < channels; ++c) {
+        float value = output[i + c] * scales[c] + shifts[c];
+        if (residual != null) {
+          value += residual[i + c];
+        }
+        switch (layer.activation) {
+          case RELU:
+            value = Math.max(0.0f, value);
+            break;
+          case SIGMOID:
+            value = (float) (1.0 / (1.0 + Math.exp(-value)));
+            break;
+          default:
+            break;
+        }
+        output[i + c] = value;
+      }
+    }
+  }
+}
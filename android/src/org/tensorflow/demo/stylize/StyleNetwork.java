@@ -0,0 +1,338 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.stylize;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The layers of the style transfer network of "A Learned Representation For Artistic Style"
+ * (https://arxiv.org/abs/1610.07629), read from a frozen graph exported by Magenta's
+ * image_stylization model. Both the float graph and the eight-bit graph produced by
+ * quantize_graph are understood; quantized weights are dequantized on load.
+ *
+ * The network is three contracting convolutions, a stack of residual blocks and three expanding
+ * convolutions, each followed by conditional instance normalization. Every convolution is
+ * preceded by reflection padding, and the expanding ones by nearest neighbor upsampling.
+ */
+public class StyleNetwork {
+  private static final String CONTRACT = "transformer/contract/";
+  private static final String RESIDUAL = "transformer/residual/residual";
+  private static final String EXPAND = "transformer/expand/conv";
+
+  private static final float DEFAULT_EPSILON = 1e-5f;
+
+  /** The nonlinearity applied after normalization. */
+  public enum Activation {
+    NONE,
+    RELU,
+    SIGMOID
+  }
+
+  /**
+   * A convolution followed by conditional instance normalization and an activation. Weights are
+   * stored as [kernelSize][kernelSize][inputChannels][outputChannels], the normalization
+   * parameters as [numStyles][outputChannels].
+   */
+  public static class Layer {
+    public final String name;
+    public final int upsample;
+    public final int padding;
+    public final int kernelSize;
+    public final int stride;
+    public final int inputChannels;
+    public final int outputChannels;
+    public final float[] weights;
+    public final float[] gamma;
+    public final float[] beta;
+    public final float epsilon;
+    public final Activation activation;
+
+    /** Whether this layer's input is kept to be added to the output of a later layer. */
+    public final boolean startsResidual;
+
+    /** Whether the input of the latest residual block is added to this layer's output. */
+    public final boolean endsResidual;
+
+    Layer(
+        final String name,
+        final int upsample,
+        final int padding,
+        final int kernelSize,
+        final int stride,
+        final int inputChannels,
+        final int outputChannels,
+        final float[] weights,
+        final float[] gamma,
+        final float[] beta,
+        final float epsilon,
+        final Activation activation,
+        final boolean startsResidual,
+        final boolean endsResidual) {
+      this.name = name;
+      this.upsample = upsample;
+      this.padding = padding;
+      this.kernelSize = kernelSize;
+      this.stride = stride;
+      this.inputChannels = inputChannels;
+      this.outputChannels = outputChannels;
+      this.weights = weights;
+      this.gamma = gamma;
+      this.beta = beta;
+      this.epsilon = epsilon;
+      this.activation = activation;
+      this.startsResidual = startsResidual;
+      this.endsResidual = endsResidual;
+    }
+
+    /** Returns the output size along one axis for an input of the given size. */
+    public int getOutputSize(final int inputSize) {
+      return (inputSize * upsample + 2 * padding - kernelSize) / stride + 1;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          "%s: %dx%d/%d, %d->%d channels, upsample %d, %s",
+          name, kernelSize, kernelSize, stride, inputChannels, outputChannels, upsample,
+          activation);
+    }
+  }
+
+  private final List<Layer> layers;
+  private final int numStyles;
+
+  // Package-private for tests.
+  StyleNetwork(final List<Layer> layers, final int numStyles) {
+    this.layers = Collections.unmodifiableList(layers);
+    this.numStyles = numStyles;
+  }
+
+  public List<Layer> getLayers() {
+    return layers;
+  }
+
+  public int getNumStyles() {
+    return numStyles;
+  }
+
+  /** Returns the number of channels of the network's input and output images. */
+  public int getImageChannels() {
+    return layers.get(0).inputChannels;
+  }
+
+  /**
+   * Returns the smallest size along each axis that the network can process, given that reflection
+   * padding needs more pixels than it pads.
+   */
+  public int getMinimumSize() {
+    int size = 1;
+    while (!supportsSize(size)) {
+      ++size;
+    }
+    return size;
+  }
+
+  /** Returns whether an image of the given size comes out of the network at the same size. */
+  public boolean supportsSize(final int size) {
+    int current = size;
+    for (final Layer layer : layers) {
+      if (current * layer.upsample <= layer.padding) {
+        return false;
+      }
+      current = layer.getOutputSize(current);
+    }
+    return current == size;
+  }
+
+  /**
+   * Returns the largest size not above the given one that the network supports.
+   *
+   * @throws IllegalArgumentException if the size is below {@link #getMinimumSize}.
+   */
+  public int getSupportedSize(final int maxSize) {
+    for (int size = maxSize; size > 0; --size) {
+      if (supportsSize(size)) {
+        return size;
+      }
+    }
+    throw new IllegalArgumentException("No supported size up to " + maxSize);
+  }
+
+  /**
+   * Returns the largest factor by which a layer's output is smaller than the input image. Parts of
+   * an image which start on a multiple of this are computed on the same grid as the whole image.
+   */
+  public int getDownsampling() {
+    int factor = 1;
+    int current = 1;
+    for (final Layer layer : layers) {
+      current = current * layer.stride / layer.upsample;
+      factor = Math.max(factor, current);
+    }
+    return factor;
+  }
+
+  /**
+   * Returns how far, in input pixels, an output pixel can see in each direction. Outputs closer
+   * than this to the edge of the input depend on the reflection padding.
+   */
+  public int getReceptiveRadius() {
+    // The distance between neighboring activations of the current layer, in input pixels.
+    double spacing = 1.0;
+    double radius = 0.0;
+    for (final Layer layer : layers) {
+      spacing /= layer.upsample;
+      radius += (layer.kernelSize - 1) / 2 * spacing;
+      spacing *= layer.stride;
+    }
+    return (int) Math.ceil(radius);
+  }
+
+  /**
+   * Reads the network from a graph.
+   *
+   * @throws IllegalArgumentException if the graph is not a style transfer network.
+   */
+  public static StyleNetwork fromGraph(final GraphDef graph) {
+    final List<Layer> layers = new ArrayList<Layer>();
+
+    for (int i = 1; i <= 3; ++i) {
+      final String padNode = CONTRACT + (i == 1 ? "MirrorPad" : "MirrorPad_" + (i - 1));
+      layers.add(
+          readLayer(
+              graph, CONTRACT + "conv" + i + "/", padNode, 1, Activation.RELU, false, false));
+    }
+
+    for (int block = 1; graph.hasNode(RESIDUAL + block + "/MirrorPad"); ++block) {
+      final String prefix = RESIDUAL + block + "/";
+      layers.add(
+          readLayer(
+              graph, prefix + "conv1/", prefix + "MirrorPad", 1, Activation.RELU, true, false));
+      layers.add(
+          readLayer(
+              graph, prefix + "conv2/", prefix + "MirrorPad_1", 1, Activation.NONE, false, true));
+    }
+
+    for (int i = 1; i <= 3; ++i) {
+      final String prefix = EXPAND + i + "/";
+      final int upsample =
+          graph.hasNode(prefix + "ResizeNearestNeighbor")
+              ? graph.getNode(prefix + "mul/x").getValue().getInts()[0]
+              : 1;
+      layers.add(
+          readLayer(
+              graph, prefix + "conv/", prefix + "MirrorPad", upsample,
+              i == 3 ? Activation.SIGMOID : Activation.RELU, false, false));
+    }
+
+    final int numStyles = layers.get(0).gamma.length / layers.get(0).outputChannels;
+    for (int i = 1; i < layers.size(); ++i) {
+      final Layer previous = layers.get(i - 1);
+      final Layer layer = layers.get(i);
+      if (layer.inputChannels != previous.outputChannels) {
+        throw new IllegalArgumentException(
+            layer.name + " expects " + layer.inputChannels + " channels, "
+                + previous.name + " produces " + previous.outputChannels);
+      }
+      if (layer.gamma.length != numStyles * layer.outputChannels) {
+        throw new IllegalArgumentException(layer.name + " has the wrong number of styles");
+      }
+    }
+    return new StyleNetwork(layers, numStyles);
+  }
+
+  private static Layer readLayer(
+      final GraphDef graph,
+      final String prefix,
+      final String padNode,
+      final int upsample,
+      final Activation activation,
+      final boolean startsResidual,
+      final boolean endsResidual) {
+    final GraphDef.Node pad = graph.getNode(padNode);
+    if (!"REFLECT".equals(pad.getString("mode"))) {
+      throw new IllegalArgumentException(padNode + " is not a reflection pad");
+    }
+    final int[] paddings = graph.getNode(pad.getInputs().get(1)).getValue().getInts();
+    final int padding = paddings[2];
+    if (paddings.length != 8
+        || paddings[0] != 0 || paddings[1] != 0 || paddings[6] != 0 || paddings[7] != 0
+        || paddings[3] != padding || paddings[4] != padding || paddings[5] != padding) {
+      throw new IllegalArgumentException(padNode + " does not pad evenly in space only");
+    }
+
+    final boolean quantized = graph.hasNode(prefix + "weights_quint8_const");
+    final GraphDef.Node conv =
+        graph.getNode(prefix + (quantized ? "convolution_eightbit_quantized_conv" : "convolution"));
+    final long[] strides = conv.getIntList("strides");
+    if (strides.length != 4
+        || strides[1] != strides[2]
+        || !"VALID".equals(conv.getString("padding"))) {
+      throw new IllegalArgumentException(conv.getName() + " has unsupported strides or padding");
+    }
+
+    final GraphDef.Tensor weightsTensor =
+        graph.getNode(prefix + (quantized ? "weights_quint8_const" : "weights")).getValue();
+    final int[] shape = weightsTensor.getShape();
+    if (shape.length != 4 || shape[0] != shape[1]) {
+      throw new IllegalArgumentException(prefix + "weights is not a square 2D kernel");
+    }
+    final float[] weights;
+    if (quantized) {
+      weights =
+          dequantize(
+              weightsTensor.getBytes(),
+              graph.getNode(prefix + "weights_min").getValue().getFloats()[0],
+              graph.getNode(prefix + "weights_max").getValue().getFloats()[0]);
+    } else {
+      weights = weightsTensor.getFloats();
+    }
+
+    final String epsilonNode = prefix + "InstanceNorm/batchnorm/add/y";
+    final float epsilon =
+        graph.hasNode(epsilonNode)
+            ? graph.getNode(epsilonNode).getValue().getFloats()[0]
+            : DEFAULT_EPSILON;
+
+    return new Layer(
+        prefix.substring(0, prefix.length() - 1),
+        upsample,
+        padding,
+        shape[0],
+        (int) strides[1],
+        shape[2],
+        shape[3],
+        weights,
+        graph.getNode(prefix + "InstanceNorm/gamma").getValue().getFloats(),
+        graph.getNode(prefix + "InstanceNorm/beta").getValue().getFloats(),
+        epsilon,
+        activation,
+        startsResidual,
+        endsResidual);
+  }
+
+  /** Dequantizes quint8 values stored in MIN_FIRST mode over the given range. */
+  private static float[] dequantize(final byte[] values, final float min, final float max) {
+    final float step = (max - min) / 255.0f;
+    final float[] result = new float[values.length];
+    for (int i = 0; i < values.length; ++i) {
+      result[i] = min + (values[i] & 0xFF) * step;
+    }
+    return result;
+  }
+}
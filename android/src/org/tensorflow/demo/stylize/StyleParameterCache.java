@@ -0,0 +1,170 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.stylize;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Caches the normalization parameters of a {@link StyleNetwork} blended for recently used style
+ * mixes. Mixes are quantized before lookup, so that mixes which differ only by rounding noise
+ * share an entry, and the blend only sums the styles which are actually present in the mix.
+ *
+ * Not thread safe.
+ */
+public class StyleParameterCache {
+  /** Style weights are rounded to multiples of 1 / QUANTIZATION_STEPS. */
+  public static final int QUANTIZATION_STEPS = 4096;
+
+  /** Per layer and output channel gamma and beta for one style mix. */
+  public static class Parameters {
+    public final float[][] gamma;
+    public final float[][] beta;
+
+    Parameters(final float[][] gamma, final float[][] beta) {
+      this.gamma = gamma;
+      this.beta = beta;
+    }
+  }
+
+  /** A quantized style mix. */
+  private static final class Key {
+    private final int[] weights;
+    private final int hashCode;
+
+    Key(final int[] weights) {
+      this.weights = weights;
+      this.hashCode = Arrays.hashCode(weights);
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+      return other instanceof Key && Arrays.equals(weights, ((Key) other).weights);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+
+  private final List<StyleNetwork.Layer> layers;
+  private final int numStyles;
+  private final Map<Key, Parameters> cache;
+
+  private int hitCount;
+  private int missCount;
+
+  /**
+   * @param network The network whose parameters are blended.
+   * @param maxEntries Number of style mixes to keep.
+   */
+  public StyleParameterCache(final StyleNetwork network, final int maxEntries) {
+    this.layers = network.getLayers();
+    this.numStyles = network.getNumStyles();
+    this.cache =
+        new LinkedHashMap<Key, Parameters>(maxEntries + 1, 1.0f, true) {
+          @Override
+          protected boolean removeEldestEntry(final Map.Entry<Key, Parameters> eldest) {
+            return size() > maxEntries;
+          }
+        };
+  }
+
+  /**
+   * Returns the parameters blended for the given style mix, blending them if the mix isn't cached.
+   *
+   * @param styleValues One weight per style.
+   */
+  public Parameters get(final float[] styleValues) {
+    if (styleValues.length != numStyles) {
+      throw new IllegalArgumentException(
+          "Expected " + numStyles + " style values, got " + styleValues.length);
+    }
+
+    final int[] weights = new int[numStyles];
+    for (int s = 0; s < numStyles; ++s) {
+      weights[s] = Math.round(styleValues[s] * QUANTIZATION_STEPS);
+    }
+    final Key key = new Key(weights);
+
+    Parameters parameters = cache.get(key);
+    if (parameters != null) {
+      ++hitCount;
+      return parameters;
+    }
+    ++missCount;
+    parameters = blend(weights);
+    cache.put(key, parameters);
+    return parameters;
+  }
+
+  /**
+   * Normalizes weights, such as those of the style sliders, into a style mix summing to 1. If
+   * every weight is 0, all styles are mixed in equally.
+   *
+   * @param weights One non-negative weight per style.
+   * @param styleValues Receives the style mix. May be the weights themselves.
+   * @return Whether every weight was 0.
+   */
+  public static boolean normalize(final float[] weights, final float[] styleValues) {
+    float sum = 0.0f;
+    for (final float weight : weights) {
+      sum += weight;
+    }
+    final boolean allZero = sum == 0.0f;
+    for (int s = 0; s < weights.length; ++s) {
+      styleValues[s] = allZero ? 1.0f / weights.length : weights[s] / sum;
+    }
+    return allZero;
+  }
+
+  private Parameters blend(final int[] weights) {
+    int numActive = 0;
+    final int[] activeStyles = new int[numStyles];
+    for (int s = 0; s < numStyles; ++s) {
+      if (weights[s] != 0) {
+        activeStyles[numActive++] = s;
+      }
+    }
+
+    final float[][] gamma = new float[layers.size()][];
+    final float[][] beta = new float[layers.size()][];
+    for (int i = 0; i < layers.size(); ++i) {
+      final StyleNetwork.Layer layer = layers.get(i);
+      final int channels = layer.outputChannels;
+      gamma[i] = new float[channels];
+      beta[i] = new float[channels];
+      for (int a = 0; a < numActive; ++a) {
+        final int s = activeStyles[a];
+        final float weight = (float) weights[s] / QUANTIZATION_STEPS;
+        final int offset = s * channels;
+        for (int c = 0; c < channels; ++c) {
+          gamma[i][c] += weight * layer.gamma[offset + c];
+          beta[i][c] += weight * layer.beta[offset + c];
+        }
+      }
+    }
+    return new Parameters(gamma, beta);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%d hits, %d misses, %d cached", hitCount, missCount, cache.size());
+  }
+}
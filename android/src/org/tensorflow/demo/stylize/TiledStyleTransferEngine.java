@@ -0,0 +1,711 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.stylize;
+
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import org.tensorflow.demo.StyleTransferEngine;
+import org.tensorflow.demo.env.PixelTensorCodec;
+
+/**
+ * Runs a {@link StyleNetwork} on images too large to process in one piece by splitting them into
+ * overlapping tiles. Each tile is stylized by a single threaded {@link JavaStyleTransferEngine}
+ * taken from a small set of workers, with the tiles scheduled on a fork-join pool, and neighboring
+ * tiles are feather blended where they meet. Activation memory is bounded by the number of workers
+ * and the tile size, whatever the size of the image.
+ *
+ * Tiles overlap by more than the network's receptive field, so that the pixels each tile owns
+ * don't depend on the padding at its edges. Instance normalization depends on the whole image
+ * though, and by default each tile is normalized with its own statistics, which only depends on
+ * the frame itself and so is as stable as the input. Statistics carried over from earlier frames
+ * were tried and rejected: each frame's statistics are gathered under the previous frame's, so
+ * they only settle about one layer per frame, and a static scene is off for as many frames as the
+ * network has layers. For still images, extra passes can be run to gather the statistics from
+ * the whole image, which after one pass per layer gives the same result as stylizing it in one
+ * piece.
+ *
+ * Images which fit within the direct size are stylized in one piece by a multi-threaded engine.
+ *
+ * Regions of images which changed since the previous frame can be stylized on their own. Direct
+ * sizes stylize a window which extends past the region by the receptive field, normalized with
+ * the statistics of the latest image of the same size which was stylized whole. Tiled sizes
+ * stylize the tiles covering the region again, normalized as the latest whole image's tiles were.
+ */
+public class TiledStyleTransferEngine implements StyleTransferEngine {
+  private static final int NUM_CHANNELS = 3;
+
+  // Width of the band over which neighboring tiles are blended, in pixels.
+  private static final int FEATHER_SIZE = 16;
+
+  // Windows around regions are rounded up to multiples of this, to limit the number of sizes.
+  private static final int WINDOW_STEP = 32;
+
+  /** The placement of the tiles along one axis, and the weight of each tile's pixels. */
+  private static class Axis {
+    final int tileSize;
+    final int[] positions;
+
+    // The part of the axis each tile owns.
+    final int[] ownedStarts;
+    final int[] ownedEnds;
+
+    final float[][] weights;
+
+    // Tiles this many apart don't overlap, so they can be written at the same time.
+    final int numPhases;
+
+    Axis(final int size, final int tileSize, final int overlap, final int alignment) {
+      this.tileSize = tileSize;
+      final int step = Math.max(alignment, tileSize - overlap - alignment);
+      final int numTiles =
+          size <= tileSize ? 1 : Math.max(2, (size - tileSize + step - 1) / step + 1);
+
+      // Tiles start on the network's grid where possible, so that they compute the same
+      // activations as the whole image would.
+      positions = new int[numTiles];
+      for (int i = 1; i < numTiles; ++i) {
+        final int position = (int) ((long) i * (size - tileSize) / (numTiles - 1));
+        positions[i] = position / alignment * alignment;
+      }
+      positions[numTiles - 1] = size - tileSize;
+
+      // Each tile owns the pixels up to the middle of its overlaps with its neighbors.
+      ownedStarts = new int[numTiles];
+      ownedEnds = new int[numTiles];
+      ownedEnds[numTiles - 1] = size;
+      for (int i = 1; i < numTiles; ++i) {
+        final int middle = (positions[i] + positions[i - 1] + tileSize) / 2;
+        ownedStarts[i] = Math.max(positions[i], middle / alignment * alignment);
+        ownedEnds[i - 1] = ownedStarts[i];
+      }
+
+      // Tiles fade into each other over a band centered on the boundary between them, and the
+      // weights of all tiles covering a pixel are normalized to sum to 1.
+      final float[] totals = new float[size];
+      weights = new float[numTiles][tileSize];
+      for (int i = 0; i < numTiles; ++i) {
+        for (int x = 0; x < tileSize; ++x) {
+          final int position = positions[i] + x;
+          float weight = 1.0f;
+          if (i > 0) {
+            weight *= ramp(position - ownedStarts[i]);
+          }
+          if (i < numTiles - 1) {
+            weight *= 1.0f - ramp(position - ownedEnds[i]);
+          }
+          weights[i][x] = weight;
+          totals[position] += weight;
+        }
+      }
+      for (int i = 0; i < numTiles; ++i) {
+        for (int x = 0; x < tileSize; ++x) {
+          final float total = totals[positions[i] + x];
+          weights[i][x] = total > 0.0f ? weights[i][x] / total : 0.0f;
+        }
+      }
+
+      int phases = 1;
+      for (int i = 0; i + phases < numTiles; ++i) {
+        while (i + phases < numTiles && positions[i + phases] < positions[i] + tileSize) {
+          ++phases;
+        }
+      }
+      numPhases = phases;
+    }
+
+    /** Rises from 0 to 1 across the feather band around a boundary. */
+    private static float ramp(final int distance) {
+      return Math.max(0.0f, Math.min(1.0f, (distance + FEATHER_SIZE / 2 + 0.5f) / FEATHER_SIZE));
+    }
+  }
+
+  /** Stylizes one tile. Reinitialized and reused for every frame. */
+  private class TileTask extends RecursiveAction {
+    private final Layout layout;
+    private final int column;
+    private final int row;
+
+    // The statistics of the pixels this tile owns.
+    private final JavaStyleTransferEngine.Statistics statistics;
+
+    // Whether the tile is run in the current pass.
+    private boolean selected = true;
+
+    TileTask(final Layout layout, final int column, final int row) {
+      this.layout = layout;
+      this.column = column;
+      this.row = row;
+
+      final int left = layout.columns.positions[column];
+      final int top = layout.rows.positions[row];
+      statistics = directEngine.createStatistics();
+      statistics.setRegion(
+          layout.columns.ownedStarts[column] - left,
+          layout.rows.ownedStarts[row] - top,
+          layout.columns.ownedEnds[column] - left,
+          layout.rows.ownedEnds[row] - top);
+    }
+
+    @Override
+    protected void compute() {
+      if (selected) {
+        runTile(this);
+      }
+    }
+  }
+
+  /** Stylizes a set of tiles which don't overlap. Reinitialized and reused for every frame. */
+  private static class PhaseTask extends RecursiveAction {
+    private final TileTask[] tiles;
+
+    PhaseTask(final TileTask[] tiles) {
+      this.tiles = tiles;
+    }
+
+    @Override
+    protected void compute() {
+      for (final TileTask tile : tiles) {
+        tile.reinitialize();
+      }
+      invokeAll(tiles);
+    }
+  }
+
+  /** The tiles of one image size, and the statistics they were last normalized with. */
+  private class Layout {
+    final int width;
+    final int height;
+    final Axis columns;
+    final Axis rows;
+    final PhaseTask[] phases;
+    final TileTask[] tiles;
+
+    // What the final pass over the latest whole image was normalized with, empty if per tile.
+    final JavaStyleTransferEngine.Statistics statistics;
+    boolean stylizedWhole;
+
+    Layout(final int width, final int height) {
+      this.width = width;
+      this.height = height;
+      columns = createAxis(width);
+      rows = createAxis(height);
+      statistics = directEngine.createStatistics();
+
+      tiles = new TileTask[columns.positions.length * rows.positions.length];
+      phases = new PhaseTask[columns.numPhases * rows.numPhases];
+      int numTiles = 0;
+      for (int py = 0; py < rows.numPhases; ++py) {
+        for (int px = 0; px < columns.numPhases; ++px) {
+          final int first = numTiles;
+          for (int row = py; row < rows.positions.length; row += rows.numPhases) {
+            for (int column = px; column < columns.positions.length; column += columns.numPhases) {
+              tiles[numTiles++] = new TileTask(this, column, row);
+            }
+          }
+          phases[py * columns.numPhases + px] =
+              new PhaseTask(Arrays.copyOfRange(tiles, first, numTiles));
+        }
+      }
+    }
+  }
+
+  /** The statistics of the latest image of a size which is stylized in one piece. */
+  private static class DirectSize {
+    final int width;
+    final int height;
+    final JavaStyleTransferEngine.Statistics statistics;
+
+    DirectSize(final int width, final int height, final JavaStyleTransferEngine.Statistics stats) {
+      this.width = width;
+      this.height = height;
+      this.statistics = stats;
+    }
+  }
+
+  /** A single threaded engine and the tile it stylizes. */
+  private static class Worker {
+    final JavaStyleTransferEngine engine;
+    PixelTensorCodec tile;
+
+    Worker(final JavaStyleTransferEngine engine) {
+      this.engine = engine;
+    }
+
+    PixelTensorCodec getTile(final int width, final int height) {
+      if (tile == null || tile.getWidth() != width || tile.getHeight() != height) {
+        tile = new PixelTensorCodec(width, height, PixelTensorCodec.Layout.NHWC);
+      }
+      return tile;
+    }
+  }
+
+  private final StyleNetwork network;
+  private final ForkJoinPool pool;
+  private final int maxDirectSize;
+  private final int tileSize;
+  private final int overlap;
+
+  // How far windows extend past the regions they are stylized for, on the network's grid.
+  private final int margin;
+
+  private final JavaStyleTransferEngine directEngine;
+
+  private final Worker[] workers;
+  private final BlockingQueue<Worker> idleWorkers;
+
+  private Layout[] layouts = new Layout[0];
+  private DirectSize[] directSizes = new DirectSize[0];
+
+  private volatile int statisticsPasses = 0;
+
+  // Weighted sum of the tiles' outputs, interleaved RGB.
+  private float[] accumulator = new float[0];
+
+  // State of the pass being run, read by the tile tasks.
+  private PixelTensorCodec currentCodec;
+  private boolean accumulating;
+  private boolean normalizingPerTile;
+
+  /**
+   * @param network The network to run.
+   * @param pool Pool to run the tiles, and the strips of direct inference, on.
+   * @param maxDirectSize Images up to this size along both axes are stylized in one piece.
+   * @param tileSize Size of the tiles larger images are split into, along both axes.
+   * @param numWorkers Number of tiles stylized at the same time.
+   */
+  public TiledStyleTransferEngine(
+      final StyleNetwork network,
+      final ForkJoinPool pool,
+      final int maxDirectSize,
+      final int tileSize,
+      final int numWorkers) {
+    this.network = network;
+    this.pool = pool;
+    this.maxDirectSize = maxDirectSize;
+    this.tileSize = tileSize;
+    this.overlap = 2 * network.getReceptiveRadius() + FEATHER_SIZE;
+    final int alignment = network.getDownsampling();
+    this.margin = (network.getReceptiveRadius() + alignment - 1) / alignment * alignment;
+    if (!network.supportsSize(tileSize) || tileSize < 2 * overlap) {
+      throw new IllegalArgumentException(
+          "Unsupported tile size " + tileSize + ", tiles overlap by " + overlap);
+    }
+    if (numWorkers < 1) {
+      throw new IllegalArgumentException("Need at least one worker: " + numWorkers);
+    }
+
+    directEngine = new JavaStyleTransferEngine(network, pool, pool.getParallelism());
+
+    workers = new Worker[numWorkers];
+    idleWorkers = new ArrayBlockingQueue<Worker>(numWorkers);
+    for (int i = 0; i < numWorkers; ++i) {
+      workers[i] = new Worker(new JavaStyleTransferEngine(network, pool, 1));
+      idleWorkers.add(workers[i]);
+    }
+  }
+
+  /**
+   * Sets the number of passes over each tiled image which only gather normalization statistics
+   * before it is stylized, each normalized with those of the pass before. 0 normalizes each tile
+   * with its own statistics, which suits video; one pass per layer of the network reproduces
+   * stylizing the image in one piece exactly.
+   */
+  public void setStatisticsPasses(final int passes) {
+    statisticsPasses = passes;
+  }
+
+  private boolean isDirect(final int width, final int height) {
+    return width <= maxDirectSize
+        && height <= maxDirectSize
+        && network.supportsSize(width)
+        && network.supportsSize(height);
+  }
+
+  private Axis createAxis(final int size) {
+    final int axisTileSize = size <= tileSize ? network.getSupportedSize(size) : tileSize;
+    return new Axis(size, axisTileSize, overlap, network.getDownsampling());
+  }
+
+  private Layout getLayout(final int width, final int height) {
+    for (final Layout layout : layouts) {
+      if (layout.width == width && layout.height == height) {
+        return layout;
+      }
+    }
+    return null;
+  }
+
+  private DirectSize getDirectSize(final int width, final int height) {
+    for (final DirectSize size : directSizes) {
+      if (size.width == width && size.height == height) {
+        return size;
+      }
+    }
+    return null;
+  }
+
+  /** Returns the statistics of the latest direct image of the given size, if any. */
+  private JavaStyleTransferEngine.Statistics getStatistics(final int width, final int height) {
+    final DirectSize size = getDirectSize(width, height);
+    return size != null && !size.statistics.isEmpty() ? size.statistics : null;
+  }
+
+  @Override
+  public void warmUp(final int width, final int height) {
+    prepare(width, height, true);
+  }
+
+  @Override
+  public void prepare(final int width, final int height) {
+    prepare(width, height, false);
+  }
+
+  private void prepare(final int width, final int height, final boolean warmUp) {
+    if (isDirect(width, height)) {
+      if (warmUp) {
+        directEngine.warmUp(width, height);
+      } else {
+        directEngine.prepare(width, height);
+      }
+      if (getDirectSize(width, height) == null) {
+        directSizes = Arrays.copyOf(directSizes, directSizes.length + 1);
+        directSizes[directSizes.length - 1] =
+            new DirectSize(width, height, directEngine.createStatistics());
+      }
+      return;
+    }
+    if (width < network.getMinimumSize() || height < network.getMinimumSize()) {
+      throw new IllegalArgumentException("Unsupported size " + width + "x" + height);
+    }
+
+    Layout layout = getLayout(width, height);
+    if (layout == null) {
+      layout = new Layout(width, height);
+      layouts = Arrays.copyOf(layouts, layouts.length + 1);
+      layouts[layouts.length - 1] = layout;
+    }
+    for (final Worker worker : workers) {
+      if (warmUp) {
+        worker.engine.warmUp(layout.columns.tileSize, layout.rows.tileSize);
+      } else {
+        worker.engine.prepare(layout.columns.tileSize, layout.rows.tileSize);
+      }
+    }
+    if (accumulator.length < width * height * NUM_CHANNELS) {
+      accumulator = new float[width * height * NUM_CHANNELS];
+    }
+  }
+
+  /** Returns the number of tiles images of the given size are split into, 1 if they aren't. */
+  public int getNumTiles(final int width, final int height) {
+    final Layout layout = getLayout(width, height);
+    return layout != null ? layout.tiles.length : 1;
+  }
+
+  @Override
+  public void setStyle(final float[] styleValues) {
+    directEngine.setStyle(styleValues);
+    for (final Worker worker : workers) {
+      worker.engine.setStyle(styleValues);
+    }
+  }
+
+  @Override
+  public void stylize(final PixelTensorCodec codec) {
+    final int width = codec.getWidth();
+    final int height = codec.getHeight();
+    if (isDirect(width, height)) {
+      final DirectSize size = getDirectSize(width, height);
+      if (size == null) {
+        throw new IllegalStateException("Not warmed up for " + width + "x" + height);
+      }
+      size.statistics.clear();
+      directEngine.stylize(codec, null, size.statistics);
+      return;
+    }
+    final Layout layout = getLayout(width, height);
+    if (layout == null) {
+      throw new IllegalStateException("Not warmed up for " + width + "x" + height);
+    }
+
+    Arrays.fill(accumulator, 0, width * height * NUM_CHANNELS, 0.0f);
+    for (final TileTask tile : layout.tiles) {
+      tile.selected = true;
+    }
+    // The first pass is normalized per tile, and every later one with the statistics of the
+    // pass before.
+    layout.statistics.clear();
+    final int passes = statisticsPasses;
+    for (int pass = 0; pass <= passes; ++pass) {
+      runTiles(layout, codec, pass == passes);
+      if (pass < passes) {
+        layout.statistics.clear();
+        for (final TileTask tile : layout.tiles) {
+          layout.statistics.add(tile.statistics);
+        }
+      }
+    }
+    layout.stylizedWhole = true;
+    writeAccumulator(codec, 0, 0, width, height);
+  }
+
+  /** Runs a pass over the selected tiles of the layout, normalized with its statistics. */
+  private void runTiles(
+      final Layout layout, final PixelTensorCodec codec, final boolean accumulatingPass) {
+    currentCodec = codec;
+    accumulating = accumulatingPass;
+    normalizingPerTile = layout.statistics.isEmpty();
+    try {
+      for (final PhaseTask phase : layout.phases) {
+        phase.reinitialize();
+        pool.invoke(phase);
+      }
+    } finally {
+      currentCodec = null;
+    }
+  }
+
+  private void writeAccumulator(
+      final PixelTensorCodec codec,
+      final int left,
+      final int top,
+      final int right,
+      final int bottom) {
+    final int width = codec.getWidth();
+    for (int y = top; y < bottom; ++y) {
+      for (int x = left; x < right; ++x) {
+        final int pixel = y * width + x;
+        for (int c = 0; c < NUM_CHANNELS; ++c) {
+          codec.setValue(codec.getTensorIndex(pixel, c), accumulator[pixel * NUM_CHANNELS + c]);
+        }
+      }
+    }
+  }
+
+  /**
+   * Stylizes the tiles covering the region for tiled sizes, and a window around the region for
+   * direct ones. The whole image is stylized instead if no image of its size was stylized whole
+   * yet, or the window would be larger than the direct size. The rest of the image keeps its
+   * input for windows, and is undefined for tiles. The first window of each size allocates its
+   * index tables.
+   */
+  @Override
+  public void stylizeRegion(
+      final PixelTensorCodec codec,
+      final int left,
+      final int top,
+      final int right,
+      final int bottom) {
+    final int width = codec.getWidth();
+    final int height = codec.getHeight();
+    if (!isDirect(width, height)) {
+      final Layout layout = getLayout(width, height);
+      if (layout == null || !layout.stylizedWhole) {
+        stylize(codec);
+      } else {
+        stylizeTiles(layout, codec, left, top, right, bottom);
+      }
+      return;
+    }
+
+    final JavaStyleTransferEngine.Statistics statistics = getStatistics(width, height);
+    final int windowWidth = getWindowLength(left, right, width);
+    final int windowHeight = getWindowLength(top, bottom, height);
+    if (statistics == null
+        || windowWidth < 0
+        || windowHeight < 0
+        || (windowWidth == width && windowHeight == height)) {
+      stylize(codec);
+      return;
+    }
+
+    directEngine.prepare(windowWidth, windowHeight);
+    directEngine.stylizeWindow(
+        codec,
+        statistics,
+        getWindowStart(left, windowWidth, width),
+        getWindowStart(top, windowHeight, height),
+        windowWidth,
+        windowHeight,
+        left,
+        top,
+        right,
+        bottom);
+  }
+
+  /**
+   * Stylizes every tile with weight within the region, normalized as the latest whole image's
+   * final pass was, so that the region comes out as it would have in that image.
+   */
+  private void stylizeTiles(
+      final Layout layout,
+      final PixelTensorCodec codec,
+      final int left,
+      final int top,
+      final int right,
+      final int bottom) {
+    // The tiles write to all of their pixels, so those are cleared.
+    int minX = layout.width;
+    int minY = layout.height;
+    int maxX = 0;
+    int maxY = 0;
+    for (final TileTask tile : layout.tiles) {
+      final int tileLeft = layout.columns.positions[tile.column];
+      final int tileTop = layout.rows.positions[tile.row];
+      final int tileRight = tileLeft + layout.columns.tileSize;
+      final int tileBottom = tileTop + layout.rows.tileSize;
+      tile.selected = tileLeft < right && left < tileRight && tileTop < bottom && top < tileBottom;
+      if (tile.selected) {
+        minX = Math.min(minX, tileLeft);
+        minY = Math.min(minY, tileTop);
+        maxX = Math.max(maxX, tileRight);
+        maxY = Math.max(maxY, tileBottom);
+      }
+    }
+    for (int y = minY; y < maxY; ++y) {
+      Arrays.fill(
+          accumulator,
+          (y * layout.width + minX) * NUM_CHANNELS,
+          (y * layout.width + maxX) * NUM_CHANNELS,
+          0.0f);
+    }
+
+    runTiles(layout, codec, true);
+    writeAccumulator(codec, left, top, right, bottom);
+  }
+
+  /**
+   * Returns the length of the window around [start, end) on an axis of the given size, or -1 if
+   * there is no such window the direct engine can stylize.
+   */
+  private int getWindowLength(final int start, final int end, final int size) {
+    final int alignment = network.getDownsampling();
+    final int windowStart = Math.max(0, start - margin) / alignment * alignment;
+    final int windowEnd = Math.min(size, end + margin);
+    final int length = (windowEnd - windowStart + WINDOW_STEP - 1) / WINDOW_STEP * WINDOW_STEP;
+    if (length >= size) {
+      return size <= maxDirectSize && network.supportsSize(size) ? size : -1;
+    }
+    return length <= maxDirectSize && network.supportsSize(length) ? length : -1;
+  }
+
+  /** Returns where the window of the given length around a region starting at start begins. */
+  private int getWindowStart(final int start, final int length, final int size) {
+    final int alignment = network.getDownsampling();
+    final int windowStart = Math.max(0, start - margin) / alignment * alignment;
+    // Windows which would run past the end are moved back, off the network's grid if need be.
+    return Math.min(windowStart, size - length);
+  }
+
+  @Override
+  public void close() {
+    directEngine.close();
+    for (final Worker worker : workers) {
+      worker.engine.close();
+      worker.tile = null;
+    }
+    layouts = new Layout[0];
+    directSizes = new DirectSize[0];
+    accumulator = new float[0];
+  }
+
+  /** Stylizes one tile, recording the statistics of its pixels and adding its weighted output. */
+  private void runTile(final TileTask task) {
+    final Layout layout = task.layout;
+    final PixelTensorCodec codec = currentCodec;
+    final int left = layout.columns.positions[task.column];
+    final int top = layout.rows.positions[task.row];
+    final int tileWidth = layout.columns.tileSize;
+    final int tileHeight = layout.rows.tileSize;
+
+    final Worker worker = takeWorker();
+    try {
+      final PixelTensorCodec tile = worker.getTile(tileWidth, tileHeight);
+      for (int y = 0; y < tileHeight; ++y) {
+        for (int x = 0; x < tileWidth; ++x) {
+          final int pixel = (top + y) * layout.width + left + x;
+          final int tilePixel = y * tileWidth + x;
+          for (int c = 0; c < NUM_CHANNELS; ++c) {
+            tile.setValue(
+                tile.getTensorIndex(tilePixel, c), codec.getValue(codec.getTensorIndex(pixel, c)));
+          }
+        }
+      }
+
+      task.statistics.clear();
+      worker.engine.stylize(
+          tile, normalizingPerTile ? null : layout.statistics, task.statistics);
+
+      if (accumulating) {
+        accumulate(layout, task, tile);
+      }
+    } finally {
+      idleWorkers.add(worker);
+    }
+  }
+
+  private void accumulate(final Layout layout, final TileTask task, final PixelTensorCodec tile) {
+    final int left = layout.columns.positions[task.column];
+    final int top = layout.rows.positions[task.row];
+    final int tileWidth = layout.columns.tileSize;
+    final int tileHeight = layout.rows.tileSize;
+    final float[] columnWeights = layout.columns.weights[task.column];
+    final float[] rowWeights = layout.rows.weights[task.row];
+
+    // Tiles of one phase don't overlap, so no other thread writes to these pixels.
+    for (int y = 0; y < tileHeight; ++y) {
+      if (rowWeights[y] == 0.0f) {
+        continue;
+      }
+      for (int x = 0; x < tileWidth; ++x) {
+        final float weight = rowWeights[y] * columnWeights[x];
+        if (weight == 0.0f) {
+          continue;
+        }
+        final int pixel = (top + y) * layout.width + left + x;
+        final int tilePixel = y * tileWidth + x;
+        for (int c = 0; c < NUM_CHANNELS; ++c) {
+          accumulator[pixel * NUM_CHANNELS + c] +=
+              weight * tile.getValue(tile.getTensorIndex(tilePixel, c));
+        }
+      }
+    }
+  }
+
+  /**
+   * Takes an idle worker. Normally one is free, but the pool may run more tasks at once than
+   * there are workers when some of its threads are blocked.
+   */
+  private Worker takeWorker() {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return idleWorkers.take();
+        } catch (final InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
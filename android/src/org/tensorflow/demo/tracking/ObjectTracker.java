@@ -0,0 +1,203 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.tracking;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.tensorflow.demo.env.Logger;
+
+/**
+ * Java side of the native tracker in jni/object_tracking, limited to its frame to frame optical
+ * flow. Each frame's luma is downsampled and handed to the tracker, which finds keypoints in the
+ * previous frame and follows them into the new one. Registering and tracking objects, which the
+ * native code supports as well, isn't exposed.
+ *
+ * Not thread safe. {@link #release} must be called once done, or the native tracker leaks.
+ */
+public class ObjectTracker {
+  private static final Logger LOGGER = new Logger();
+
+  private static boolean libraryFound = false;
+
+  static {
+    try {
+      System.loadLibrary("tensorflow_demo");
+      libraryFound = true;
+    } catch (UnsatisfiedLinkError e) {
+      LOGGER.w("Native library not found, optical flow is unavailable.");
+    }
+  }
+
+  /** Factor by which frames are downsampled along each axis before the flow is computed. */
+  public static final int DOWNSAMPLE_FACTOR = 2;
+
+  /**
+   * Floats per keypoint returned by {@link #getKeypoints}: x and y in the previous frame, 1 if the
+   * flow found the keypoint or -1 if not, x and y in the new frame, score and type.
+   */
+  public static final int KEYPOINT_STEP = 7;
+
+  // NUM_LOGS in jni/object_tracking/time_log.h.
+  private static final int MAX_TIME_LOG_ENTRIES = 100;
+
+  /** How long one phase of the native tracker took, see {@link #getTimeLog}. */
+  public static final class TimeLogEntry {
+    public final String id;
+    public final float lastMs;
+    public final float averageMs;
+
+    private TimeLogEntry(final String id, final float lastMs, final float averageMs) {
+      this.id = id;
+      this.lastMs = lastMs;
+      this.averageMs = averageMs;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%s: %.3fms, average %.3fms", id, lastMs, averageMs);
+    }
+  }
+
+  // Pointer to the native tracker, read and written by the native code only.
+  private long nativeObjectTracker;
+
+  private final int frameWidth;
+  private final int frameHeight;
+  private final byte[] downsampledFrame;
+
+  private byte[] frame;
+  private long lastTimestampNs = Long.MIN_VALUE;
+
+  /** Returns whether the native tracker could be loaded. */
+  public static boolean isAvailable() {
+    return libraryFound;
+  }
+
+  /**
+   * Returns the durations of the phases the native tracker times with time_log.h, in the order
+   * they run, for the latest frame and as a running average. These are the timings otherwise only
+   * printed to logcat. Empty unless the library was built with LOG_TIME.
+   */
+  public static List<TimeLogEntry> getTimeLog() {
+    final List<TimeLogEntry> entries = new ArrayList<TimeLogEntry>();
+    if (!libraryFound) {
+      return entries;
+    }
+    final String[] ids = new String[MAX_TIME_LOG_ENTRIES];
+    final float[] durations = new float[2 * MAX_TIME_LOG_ENTRIES];
+    final int count;
+    try {
+      count = Math.min(getTimeLogNative(ids, durations), MAX_TIME_LOG_ENTRIES);
+    } catch (UnsatisfiedLinkError e) {
+      // A library built before the time log could be read.
+      return entries;
+    }
+    for (int i = 0; i < count; ++i) {
+      entries.add(new TimeLogEntry(ids[i], durations[2 * i], durations[2 * i + 1]));
+    }
+    return entries;
+  }
+
+  /**
+   * @param frameWidth Width of the frames' luma plane.
+   * @param frameHeight Height of the frames' luma plane.
+   */
+  public ObjectTracker(final int frameWidth, final int frameHeight) {
+    this.frameWidth = frameWidth;
+    this.frameHeight = frameHeight;
+
+    final int downsampledWidth = (frameWidth + DOWNSAMPLE_FACTOR - 1) / DOWNSAMPLE_FACTOR;
+    final int downsampledHeight = (frameHeight + DOWNSAMPLE_FACTOR - 1) / DOWNSAMPLE_FACTOR;
+    downsampledFrame = new byte[downsampledWidth * downsampledHeight];
+    initNative(downsampledWidth, downsampledHeight, true);
+  }
+
+  /**
+   * Computes the flow from the previous frame to this one.
+   *
+   * @param luma The frame's Y plane. Its position is left unchanged.
+   * @param rowStride Row stride of the Y plane.
+   * @param timestampNs The frame's capture time.
+   * @return False if the frame was skipped because its timestamp isn't after the previous frame's.
+   */
+  public boolean nextFrame(final ByteBuffer luma, final int rowStride, final long timestampNs) {
+    // The native tracker aborts the process on timestamps which don't increase.
+    if (timestampNs <= lastTimestampNs) {
+      return false;
+    }
+    lastTimestampNs = timestampNs;
+
+    if (frame == null || frame.length < rowStride * frameHeight) {
+      frame = new byte[rowStride * frameHeight];
+    }
+    // The last row of a plane may stop short of the row stride.
+    final int position = luma.position();
+    luma.position(0);
+    luma.get(frame, 0, Math.min(luma.remaining(), frame.length));
+    luma.position(position);
+
+    downsampleImageNative(
+        frameWidth, frameHeight, rowStride, frame, DOWNSAMPLE_FACTOR, downsampledFrame);
+    nextFrameNative(downsampledFrame, null, timestampNs, null);
+    return true;
+  }
+
+  /**
+   * Returns the keypoints followed into the latest frame, {@link #KEYPOINT_STEP} floats each, with
+   * positions in the frame's pixels.
+   *
+   * @param onlyFound Whether to leave out the keypoints the flow lost.
+   */
+  public float[] getKeypoints(final boolean onlyFound) {
+    final float[] keypoints = getKeypointsNative(onlyFound);
+    if (keypoints == null) {
+      return new float[0];
+    }
+    for (int i = 0; i < keypoints.length; i += KEYPOINT_STEP) {
+      keypoints[i] *= DOWNSAMPLE_FACTOR;
+      keypoints[i + 1] *= DOWNSAMPLE_FACTOR;
+      keypoints[i + 3] *= DOWNSAMPLE_FACTOR;
+      keypoints[i + 4] *= DOWNSAMPLE_FACTOR;
+    }
+    return keypoints;
+  }
+
+  /** Frees the native tracker. The tracker can't be used afterwards. */
+  public void release() {
+    if (nativeObjectTracker != 0) {
+      releaseMemoryNative();
+    }
+  }
+
+  private native void initNative(int width, int height, boolean alwaysTrack);
+
+  private native void releaseMemoryNative();
+
+  private native void nextFrameNative(
+      byte[] frameData, byte[] uvData, long timestamp, float[] frameAlignMatrix);
+
+  private native float[] getKeypointsNative(boolean onlyReturnCorrespondingKeypoints);
+
+  private native void downsampleImageNative(
+      int width, int height, int rowStride, byte[] input, int factor, byte[] output);
+
+  /**
+   * Fills the ids and the latest and average duration in ms of each phase in the time log, as many
+   * as fit. Returns the number of phases.
+   */
+  private static native int getTimeLogNative(String[] ids, float[] durations);
+}
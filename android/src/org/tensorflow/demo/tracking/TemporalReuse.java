@@ -0,0 +1,421 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.tracking;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Decides which camera frames to stylize, so that the frames in between can be shown by warping
+ * the latest stylized frame, the keyframe, along with the camera's motion.
+ *
+ * The motion between two frames is the affine transform which best fits the optical flow of the
+ * {@link ObjectTracker}'s keypoints, leaving out those that move on their own. Chaining these
+ * gives each frame a pose, the transform from the first frame of its tracking segment into it, so
+ * that a frame can be warped from any keyframe of the same segment. A new segment starts whenever
+ * the flow loses track.
+ *
+ * A frame is stylized once the refresh interval is up, when the flow loses track, or when the
+ * drift since the latest keyframe gets too large. The drift adds up how far the flow strayed
+ * from the fitted motion on every frame since, which grows with motion a warp can't follow, to
+ * how far the motion moved the frame's corners, which grows with the part of the view the keyframe
+ * doesn't cover. It is measured as a fraction of the frame's shorter side.
+ *
+ * Transforms are row-major 2x3 affine transforms {a, b, c, d, e, f} mapping (x, y) onto
+ * (a * x + b * y + c, d * x + e * y + f), in the frame's pixels. Not thread safe, except for
+ * {@link #requestRefresh} and {@link #toString}.
+ */
+public class TemporalReuse {
+  // Fewest keypoints the motion is fitted to.
+  private static final int MIN_KEYPOINTS = 12;
+
+  // Keypoints further from the first fit than this many times the median distance, and at least
+  // MIN_OUTLIER_DISTANCE pixels, are left out of the second.
+  private static final float OUTLIER_FACTOR = 3.0f;
+  private static final float MIN_OUTLIER_DISTANCE = 1.0f;
+
+  private static final float[] IDENTITY = {1.0f, 0.0f, 0.0f, 0.0f, 1.0f, 0.0f};
+
+  private final ObjectTracker tracker;
+  private final int frameWidth;
+  private final int frameHeight;
+  private final int refreshInterval;
+  private final float maxDrift;
+
+  private final float[] pose = new float[6];
+  private final float[] keyframeInverse = new float[6];
+  private final float[] frameMotion = new float[6];
+  private final float[] keyframeMotion = new float[6];
+
+  // Distances of the keypoints from the fitted motion, and a copy to find their median in.
+  private float[] distances = new float[0];
+  private float[] sortedDistances = new float[0];
+
+  private int segment;
+  private int framesSinceKeyframe;
+  private float residualSum;
+  private int numKeypoints;
+
+  private volatile boolean refreshRequested;
+
+  private int numFrames;
+  private int numReused;
+  private int numScheduled;
+  private int numDrifted;
+  private int numLost;
+  private int numRequested;
+
+  private volatile String summary = "";
+
+  /**
+   * @param frameWidth Width of the camera frames.
+   * @param frameHeight Height of the camera frames.
+   * @param refreshInterval Stylize at least every this many frames.
+   * @param maxDrift Drift at which a frame is stylized regardless of the interval.
+   */
+  public TemporalReuse(
+      final int frameWidth,
+      final int frameHeight,
+      final int refreshInterval,
+      final float maxDrift) {
+    this(new ObjectTracker(frameWidth, frameHeight), frameWidth, frameHeight, refreshInterval,
+        maxDrift);
+  }
+
+  // Package-private for tests, which feed keypoints without a tracker.
+  TemporalReuse(
+      final ObjectTracker tracker,
+      final int frameWidth,
+      final int frameHeight,
+      final int refreshInterval,
+      final float maxDrift) {
+    if (refreshInterval < 1 || maxDrift <= 0.0f) {
+      throw new IllegalArgumentException(
+          "Invalid refresh interval " + refreshInterval + " or drift " + maxDrift);
+    }
+    this.tracker = tracker;
+    this.frameWidth = frameWidth;
+    this.frameHeight = frameHeight;
+    this.refreshInterval = refreshInterval;
+    this.maxDrift = maxDrift;
+    setIdentity(pose);
+    setIdentity(keyframeInverse);
+  }
+
+  /**
+   * Tracks the next camera frame and decides whether to stylize it.
+   *
+   * @param luma The frame's Y plane. Its position is left unchanged.
+   * @param rowStride Row stride of the Y plane.
+   * @param timestampNs The frame's capture time.
+   * @return True if the frame should be stylized and become the keyframe, false if it can be
+   *     warped from the latest keyframe.
+   */
+  public boolean nextFrame(final ByteBuffer luma, final int rowStride, final long timestampNs) {
+    return nextFrame(
+        tracker.nextFrame(luma, rowStride, timestampNs) ? tracker.getKeypoints(true) : null);
+  }
+
+  /**
+   * Decides whether to stylize the next frame given its keypoints, as returned by {@link
+   * ObjectTracker#getKeypoints}, or null if the tracker skipped it.
+   */
+  boolean nextFrame(final float[] keypoints) {
+    ++numFrames;
+    float residual = -1.0f;
+    numKeypoints = 0;
+    if (keypoints != null) {
+      residual = fitMotion(keypoints, frameMotion);
+    }
+
+    final boolean tracked = residual >= 0.0f;
+    if (tracked) {
+      concat(frameMotion, pose, pose);
+    } else {
+      // Poses from before aren't related to the ones to come.
+      ++segment;
+      setIdentity(pose);
+    }
+
+    boolean keyframe = true;
+    if (refreshRequested) {
+      refreshRequested = false;
+      ++numRequested;
+    } else if (!tracked) {
+      ++numLost;
+    } else if (framesSinceKeyframe + 1 >= refreshInterval) {
+      ++numScheduled;
+    } else {
+      residualSum += residual;
+      concat(pose, keyframeInverse, keyframeMotion);
+      final float displacement = getCornerDisplacement(keyframeMotion);
+      final float drift = (residualSum + displacement) / Math.min(frameWidth, frameHeight);
+      if (drift > maxDrift) {
+        ++numDrifted;
+      } else {
+        keyframe = false;
+      }
+    }
+
+    if (keyframe) {
+      concatInverse(pose, IDENTITY, keyframeInverse);
+      framesSinceKeyframe = 0;
+      residualSum = 0.0f;
+      updateSummary();
+    } else {
+      ++framesSinceKeyframe;
+      ++numReused;
+    }
+    return keyframe;
+  }
+
+  /** Makes the next frame a keyframe, e.g. because the latest one was never shown. */
+  public void requestRefresh() {
+    refreshRequested = true;
+  }
+
+  /** Returns the tracking segment of the latest frame. Poses of different segments don't relate. */
+  public int getSegment() {
+    return segment;
+  }
+
+  /** Copies the latest frame's pose into the given array. */
+  public void getPose(final float[] result) {
+    System.arraycopy(pose, 0, result, 0, pose.length);
+  }
+
+  /** Frees the native tracker. */
+  public void release() {
+    tracker.release();
+  }
+
+  /**
+   * Computes the warp from a keyframe's crop onto a later frame's crop.
+   *
+   * @param keyframePose Pose of the keyframe.
+   * @param framePose Pose of the frame, in the same segment.
+   * @param cropToFrame Mapping from the crop into the camera frame, as passed to {@link
+   *     org.tensorflow.demo.env.ImageUtils#convertYUV420ToTensor}.
+   * @param warp Receives the mapping from the keyframe's crop to the frame's crop.
+   */
+  public static void getCropWarp(
+      final float[] keyframePose,
+      final float[] framePose,
+      final float[] cropToFrame,
+      final float[] warp) {
+    concatInverse(keyframePose, cropToFrame, warp);
+    concat(framePose, warp, warp);
+    concatInverse(cropToFrame, warp, warp);
+  }
+
+  /**
+   * Fits the motion to the keypoints in two passes, the second without the outliers of the first.
+   * Returns the RMS distance of the inliers from the motion, or -1 if too few were found.
+   */
+  private float fitMotion(final float[] keypoints, final float[] motion) {
+    final int count = keypoints.length / ObjectTracker.KEYPOINT_STEP;
+    numKeypoints = count;
+    if (count < MIN_KEYPOINTS) {
+      return -1.0f;
+    }
+    if (distances.length < count) {
+      distances = new float[count];
+      sortedDistances = new float[count];
+    }
+
+    Arrays.fill(distances, 0, count, 0.0f);
+    if (!fitAffine(keypoints, count, Float.POSITIVE_INFINITY, motion)) {
+      return -1.0f;
+    }
+    measureDistances(keypoints, count, motion);
+    System.arraycopy(distances, 0, sortedDistances, 0, count);
+    Arrays.sort(sortedDistances, 0, count);
+    final float maxDistance =
+        Math.max(OUTLIER_FACTOR * sortedDistances[count / 2], MIN_OUTLIER_DISTANCE);
+
+    if (!fitAffine(keypoints, count, maxDistance, motion)) {
+      return -1.0f;
+    }
+    int numInliers = 0;
+    float squareSum = 0.0f;
+    for (int i = 0; i < count; ++i) {
+      if (distances[i] <= maxDistance) {
+        final float distance = getDistance(keypoints, i, motion);
+        squareSum += distance * distance;
+        ++numInliers;
+      }
+    }
+    return (float) Math.sqrt(squareSum / numInliers);
+  }
+
+  /**
+   * Least squares fit of the motion to the keypoints whose distance is at most the given one.
+   * Returns false if there are too few of them, or they are all on a line.
+   */
+  private boolean fitAffine(
+      final float[] keypoints, final int count, final float maxDistance, final float[] motion) {
+    int n = 0;
+    double meanX = 0.0;
+    double meanY = 0.0;
+    double meanU = 0.0;
+    double meanV = 0.0;
+    for (int i = 0; i < count; ++i) {
+      if (distances[i] <= maxDistance) {
+        final int base = i * ObjectTracker.KEYPOINT_STEP;
+        meanX += keypoints[base];
+        meanY += keypoints[base + 1];
+        meanU += keypoints[base + 3];
+        meanV += keypoints[base + 4];
+        ++n;
+      }
+    }
+    if (n < MIN_KEYPOINTS) {
+      return false;
+    }
+    meanX /= n;
+    meanY /= n;
+    meanU /= n;
+    meanV /= n;
+
+    // With the previous positions centered, the translation separates from the linear part.
+    double sxx = 0.0;
+    double sxy = 0.0;
+    double syy = 0.0;
+    double sxu = 0.0;
+    double syu = 0.0;
+    double sxv = 0.0;
+    double syv = 0.0;
+    for (int i = 0; i < count; ++i) {
+      if (distances[i] <= maxDistance) {
+        final int base = i * ObjectTracker.KEYPOINT_STEP;
+        final double x = keypoints[base] - meanX;
+        final double y = keypoints[base + 1] - meanY;
+        final double u = keypoints[base + 3] - meanU;
+        final double v = keypoints[base + 4] - meanV;
+        sxx += x * x;
+        sxy += x * y;
+        syy += y * y;
+        sxu += x * u;
+        syu += y * u;
+        sxv += x * v;
+        syv += y * v;
+      }
+    }
+    final double det = sxx * syy - sxy * sxy;
+    if (det <= 1e-6 * (sxx + syy) * (sxx + syy)) {
+      return false;
+    }
+
+    final double a = (syy * sxu - sxy * syu) / det;
+    final double b = (sxx * syu - sxy * sxu) / det;
+    final double d = (syy * sxv - sxy * syv) / det;
+    final double e = (sxx * syv - sxy * sxv) / det;
+    motion[0] = (float) a;
+    motion[1] = (float) b;
+    motion[2] = (float) (meanU - a * meanX - b * meanY);
+    motion[3] = (float) d;
+    motion[4] = (float) e;
+    motion[5] = (float) (meanV - d * meanX - e * meanY);
+    return true;
+  }
+
+  private void measureDistances(final float[] keypoints, final int count, final float[] motion) {
+    for (int i = 0; i < count; ++i) {
+      distances[i] = getDistance(keypoints, i, motion);
+    }
+  }
+
+  /** Returns how far the keypoint's new position is from where the motion puts it. */
+  private static float getDistance(final float[] keypoints, final int index, final float[] motion) {
+    final int base = index * ObjectTracker.KEYPOINT_STEP;
+    final float x = keypoints[base];
+    final float y = keypoints[base + 1];
+    final float dx = motion[0] * x + motion[1] * y + motion[2] - keypoints[base + 3];
+    final float dy = motion[3] * x + motion[4] * y + motion[5] - keypoints[base + 4];
+    return (float) Math.sqrt(dx * dx + dy * dy);
+  }
+
+  /** Returns the farthest the motion moves any of the frame's corners. */
+  private float getCornerDisplacement(final float[] motion) {
+    float maxDisplacement = 0.0f;
+    for (int corner = 0; corner < 4; ++corner) {
+      final float x = (corner & 1) * frameWidth;
+      final float y = (corner >> 1) * frameHeight;
+      final float dx = motion[0] * x + motion[1] * y + motion[2] - x;
+      final float dy = motion[3] * x + motion[4] * y + motion[5] - y;
+      maxDisplacement = Math.max(maxDisplacement, (float) Math.sqrt(dx * dx + dy * dy));
+    }
+    return maxDisplacement;
+  }
+
+  private static void setIdentity(final float[] transform) {
+    System.arraycopy(IDENTITY, 0, transform, 0, IDENTITY.length);
+  }
+
+  /** Sets result to applying second, then first. Result may be either of them. */
+  private static void concat(final float[] first, final float[] second, final float[] result) {
+    concat(first[0], first[1], first[2], first[3], first[4], first[5], second, result);
+  }
+
+  /** Sets result to applying second, then the inverse of first. Result may be either of them. */
+  private static void concatInverse(
+      final float[] first, final float[] second, final float[] result) {
+    final float det = first[0] * first[4] - first[1] * first[3];
+    final float a = first[4] / det;
+    final float b = -first[1] / det;
+    final float d = -first[3] / det;
+    final float e = first[0] / det;
+    concat(
+        a, b, -(a * first[2] + b * first[5]), d, e, -(d * first[2] + e * first[5]), second, result);
+  }
+
+  private static void concat(
+      final float a,
+      final float b,
+      final float c,
+      final float d,
+      final float e,
+      final float f,
+      final float[] second,
+      final float[] result) {
+    final float a2 = second[0];
+    final float b2 = second[1];
+    final float c2 = second[2];
+    final float d2 = second[3];
+    final float e2 = second[4];
+    final float f2 = second[5];
+    result[0] = a * a2 + b * d2;
+    result[1] = a * b2 + b * e2;
+    result[2] = a * c2 + b * f2 + c;
+    result[3] = d * a2 + e * d2;
+    result[4] = d * b2 + e * e2;
+    result[5] = d * c2 + e * f2 + f;
+  }
+
+  private void updateSummary() {
+    summary =
+        String.format(
+            "%d of %d reused, %d keypoints, segment %d; refreshed %d scheduled, %d drifted,"
+                + " %d lost, %d requested",
+            numReused, numFrames, numKeypoints, segment, numScheduled, numDrifted, numLost,
+            numRequested);
+  }
+
+  @Override
+  public String toString() {
+    return summary;
+  }
+}
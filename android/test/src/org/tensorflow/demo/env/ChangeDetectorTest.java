@@ -0,0 +1,116 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+import static org.junit.Assert.assertEquals;
+
+import android.graphics.Rect;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import org.junit.Test;
+import org.tensorflow.demo.env.ChangeDetector.Decision;
+
+public class ChangeDetectorTest {
+  // A 64x64 crop of the top left of a wider frame, in 4x4 pixel cells.
+  private static final int FRAME_WIDTH = 80;
+  private static final int FRAME_HEIGHT = 64;
+  private static final int CROP_SIZE = 64;
+  private static final float[] CROP_TO_FRAME = {1.0f, 0.0f, 0.0f, 0.0f, 1.0f, 0.0f};
+
+  private final byte[] luma = new byte[FRAME_WIDTH * FRAME_HEIGHT];
+  private final Rect region = new Rect();
+
+  private Decision detect(final ChangeDetector detector) {
+    return detector.detect(
+        ByteBuffer.wrap(luma), FRAME_WIDTH, FRAME_WIDTH, FRAME_HEIGHT, CROP_TO_FRAME, CROP_SIZE,
+        region);
+  }
+
+  private void fill(final int left, final int top, final int right, final int bottom, final int y) {
+    for (int row = top; row < bottom; ++row) {
+      Arrays.fill(luma, row * FRAME_WIDTH + left, row * FRAME_WIDTH + right, (byte) y);
+    }
+  }
+
+  private void assertRegion(final int left, final int top, final int right, final int bottom) {
+    assertEquals(left, region.left);
+    assertEquals(top, region.top);
+    assertEquals(right, region.right);
+    assertEquals(bottom, region.bottom);
+  }
+
+  @Test
+  public void reusesUnchangedFramesAndStylizesChangedRegions() {
+    final ChangeDetector detector = new ChangeDetector(8.0f, 0.25f);
+    fill(0, 0, FRAME_WIDTH, FRAME_HEIGHT, 100);
+    assertEquals(Decision.FULL, detect(detector));
+    assertRegion(0, 0, CROP_SIZE, CROP_SIZE);
+    assertEquals(Decision.REUSE, detect(detector));
+
+    // Changes outside the crop don't count.
+    fill(CROP_SIZE, 0, FRAME_WIDTH, FRAME_HEIGHT, 200);
+    assertEquals(Decision.REUSE, detect(detector));
+
+    // A change across two by two cells, which is stylized on its own and then reused.
+    fill(18, 10, 22, 14, 200);
+    assertEquals(Decision.PARTIAL, detect(detector));
+    assertRegion(16, 8, 24, 16);
+    assertEquals(Decision.REUSE, detect(detector));
+
+    // Changes in two corners span more than a quarter of the crop.
+    fill(0, 0, 4, 4, 0);
+    fill(60, 60, 64, 64, 0);
+    assertEquals(Decision.FULL, detect(detector));
+    assertRegion(0, 0, CROP_SIZE, CROP_SIZE);
+    assertEquals(6, detector.getFrameCount());
+  }
+
+  @Test
+  public void slowChangesAddUp() {
+    final ChangeDetector detector = new ChangeDetector(8.0f, 0.25f);
+    fill(0, 0, FRAME_WIDTH, FRAME_HEIGHT, 100);
+    assertEquals(Decision.FULL, detect(detector));
+    fill(0, 0, 4, 4, 105);
+    assertEquals(Decision.REUSE, detect(detector));
+    fill(0, 0, 4, 4, 110);
+    assertEquals(Decision.PARTIAL, detect(detector));
+    assertRegion(0, 0, 4, 4);
+  }
+
+  @Test
+  public void stylizesWholeAfterAReset() {
+    final ChangeDetector detector = new ChangeDetector(8.0f, 0.25f);
+    fill(0, 0, FRAME_WIDTH, FRAME_HEIGHT, 100);
+    assertEquals(Decision.FULL, detect(detector));
+    detector.reset();
+    assertEquals(Decision.FULL, detect(detector));
+    assertEquals(Decision.REUSE, detect(detector));
+  }
+
+  @Test
+  public void aZeroPartialAreaStylizesEveryChangeWhole() {
+    final ChangeDetector detector = new ChangeDetector(8.0f, 0.0f);
+    fill(0, 0, FRAME_WIDTH, FRAME_HEIGHT, 100);
+    assertEquals(Decision.FULL, detect(detector));
+    fill(0, 0, 4, 4, 200);
+    assertEquals(Decision.FULL, detect(detector));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsAThresholdOfZero() {
+    new ChangeDetector(0.0f, 0.25f);
+  }
+}
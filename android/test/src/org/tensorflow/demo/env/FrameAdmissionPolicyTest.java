@@ -0,0 +1,104 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.os.SystemClock;
+import org.junit.Test;
+import org.tensorflow.demo.env.FrameAdmissionPolicy.DropReason;
+
+public class FrameAdmissionPolicyTest {
+  @Test
+  public void parsesEverySpec() {
+    assertEquals("latest: 0 in, 0 dropped", FrameAdmissionPolicy.parse("latest").toString());
+    assertEquals("every 3: 0 in, 0 dropped", FrameAdmissionPolicy.parse("every:3").toString());
+    assertEquals(
+        "deadline 250ms: 0 in, 0 dropped", FrameAdmissionPolicy.parse(" deadline:250 ").toString());
+    assertEquals(
+        "throughput 4: 0 in, 0 dropped", FrameAdmissionPolicy.parse("throughput:4").toString());
+  }
+
+  @Test
+  public void rejectsInvalidSpecs() {
+    for (final String spec :
+        new String[] {"", "newest", "latest:1", "every", "every:x", "every:0", "deadline:-5"}) {
+      try {
+        FrameAdmissionPolicy.parse(spec);
+        fail("Parsed " + spec);
+      } catch (final IllegalArgumentException e) {
+        // Expected.
+      }
+    }
+  }
+
+  @Test
+  public void latestWinsReplacesWaitingFrames() {
+    final FrameAdmissionPolicy policy = FrameAdmissionPolicy.latestWins();
+    assertTrue(policy.replacesWaitingFrames());
+    assertEquals(1, policy.getQueueCapacity());
+    assertTrue(policy.admit(0));
+    assertTrue(policy.keep(0));
+  }
+
+  @Test
+  public void everyNthAdmitsOneFrameInN() {
+    final FrameAdmissionPolicy policy = FrameAdmissionPolicy.everyNth(3);
+    int admitted = 0;
+    for (int i = 0; i < 9; ++i) {
+      if (policy.admit(i)) {
+        ++admitted;
+        assertEquals("Frame " + i, 0, i % 3);
+      }
+    }
+    assertEquals(3, admitted);
+    assertEquals(3, policy.getAdmittedCount());
+    assertEquals(6, policy.getDroppedCount(DropReason.SKIPPED));
+    assertEquals("every 3: 3 in, 6 dropped, skipped 6", policy.toString());
+  }
+
+  @Test
+  public void deadlineDropsFramesPastTheirAge() {
+    final FrameAdmissionPolicy policy = FrameAdmissionPolicy.deadline(100);
+    final long now = SystemClock.elapsedRealtimeNanos();
+    assertTrue(policy.admit(now));
+    assertTrue(policy.keep(now));
+
+    assertFalse(policy.keep(now - 200 * 1000000L));
+    assertEquals(1, policy.getDroppedCount(DropReason.STALE));
+    assertEquals(1, policy.getAdmittedCount());
+  }
+
+  @Test
+  public void throughputQueuesFramesWithoutReplacingThem() {
+    final FrameAdmissionPolicy policy = FrameAdmissionPolicy.throughput(4);
+    assertEquals(4, policy.getQueueCapacity());
+    assertFalse(policy.replacesWaitingFrames());
+  }
+
+  @Test
+  public void countsDropsRecordedOutsideThePolicy() {
+    final FrameAdmissionPolicy policy = FrameAdmissionPolicy.latestWins();
+    policy.recordDrop(DropReason.BUSY);
+    policy.recordDrop(DropReason.SUPERSEDED);
+    policy.recordDrop(DropReason.SUPERSEDED);
+    assertEquals(3, policy.getDroppedCount());
+    assertEquals("latest: 0 in, 3 dropped, busy 1, superseded 2", policy.toString());
+  }
+}
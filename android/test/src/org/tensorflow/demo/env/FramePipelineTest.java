@@ -0,0 +1,259 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+public class FramePipelineTest {
+  private final BlockingQueue<Integer> recycled = new LinkedBlockingQueue<Integer>();
+
+  private final FramePipeline.Recycler<Integer> recycler =
+      new FramePipeline.Recycler<Integer>() {
+        @Override
+        public void recycle(final Integer item) {
+          recycled.add(item);
+        }
+      };
+
+  private FramePipeline<Integer> pipeline;
+
+  @After
+  public void tearDown() {
+    if (pipeline != null) {
+      pipeline.stop();
+    }
+  }
+
+  /** A stage which records the items it sees and drops those the filter rejects. */
+  private static class RecordingProcessor implements FramePipeline.Processor<Integer> {
+    final List<Integer> items = Collections.synchronizedList(new ArrayList<Integer>());
+    private final int dropMultiple;
+
+    RecordingProcessor(final int dropMultiple) {
+      this.dropMultiple = dropMultiple;
+    }
+
+    @Override
+    public boolean process(final Integer item) {
+      items.add(item);
+      return dropMultiple == 0 || item % dropMultiple != 0;
+    }
+  }
+
+  /** Blocks every item until released, to keep items queued up behind it. */
+  private static class BlockingProcessor implements FramePipeline.Processor<Integer> {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+
+    @Override
+    public boolean process(final Integer item) {
+      started.countDown();
+      try {
+        release.await();
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return true;
+    }
+  }
+
+  private List<Integer> takeRecycled(final int count) throws InterruptedException {
+    final List<Integer> items = new ArrayList<Integer>();
+    for (int i = 0; i < count; ++i) {
+      final Integer item = recycled.poll(5, TimeUnit.SECONDS);
+      if (item == null) {
+        fail("Only " + items + " were recycled");
+      }
+      items.add(item);
+    }
+    return items;
+  }
+
+  @Test
+  public void itemsRunThroughEveryStageInOrder() throws Exception {
+    pipeline = new FramePipeline<Integer>("test", 10, recycler);
+    final RecordingProcessor first = new RecordingProcessor(0);
+    final RecordingProcessor second = new RecordingProcessor(0);
+    pipeline.addStage("first", first);
+    pipeline.addStage("second", second);
+    pipeline.start();
+
+    for (int i = 0; i < 5; ++i) {
+      assertTrue(pipeline.submit(i));
+    }
+
+    assertEquals(Arrays.asList(0, 1, 2, 3, 4), takeRecycled(5));
+    assertEquals(Arrays.asList(0, 1, 2, 3, 4), first.items);
+    assertEquals(Arrays.asList(0, 1, 2, 3, 4), second.items);
+    assertEquals(5, pipeline.getStages().get(1).getProcessedCount());
+  }
+
+  @Test
+  public void droppedItemsSkipLaterStagesAndAreRecycled() throws Exception {
+    pipeline = new FramePipeline<Integer>("test", 10, recycler);
+    final RecordingProcessor first = new RecordingProcessor(2);
+    final RecordingProcessor second = new RecordingProcessor(0);
+    pipeline.addStage("first", first);
+    pipeline.addStage("second", second);
+    pipeline.start();
+
+    for (int i = 1; i <= 6; ++i) {
+      assertTrue(pipeline.submit(i));
+    }
+
+    final List<Integer> items = takeRecycled(6);
+    Collections.sort(items);
+    assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6), items);
+    assertEquals(Arrays.asList(1, 3, 5), second.items);
+  }
+
+  @Test
+  public void failingStageDropsTheItem() throws Exception {
+    pipeline = new FramePipeline<Integer>("test", 10, recycler);
+    final RecordingProcessor second = new RecordingProcessor(0);
+    pipeline.addStage(
+        "failing",
+        new FramePipeline.Processor<Integer>() {
+          @Override
+          public boolean process(final Integer item) {
+            if (item == 1) {
+              throw new IllegalStateException("Expected by the test");
+            }
+            return true;
+          }
+        });
+    pipeline.addStage("second", second);
+    pipeline.start();
+
+    pipeline.submit(1);
+    pipeline.submit(2);
+
+    takeRecycled(2);
+    assertEquals(Arrays.asList(2), second.items);
+  }
+
+  @Test
+  public void submitRefusesItemsWhenFullOrStopped() throws Exception {
+    pipeline = new FramePipeline<Integer>("test", 1, recycler);
+    assertFalse("Not started", pipeline.submit(0));
+
+    final BlockingProcessor blocking = new BlockingProcessor();
+    pipeline.addStage("blocking", blocking);
+    pipeline.start();
+    assertTrue(pipeline.submit(1));
+    assertTrue(blocking.started.await(5, TimeUnit.SECONDS));
+    assertTrue(pipeline.submit(2));
+    assertFalse("Queue full", pipeline.submit(3));
+
+    blocking.release.countDown();
+    assertEquals(Arrays.asList(1, 2), takeRecycled(2));
+    pipeline.stop();
+    assertFalse("Stopped", pipeline.submit(4));
+  }
+
+  @Test
+  public void submitReplacingHandsBackTheOldestWaitingItem() throws Exception {
+    pipeline = new FramePipeline<Integer>("test", 2, recycler);
+    final BlockingProcessor blocking = new BlockingProcessor();
+    pipeline.addStage("blocking", blocking);
+    pipeline.start();
+    assertNull(pipeline.submitReplacing(1));
+    assertTrue(blocking.started.await(5, TimeUnit.SECONDS));
+    assertNull(pipeline.submitReplacing(2));
+    assertNull(pipeline.submitReplacing(3));
+
+    assertEquals(Integer.valueOf(2), pipeline.submitReplacing(4));
+
+    blocking.release.countDown();
+    assertEquals(Arrays.asList(1, 3, 4), takeRecycled(3));
+  }
+
+  @Test
+  public void stopRecyclesItemsStillInThePipeline() throws Exception {
+    pipeline = new FramePipeline<Integer>("test", 5, recycler);
+    final BlockingProcessor blocking = new BlockingProcessor();
+    pipeline.addStage("blocking", blocking);
+    pipeline.addStage("second", new RecordingProcessor(0));
+    pipeline.start();
+    for (int i = 0; i < 4; ++i) {
+      assertTrue(pipeline.submit(i));
+    }
+    assertTrue(blocking.started.await(5, TimeUnit.SECONDS));
+
+    pipeline.stop();
+
+    final List<Integer> items = new ArrayList<Integer>(recycled);
+    Collections.sort(items);
+    assertEquals(Arrays.asList(0, 1, 2, 3), items);
+  }
+
+  @Test
+  public void tracerIsToldAboutEveryStage() throws Exception {
+    pipeline = new FramePipeline<Integer>("test", 5, recycler);
+    pipeline.addStage("first", new RecordingProcessor(0));
+    pipeline.addStage("second", new RecordingProcessor(0));
+    final List<String> traced = Collections.synchronizedList(new ArrayList<String>());
+    pipeline.setTracer(
+        new FramePipeline.Tracer<Integer>() {
+          @Override
+          public void onProcessed(
+              final String stageName, final Integer item, final long startNs, final long endNs) {
+            assertTrue(endNs >= startNs);
+            traced.add(stageName + item);
+          }
+        });
+    pipeline.start();
+
+    pipeline.submit(7);
+
+    takeRecycled(1);
+    assertEquals(Arrays.asList("first7", "second7"), traced);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void stagesCantBeAddedOnceStarted() {
+    pipeline = new FramePipeline<Integer>("test", 1, recycler);
+    pipeline.addStage("first", new RecordingProcessor(0));
+    pipeline.start();
+    pipeline.addStage("second", new RecordingProcessor(0));
+  }
+
+  @Test
+  public void stagesKeepTheirOwnQueueCapacity() {
+    pipeline = new FramePipeline<Integer>("test", 1, recycler);
+    final FramePipeline<Integer>.Stage stage =
+        pipeline.addStage("first", 3, new RecordingProcessor(0));
+    assertSame(stage, pipeline.getStages().get(0));
+    assertEquals("first", stage.getName());
+    assertEquals(0, stage.getQueueDepth());
+  }
+}
@@ -0,0 +1,301 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+/**
+ * Checks the fused YUV -> tensor conversion against the path it replaced: converting the whole
+ * frame to ARGB, drawing it into the crop through {@link ImageUtils#getTransformationMatrix}
+ * without filtering, and encoding the crop. The matrix and the nearest-neighbour sampling of
+ * Canvas.drawBitmap are modelled here in double precision, since android.graphics isn't available
+ * on the JVM.
+ *
+ * <p>The tolerance: every tensor element must equal the reference exactly, except where a sample
+ * point falls within {@link #EDGE_TOLERANCE} pixels of a source pixel edge. There float rounding
+ * in either path may pick the pixel on either side, and both are accepted.
+ */
+public class ImageUtilsTest {
+  private static final int WIDTH = 160;
+  private static final int HEIGHT = 91;
+  private static final int ROW_STRIDE = WIDTH + 16;
+
+  private static final double EDGE_TOLERANCE = 1.0e-3;
+
+  private static final int[] ROTATIONS = {0, 90, 180, 270};
+  private static final int[][] CROP_SIZES = {{32, 32}, {45, 45}, {64, 64}, {40, 24}, {160, 91}};
+
+  private final byte[] yData = new byte[ROW_STRIDE * HEIGHT];
+  // Interleaved chroma, V a byte ahead of U, as most cameras deliver it.
+  private final byte[] uData;
+  private final byte[] vData;
+  private final int[] frame = new int[WIDTH * HEIGHT];
+
+  public ImageUtilsTest() {
+    final Random random = new Random(0);
+    random.nextBytes(yData);
+    final byte[] chroma = new byte[ROW_STRIDE * ((HEIGHT + 1) / 2)];
+    random.nextBytes(chroma);
+    uData = Arrays.copyOf(chroma, chroma.length - 1);
+    vData = Arrays.copyOfRange(chroma, 1, chroma.length);
+    ImageUtils.convertYUV420ToARGB8888(
+        yData, uData, vData, WIDTH, HEIGHT, ROW_STRIDE, ROW_STRIDE, 2, frame);
+  }
+
+  /**
+   * Returns the row-major 2x3 affine transform built by the same steps as
+   * {@link ImageUtils#getTransformationMatrix}, with android.graphics.Matrix's post-concatenation
+   * and clockwise rotation.
+   */
+  private static double[] getFrameToCrop(
+      final int dstWidth, final int dstHeight, final int rotation, final boolean maintainAspect) {
+    double[] m = {1, 0, 0, 0, 1, 0};
+    if (rotation != 0) {
+      m = post(m, new double[] {1, 0, -WIDTH / 2.0, 0, 1, -HEIGHT / 2.0});
+      final double radians = Math.toRadians(rotation);
+      final double cos = Math.cos(radians);
+      final double sin = Math.sin(radians);
+      m = post(m, new double[] {cos, -sin, 0, sin, cos, 0});
+    }
+
+    final boolean transpose = (rotation + 90) % 180 == 0;
+    final int inWidth = transpose ? HEIGHT : WIDTH;
+    final int inHeight = transpose ? WIDTH : HEIGHT;
+    if (inWidth != dstWidth || inHeight != dstHeight) {
+      double scaleX = dstWidth / (double) inWidth;
+      double scaleY = dstHeight / (double) inHeight;
+      if (maintainAspect) {
+        scaleX = scaleY = Math.max(scaleX, scaleY);
+      }
+      m = post(m, new double[] {scaleX, 0, 0, 0, scaleY, 0});
+    }
+
+    if (rotation != 0) {
+      m = post(m, new double[] {1, 0, dstWidth / 2.0, 0, 1, dstHeight / 2.0});
+    }
+    return m;
+  }
+
+  /** Returns t * m, i.e. m followed by t. */
+  private static double[] post(final double[] m, final double[] t) {
+    return new double[] {
+      t[0] * m[0] + t[1] * m[3],
+      t[0] * m[1] + t[1] * m[4],
+      t[0] * m[2] + t[1] * m[5] + t[2],
+      t[3] * m[0] + t[4] * m[3],
+      t[3] * m[1] + t[4] * m[4],
+      t[3] * m[2] + t[4] * m[5] + t[5]
+    };
+  }
+
+  private static double[] invert(final double[] m) {
+    final double det = m[0] * m[4] - m[1] * m[3];
+    final double a = m[4] / det;
+    final double b = -m[1] / det;
+    final double d = -m[3] / det;
+    final double e = m[0] / det;
+    return new double[] {a, b, -a * m[2] - b * m[5], d, e, -d * m[2] - e * m[5]};
+  }
+
+  /** Returns the source column or row nearest sampling picks, and any it may pick instead. */
+  private static int[] candidates(final double coordinate, final int limit) {
+    final int nearest = (int) Math.floor(coordinate);
+    final double fraction = coordinate - nearest;
+    final int other;
+    if (fraction < EDGE_TOLERANCE) {
+      other = nearest - 1;
+    } else if (fraction > 1.0 - EDGE_TOLERANCE) {
+      other = nearest + 1;
+    } else {
+      return new int[] {clamp(nearest, limit)};
+    }
+    return new int[] {clamp(nearest, limit), clamp(other, limit)};
+  }
+
+  private static int clamp(final int value, final int limit) {
+    // Only sample points on the very edge of the frame can land outside it.
+    return Math.min(limit - 1, Math.max(0, value));
+  }
+
+  private static float valueAt(final PixelTensorCodec codec, final int index) {
+    return codec.getDataType() == PixelTensorCodec.DataType.FLOAT32
+        ? codec.getTensor().get(index)
+        : codec.getTensorBuffer().get(index) & 0xFF;
+  }
+
+  private static boolean matches(
+      final PixelTensorCodec codec, final int pixel, final PixelTensorCodec expected) {
+    for (int channel = 0; channel < 3; ++channel) {
+      if (valueAt(codec, codec.getTensorIndex(pixel, channel)) != valueAt(expected, channel)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void checkParity(
+      final PixelTensorCodec fused,
+      final PixelTensorCodec reference,
+      final PixelTensorCodec single,
+      final int rotation,
+      final boolean maintainAspect) {
+    final int dstWidth = fused.getWidth();
+    final int dstHeight = fused.getHeight();
+    final String name = dstWidth + "x" + dstHeight + " rotated " + rotation
+        + (maintainAspect ? " cropped" : " stretched") + " " + fused.getDataType() + " "
+        + fused.getLayout();
+
+    ImageUtils.convertYUV420ToTensor(
+        yData, uData, vData, WIDTH, HEIGHT, ROW_STRIDE, ROW_STRIDE, 2,
+        ImageUtils.getInverseTransformation(
+            WIDTH, HEIGHT, dstWidth, dstHeight, rotation, maintainAspect),
+        fused);
+
+    final double[] cropToFrame =
+        invert(getFrameToCrop(dstWidth, dstHeight, rotation, maintainAspect));
+    final int[][][] sampled = new int[dstWidth * dstHeight][][];
+    final int[] crop = new int[dstWidth * dstHeight];
+    for (int dy = 0; dy < dstHeight; ++dy) {
+      for (int dx = 0; dx < dstWidth; ++dx) {
+        final double x = cropToFrame[0] * (dx + 0.5) + cropToFrame[1] * (dy + 0.5) + cropToFrame[2];
+        final double y = cropToFrame[3] * (dx + 0.5) + cropToFrame[4] * (dy + 0.5) + cropToFrame[5];
+        assertTrue(name, x > -EDGE_TOLERANCE && x < WIDTH + EDGE_TOLERANCE);
+        assertTrue(name, y > -EDGE_TOLERANCE && y < HEIGHT + EDGE_TOLERANCE);
+
+        final int pixel = dy * dstWidth + dx;
+        sampled[pixel] = new int[][] {candidates(x, WIDTH), candidates(y, HEIGHT)};
+        crop[pixel] = frame[sampled[pixel][1][0] * WIDTH + sampled[pixel][0][0]];
+      }
+    }
+    reference.encode(crop);
+
+    for (int pixel = 0; pixel < crop.length; ++pixel) {
+      boolean exact = true;
+      for (int channel = 0; channel < 3; ++channel) {
+        final int index = fused.getTensorIndex(pixel, channel);
+        exact &= valueAt(fused, index) == valueAt(reference, index);
+      }
+      if (exact) {
+        continue;
+      }
+
+      // Off by a pixel on an ambiguous sample point is fine, anywhere else it's a mismatch.
+      boolean neighbour = false;
+      for (final int x : sampled[pixel][0]) {
+        for (final int y : sampled[pixel][1]) {
+          single.setPixel(0, frame[y * WIDTH + x]);
+          neighbour |= matches(fused, pixel, single);
+        }
+      }
+      assertTrue(name + " pixel " + pixel, neighbour);
+    }
+  }
+
+  @Test
+  public void floatTensorMatchesConvertingAndCroppingTheFrame() {
+    for (final PixelTensorCodec.Layout layout : PixelTensorCodec.Layout.values()) {
+      for (final int[] size : CROP_SIZES) {
+        for (final int rotation : ROTATIONS) {
+          for (final boolean maintainAspect : new boolean[] {false, true}) {
+            checkParity(
+                new PixelTensorCodec(size[0], size[1], layout),
+                new PixelTensorCodec(size[0], size[1], layout),
+                new PixelTensorCodec(1, 1, PixelTensorCodec.Layout.NHWC),
+                rotation, maintainAspect);
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void quantizedTensorMatchesConvertingAndCroppingTheFrame() {
+    final float scale = 1.0f / 128.0f;
+    final int zeroPoint = 3;
+    for (final int[] size : CROP_SIZES) {
+      for (final int rotation : ROTATIONS) {
+        for (final boolean maintainAspect : new boolean[] {false, true}) {
+          checkParity(
+              PixelTensorCodec.newQuantized(
+                  size[0], size[1], PixelTensorCodec.Layout.NHWC, scale, zeroPoint),
+              PixelTensorCodec.newQuantized(
+                  size[0], size[1], PixelTensorCodec.Layout.NHWC, scale, zeroPoint),
+              PixelTensorCodec.newQuantized(1, 1, PixelTensorCodec.Layout.NHWC, scale, zeroPoint),
+              rotation, maintainAspect);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void inverseTransformationUndoesTheTransformationMatrix() {
+    for (final int[] size : CROP_SIZES) {
+      for (final int rotation : ROTATIONS) {
+        for (final boolean maintainAspect : new boolean[] {false, true}) {
+          final float[] actual = ImageUtils.getInverseTransformation(
+              WIDTH, HEIGHT, size[0], size[1], rotation, maintainAspect);
+          final double[] expected = invert(getFrameToCrop(size[0], size[1], rotation,
+              maintainAspect));
+          for (int i = 0; i < expected.length; ++i) {
+            assertEquals(
+                size[0] + "x" + size[1] + " rotated " + rotation + " element " + i,
+                expected[i], actual[i], 1.0e-4 * Math.max(1.0, Math.abs(expected[i])));
+          }
+        }
+      }
+    }
+  }
+
+  /** Returns the planes in direct buffers, the chroma ones slices of one buffer like a camera's. */
+  private ByteBuffer[] toDirectPlanes() {
+    final ByteBuffer y = ByteBuffer.allocateDirect(yData.length);
+    y.put(yData).clear();
+    final ByteBuffer chroma = ByteBuffer.allocateDirect(uData.length + 1);
+    chroma.put(uData).put(uData.length, vData[vData.length - 1]).clear();
+    chroma.position(1);
+    final ByteBuffer v = chroma.slice();
+    chroma.position(0);
+    chroma.limit(uData.length);
+    return new ByteBuffer[] {y, chroma.slice(), v};
+  }
+
+  @Test
+  public void buffersConvertLikeArrays() {
+    final ByteBuffer[] planes = toDirectPlanes();
+    final int[] argb = new int[WIDTH * HEIGHT];
+    ImageUtils.convertYUV420ToARGB8888(
+        planes[0], planes[1], planes[2], WIDTH, HEIGHT, ROW_STRIDE, ROW_STRIDE, 2, argb);
+    assertArrayEquals(frame, argb);
+
+    final float[] cropToFrame =
+        ImageUtils.getInverseTransformation(WIDTH, HEIGHT, 45, 45, 90, true);
+    final PixelTensorCodec expected = new PixelTensorCodec(45, 45, PixelTensorCodec.Layout.NCHW);
+    ImageUtils.convertYUV420ToTensor(
+        yData, uData, vData, WIDTH, HEIGHT, ROW_STRIDE, ROW_STRIDE, 2, cropToFrame, expected);
+    final PixelTensorCodec actual = new PixelTensorCodec(45, 45, PixelTensorCodec.Layout.NCHW);
+    ImageUtils.convertYUV420ToTensor(
+        planes[0], planes[1], planes[2], WIDTH, HEIGHT, ROW_STRIDE, ROW_STRIDE, 2, cropToFrame,
+        actual);
+    assertEquals(expected.getTensor(), actual.getTensor());
+  }
+}
@@ -0,0 +1,114 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+  // Buckets are an eighth of a power of two wide, and percentiles are their middles.
+  private static final double TOLERANCE = 0.0625;
+
+  private static void assertWithinBucket(final long expected, final long actual) {
+    assertTrue(
+        "Expected about " + expected + ", was " + actual,
+        Math.abs(actual - expected) <= expected * TOLERANCE);
+  }
+
+  @Test
+  public void emptyHistogramReportsZero() {
+    final LatencyHistogram.Snapshot snapshot = new LatencyHistogram("empty").snapshot();
+    assertEquals(0, snapshot.getCount());
+    assertEquals(0, snapshot.getMeanNs());
+    assertEquals(0, snapshot.getPercentileNs(50));
+    assertEquals("empty: 0 frames", snapshot.toString());
+  }
+
+  @Test
+  public void percentilesAreWithinABucket() {
+    final LatencyHistogram histogram = new LatencyHistogram("infer");
+    // 1ms to 100ms, one of each.
+    for (int ms = 1; ms <= 100; ++ms) {
+      histogram.record(ms * 1000000L);
+    }
+
+    final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+    assertEquals(100, snapshot.getCount());
+    assertEquals(50500000L, snapshot.getMeanNs());
+    assertEquals(100000000L, snapshot.getMaxNs());
+    assertWithinBucket(50000000L, snapshot.getPercentileNs(50));
+    assertWithinBucket(90000000L, snapshot.getPercentileNs(90));
+    assertWithinBucket(99000000L, snapshot.getPercentileNs(99));
+    assertWithinBucket(1000000L, snapshot.getPercentileNs(0));
+    assertWithinBucket(100000000L, snapshot.getPercentileNs(100));
+  }
+
+  @Test
+  public void smallDurationsAreExact() {
+    final LatencyHistogram histogram = new LatencyHistogram("small");
+    for (int ns = 0; ns < 8; ++ns) {
+      histogram.record(ns);
+    }
+    // Negative durations count as 0.
+    histogram.record(-5);
+
+    final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+    assertEquals(9, snapshot.getCount());
+    assertEquals(0, snapshot.getPercentileNs(20));
+    assertEquals(3, snapshot.getPercentileNs(50));
+    assertEquals(7, snapshot.getMaxNs());
+  }
+
+  @Test
+  public void differenceOfSnapshotsHoldsWhatWasRecordedInBetween() {
+    final LatencyHistogram histogram = new LatencyHistogram("infer");
+    for (int i = 0; i < 10; ++i) {
+      histogram.record(100000000L);
+    }
+    final LatencyHistogram.Snapshot before = histogram.snapshot();
+    for (int i = 0; i < 10; ++i) {
+      histogram.record(10000000L);
+    }
+
+    final LatencyHistogram.Snapshot between = histogram.snapshot().minus(before);
+    assertEquals(10, between.getCount());
+    assertEquals(10000000L, between.getMeanNs());
+    assertWithinBucket(10000000L, between.getPercentileNs(99));
+    // The longest duration after the first snapshot is only known to within its bucket.
+    assertTrue(between.getMaxNs() >= 10000000L);
+    assertTrue(between.getMaxNs() < 10000000L * (1 + 2 * TOLERANCE));
+  }
+
+  @Test
+  public void resetClearsEverything() {
+    final LatencyHistogram histogram = new LatencyHistogram("infer");
+    histogram.record(5000000L);
+    histogram.reset();
+    assertEquals(0, histogram.snapshot().getCount());
+    assertEquals(0, histogram.snapshot().getMaxNs());
+  }
+
+  @Test
+  public void describesPercentilesInMilliseconds() {
+    final LatencyHistogram histogram = new LatencyHistogram("infer");
+    histogram.record(40000000L);
+    // 40ms falls in the bucket from 37.7ms to 41.9ms.
+    assertEquals(
+        "infer: 1 frames, p50 39.8ms, p90 39.8ms, p99 39.8ms, max 40.0ms", histogram.toString());
+  }
+}
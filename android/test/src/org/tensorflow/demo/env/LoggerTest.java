@@ -0,0 +1,106 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import android.util.Log;
+import java.util.Formattable;
+import java.util.Formatter;
+import java.util.IllegalFormatException;
+import org.junit.Test;
+
+public class LoggerTest {
+  private final Logger logger = new Logger("Test");
+
+  /** Checks that the message is what String.format makes of the format and arguments. */
+  private void assertFormatted(final String format, final Object... args) {
+    assertEquals("Test: " + String.format(format, args), logger.toMessage(format, args));
+  }
+
+  @Test
+  public void fillsInStringAndIntegerConversions() {
+    assertEquals(
+        "Test: 3 frames at 256x256 in 41ms",
+        logger.toMessage("%d frames at %dx%d in %dms", 3, 256, 256, 41L));
+    assertFormatted("%s: %d%% done%n", "convert", 50);
+    assertFormatted("%d %d %d %d", (byte) -1, (short) 2, 3, Long.MIN_VALUE);
+    assertFormatted("null is %s", (Object) null);
+    assertFormatted("extra arguments %s", "used", "unused");
+  }
+
+  @Test
+  public void formatsWithoutConversionsAreLeftAlone() {
+    assertEquals("Test: 100% done", logger.toMessage("100% done"));
+    assertFormatted("plain text");
+  }
+
+  @Test
+  public void otherConversionsGoToStringFormat() {
+    assertFormatted("%.1fms", 41.25f);
+    assertFormatted("%5d|%-5s|", 42, "ab");
+    assertFormatted("%x %c %b", 255, 'c', true);
+    // Parsed again from the cache.
+    assertFormatted("%.1fms", 3.0f);
+  }
+
+  @Test
+  public void formattableArgumentsGoToStringFormat() {
+    final Formattable formattable =
+        new Formattable() {
+          @Override
+          public void formatTo(
+              final Formatter formatter, final int flags, final int width, final int precision) {
+            formatter.format("formatted");
+          }
+
+          @Override
+          public String toString() {
+            return "toString";
+          }
+        };
+    assertEquals("Test: formatted", logger.toMessage("%s", formattable));
+  }
+
+  @Test
+  public void invalidArgumentsFailAsStringFormatWould() {
+    for (final Object[] call :
+        new Object[][] {
+          {"%d", new Object[] {1.5f}},
+          {"%d %d", new Object[] {1}},
+          {"%s %", new Object[] {"x"}},
+        }) {
+      try {
+        logger.toMessage((String) call[0], (Object[]) call[1]);
+        fail("Formatted " + call[0]);
+      } catch (final IllegalFormatException e) {
+        // Expected.
+      }
+    }
+  }
+
+  @Test
+  public void minLogLevelDecidesWhatIsLoggable() {
+    final Logger quiet = new Logger("Quiet");
+    quiet.setMinLogLevel(Log.WARN);
+    assertFalse(quiet.isLoggable(Log.INFO));
+    assertTrue(quiet.isLoggable(Log.WARN));
+    assertTrue(quiet.isLoggable(Log.ERROR));
+  }
+}
@@ -0,0 +1,102 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+public class ParallelYUVConverterTest {
+  private static final int WIDTH = 160;
+  private static final int HEIGHT = 91;
+  private static final int ROW_STRIDE = WIDTH + 16;
+
+  private final byte[] yData = new byte[ROW_STRIDE * HEIGHT];
+  // Interleaved chroma, V a byte ahead of U, as most cameras deliver it.
+  private final byte[] uData;
+  private final byte[] vData;
+
+  public ParallelYUVConverterTest() {
+    final Random random = new Random(0);
+    random.nextBytes(yData);
+    final byte[] chroma = new byte[ROW_STRIDE * ((HEIGHT + 1) / 2)];
+    random.nextBytes(chroma);
+    uData = Arrays.copyOf(chroma, chroma.length - 1);
+    vData = Arrays.copyOfRange(chroma, 1, chroma.length);
+  }
+
+  private static int[] decode(final PixelTensorCodec codec) {
+    final int[] argb = new int[codec.getWidth() * codec.getHeight()];
+    codec.decode(argb);
+    return argb;
+  }
+
+  @Test
+  public void argbMatchesTheSingleThreadedConversion() {
+    final int[] expected = new int[WIDTH * HEIGHT];
+    ImageUtils.convertYUV420ToARGB8888(
+        yData, uData, vData, WIDTH, HEIGHT, ROW_STRIDE, ROW_STRIDE, 2, expected);
+
+    for (final int parallelism : new int[] {1, 2, 3, 8}) {
+      final ParallelYUVConverter converter = new ParallelYUVConverter(parallelism);
+      final int[] arrays = new int[WIDTH * HEIGHT];
+      converter.convertYUV420ToARGB8888(
+          yData, uData, vData, WIDTH, HEIGHT, ROW_STRIDE, ROW_STRIDE, 2, arrays);
+      assertArrayEquals("Parallelism " + parallelism, expected, arrays);
+
+      final int[] buffers = new int[WIDTH * HEIGHT];
+      converter.convertYUV420ToARGB8888(
+          ByteBuffer.wrap(yData), ByteBuffer.wrap(uData), ByteBuffer.wrap(vData), WIDTH, HEIGHT,
+          ROW_STRIDE, ROW_STRIDE, 2, buffers);
+      assertArrayEquals("Parallelism " + parallelism, expected, buffers);
+    }
+  }
+
+  @Test
+  public void tensorsMatchTheSingleThreadedConversionAcrossSizes() {
+    final ParallelYUVConverter converter = new ParallelYUVConverter(4);
+    // The strips of each size are reused when it comes around again.
+    for (int round = 0; round < 2; ++round) {
+      for (final int size : new int[] {32, 64, 45}) {
+        final float[] cropToFrame =
+            ImageUtils.getInverseTransformation(WIDTH, HEIGHT, size, size, 90, true);
+        final PixelTensorCodec expected =
+            new PixelTensorCodec(size, size, PixelTensorCodec.Layout.NHWC);
+        ImageUtils.convertYUV420ToTensor(
+            yData, uData, vData, WIDTH, HEIGHT, ROW_STRIDE, ROW_STRIDE, 2, cropToFrame, expected);
+
+        final PixelTensorCodec actual =
+            new PixelTensorCodec(size, size, PixelTensorCodec.Layout.NHWC);
+        converter.convertYUV420ToTensor(
+            ByteBuffer.wrap(yData), ByteBuffer.wrap(uData), ByteBuffer.wrap(vData), WIDTH, HEIGHT,
+            ROW_STRIDE, ROW_STRIDE, 2, cropToFrame, actual);
+        assertArrayEquals("Size " + size, decode(expected), decode(actual));
+
+        converter.convertYUV420ToTensor(
+            yData, uData, vData, WIDTH, HEIGHT, ROW_STRIDE, ROW_STRIDE, 2, cropToFrame, actual);
+        assertArrayEquals("Size " + size, decode(expected), decode(actual));
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsParallelismBelowOne() {
+    new ParallelYUVConverter(0);
+  }
+}
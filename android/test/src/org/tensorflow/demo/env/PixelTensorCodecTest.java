@@ -0,0 +1,206 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.IntBuffer;
+import java.util.Random;
+import org.junit.Test;
+
+public class PixelTensorCodecTest {
+  private static final int WIDTH = 7;
+  private static final int HEIGHT = 5;
+
+  private static int[] randomPixels(final int count) {
+    final Random random = new Random(0);
+    final int[] argb = new int[count];
+    for (int i = 0; i < count; ++i) {
+      argb[i] = 0xFF000000 | random.nextInt(0x1000000);
+    }
+    return argb;
+  }
+
+  @Test
+  public void nhwcInterleavesChannelsPerPixel() {
+    final PixelTensorCodec codec =
+        new PixelTensorCodec(WIDTH, HEIGHT, PixelTensorCodec.Layout.NHWC);
+    final int[] argb = new int[WIDTH * HEIGHT];
+    argb[0] = 0xFF0A141E;
+    argb[1] = 0xFF28323C;
+    codec.encode(argb);
+    assertEquals(0, codec.getTensorIndex(0, 0));
+    assertEquals(5, codec.getTensorIndex(1, 2));
+    assertEquals(10.0f / 255.0f, codec.getTensor().get(0), 1e-6f);
+    assertEquals(20.0f / 255.0f, codec.getTensor().get(1), 1e-6f);
+    assertEquals(30.0f / 255.0f, codec.getTensor().get(2), 1e-6f);
+    assertEquals(60.0f / 255.0f, codec.getTensor().get(5), 1e-6f);
+  }
+
+  @Test
+  public void nchwStoresOnePlanePerChannel() {
+    final PixelTensorCodec codec =
+        new PixelTensorCodec(WIDTH, HEIGHT, PixelTensorCodec.Layout.NCHW);
+    final int[] argb = new int[WIDTH * HEIGHT];
+    argb[1] = 0xFF28323C;
+    codec.encode(argb);
+    assertEquals(WIDTH * HEIGHT + 1, codec.getTensorIndex(1, 1));
+    assertEquals(40.0f / 255.0f, codec.getTensor().get(1), 1e-6f);
+    assertEquals(50.0f / 255.0f, codec.getTensor().get(WIDTH * HEIGHT + 1), 1e-6f);
+    assertEquals(60.0f / 255.0f, codec.getTensor().get(2 * WIDTH * HEIGHT + 1), 1e-6f);
+  }
+
+  @Test
+  public void appliesScaleAndOffset() {
+    final PixelTensorCodec codec =
+        new PixelTensorCodec(1, 1, PixelTensorCodec.Layout.NHWC, 2.0f / 255.0f, -1.0f);
+    codec.encode(new int[] {0xFFFF0080});
+    assertEquals(1.0f, codec.getTensor().get(0), 1e-6f);
+    assertEquals(-1.0f, codec.getTensor().get(1), 1e-6f);
+    assertEquals(0.0039f, codec.getTensor().get(2), 1e-4f);
+  }
+
+  @Test
+  public void decodeReversesEncodeInBothLayouts() {
+    final int[] argb = randomPixels(WIDTH * HEIGHT);
+    for (final PixelTensorCodec.Layout layout : PixelTensorCodec.Layout.values()) {
+      final PixelTensorCodec codec =
+          new PixelTensorCodec(WIDTH, HEIGHT, layout, 2.0f / 255.0f, -1.0f);
+      codec.encode(argb);
+      final int[] decoded = new int[argb.length];
+      codec.decode(decoded);
+      assertArrayEquals(layout.toString(), argb, decoded);
+    }
+  }
+
+  @Test
+  public void decodeClampsOutOfRangeValuesAndIsOpaque() {
+    final PixelTensorCodec codec = new PixelTensorCodec(1, 1, PixelTensorCodec.Layout.NHWC);
+    codec.getTensor().put(0, -0.5f).put(1, 2.0f).put(2, 128.0f / 255.0f);
+    final int[] decoded = new int[1];
+    codec.decode(decoded);
+    assertEquals(0xFF00FF80, decoded[0]);
+  }
+
+  @Test
+  public void encodesAnIntBufferFromItsPosition() {
+    final int[] argb = randomPixels(WIDTH * HEIGHT + 3);
+    final PixelTensorCodec codec =
+        new PixelTensorCodec(WIDTH, HEIGHT, PixelTensorCodec.Layout.NCHW);
+    final IntBuffer buffer = IntBuffer.wrap(argb);
+    buffer.position(3);
+    codec.encode(buffer);
+    assertEquals(3, buffer.position());
+
+    final int[] expected = new int[WIDTH * HEIGHT];
+    System.arraycopy(argb, 3, expected, 0, expected.length);
+    final int[] decoded = new int[expected.length];
+    codec.decode(decoded);
+    assertArrayEquals(expected, decoded);
+  }
+
+  @Test
+  public void identityQuantizationHoldsThePixelBytes() {
+    final int[] argb = randomPixels(WIDTH * HEIGHT);
+    for (final PixelTensorCodec.Layout layout : PixelTensorCodec.Layout.values()) {
+      final PixelTensorCodec codec =
+          PixelTensorCodec.newQuantized(WIDTH, HEIGHT, layout, 1.0f / 255.0f, 0);
+      codec.encode(argb);
+      assertEquals(WIDTH * HEIGHT * 3, codec.getTensorBuffer().capacity());
+      for (int i = 0; i < argb.length; ++i) {
+        for (int channel = 0; channel < 3; ++channel) {
+          assertEquals(
+              (argb[i] >> (16 - 8 * channel)) & 0xFF,
+              codec.getTensorBuffer().get(codec.getTensorIndex(i, channel)) & 0xFF);
+        }
+      }
+
+      final int[] decoded = new int[argb.length];
+      codec.decode(decoded);
+      assertArrayEquals(layout.toString(), argb, decoded);
+    }
+  }
+
+  @Test
+  public void quantizesWithScaleAndZeroPoint() {
+    // A step of 1 / 128 holds [0, 1] in 128 steps above the zero point.
+    final PixelTensorCodec codec =
+        PixelTensorCodec.newQuantized(1, 1, PixelTensorCodec.Layout.NCHW, 1.0f / 128.0f, 3);
+    codec.encode(new int[] {0xFFFF8000});
+    assertEquals(131, codec.getTensorBuffer().get(0) & 0xFF);
+    assertEquals(67, codec.getTensorBuffer().get(1) & 0xFF);
+    assertEquals(3, codec.getTensorBuffer().get(2) & 0xFF);
+
+    // Dequantizing rounds to the nearest channel value and clamps to [0, 255].
+    codec.getTensorBuffer().put(0, (byte) 255).put(1, (byte) 35).put(2, (byte) 0);
+    final int[] decoded = new int[1];
+    codec.decode(decoded);
+    assertEquals(0xFFFF4000, decoded[0]);
+  }
+
+  @Test
+  public void setPixelOnlyWritesThatPixel() {
+    for (final PixelTensorCodec.Layout layout : PixelTensorCodec.Layout.values()) {
+      final PixelTensorCodec codec =
+          PixelTensorCodec.newQuantized(WIDTH, HEIGHT, layout, 1.0f / 255.0f, 0);
+      codec.setPixel(WIDTH + 1, 0xFF0A141E);
+      final int[] decoded = new int[WIDTH * HEIGHT];
+      codec.decode(decoded);
+      for (int i = 0; i < decoded.length; ++i) {
+        assertEquals(layout + " pixel " + i, i == WIDTH + 1 ? 0xFF0A141E : 0xFF000000, decoded[i]);
+      }
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void quantizedCodecHasNoFloatTensor() {
+    PixelTensorCodec.newQuantized(1, 1, PixelTensorCodec.Layout.NHWC, 1.0f / 255.0f, 0)
+        .getTensor();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsAZeroPointOutOfRange() {
+    PixelTensorCodec.newQuantized(1, 1, PixelTensorCodec.Layout.NHWC, 1.0f / 255.0f, 256);
+  }
+
+  @Test
+  public void byteSizeCountsTheTensorAndTheBitmapStaging() {
+    assertEquals(
+        WIDTH * HEIGHT * (3 * 4 + 4),
+        new PixelTensorCodec(WIDTH, HEIGHT, PixelTensorCodec.Layout.NHWC).getByteSize());
+    assertEquals(
+        WIDTH * HEIGHT * (3 + 4),
+        PixelTensorCodec.newQuantized(WIDTH, HEIGHT, PixelTensorCodec.Layout.NCHW, 1.0f, 0)
+            .getByteSize());
+  }
+
+  @Test
+  public void valuesAreRealInEitherDataType() {
+    final PixelTensorCodec floats = new PixelTensorCodec(1, 1, PixelTensorCodec.Layout.NHWC);
+    floats.setValue(1, 0.25f);
+    assertEquals(0.25f, floats.getValue(1), 0.0f);
+
+    // 0.25 is 32 steps of 1 / 128 above the zero point, and values below the range clamp to 0.
+    final PixelTensorCodec bytes =
+        PixelTensorCodec.newQuantized(1, 1, PixelTensorCodec.Layout.NHWC, 1.0f / 128.0f, 3);
+    bytes.setValue(1, 0.25f);
+    assertEquals(35, bytes.getTensorBuffer().get(1) & 0xFF);
+    assertEquals(0.25f, bytes.getValue(1), 0.0f);
+    bytes.setValue(2, -1.0f);
+    assertEquals(-3.0f / 128.0f, bytes.getValue(2), 0.0f);
+  }
+}
@@ -0,0 +1,106 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ResolutionGovernorTest {
+  // 15fps, a budget of 66.7ms.
+  private static final float TARGET_FPS = 15.0f;
+
+  /** Feeds frames taking the given time at the current size, returning the size after them. */
+  private static int run(final ResolutionGovernor governor, final int frames, final float ms) {
+    int size = governor.getSize();
+    for (int i = 0; i < frames; ++i) {
+      size = governor.update(size, ms);
+    }
+    return size;
+  }
+
+  /** Feeds frames whose time grows with the number of pixels, as 100ms at 512. */
+  private static int runScaled(final ResolutionGovernor governor, final int frames) {
+    int size = governor.getSize();
+    for (int i = 0; i < frames; ++i) {
+      final float scale = size / 512.0f;
+      size = governor.update(size, 100.0f * scale * scale);
+    }
+    return size;
+  }
+
+  @Test
+  public void startsAtAMultipleOfEightWithinTheLimits() {
+    assertEquals(296, new ResolutionGovernor(TARGET_FPS, 128, 512, 300).getSize());
+    assertEquals(128, new ResolutionGovernor(TARGET_FPS, 128, 512, 64).getSize());
+    assertEquals(512, new ResolutionGovernor(TARGET_FPS, 128, 512, 1080).getSize());
+  }
+
+  @Test
+  public void settlesOnASizeWithinTheBudget() {
+    final ResolutionGovernor governor = new ResolutionGovernor(TARGET_FPS, 128, 512, 512);
+    // 512 takes 100ms. The step down is limited to 1.25x, to 408, which takes 63.5ms.
+    assertEquals(408, runScaled(governor, 10));
+    assertEquals(408, runScaled(governor, 100));
+  }
+
+  @Test
+  public void limitsEachStep() {
+    final ResolutionGovernor governor = new ResolutionGovernor(TARGET_FPS, 128, 512, 128);
+    // 10ms at 128 leaves room for 2.4x the size, but a step is at most 1.25x.
+    assertEquals(160, run(governor, 10, 10.0f));
+    // 400ms is far over budget, but again the size only drops by 1.25x.
+    assertEquals(128, run(governor, 10, 400.0f));
+  }
+
+  @Test
+  public void goesBackToARecentSizeRatherThanANearbyNewOne() {
+    final ResolutionGovernor governor = new ResolutionGovernor(TARGET_FPS, 128, 512, 256);
+    assertEquals(200, run(governor, 10, 100.0f));
+    assertEquals(168, run(governor, 10, 80.0f));
+    // 20ms at 168 leaves room for 208, but 200 was used recently and is close enough.
+    assertEquals(200, run(governor, 10, 20.0f));
+  }
+
+  @Test
+  public void ignoresFramesOfOtherSizes() {
+    final ResolutionGovernor governor = new ResolutionGovernor(TARGET_FPS, 128, 512, 256);
+    for (int i = 0; i < 50; ++i) {
+      assertEquals(256, governor.update(512, 1000.0f));
+    }
+  }
+
+  @Test
+  public void holdsWhileSlowerThanASizesFastestTime() {
+    final ResolutionGovernor governor = new ResolutionGovernor(TARGET_FPS, 128, 512, 192);
+    // 25ms at 192 is its fastest time, and leaves room to step up.
+    assertEquals(240, run(governor, 10, 25.0f));
+    // The device slows down, which is too slow for 240.
+    assertEquals(192, run(governor, 10, 100.0f));
+    // 40ms at 192 would leave room for 240, but is much slower than before.
+    assertEquals(192, run(governor, 10, 40.0f));
+    assertTrue(governor.toString(), governor.toString().endsWith("throttled"));
+    // Until the times recover, which takes a couple of decisions for the average to settle.
+    assertEquals(192, run(governor, 8, 25.0f));
+    assertEquals(240, run(governor, 8, 25.0f));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsAMaximumBelowTheMinimum() {
+    new ResolutionGovernor(TARGET_FPS, 256, 128, 128);
+  }
+}
@@ -0,0 +1,104 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import org.junit.Test;
+
+public class SpanRecorderTest {
+  private static String writeTrace(final SpanRecorder recorder, final int expectedSpans)
+      throws IOException {
+    final StringWriter writer = new StringWriter();
+    assertEquals(expectedSpans, recorder.writeChromeTrace(writer));
+    return writer.toString();
+  }
+
+  @Test
+  public void writesSpansAsCompleteEventsRelativeToTheFirst() throws IOException {
+    final SpanRecorder recorder = new SpanRecorder(8);
+    recorder.record("convert", 1000000L, 1500000L, 1, 256);
+    recorder.record("infer", 1500000L, 41500000L, 1, 256);
+
+    final String trace = writeTrace(recorder, 2);
+    assertTrue(trace, trace.startsWith("{\"displayTimeUnit\":\"ms\",\"traceEvents\":["));
+    assertTrue(trace, trace.endsWith("]}\n"));
+    final long tid = Thread.currentThread().getId();
+    assertTrue(
+        trace,
+        trace.contains(
+            "{\"name\":\"convert\",\"cat\":\"frame\",\"ph\":\"X\",\"pid\":1,\"tid\":" + tid
+                + ",\"ts\":0.000,\"dur\":500.000,\"args\":{\"frame\":1,\"size\":256}}"));
+    assertTrue(trace, trace.contains("\"name\":\"infer\""));
+    assertTrue(trace, trace.contains("\"ts\":500.000,\"dur\":40000.000"));
+    assertTrue(trace, trace.contains("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":1"));
+  }
+
+  @Test
+  public void ringKeepsTheLatestSpans() throws IOException {
+    // Rounded up to a ring of 4.
+    final SpanRecorder recorder = new SpanRecorder(3);
+    for (int frame = 0; frame < 10; ++frame) {
+      recorder.record("frame" + frame, frame * 1000L, frame * 1000L + 500L, frame, 128);
+    }
+
+    assertEquals(10, recorder.getRecordedCount());
+    assertEquals("10 spans, ring of 4", recorder.toString());
+    final String trace = writeTrace(recorder, 4);
+    assertFalse(trace, trace.contains("\"frame5\""));
+    for (int frame = 6; frame < 10; ++frame) {
+      assertTrue(trace, trace.contains("\"frame" + frame + "\""));
+    }
+  }
+
+  @Test
+  public void recordsEachThreadOnItsOwnTrack() throws Exception {
+    final SpanRecorder recorder = new SpanRecorder(8);
+    recorder.record("main", 0, 10, 1, 64);
+    final Thread thread =
+        new Thread(
+            new Runnable() {
+              @Override
+              public void run() {
+                recorder.record("worker", 5, 15, 1, 64);
+              }
+            },
+            "span-worker");
+    thread.start();
+    thread.join();
+
+    final String trace = writeTrace(recorder, 2);
+    assertTrue(trace, trace.contains("\"tid\":" + thread.getId() + ",\"ts\":0.005"));
+    assertTrue(trace, trace.contains("\"args\":{\"name\":\"span-worker\"}"));
+  }
+
+  @Test
+  public void escapesNames() throws IOException {
+    final SpanRecorder recorder = new SpanRecorder(1);
+    recorder.record("say \"hi\"\\\n", 0, 1, 0, 0);
+    assertTrue(writeTrace(recorder, 1).contains("\"name\":\"say \\\"hi\\\"\\\\\\u000a\""));
+  }
+
+  @Test
+  public void emptyRecorderWritesAnEmptyTrace() throws IOException {
+    assertEquals(
+        "{\"displayTimeUnit\":\"ms\",\"traceEvents\":[\n]}\n", writeTrace(new SpanRecorder(4), 0));
+  }
+}
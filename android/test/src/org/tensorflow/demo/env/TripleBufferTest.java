@@ -0,0 +1,104 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+public class TripleBufferTest {
+  @Test
+  public void acquireReturnsNullBeforeAnythingIsPublished() {
+    final TripleBuffer<int[]> buffer = new TripleBuffer<int[]>(new int[1], new int[1], new int[1]);
+    assertNull(buffer.acquire());
+  }
+
+  @Test
+  public void acquireReturnsTheLatestPublishedBuffer() {
+    final TripleBuffer<int[]> buffer = new TripleBuffer<int[]>(new int[1], new int[1], new int[1]);
+    buffer.getBackBuffer()[0] = 1;
+    buffer.publish();
+    buffer.getBackBuffer()[0] = 2;
+    buffer.publish();
+
+    assertEquals(2, buffer.acquire()[0]);
+    // Nothing new was published, so the consumer keeps its buffer.
+    final int[] front = buffer.acquire();
+    assertEquals(2, front[0]);
+    assertSame(front, buffer.acquire());
+  }
+
+  @Test
+  public void producerNeverWritesToTheConsumersBuffer() {
+    final TripleBuffer<int[]> buffer = new TripleBuffer<int[]>(new int[1], new int[1], new int[1]);
+    for (int i = 0; i < 20; ++i) {
+      buffer.getBackBuffer()[0] = i;
+      buffer.publish();
+      // Acquire only every third frame, as a consumer slower than the producer would.
+      if (i % 3 == 0) {
+        final int[] front = buffer.acquire();
+        assertEquals(i, front[0]);
+        assertNotSame(front, buffer.getBackBuffer());
+      }
+    }
+  }
+
+  @Test
+  public void consumerOnThreadSeesWholeFramesInOrder() throws Exception {
+    // Each buffer holds a frame number twice, written one after the other; a torn frame would
+    // hold two different numbers.
+    final TripleBuffer<long[]> buffer =
+        new TripleBuffer<long[]>(new long[2], new long[2], new long[2]);
+    final int frames = 200000;
+    final AtomicReference<String> failure = new AtomicReference<String>();
+
+    final Thread consumer =
+        new Thread(
+            new Runnable() {
+              @Override
+              public void run() {
+                long last = 0;
+                while (last < frames) {
+                  final long[] front = buffer.acquire();
+                  if (front == null) {
+                    continue;
+                  }
+                  if (front[0] != front[1] || front[0] < last) {
+                    failure.set("Read " + front[0] + "/" + front[1] + " after " + last);
+                    return;
+                  }
+                  last = front[0];
+                }
+              }
+            });
+    consumer.start();
+    for (long frame = 1; frame <= frames; ++frame) {
+      final long[] back = buffer.getBackBuffer();
+      back[0] = frame;
+      back[1] = frame;
+      buffer.publish();
+    }
+    consumer.join(10000);
+
+    assertNull(failure.get());
+    assertTrue("Consumer didn't see the last frame", !consumer.isAlive());
+  }
+}
@@ -0,0 +1,165 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.env;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class Y4MReaderTest {
+  @Rule public final TemporaryFolder folder = new TemporaryFolder();
+
+  private static byte[] filled(final int length, final int seed) {
+    final byte[] data = new byte[length];
+    for (int i = 0; i < length; ++i) {
+      data[i] = (byte) (seed + 7 * i);
+    }
+    return data;
+  }
+
+  private File write(final String name, final byte[] contents) throws IOException {
+    final File file = folder.newFile(name);
+    final OutputStream output = new FileOutputStream(file);
+    try {
+      output.write(contents);
+    } finally {
+      output.close();
+    }
+    return file;
+  }
+
+  @Test
+  public void readsBackWhatTheWriterWrote() throws IOException {
+    // Odd sizes, whose chroma planes round up.
+    final int width = 5;
+    final int height = 3;
+    final File file = folder.newFile("video.y4m");
+    final Y4MWriter writer = new Y4MWriter(file, width, height, 30000, 1001);
+    assertEquals(6, writer.getChromaSize());
+    for (int frame = 0; frame < 2; ++frame) {
+      writer.writeFrame(filled(15, frame), filled(6, frame + 100), filled(6, frame + 200));
+    }
+    writer.close();
+
+    final Y4MReader reader = Y4MReader.open(file);
+    try {
+      assertEquals(width, reader.getWidth());
+      assertEquals(height, reader.getHeight());
+      assertEquals(30000, reader.getFrameRateNumerator());
+      assertEquals(1001, reader.getFrameRateDenominator());
+      assertEquals(3, reader.getChromaWidth());
+      assertEquals(6, reader.getChromaSize());
+
+      final byte[] y = new byte[15];
+      final byte[] u = new byte[6];
+      final byte[] v = new byte[6];
+      for (int frame = 0; frame < 2; ++frame) {
+        assertTrue(reader.readFrame(y, u, v));
+        assertArrayEquals(filled(15, frame), y);
+        assertArrayEquals(filled(6, frame + 100), u);
+        assertArrayEquals(filled(6, frame + 200), v);
+      }
+      assertFalse(reader.readFrame(y, u, v));
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void skipsHeaderParametersItDoesntNeed() throws IOException {
+    final byte[] header =
+        "YUV4MPEG2 W2 H2 A1:1 Ip C420mpeg2 XYSCSS=420MPEG2\nFRAME Ixyz\n"
+            .getBytes(StandardCharsets.US_ASCII);
+    final byte[] contents = Arrays.copyOf(header, header.length + 6);
+    contents[header.length] = 42;
+    final Y4MReader reader = Y4MReader.open(write("params.y4m", contents));
+    try {
+      // The frame rate defaults to 30fps.
+      assertEquals(30, reader.getFrameRateNumerator());
+      final byte[] y = new byte[4];
+      assertTrue(reader.readFrame(y, new byte[1], new byte[1]));
+      assertEquals(42, y[0]);
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void readsRawFramesOfAGivenSize() throws IOException {
+    final byte[] frames = filled(2 * (4 + 1 + 1), 3);
+    final Y4MReader reader = Y4MReader.openRaw(write("video.yuv", frames), 2, 2);
+    try {
+      final byte[] y = new byte[4];
+      final byte[] u = new byte[1];
+      final byte[] v = new byte[1];
+      assertTrue(reader.readFrame(y, u, v));
+      assertTrue(reader.readFrame(y, u, v));
+      assertArrayEquals(Arrays.copyOfRange(frames, 6, 10), y);
+      assertEquals(frames[11], v[0]);
+      assertFalse(reader.readFrame(y, u, v));
+    } finally {
+      reader.close();
+    }
+  }
+
+  @Test
+  public void rejectsFilesItCantRead() throws IOException {
+    final String[] headers = {
+      "RIFF....WAVEfmt \n",
+      "YUV4MPEG2 W2\n",
+      "YUV4MPEG2 W2 H2 C444\n",
+      "YUV4MPEG2 W2 H2 It\n",
+      "YUV4MPEG2 Wx H2\n",
+      "YUV4MPEG2 W2 H2",
+    };
+    for (int i = 0; i < headers.length; ++i) {
+      final File file = write("bad" + i + ".y4m", headers[i].getBytes(StandardCharsets.US_ASCII));
+      try {
+        Y4MReader.open(file).close();
+        fail("Opened " + headers[i]);
+      } catch (final IOException e) {
+        // Expected.
+      }
+    }
+  }
+
+  @Test
+  public void truncatedFrameFails() throws IOException {
+    final byte[] header = "YUV4MPEG2 W2 H2\nFRAME\n".getBytes(StandardCharsets.US_ASCII);
+    final Y4MReader reader =
+        Y4MReader.open(write("short.y4m", Arrays.copyOf(header, header.length + 5)));
+    try {
+      reader.readFrame(new byte[4], new byte[1], new byte[1]);
+      fail("Read a truncated frame");
+    } catch (final IOException e) {
+      // Expected.
+    } finally {
+      reader.close();
+    }
+  }
+}
@@ -0,0 +1,243 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.stylize;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class GraphDefTest {
+  /** Builds a protocol buffer message field by field. */
+  private static class Message {
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+    Message varint(final int field, final long value) {
+      writeVarint(field << 3);
+      writeVarint(value);
+      return this;
+    }
+
+    Message bytes(final int field, final byte[] value) {
+      writeVarint(field << 3 | 2);
+      writeVarint(value.length);
+      bytes.write(value, 0, value.length);
+      return this;
+    }
+
+    Message string(final int field, final String value) {
+      return bytes(field, value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    Message message(final int field, final Message value) {
+      return bytes(field, value.toByteArray());
+    }
+
+    Message fixed32(final int field, final int value) {
+      writeVarint(field << 3 | 5);
+      for (int i = 0; i < 4; ++i) {
+        bytes.write(value >>> (8 * i));
+      }
+      return this;
+    }
+
+    Message fixed64(final int field, final long value) {
+      writeVarint(field << 3 | 1);
+      for (int i = 0; i < 8; ++i) {
+        bytes.write((int) (value >>> (8 * i)));
+      }
+      return this;
+    }
+
+    /** Appends a packed repeated varint field. */
+    Message packed(final int field, final long... values) {
+      final Message packed = new Message();
+      for (final long value : values) {
+        packed.writeVarint(value);
+      }
+      return message(field, packed);
+    }
+
+    byte[] toByteArray() {
+      return bytes.toByteArray();
+    }
+
+    private void writeVarint(long value) {
+      while ((value & ~0x7FL) != 0) {
+        bytes.write((int) (value & 0x7F) | 0x80);
+        value >>>= 7;
+      }
+      bytes.write((int) value);
+    }
+  }
+
+  private static Message node(final String name, final String op, final String... inputs) {
+    final Message node = new Message().string(1, name).string(2, op);
+    for (final String input : inputs) {
+      node.string(3, input);
+    }
+    return node;
+  }
+
+  private static Message attr(final String key, final Message value) {
+    return new Message().string(1, key).message(2, value);
+  }
+
+  private static Message intList(final Message list) {
+    return new Message().message(1, list);
+  }
+
+  private static Message tensor(final int dataType, final int... shape) {
+    final Message tensorShape = new Message();
+    for (final int dim : shape) {
+      tensorShape.message(2, new Message().varint(1, dim));
+    }
+    return new Message().varint(1, dataType).message(2, tensorShape);
+  }
+
+  private static Message constNode(final String name, final Message tensor) {
+    return node(name, "Const").message(5, attr("value", new Message().message(8, tensor)));
+  }
+
+  private static GraphDef parse(final Message... nodes) {
+    final Message graph = new Message();
+    for (final Message node : nodes) {
+      graph.message(1, node);
+    }
+    // GraphDef.versions, which isn't decoded.
+    graph.message(4, new Message().varint(1, 26));
+    return GraphDef.parse(graph.toByteArray());
+  }
+
+  @Test
+  public void decodesNodesAndTheirAttributes() {
+    final Message conv =
+        node("conv", "Conv2D", "input", "weights")
+            .string(4, "/cpu:0")
+            .message(5, attr("strides", intList(new Message().packed(3, 1, 2, 2, 1))))
+            .message(5, attr("dilations", intList(new Message().varint(3, 1))))
+            .message(5, attr("padding", new Message().string(2, "SAME")))
+            .message(5, attr("T", new Message().varint(6, GraphDef.DT_FLOAT)));
+    final GraphDef graph = parse(conv, node("input", "Placeholder"));
+
+    assertEquals(2, graph.getNodeCount());
+    assertTrue(graph.hasNode("input"));
+    assertFalse(graph.hasNode("weights"));
+    final GraphDef.Node node = graph.getNode("conv");
+    assertEquals("Conv2D", node.getOp());
+    assertEquals(Arrays.asList("input", "weights"), node.getInputs());
+    assertArrayEquals(new long[] {1, 2, 2, 1}, node.getIntList("strides"));
+    assertArrayEquals(new long[] {1}, node.getIntList("dilations"));
+    assertEquals("SAME", node.getString("padding"));
+    assertNull(node.getString("data_format"));
+  }
+
+  @Test
+  public void decodesTensorsFromContentOrValues() {
+    final ByteBuffer content = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN);
+    content.putFloat(1.5f).putFloat(-2.0f).putFloat(0.25f);
+    final int half = Float.floatToIntBits(0.5f);
+    final GraphDef graph =
+        parse(
+            constNode("content", tensor(GraphDef.DT_FLOAT, 3).bytes(4, content.array())),
+            constNode("broadcast", tensor(GraphDef.DT_FLOAT, 2, 2).fixed32(5, half)),
+            constNode("ints", tensor(GraphDef.DT_INT32, 3).packed(7, 4, 5, 6)),
+            constNode("bytes", tensor(GraphDef.DT_QUINT8, 2).bytes(4, new byte[] {7, -1})));
+
+    final GraphDef.Tensor floats = graph.getNode("content").getValue();
+    assertEquals(GraphDef.DT_FLOAT, floats.getDataType());
+    assertArrayEquals(new int[] {3}, floats.getShape());
+    assertArrayEquals(new float[] {1.5f, -2.0f, 0.25f}, floats.getFloats(), 0.0f);
+    final float[] broadcast = graph.getNode("broadcast").getValue().getFloats();
+    assertArrayEquals(new float[] {0.5f, 0.5f, 0.5f, 0.5f}, broadcast, 0.0f);
+    assertArrayEquals(new int[] {4, 5, 6}, graph.getNode("ints").getValue().getInts());
+    assertArrayEquals(new byte[] {7, -1}, graph.getNode("bytes").getValue().getBytes());
+  }
+
+  @Test
+  public void skipsFieldsOfEveryWireType() {
+    final GraphDef graph =
+        parse(
+            node("node", "Identity")
+                .varint(9, 300)
+                .fixed64(10, -1L)
+                .fixed32(11, 7)
+                .bytes(12, new byte[] {1, 2, 3}));
+    assertEquals("Identity", graph.getNode("node").getOp());
+  }
+
+  @Test
+  public void rejectsMissingNodesAndMismatchedTypes() {
+    final GraphDef graph = parse(constNode("ints", tensor(GraphDef.DT_INT32, 1).packed(7, 1)));
+    try {
+      graph.getNode("floats");
+      fail("Found a missing node");
+    } catch (final IllegalArgumentException e) {
+      // Expected.
+    }
+    try {
+      graph.getNode("ints").getValue().getFloats();
+      fail("Read ints as floats");
+    } catch (final IllegalArgumentException e) {
+      // Expected.
+    }
+    try {
+      graph.getNode("ints").getIntList("strides");
+      fail("Found a missing attribute");
+    } catch (final IllegalArgumentException e) {
+      // Expected.
+    }
+  }
+
+  @Test
+  public void rejectsTruncatedGraphs() {
+    final byte[] data =
+        new Message().message(1, node("node", "Const").string(3, "input")).toByteArray();
+    for (int length = 1; length < data.length; ++length) {
+      try {
+        GraphDef.parse(Arrays.copyOf(data, length));
+        fail("Parsed " + length + " of " + data.length + " bytes");
+      } catch (final IllegalArgumentException e) {
+        // Expected.
+      }
+    }
+  }
+
+  @Test
+  public void parsesTheAppsModel() throws IOException {
+    // Gradle runs the tests from the project directory.
+    final File model = new File("assets/stylize_quantized.pb");
+    Assume.assumeTrue(model.exists());
+
+    final StyleNetwork network =
+        StyleNetwork.fromGraph(GraphDef.parse(Files.readAllBytes(model.toPath())));
+    assertEquals(26, network.getNumStyles());
+    assertFalse(network.getLayers().isEmpty());
+  }
+}
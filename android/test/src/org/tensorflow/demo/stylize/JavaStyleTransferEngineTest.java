@@ -0,0 +1,177 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.stylize;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.tensorflow.demo.env.PixelTensorCodec;
+
+/** Runs the network on small images and checks invariants of the engine's output. */
+public class JavaStyleTransferEngineTest {
+  private static final int WIDTH = 64;
+  private static final int HEIGHT = 48;
+
+  private static ForkJoinPool pool;
+
+  @BeforeClass
+  public static void setUpPool() {
+    pool = new ForkJoinPool(4);
+  }
+
+  @AfterClass
+  public static void tearDownPool() {
+    pool.shutdown();
+  }
+
+  private static float[] stylize(
+      final JavaStyleTransferEngine engine, final float[] style, final long seed) {
+    engine.setStyle(style);
+    final PixelTensorCodec codec = TestModel.createImage(WIDTH, HEIGHT, seed);
+    engine.stylize(codec);
+    return TestModel.values(codec);
+  }
+
+  @Test
+  public void parallelOutputIsIdenticalToSerial() throws IOException {
+    final StyleNetwork network = TestModel.load();
+    final JavaStyleTransferEngine serial = new JavaStyleTransferEngine(network, pool, 1);
+    final JavaStyleTransferEngine parallel = new JavaStyleTransferEngine(network, pool, 3);
+    serial.warmUp(WIDTH, HEIGHT);
+    parallel.warmUp(WIDTH, HEIGHT);
+
+    final float[] style = TestModel.style(network, 5);
+    final float[] expected = stylize(serial, style, 1);
+    assertArrayEquals(expected, stylize(parallel, style, 1), 0.0f);
+
+    for (final float value : expected) {
+      assertTrue("Sigmoid output " + value, value >= 0.0f && value <= 1.0f);
+    }
+  }
+
+  @Test
+  public void matchesRecordedOutput() throws IOException {
+    final StyleNetwork network = TestModel.load();
+    final JavaStyleTransferEngine engine = new JavaStyleTransferEngine(network, pool, 2);
+    engine.warmUp(32, 32);
+    engine.setStyle(TestModel.style(network, 0));
+    final PixelTensorCodec codec = TestModel.createImage(32, 32, 1);
+    engine.stylize(codec);
+
+    // Recorded from this engine, so that changes to how it computes the network which change
+    // what it computes are caught. The tolerance allows for Math.exp differing between JVMs.
+    final int[] pixels = {0, 31, 16 * 32 + 16, 32 * 32 - 1};
+    final float[][] expected = {
+      {0.826912f, 0.675497f, 0.447178f},
+      {0.082989f, 0.231559f, 0.233746f},
+      {0.797000f, 0.683898f, 0.479129f},
+      {0.242005f, 0.300524f, 0.448906f}
+    };
+    for (int i = 0; i < pixels.length; ++i) {
+      for (int c = 0; c < 3; ++c) {
+        assertEquals(
+            "Pixel " + pixels[i], expected[i][c],
+            codec.getValue(codec.getTensorIndex(pixels[i], c)), 1e-5f);
+      }
+    }
+  }
+
+  @Test
+  public void outputDependsOnlyOnTheInputAndStyle() throws IOException {
+    final StyleNetwork network = TestModel.load();
+    final JavaStyleTransferEngine engine = new JavaStyleTransferEngine(network, pool, 2);
+    engine.warmUp(WIDTH, HEIGHT);
+    final float[] style = TestModel.style(network, 0);
+    final float[] first = stylize(engine, style, 2);
+
+    // Another size and another style in between must leave nothing behind.
+    engine.warmUp(32, 32);
+    final float[] other = stylize(engine, TestModel.style(network, 1), 2);
+    assertArrayEquals(first, stylize(engine, style, 2), 0.0f);
+    assertFalse(Arrays.equals(first, other));
+  }
+
+  @Test
+  public void batchMatchesStylizingEachStyle() throws IOException {
+    final StyleNetwork network = TestModel.load();
+    final JavaStyleTransferEngine engine = new JavaStyleTransferEngine(network, pool, 2);
+    engine.warmUp(WIDTH, HEIGHT);
+    final float[] mix = new float[network.getNumStyles()];
+    mix[3] = 0.25f;
+    mix[17] = 0.75f;
+    final float[][] styles = {TestModel.style(network, 2), mix, TestModel.style(network, 9)};
+
+    final PixelTensorCodec input = TestModel.createImage(WIDTH, HEIGHT, 4);
+    final PixelTensorCodec[] outputs = new PixelTensorCodec[styles.length];
+    for (int i = 0; i < outputs.length; ++i) {
+      outputs[i] = new PixelTensorCodec(WIDTH, HEIGHT, PixelTensorCodec.Layout.NHWC);
+    }
+    engine.setStyle(TestModel.style(network, 0));
+    engine.stylizeBatch(input, styles, outputs);
+    // The input is left unchanged.
+    assertArrayEquals(
+        TestModel.values(TestModel.createImage(WIDTH, HEIGHT, 4)), TestModel.values(input), 0.0f);
+
+    for (int i = 0; i < styles.length; ++i) {
+      assertArrayEquals(
+          "Style " + i, stylize(engine, styles[i], 4), TestModel.values(outputs[i]), 1e-6f);
+    }
+  }
+
+  @Test
+  public void batchLeavesTheStyleUnchanged() throws IOException {
+    final StyleNetwork network = TestModel.load();
+    final JavaStyleTransferEngine engine = new JavaStyleTransferEngine(network, pool, 1);
+    engine.warmUp(WIDTH, HEIGHT);
+    final float[] style = TestModel.style(network, 6);
+    final float[] expected = stylize(engine, style, 5);
+
+    final PixelTensorCodec[] outputs = {
+      new PixelTensorCodec(WIDTH, HEIGHT, PixelTensorCodec.Layout.NHWC)
+    };
+    engine.stylizeBatch(
+        TestModel.createImage(WIDTH, HEIGHT, 5), new float[][] {TestModel.style(network, 7)},
+        outputs);
+    final PixelTensorCodec codec = TestModel.createImage(WIDTH, HEIGHT, 5);
+    engine.stylize(codec);
+    assertArrayEquals(expected, TestModel.values(codec), 0.0f);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void stylizeNeedsAWarmUpForTheSize() throws IOException {
+    final JavaStyleTransferEngine engine =
+        new JavaStyleTransferEngine(TestModel.load(), pool, 1);
+    engine.stylize(TestModel.createImage(WIDTH, HEIGHT, 0));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void warmUpRejectsSizesTheNetworkChanges() throws IOException {
+    new JavaStyleTransferEngine(TestModel.load(), pool, 1).warmUp(WIDTH + 1, HEIGHT);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void setStyleRejectsTheWrongNumberOfStyles() throws IOException {
+    new JavaStyleTransferEngine(TestModel.load(), pool, 1).setStyle(new float[3]);
+  }
+}
@@ -0,0 +1,111 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.stylize;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StyleParameterCacheTest {
+  private StyleNetwork network;
+
+  @Before
+  public void setUp() throws IOException {
+    network = TestModel.load();
+  }
+
+  private float[] mix(final int first, final float firstWeight, final int second) {
+    final float[] style = new float[network.getNumStyles()];
+    style[first] = firstWeight;
+    style[second] = 1.0f - firstWeight;
+    return style;
+  }
+
+  @Test
+  public void blendsTheWeightedStyles() {
+    final StyleParameterCache cache = new StyleParameterCache(network, 4);
+    final StyleParameterCache.Parameters parameters = cache.get(mix(3, 0.25f, 7));
+
+    for (int i = 0; i < network.getLayers().size(); ++i) {
+      final StyleNetwork.Layer layer = network.getLayers().get(i);
+      final int channels = layer.outputChannels;
+      for (int c = 0; c < channels; ++c) {
+        assertEquals(
+            0.25f * layer.gamma[3 * channels + c] + 0.75f * layer.gamma[7 * channels + c],
+            parameters.gamma[i][c], 1e-5f);
+        assertEquals(
+            0.25f * layer.beta[3 * channels + c] + 0.75f * layer.beta[7 * channels + c],
+            parameters.beta[i][c], 1e-5f);
+      }
+    }
+  }
+
+  @Test
+  public void aSingleStyleGetsItsOwnParameters() {
+    final StyleParameterCache.Parameters parameters =
+        new StyleParameterCache(network, 4).get(TestModel.style(network, 11));
+    final StyleNetwork.Layer layer = network.getLayers().get(0);
+    final int channels = layer.outputChannels;
+    final float[] gamma = new float[channels];
+    System.arraycopy(layer.gamma, 11 * channels, gamma, 0, channels);
+    assertArrayEquals(gamma, parameters.gamma[0], 0.0f);
+  }
+
+  @Test
+  public void mixesWhichRoundAlikeShareAnEntry() {
+    final StyleParameterCache cache = new StyleParameterCache(network, 4);
+    final float step = 1.0f / StyleParameterCache.QUANTIZATION_STEPS;
+    final StyleParameterCache.Parameters parameters = cache.get(mix(0, 0.5f, 1));
+    assertSame(parameters, cache.get(mix(0, 0.5f + 0.1f * step, 1)));
+    assertNotSame(parameters, cache.get(mix(0, 0.5f + step, 1)));
+    assertEquals("1 hits, 2 misses, 2 cached", cache.toString());
+  }
+
+  @Test
+  public void evictsTheLeastRecentlyUsedMix() {
+    final StyleParameterCache cache = new StyleParameterCache(network, 2);
+    final StyleParameterCache.Parameters first = cache.get(TestModel.style(network, 0));
+    final StyleParameterCache.Parameters second = cache.get(TestModel.style(network, 1));
+    assertSame(first, cache.get(TestModel.style(network, 0)));
+    cache.get(TestModel.style(network, 2));
+
+    assertSame(first, cache.get(TestModel.style(network, 0)));
+    assertNotSame(second, cache.get(TestModel.style(network, 1)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void rejectsTheWrongNumberOfStyles() {
+    new StyleParameterCache(network, 1).get(new float[2]);
+  }
+
+  @Test
+  public void normalizesWeightsToSumToOne() {
+    final float[] weights = {1.0f, 0.0f, 3.0f};
+    assertFalse(StyleParameterCache.normalize(weights, weights));
+    assertArrayEquals(new float[] {0.25f, 0.0f, 0.75f}, weights, 1e-6f);
+
+    final float[] styleValues = new float[4];
+    assertTrue(StyleParameterCache.normalize(new float[4], styleValues));
+    assertArrayEquals(new float[] {0.25f, 0.25f, 0.25f, 0.25f}, styleValues, 0.0f);
+  }
+}
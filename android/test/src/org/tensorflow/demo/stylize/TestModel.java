@@ -0,0 +1,135 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.stylize;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.Assume;
+import org.tensorflow.demo.env.PixelTensorCodec;
+
+/** Networks and test images for the engine tests. */
+final class TestModel {
+  // Gradle runs the tests from the project directory.
+  private static final File MODEL = new File("assets/stylize_quantized.pb");
+
+  private static StyleNetwork network;
+
+  private TestModel() {}
+
+  /** Returns the network, skipping the calling test if the model isn't there. */
+  static synchronized StyleNetwork load() throws IOException {
+    Assume.assumeTrue(MODEL.exists());
+    if (network == null) {
+      network = StyleNetwork.fromGraph(GraphDef.parse(Files.readAllBytes(MODEL.toPath())));
+    }
+    return network;
+  }
+
+  /**
+   * Returns a random network shaped like the app's, but with 3x3 kernels, a single residual block
+   * and a few channels, which is small and fast enough to run on large images in tests.
+   */
+  static StyleNetwork createSmallNetwork(final int numStyles, final long seed) {
+    final Random random = new Random(seed);
+    final List<StyleNetwork.Layer> layers = new ArrayList<StyleNetwork.Layer>();
+    layers.add(createLayer(random, "contract/conv1", 1, 1, 3, 4, numStyles, false, false));
+    layers.add(createLayer(random, "contract/conv2", 1, 2, 4, 8, numStyles, false, false));
+    layers.add(createLayer(random, "contract/conv3", 1, 2, 8, 8, numStyles, false, false));
+    layers.add(createLayer(random, "residual1/conv1", 1, 1, 8, 8, numStyles, true, false));
+    layers.add(createLayer(random, "residual1/conv2", 1, 1, 8, 8, numStyles, false, true));
+    layers.add(createLayer(random, "expand/conv1", 2, 1, 8, 4, numStyles, false, false));
+    layers.add(createLayer(random, "expand/conv2", 2, 1, 4, 4, numStyles, false, false));
+    layers.add(createLayer(random, "expand/conv3", 1, 1, 4, 3, numStyles, false, false));
+    return new StyleNetwork(layers, numStyles);
+  }
+
+  private static StyleNetwork.Layer createLayer(
+      final Random random,
+      final String name,
+      final int upsample,
+      final int stride,
+      final int inputChannels,
+      final int outputChannels,
+      final int numStyles,
+      final boolean startsResidual,
+      final boolean endsResidual) {
+    final float[] weights = new float[3 * 3 * inputChannels * outputChannels];
+    final double deviation = Math.sqrt(2.0 / (3 * 3 * inputChannels));
+    for (int i = 0; i < weights.length; ++i) {
+      weights[i] = (float) (random.nextGaussian() * deviation);
+    }
+    final float[] gamma = new float[numStyles * outputChannels];
+    final float[] beta = new float[numStyles * outputChannels];
+    for (int i = 0; i < gamma.length; ++i) {
+      gamma[i] = 0.5f + random.nextFloat();
+      beta[i] = (float) (random.nextGaussian() * 0.5);
+    }
+    final StyleNetwork.Activation activation =
+        endsResidual
+            ? StyleNetwork.Activation.NONE
+            : outputChannels == 3 ? StyleNetwork.Activation.SIGMOID : StyleNetwork.Activation.RELU;
+    return new StyleNetwork.Layer(
+        name, upsample, 1, 3, stride, inputChannels, outputChannels, weights, gamma, beta, 1e-5f,
+        activation, startsResidual, endsResidual);
+  }
+
+  /** Returns a codec holding a smooth random image, which keeps the activations realistic. */
+  static PixelTensorCodec createImage(final int width, final int height, final long seed) {
+    final Random random = new Random(seed);
+    final int[] corners = new int[12];
+    for (int i = 0; i < corners.length; ++i) {
+      corners[i] = random.nextInt(256);
+    }
+    final PixelTensorCodec codec =
+        new PixelTensorCodec(width, height, PixelTensorCodec.Layout.NHWC);
+    for (int y = 0; y < height; ++y) {
+      for (int x = 0; x < width; ++x) {
+        int argb = 0xFF000000;
+        for (int c = 0; c < 3; ++c) {
+          final float fx = x / (float) width;
+          final float fy = y / (float) height;
+          final float value =
+              corners[c] * (1 - fx) * (1 - fy) + corners[3 + c] * fx * (1 - fy)
+                  + corners[6 + c] * (1 - fx) * fy + corners[9 + c] * fx * fy;
+          final int channel = Math.min(255, Math.max(0, (int) value + random.nextInt(9) - 4));
+          argb |= channel << (16 - 8 * c);
+        }
+        codec.setPixel(y * width + x, argb);
+      }
+    }
+    return codec;
+  }
+
+  /** Returns a copy of the codec's tensor values. */
+  static float[] values(final PixelTensorCodec codec) {
+    final float[] values = new float[codec.getWidth() * codec.getHeight() * 3];
+    for (int i = 0; i < values.length; ++i) {
+      values[i] = codec.getValue(i);
+    }
+    return values;
+  }
+
+  /** Returns a one-hot style vector. */
+  static float[] style(final StyleNetwork network, final int index) {
+    final float[] style = new float[network.getNumStyles()];
+    style[index] = 1.0f;
+    return style;
+  }
+}
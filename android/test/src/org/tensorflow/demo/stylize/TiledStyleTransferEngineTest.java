@@ -0,0 +1,171 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.stylize;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.ForkJoinPool;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.tensorflow.demo.env.PixelTensorCodec;
+
+/**
+ * Compares tiled inference with stylizing in one piece, on a small random network whose receptive
+ * radius of 16 makes 96 pixels the smallest tile.
+ */
+public class TiledStyleTransferEngineTest {
+  private static final int TILE_SIZE = 96;
+  private static final int MAX_DIRECT_SIZE = 64;
+
+  // Split into 3 columns and 2 rows of tiles.
+  private static final int WIDTH = 160;
+  private static final int HEIGHT = 120;
+
+  private static ForkJoinPool pool;
+  private static StyleNetwork network;
+
+  @BeforeClass
+  public static void setUp() {
+    pool = new ForkJoinPool(2);
+    network = TestModel.createSmallNetwork(2, 1);
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    pool.shutdown();
+  }
+
+  private static float[] stylizeInOnePiece(final int width, final int height, final long seed) {
+    final JavaStyleTransferEngine engine = new JavaStyleTransferEngine(network, pool, 1);
+    engine.warmUp(width, height);
+    engine.setStyle(TestModel.style(network, 1));
+    final PixelTensorCodec codec = TestModel.createImage(width, height, seed);
+    engine.stylize(codec);
+    return TestModel.values(codec);
+  }
+
+  private static float[] stylize(
+      final TiledStyleTransferEngine engine, final int width, final int height, final long seed) {
+    final PixelTensorCodec codec = TestModel.createImage(width, height, seed);
+    engine.stylize(codec);
+    return TestModel.values(codec);
+  }
+
+  private static TiledStyleTransferEngine createEngine(final int width, final int height) {
+    final TiledStyleTransferEngine engine =
+        new TiledStyleTransferEngine(network, pool, MAX_DIRECT_SIZE, TILE_SIZE, 2);
+    engine.setStyle(TestModel.style(network, 1));
+    engine.warmUp(width, height);
+    return engine;
+  }
+
+  @Test
+  public void onePassPerLayerMatchesStylizingInOnePiece() {
+    final TiledStyleTransferEngine engine = createEngine(WIDTH, HEIGHT);
+    assertEquals(6, engine.getNumTiles(WIDTH, HEIGHT));
+    engine.setStatisticsPasses(network.getLayers().size());
+    assertArrayEquals(
+        stylizeInOnePiece(WIDTH, HEIGHT, 3), stylize(engine, WIDTH, HEIGHT, 3), 1e-5f);
+  }
+
+  @Test
+  public void errorStaysBoundedAcrossFramesOfAStaticInput() {
+    final TiledStyleTransferEngine engine = createEngine(WIDTH, HEIGHT);
+    final float[] expected = stylizeInOnePiece(WIDTH, HEIGHT, 3);
+    final float[] first = stylize(engine, WIDTH, HEIGHT, 3);
+    for (int frame = 1; frame < 10; ++frame) {
+      // Each frame is normalized per tile, from nothing but the frame itself.
+      assertArrayEquals("Frame " + frame, first, stylize(engine, WIDTH, HEIGHT, 3), 0.0f);
+    }
+
+    // Per tile statistics are off by how much the tiles' contents differ from the whole image's,
+    // which with tiles this small and a random network is a lot, but no more than that.
+    double errorSum = 0.0;
+    for (int i = 0; i < expected.length; ++i) {
+      errorSum += Math.abs(first[i] - expected[i]);
+    }
+    assertTrue("Mean error " + errorSum / expected.length, errorSum / expected.length < 0.15);
+  }
+
+  @Test
+  public void smallImagesAreStylizedInOnePiece() {
+    final TiledStyleTransferEngine engine = createEngine(MAX_DIRECT_SIZE, 48);
+    assertEquals(1, engine.getNumTiles(MAX_DIRECT_SIZE, 48));
+    assertArrayEquals(
+        stylizeInOnePiece(MAX_DIRECT_SIZE, 48, 4), stylize(engine, MAX_DIRECT_SIZE, 48, 4), 0.0f);
+  }
+
+  @Test
+  public void regionsMatchTheLatestWholeImage() {
+    final int layers = network.getLayers().size();
+    for (final int[] size :
+        new int[][] {{MAX_DIRECT_SIZE, 48, layers}, {WIDTH, HEIGHT, layers}, {WIDTH, HEIGHT, 0}}) {
+      final int width = size[0];
+      final int height = size[1];
+      final TiledStyleTransferEngine engine = createEngine(width, height);
+      engine.setStatisticsPasses(size[2]);
+      final float[] expected = stylize(engine, width, height, 5);
+
+      // The region is normalized as the whole image was, either in a window wide enough for its
+      // pixels not to see the window's edges or in the tiles covering it.
+      final PixelTensorCodec codec = TestModel.createImage(width, height, 5);
+      engine.stylizeRegion(codec, 24, 20, 40, 28);
+      final float[] actual = TestModel.values(codec);
+      for (int y = 20; y < 28; ++y) {
+        for (int x = 24; x < 40; ++x) {
+          for (int c = 0; c < 3; ++c) {
+            final int index = (y * width + x) * 3 + c;
+            assertEquals(
+                width + "x" + height + ", " + size[2] + " passes", expected[index], actual[index],
+                1e-5f);
+          }
+        }
+      }
+    }
+  }
+
+  @Test
+  public void regionsOfSizesNotYetStylizedAreStylizedWhole() {
+    final TiledStyleTransferEngine engine = createEngine(MAX_DIRECT_SIZE, 48);
+    final PixelTensorCodec codec = TestModel.createImage(MAX_DIRECT_SIZE, 48, 6);
+    engine.stylizeRegion(codec, 24, 20, 40, 28);
+    assertArrayEquals(
+        stylizeInOnePiece(MAX_DIRECT_SIZE, 48, 6), TestModel.values(codec), 0.0f);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void stylizeNeedsAWarmUpForTheSize() {
+    final TiledStyleTransferEngine engine = createEngine(WIDTH, HEIGHT);
+    stylize(engine, WIDTH + 4, HEIGHT, 0);
+  }
+
+  @Test
+  public void rejectsTilesTheOverlapDoesNotFit() {
+    // The network only supports multiples of 4, and tiles overlap by 48 pixels.
+    for (final int tileSize : new int[] {92, 98}) {
+      try {
+        new TiledStyleTransferEngine(network, pool, MAX_DIRECT_SIZE, tileSize, 1);
+        fail("Accepted tile size " + tileSize);
+      } catch (final IllegalArgumentException e) {
+        // Expected.
+      }
+    }
+  }
+}
@@ -0,0 +1,135 @@
+/* Copyright 2017 The TensorFlow Authors. All Rights Reserved.
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+==============================================================================*/
+
+package org.tensorflow.demo.tracking;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/** Feeds keypoints moved by known motions, without the native tracker. */
+public class TemporalReuseTest {
+  private static final int WIDTH = 640;
+  private static final int HEIGHT = 480;
+
+  private static final float[] IDENTITY = {1.0f, 0.0f, 0.0f, 0.0f, 1.0f, 0.0f};
+
+  /** Returns keypoints on a 6x5 grid, moved by the given motion. */
+  private static float[] keypoints(final float[] motion) {
+    final float[] keypoints = new float[6 * 5 * ObjectTracker.KEYPOINT_STEP];
+    for (int i = 0; i < 6 * 5; ++i) {
+      final float x = 50.0f + 100.0f * (i % 6);
+      final float y = 40.0f + 100.0f * (i / 6);
+      final int base = i * ObjectTracker.KEYPOINT_STEP;
+      keypoints[base] = x;
+      keypoints[base + 1] = y;
+      keypoints[base + 2] = 1.0f;
+      keypoints[base + 3] = motion[0] * x + motion[1] * y + motion[2];
+      keypoints[base + 4] = motion[3] * x + motion[4] * y + motion[5];
+      keypoints[base + 5] = 1.0f;
+    }
+    return keypoints;
+  }
+
+  private static float[] translation(final float dx, final float dy) {
+    return new float[] {1.0f, 0.0f, dx, 0.0f, 1.0f, dy};
+  }
+
+  /** Returns reuse whose first frame is a keyframe, as the tracker has no flow for it. */
+  private static TemporalReuse createReuse(final int refreshInterval, final float maxDrift) {
+    final TemporalReuse reuse = new TemporalReuse(null, WIDTH, HEIGHT, refreshInterval, maxDrift);
+    assertTrue(reuse.nextFrame(null));
+    return reuse;
+  }
+
+  @Test
+  public void fitsTheMotionWithoutKeypointsThatMoveOnTheirOwn() {
+    final TemporalReuse reuse = createReuse(10, 0.5f);
+    final float angle = 0.02f;
+    final float[] motion = {
+      (float) Math.cos(angle), (float) -Math.sin(angle), 6.0f,
+      (float) Math.sin(angle), (float) Math.cos(angle), -4.0f
+    };
+    final float[] keypoints = keypoints(motion);
+    // Three keypoints follow something moving across the view.
+    for (int i = 0; i < 3; ++i) {
+      keypoints[(7 * i) * ObjectTracker.KEYPOINT_STEP + 3] += 40.0f;
+    }
+
+    assertFalse(reuse.nextFrame(keypoints));
+    final float[] pose = new float[6];
+    reuse.getPose(pose);
+    assertArrayEquals(motion, pose, 1e-3f);
+    assertEquals(1, reuse.getSegment());
+  }
+
+  @Test
+  public void chainsTheMotionOfEveryFrame() {
+    final TemporalReuse reuse = createReuse(10, 0.5f);
+    assertFalse(reuse.nextFrame(keypoints(translation(3.0f, 0.0f))));
+    assertFalse(reuse.nextFrame(keypoints(translation(0.0f, -2.0f))));
+    final float[] pose = new float[6];
+    reuse.getPose(pose);
+    assertArrayEquals(translation(3.0f, -2.0f), pose, 1e-3f);
+  }
+
+  @Test
+  public void startsASegmentWhenTrackIsLost() {
+    final TemporalReuse reuse = createReuse(10, 0.5f);
+    assertFalse(reuse.nextFrame(keypoints(translation(3.0f, 0.0f))));
+
+    // Too few keypoints to fit the motion to.
+    final float[] keypoints = keypoints(translation(3.0f, 0.0f));
+    final float[] few = new float[11 * ObjectTracker.KEYPOINT_STEP];
+    System.arraycopy(keypoints, 0, few, 0, few.length);
+    assertTrue(reuse.nextFrame(few));
+    assertEquals(2, reuse.getSegment());
+
+    final float[] pose = new float[6];
+    reuse.getPose(pose);
+    assertArrayEquals(IDENTITY, pose, 0.0f);
+  }
+
+  @Test
+  public void stylizesOnceTheViewMovesTooFar() {
+    // A drift of 0.1 is 48 pixels of the frame's shorter side.
+    final TemporalReuse reuse = createReuse(100, 0.1f);
+    for (int i = 1; i <= 4; ++i) {
+      assertFalse("Frame " + i, reuse.nextFrame(keypoints(translation(10.0f, 0.0f))));
+    }
+    assertTrue(reuse.nextFrame(keypoints(translation(10.0f, 0.0f))));
+    // The drift counts from the new keyframe.
+    assertFalse(reuse.nextFrame(keypoints(translation(10.0f, 0.0f))));
+  }
+
+  @Test
+  public void stylizesEveryRefreshIntervalAndWhenRequested() {
+    final TemporalReuse reuse = createReuse(3, 0.5f);
+    final float[] still = keypoints(IDENTITY);
+    assertFalse(reuse.nextFrame(still));
+    assertFalse(reuse.nextFrame(still));
+    assertTrue(reuse.nextFrame(still));
+
+    reuse.requestRefresh();
+    assertTrue(reuse.nextFrame(still));
+    assertFalse(reuse.nextFrame(still));
+    assertTrue(
+        reuse.toString(),
+        reuse.toString().endsWith("1 scheduled, 0 drifted, 1 lost, 1 requested"));
+  }
+}